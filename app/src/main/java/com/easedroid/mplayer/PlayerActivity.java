@@ -1,17 +1,27 @@
 package com.easedroid.mplayer;
 
 import android.app.Activity;
-import android.media.MediaPlayer;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.FrameLayout;
+import com.easedroid.mplayer.core.ArrayPlaylistSource;
+import com.easedroid.mplayer.core.PlayerEngine;
+import com.easedroid.mplayer.io.PositionJournal;
+import com.easedroid.mplayer.mp4.FaststartJob;
+import com.easedroid.mplayer.mp4.FaststartRewriter;
+import com.easedroid.mplayer.mp4.MediaInfoIndex;
 import com.easedroid.mplayer.widgets.StrongPlayerView;
 
+import java.io.File;
+import java.io.IOException;
+
 public class PlayerActivity extends Activity {
 
     private static final String TAG = "PlayerActivity";
     private FrameLayout containerView;
     private StrongPlayerView playerView;
+    private PositionJournal journal;
+    private MediaInfoIndex mediaIndex;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -20,6 +30,14 @@ public class PlayerActivity extends Activity {
         containerView = (FrameLayout) findViewById(R.id.id_surface_container);
         playerView = new StrongPlayerView();
         playerView.initView(this, containerView);
+        mediaIndex = new MediaInfoIndex(new File(getCacheDir(), "media.index"));
+        playerView.setMediaInfoIndex(mediaIndex);
+        try {
+            journal = new PositionJournal(new File(getFilesDir(), "position.journal"));
+            playerView.setPositionJournal(journal);
+        } catch (IOException e) {
+            Log.w(TAG, "position journal unavailable, playback will start from the beginning", e);
+        }
     }
 
     @Override
@@ -30,32 +48,49 @@ public class PlayerActivity extends Activity {
 
     private void startPlayerVideo(final StrongPlayerView player) {
         String playUrl = getPlayUrl();
-        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+        // 引擎可能不是MediaPlayer,用引擎回调接收事件
+        player.setOnPlayerEventListener(new StrongPlayerView.OnPlayerEventListener() {
             @Override
-            public void onCompletion(MediaPlayer mp) {
-                Log.d("bin.jing", "mp --->" + mp.hashCode());
+            public void onPrepared(PlayerEngine engine) {
+                player.start();
             }
-        });
-        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+
             @Override
-            public void onPrepared(MediaPlayer mp) {
-                player.start();
+            public void onCompletion(PlayerEngine engine) {
+                Log.d("bin.jing", "mp --->" + engine.hashCode());
             }
-        });
-        player.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+
             @Override
-            public boolean onInfo(MediaPlayer mp, int what, int extra) {
-                if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START) {
+            public void onError(PlayerEngine engine, int what, int extra) {
+            }
+
+            @Override
+            public void onInfo(PlayerEngine engine, int what, int extra) {
+                if (what == PlayerEngine.MEDIA_INFO_VIDEO_RENDERING_START) {
                     Log.d(TAG, "start video rendering");
                 }
-                return false;
+            }
+
+            @Override
+            public void onBufferingUpdate(PlayerEngine engine, int percent) {
             }
         });
         if (playUrl == null) return;
-        player.setPlayList(new String[]{
+        player.resumePlayList(new ArrayPlaylistSource(new String[]{
                 "/storage/sdcard/vod/demo.mp4",
                 "/storage/sdcard/vod/demo_1.mp4",
                 "/storage/sdcard/vod/demo_2.mp4"
+        }), "demo");
+        player.optimizePlayList(new FaststartJob.Listener() {
+            @Override
+            public void onFile(FaststartRewriter.Result result) {
+                Log.d(TAG, "faststart " + result);
+            }
+
+            @Override
+            public void onFinished(FaststartJob.Report report) {
+                Log.i(TAG, report.toString());
+            }
         });
     }
 
@@ -67,6 +102,34 @@ public class PlayerActivity extends Activity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        final PositionJournal closing = journal;
+        Runnable closeJournal = new Runnable() {
+            @Override
+            public void run() {
+                if (closing == null) {
+                    return;
+                }
+                try {
+                    closing.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to close position journal", e);
+                }
+            }
+        };
+        if (playerView != null) {
+            // 停止时还会记录一次位置,在事件线程中记录之后再关闭日志
+            playerView.destroy(closeJournal);
+        } else {
+            closeJournal.run();
+        }
+        if (mediaIndex != null) {
+            mediaIndex.shutdown();
+        }
+    }
+
     private String getPlayUrl() {
         return "/sdcard/vod/demo.mp4";
     }
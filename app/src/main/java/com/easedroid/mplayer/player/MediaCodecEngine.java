@@ -0,0 +1,931 @@
+package com.easedroid.mplayer.player;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.easedroid.mplayer.core.PlayerEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：MediaCodecEngine    <br/>
+ * 类描述：基于MediaExtractor和MediaCodec的PlayerEngine实现.播放结束或解除显示时解码器只flush不release,
+ * 放回MediaCodecPool,格式和surface相同的下一个视频直接使用,切换时没有创建和配置解码器的开销.
+ * 格式变化导致不能复用时通过OnFallbackListener报告.解码在每个播放器自己的线程上进行,
+ * 视频按系统时钟显示,音频写入AudioTrack<br/>
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class MediaCodecEngine implements PlayerEngine {
+
+    private static final String TAG = "MediaCodecEngine";
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_PREPARING = 1;
+    private static final int STATE_PREPARED = 2;
+    private static final int STATE_STARTED = 3;
+    private static final int STATE_PAUSED = 4;
+    private static final int STATE_STOPPED = 5;
+    private static final int STATE_COMPLETED = 6;
+    private static final int STATE_ERROR = 7;
+    private static final int STATE_RELEASED = 8;
+
+    // 没有进展时下一次检查的间隔
+    private static final long IDLE_STEP_US = 5000;
+    // 比播放时钟早到这个时间以内的帧立即显示
+    private static final long RENDER_EARLY_US = 5000;
+    // 晚于播放时钟超过这个时间的帧直接丢弃
+    private static final long DROP_LATE_US = 40000;
+    private static final long CALL_TIMEOUT_MS = 1000;
+
+    /**
+     * 解码器因为格式变化不能复用时回调,在创建播放器的线程上调用.
+     */
+    public interface OnFallbackListener {
+        /**
+         * @param path           正在打开的视频
+         * @param previousFormat surface上原有解码器的格式
+         * @param format         新视频的格式,需要为它重新创建解码器
+         */
+        void onFallback(String path, String previousFormat, String format);
+    }
+
+    public static class Factory implements PlayerEngine.Factory {
+        private final Context mContext;
+        private final MediaCodecPool mCodecPool;
+        private final MediaPlayerEngine.Factory mFallbackFactory;
+        private volatile OnFallbackListener mFallbackListener;
+
+        public Factory(Context context) {
+            this(context, MediaCodecPool.getDefault(), MediaPlayerPool.getDefault());
+        }
+
+        /**
+         * @param playerPool 系统版本不支持MediaCodec时使用MediaPlayerEngine,播放器从这个池中获取
+         */
+        public Factory(Context context, MediaCodecPool codecPool, MediaPlayerPool playerPool) {
+            mContext = context;
+            mCodecPool = codecPool;
+            mFallbackFactory = new MediaPlayerEngine.Factory(context, playerPool);
+        }
+
+        public void setOnFallbackListener(OnFallbackListener l) {
+            mFallbackListener = l;
+        }
+
+        public MediaCodecPool getCodecPool() {
+            return mCodecPool;
+        }
+
+        @Override
+        public PlayerEngine create() {
+            if (!isSupported()) {
+                return mFallbackFactory.create();
+            }
+            return new MediaCodecEngine(mContext, mCodecPool, mFallbackListener);
+        }
+    }
+
+    /**
+     * @return 当前系统是否可以使用MediaCodecEngine
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    private final Context mContext;
+    private final MediaCodecPool mCodecPool;
+    private final OnFallbackListener mFallbackListener;
+    private final HandlerThread mWorkerThread;
+    private final Handler mWorker;
+    // 回调发送到创建播放器的线程,和MediaPlayer一致
+    private final Handler mCallbackHandler;
+    private volatile Listener mListener;
+
+    private String mPath;
+    private Map<String, String> mHeaders;
+
+    // 以下只在解码线程读写
+    private int mState = STATE_IDLE;
+    private Track mVideo;
+    private Track mAudio;
+    private Surface mSurface;
+    private AudioTrack mAudioOut;
+    private int mAudioFrameSize;
+    private int mAudioBufferSize;
+    private long mAudioWrittenBytes;
+    private byte[] mAudioChunk;
+    // 暂停时解码一帧显示出来
+    private boolean mPreroll;
+    private boolean mRenderingStarted;
+    private long mWaitUs;
+
+    // 播放时钟:mPlaying时为mClockBaseUs加上从mClockStartNanos开始经过的时间
+    private volatile boolean mPlaying;
+    private volatile long mClockBaseUs;
+    private volatile long mClockStartNanos;
+    private volatile int mDurationMs;
+    private volatile int mVideoWidth;
+    private volatile int mVideoHeight;
+
+    public MediaCodecEngine(Context context, MediaCodecPool codecPool, OnFallbackListener fallbackListener) {
+        mContext = context;
+        mCodecPool = codecPool;
+        mFallbackListener = fallbackListener;
+        Looper looper = Looper.myLooper();
+        mCallbackHandler = new Handler(looper != null ? looper : Looper.getMainLooper());
+        mWorkerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mWorkerThread.start();
+        mWorker = new Handler(mWorkerThread.getLooper());
+    }
+
+    /**
+     * 一个轨道的解码状态,只在解码线程使用
+     */
+    private final class Track {
+        final MediaExtractor extractor;
+        final MediaFormat format;
+        final boolean video;
+        final String key;
+        MediaCodec codec;
+        Surface surface;
+        ByteBuffer[] inputBuffers;
+        ByteBuffer[] outputBuffers;
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        // 已经取出、等待显示或写入的输出缓冲区
+        int pendingOutput = -1;
+        int pendingOffset;
+        boolean inputDone;
+        boolean outputDone;
+        // seek之后早于目标位置的帧不输出
+        long dropBeforeUs;
+
+        Track(MediaExtractor extractor, MediaFormat format, boolean video) {
+            this.extractor = extractor;
+            this.format = format;
+            this.video = video;
+            this.key = formatKey(format, video);
+        }
+
+        boolean feed() {
+            boolean progress = false;
+            while (!inputDone) {
+                int index = codec.dequeueInputBuffer(0);
+                if (index < 0) {
+                    break;
+                }
+                ByteBuffer buffer = inputBuffers[index];
+                buffer.clear();
+                int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) {
+                    codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    inputDone = true;
+                } else {
+                    codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                    extractor.advance();
+                }
+                progress = true;
+            }
+            return progress;
+        }
+
+        /**
+         * 复用的解码器可能是用其他参数集配置的,flush之后重新送入这个视频的codec specific data
+         */
+        void queueCodecConfig() {
+            for (String name : new String[]{"csd-0", "csd-1"}) {
+                ByteBuffer csd = format.containsKey(name) ? format.getByteBuffer(name) : null;
+                if (csd == null) {
+                    continue;
+                }
+                int index = codec.dequeueInputBuffer(10000);
+                if (index < 0) {
+                    return;
+                }
+                ByteBuffer buffer = inputBuffers[index];
+                buffer.clear();
+                csd.rewind();
+                buffer.put(csd);
+                codec.queueInputBuffer(index, 0, csd.limit(), 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+            }
+        }
+
+        void seek(long positionUs) {
+            extractor.seekTo(positionUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            dropBeforeUs = positionUs;
+            inputDone = false;
+            outputDone = false;
+            if (codec != null) {
+                codec.flush();
+                pendingOutput = -1;
+            }
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setDataSource(String path, Map<String, String> headers) throws IOException {
+        mPath = path;
+        mHeaders = headers;
+    }
+
+    @Override
+    public void setDisplay(Object display) {
+        final Surface surface = display instanceof SurfaceHolder
+                ? ((SurfaceHolder) display).getSurface() : (Surface) display;
+        // 同步执行:切换时旧播放器解除显示后解码器已经回到池中,下一个播放器马上可以取用
+        callAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if (surface == mSurface) {
+                    return;
+                }
+                if (mVideo != null) {
+                    recycleCodec(mVideo);
+                }
+                mSurface = surface;
+                if (surface != null && mPlaying) {
+                    resume();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void prepareAsync() {
+        final String path = mPath;
+        final Map<String, String> headers = mHeaders;
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState != STATE_IDLE) {
+                    return;
+                }
+                mState = STATE_PREPARING;
+                prepare(path, headers);
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState == STATE_COMPLETED) {
+                    seekInternal(0);
+                } else if (mState != STATE_PREPARED && mState != STATE_PAUSED) {
+                    return;
+                }
+                mState = STATE_STARTED;
+                mClockStartNanos = System.nanoTime();
+                mPlaying = true;
+                resume();
+            }
+        });
+    }
+
+    @Override
+    public void pause() {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState == STATE_STARTED) {
+                    halt();
+                    mState = STATE_PAUSED;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState != STATE_RELEASED && mState != STATE_ERROR) {
+                    halt();
+                    mState = STATE_STOPPED;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void seekTo(final int millisSec) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState < STATE_PREPARED || (mState >= STATE_STOPPED && mState != STATE_COMPLETED)) {
+                    return;
+                }
+                if (mState == STATE_COMPLETED) {
+                    mState = STATE_PAUSED;
+                }
+                seekInternal(millisSec * 1000L);
+                if (!mPlaying && mVideo != null && mSurface != null) {
+                    // 和MediaPlayer一样,暂停时seek会显示目标位置的画面
+                    try {
+                        ensureCodec(mVideo, mSurface);
+                        mPreroll = true;
+                        scheduleStep(0);
+                    } catch (IOException | RuntimeException e) {
+                        fail(e);
+                    }
+                } else if (mPlaying) {
+                    scheduleStep(0);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    @Override
+    public int getDuration() {
+        return mDurationMs;
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return (int) Math.min(clockUs() / 1000, mDurationMs);
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return mVideoWidth;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return mVideoHeight;
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        callAndWait(new Runnable() {
+            @Override
+            public void run() {
+                boolean healthy = mState != STATE_ERROR;
+                mState = STATE_RELEASED;
+                mPlaying = false;
+                mWorker.removeCallbacksAndMessages(null);
+                releaseTrack(mVideo, healthy);
+                releaseTrack(mAudio, healthy);
+                mVideo = null;
+                mAudio = null;
+                if (mAudioOut != null) {
+                    mAudioOut.release();
+                    mAudioOut = null;
+                }
+            }
+        });
+        mWorkerThread.quit();
+    }
+
+    private void prepare(String path, Map<String, String> headers) {
+        MediaExtractor videoExtractor = null;
+        MediaExtractor audioExtractor = null;
+        try {
+            Uri uri = Uri.parse(path);
+            videoExtractor = new MediaExtractor();
+            videoExtractor.setDataSource(mContext, uri, headers);
+            int videoIndex = -1;
+            int audioIndex = -1;
+            long durationUs = 0;
+            for (int i = 0; i < videoExtractor.getTrackCount(); i++) {
+                MediaFormat format = videoExtractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null) {
+                    continue;
+                }
+                if (videoIndex < 0 && mime.startsWith("video/")) {
+                    videoIndex = i;
+                } else if (audioIndex < 0 && mime.startsWith("audio/")) {
+                    audioIndex = i;
+                } else {
+                    continue;
+                }
+                if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                    durationUs = Math.max(durationUs, format.getLong(MediaFormat.KEY_DURATION));
+                }
+            }
+            if (videoIndex < 0 && audioIndex < 0) {
+                throw new IOException("no playable track in " + path);
+            }
+            if (audioIndex >= 0) {
+                // 每个轨道一个extractor,音频和视频按各自的进度读取
+                audioExtractor = new MediaExtractor();
+                audioExtractor.setDataSource(mContext, uri, headers);
+                audioExtractor.selectTrack(audioIndex);
+                mAudio = new Track(audioExtractor, audioExtractor.getTrackFormat(audioIndex), false);
+                audioExtractor = null;
+            }
+            if (videoIndex >= 0) {
+                videoExtractor.selectTrack(videoIndex);
+                mVideo = new Track(videoExtractor, videoExtractor.getTrackFormat(videoIndex), true);
+                videoExtractor = null;
+                updateVideoSize(mVideo.format);
+            } else {
+                videoExtractor.release();
+                videoExtractor = null;
+            }
+            mDurationMs = (int) (durationUs / 1000);
+            mState = STATE_PREPARED;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onPrepared(MediaCodecEngine.this);
+                    }
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            if (videoExtractor != null) {
+                videoExtractor.release();
+            }
+            if (audioExtractor != null) {
+                audioExtractor.release();
+            }
+            fail(e);
+        }
+    }
+
+    /**
+     * 开始或继续解码:取得解码器,启动音频输出
+     */
+    private void resume() {
+        try {
+            if (mVideo != null && mSurface != null) {
+                ensureCodec(mVideo, mSurface);
+            }
+            if (mAudio != null) {
+                ensureCodec(mAudio, null);
+                if (mAudioOut != null) {
+                    mAudioOut.play();
+                }
+            }
+            scheduleStep(0);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void halt() {
+        mClockBaseUs = clockUs();
+        mPlaying = false;
+        mPreroll = false;
+        if (mAudioOut != null) {
+            mAudioOut.pause();
+        }
+    }
+
+    private void seekInternal(long positionUs) {
+        mClockBaseUs = positionUs;
+        mClockStartNanos = System.nanoTime();
+        if (mVideo != null) {
+            mVideo.seek(positionUs);
+        }
+        if (mAudio != null) {
+            mAudio.seek(positionUs);
+        }
+        if (mAudioOut != null) {
+            mAudioOut.pause();
+            mAudioOut.flush();
+            mAudioWrittenBytes = 0;
+            if (mPlaying) {
+                mAudioOut.play();
+            }
+        }
+    }
+
+    private void ensureCodec(Track track, Surface surface) throws IOException {
+        if (track.codec != null) {
+            return;
+        }
+        String[] replaced = new String[1];
+        MediaCodec codec = mCodecPool.acquire(track.key, surface, replaced);
+        boolean reused = codec != null;
+        if (!reused) {
+            if (replaced[0] != null) {
+                reportFallback(replaced[0], track.key);
+            }
+            codec = MediaCodec.createDecoderByType(track.format.getString(MediaFormat.KEY_MIME));
+            try {
+                codec.configure(track.format, surface, null, 0);
+                codec.start();
+            } catch (RuntimeException e) {
+                codec.release();
+                throw e;
+            }
+        }
+        track.codec = codec;
+        track.surface = surface;
+        track.inputBuffers = codec.getInputBuffers();
+        track.outputBuffers = codec.getOutputBuffers();
+        track.pendingOutput = -1;
+        // 解码器可能是中途重新取得的,从当前位置的关键帧开始送入
+        track.extractor.seekTo(clockUs(), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        track.dropBeforeUs = clockUs();
+        track.inputDone = false;
+        track.outputDone = false;
+        if (reused) {
+            track.queueCodecConfig();
+        }
+    }
+
+    /**
+     * flush之后放回池中,下一个相同格式的视频直接使用
+     */
+    private void recycleCodec(Track track) {
+        MediaCodec codec = track.codec;
+        if (codec == null) {
+            return;
+        }
+        track.codec = null;
+        track.pendingOutput = -1;
+        try {
+            codec.flush();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "flush failed, releasing codec", e);
+            MediaCodecPool.release(codec);
+            return;
+        }
+        mCodecPool.recycle(codec, track.key, track.surface);
+    }
+
+    private void releaseTrack(Track track, boolean recycle) {
+        if (track == null) {
+            return;
+        }
+        if (recycle) {
+            recycleCodec(track);
+        } else if (track.codec != null) {
+            MediaCodecPool.release(track.codec);
+            track.codec = null;
+        }
+        track.extractor.release();
+    }
+
+    private final Runnable mStep = new Runnable() {
+        @Override
+        public void run() {
+            step();
+        }
+    };
+
+    private void scheduleStep(long delayMs) {
+        mWorker.removeCallbacks(mStep);
+        if (delayMs <= 0) {
+            mWorker.post(mStep);
+        } else {
+            mWorker.postDelayed(mStep, delayMs);
+        }
+    }
+
+    private void step() {
+        if (!mPlaying && !mPreroll) {
+            return;
+        }
+        mWaitUs = IDLE_STEP_US;
+        boolean progress = false;
+        try {
+            boolean videoActive = mVideo != null && mVideo.codec != null;
+            if (videoActive) {
+                progress |= mVideo.feed();
+                progress |= drainVideo(mVideo);
+            }
+            if (mAudio != null && mAudio.codec != null && mPlaying) {
+                progress |= mAudio.feed();
+                progress |= drainAudio(mAudio);
+            }
+            if (mPlaying && (!videoActive || mVideo.outputDone)
+                    && (mAudio == null || mAudio.outputDone)
+                    && (videoActive || mAudio != null || clockUs() >= mDurationMs * 1000L)) {
+                complete();
+                return;
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        if (mPlaying || mPreroll) {
+            scheduleStep(progress ? 0 : Math.max(1, mWaitUs / 1000));
+        }
+    }
+
+    private boolean drainVideo(Track track) {
+        boolean progress = false;
+        MediaCodec codec = track.codec;
+        while (!track.outputDone) {
+            if (track.pendingOutput < 0) {
+                int index = codec.dequeueOutputBuffer(track.info, 0);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    updateVideoSize(codec.getOutputFormat());
+                    continue;
+                } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    continue;
+                } else if (index < 0) {
+                    return progress;
+                }
+                track.pendingOutput = index;
+                progress = true;
+            }
+            MediaCodec.BufferInfo info = track.info;
+            boolean eos = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            boolean render;
+            if (info.size == 0 || info.presentationTimeUs < track.dropBeforeUs) {
+                render = false;
+            } else if (mPreroll) {
+                mPreroll = false;
+                mClockBaseUs = info.presentationTimeUs;
+                render = true;
+            } else if (!mPlaying) {
+                // 暂停时保留这一帧,继续播放时显示
+                return progress;
+            } else {
+                long earlyUs = info.presentationTimeUs - clockUs();
+                if (earlyUs > RENDER_EARLY_US) {
+                    mWaitUs = Math.min(mWaitUs, earlyUs - RENDER_EARLY_US);
+                    return progress;
+                }
+                render = earlyUs > -DROP_LATE_US;
+            }
+            codec.releaseOutputBuffer(track.pendingOutput, render);
+            track.pendingOutput = -1;
+            progress = true;
+            if (render && mPlaying && !mRenderingStarted) {
+                mRenderingStarted = true;
+                postInfo(MEDIA_INFO_VIDEO_RENDERING_START);
+            }
+            if (eos) {
+                track.outputDone = true;
+            }
+            if (!mPlaying && !mPreroll) {
+                return true;
+            }
+        }
+        return progress;
+    }
+
+    private boolean drainAudio(Track track) {
+        boolean progress = false;
+        MediaCodec codec = track.codec;
+        while (!track.outputDone) {
+            if (track.pendingOutput < 0) {
+                int index = codec.dequeueOutputBuffer(track.info, 0);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    openAudioOutput(codec.getOutputFormat());
+                    continue;
+                } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    track.outputBuffers = codec.getOutputBuffers();
+                    continue;
+                } else if (index < 0) {
+                    return progress;
+                }
+                track.pendingOutput = index;
+                track.pendingOffset = 0;
+                progress = true;
+            }
+            MediaCodec.BufferInfo info = track.info;
+            int remaining = info.size - track.pendingOffset;
+            if (remaining > 0 && info.presentationTimeUs >= track.dropBeforeUs) {
+                if (mAudioOut == null) {
+                    // 复用的解码器flush之后不一定再报告输出格式
+                    openAudioOutput(track.format);
+                }
+                int written = writeAudio(track.outputBuffers[track.pendingOutput],
+                        info.offset + track.pendingOffset, remaining);
+                track.pendingOffset += written;
+                if (written < remaining) {
+                    return progress || written > 0;
+                }
+            }
+            codec.releaseOutputBuffer(track.pendingOutput, false);
+            track.pendingOutput = -1;
+            progress = true;
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                track.outputDone = true;
+            }
+        }
+        return progress;
+    }
+
+    private void openAudioOutput(MediaFormat format) {
+        int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        int frameSize = 2 * channels;
+        if (mAudioOut != null && mAudioOut.getSampleRate() == sampleRate && mAudioFrameSize == frameSize) {
+            return;
+        }
+        if (mAudioOut != null) {
+            mAudioOut.release();
+        }
+        int channelConfig = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        mAudioBufferSize = Math.max(minSize * 2, frameSize * sampleRate / 10);
+        mAudioOut = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, mAudioBufferSize, AudioTrack.MODE_STREAM);
+        mAudioFrameSize = frameSize;
+        mAudioWrittenBytes = 0;
+        if (mPlaying) {
+            mAudioOut.play();
+        }
+    }
+
+    /**
+     * 只写入AudioTrack缓冲区中空闲的部分,不阻塞解码线程.
+     *
+     * @return 写入的字节数
+     */
+    private int writeAudio(ByteBuffer buffer, int offset, int size) {
+        long played = (mAudioOut.getPlaybackHeadPosition() & 0xffffffffL) * mAudioFrameSize;
+        int room = (int) (mAudioBufferSize - (mAudioWrittenBytes - played));
+        int length = Math.min(size, room - room % mAudioFrameSize);
+        if (length <= 0) {
+            mWaitUs = Math.min(mWaitUs, IDLE_STEP_US);
+            return 0;
+        }
+        if (mAudioChunk == null || mAudioChunk.length < length) {
+            mAudioChunk = new byte[length];
+        }
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(mAudioChunk, 0, length);
+        int written = mAudioOut.write(mAudioChunk, 0, length);
+        if (written < 0) {
+            throw new IllegalStateException("AudioTrack.write failed: " + written);
+        }
+        mAudioWrittenBytes += written;
+        return written;
+    }
+
+    private void complete() {
+        halt();
+        mClockBaseUs = mDurationMs * 1000L;
+        mState = STATE_COMPLETED;
+        // 下一个视频在onCompletion之后开始,这时解码器已经在池中
+        if (mVideo != null) {
+            recycleCodec(mVideo);
+        }
+        if (mAudio != null) {
+            recycleCodec(mAudio);
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onCompletion(MediaCodecEngine.this);
+                }
+            }
+        });
+    }
+
+    private void fail(Exception e) {
+        Log.w(TAG, "playback failed: " + mPath, e);
+        mPlaying = false;
+        mPreroll = false;
+        mState = STATE_ERROR;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onError(MediaCodecEngine.this, MEDIA_ERROR_UNKNOWN, 0);
+                }
+            }
+        });
+    }
+
+    private void updateVideoSize(MediaFormat format) {
+        int width = format.getInteger(MediaFormat.KEY_WIDTH);
+        int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        if (format.containsKey("crop-left") && format.containsKey("crop-right")) {
+            width = format.getInteger("crop-right") + 1 - format.getInteger("crop-left");
+        }
+        if (format.containsKey("crop-top") && format.containsKey("crop-bottom")) {
+            height = format.getInteger("crop-bottom") + 1 - format.getInteger("crop-top");
+        }
+        if (width == mVideoWidth && height == mVideoHeight) {
+            return;
+        }
+        mVideoWidth = width;
+        mVideoHeight = height;
+        final int w = width;
+        final int h = height;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onVideoSizeChanged(MediaCodecEngine.this, w, h);
+                }
+            }
+        });
+    }
+
+    private void reportFallback(final String previousFormat, final String format) {
+        Log.i(TAG, "codec not reusable: " + previousFormat + " -> " + format);
+        final OnFallbackListener l = mFallbackListener;
+        if (l == null) {
+            return;
+        }
+        final String path = mPath;
+        mCallbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                l.onFallback(path, previousFormat, format);
+            }
+        });
+    }
+
+    private void postInfo(final int what) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onInfo(MediaCodecEngine.this, what, 0);
+                }
+            }
+        });
+    }
+
+    private void post(Runnable r) {
+        mCallbackHandler.post(r);
+    }
+
+    private long clockUs() {
+        return mPlaying ? mClockBaseUs + (System.nanoTime() - mClockStartNanos) / 1000 : mClockBaseUs;
+    }
+
+    private void callAndWait(final Runnable r) {
+        if (Looper.myLooper() == mWorkerThread.getLooper()) {
+            r.run();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean posted = mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    r.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        if (!posted) {
+            return;
+        }
+        try {
+            if (!done.await(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "decoder thread did not respond in " + CALL_TIMEOUT_MS + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 能否复用解码器的格式标识,视频为mime和尺寸,音频为mime、采样率和声道数
+     */
+    static String formatKey(MediaFormat format, boolean video) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (video) {
+            return mime + " " + format.getInteger(MediaFormat.KEY_WIDTH)
+                    + "x" + format.getInteger(MediaFormat.KEY_HEIGHT);
+        }
+        return mime + " " + format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                + "Hz " + format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) + "ch";
+    }
+}
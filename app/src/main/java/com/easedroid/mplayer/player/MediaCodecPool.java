@@ -0,0 +1,244 @@
+package com.easedroid.mplayer.player;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：MediaCodecPool    <br/>
+ * 类描述：保存已经flush、仍处于运行状态的解码器.格式和输出surface都相同的下一个视频直接使用,
+ * 不需要重新创建和配置解码器.一个surface同时只能连接一个解码器,所以同一个surface最多保留一个<br/>
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class MediaCodecPool {
+
+    private static final String TAG = "MediaCodecPool";
+
+    public static final int DEFAULT_MAX_IDLE = 3;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 1000;
+
+    private static MediaCodecPool sDefault;
+
+    private final ArrayDeque<IdleCodec> idleCodecs = new ArrayDeque<>();
+    private int maxIdle;
+    private long idleTimeoutMs;
+
+    private long hitCount;
+    private long missCount;
+    private long formatChangeCount;
+    private long evictionCount;
+
+    private static class IdleCodec {
+        final MediaCodec codec;
+        final String key;
+        final Surface surface;
+        final long idleSince;
+
+        IdleCodec(MediaCodec codec, String key, Surface surface, long idleSince) {
+            this.codec = codec;
+            this.key = key;
+            this.surface = surface;
+            this.idleSince = idleSince;
+        }
+    }
+
+    /**
+     * 进程内共享的解码器池,MediaCodecEngine.Factory默认使用它.
+     */
+    public static synchronized MediaCodecPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new MediaCodecPool(DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT_MS);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param maxIdle       池中最多保留的空闲解码器数量,超出的直接release
+     * @param idleTimeoutMs 空闲超过该时间的解码器会被release
+     */
+    public MediaCodecPool(int maxIdle, long idleTimeoutMs) {
+        this.maxIdle = Math.max(0, maxIdle);
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * 取出格式为key、输出到surface的空闲解码器.没有时release连接在同一个surface上的其他解码器,
+     * 调用者随后可以用这个surface配置新的解码器.
+     *
+     * @param key     解码器格式,见MediaCodecEngine
+     * @param surface 视频解码器的输出surface,音频解码器为null
+     * @param replaced 非null时,第一个元素设为被替换的解码器格式,没有替换时为null
+     * @return 已经flush的解码器,没有时返回null
+     */
+    public MediaCodec acquire(String key, Surface surface, String[] replaced) {
+        List<MediaCodec> released = new ArrayList<>();
+        MediaCodec codec = null;
+        String stale = null;
+        synchronized (this) {
+            collectExpired(released);
+            Iterator<IdleCodec> it = idleCodecs.descendingIterator();
+            while (it.hasNext()) {
+                IdleCodec idle = it.next();
+                if (idle.surface != surface) {
+                    continue;
+                }
+                if (codec == null && idle.key.equals(key)) {
+                    codec = idle.codec;
+                } else if (surface != null) {
+                    // surface被占用,新的解码器无法连接
+                    stale = idle.key;
+                    released.add(idle.codec);
+                    evictionCount++;
+                } else {
+                    continue;
+                }
+                it.remove();
+            }
+            if (codec != null) {
+                hitCount++;
+            } else {
+                missCount++;
+                if (stale != null) {
+                    formatChangeCount++;
+                }
+            }
+        }
+        releaseAll(released);
+        if (replaced != null) {
+            replaced[0] = codec == null ? stale : null;
+        }
+        return codec;
+    }
+
+    /**
+     * 回收一个已经flush的解码器,surface已经失效时直接release.
+     */
+    public void recycle(MediaCodec codec, String key, Surface surface) {
+        if (codec == null) {
+            return;
+        }
+        List<MediaCodec> released = new ArrayList<>();
+        boolean pooled = false;
+        if (surface == null || surface.isValid()) {
+            synchronized (this) {
+                if (maxIdle > 0) {
+                    idleCodecs.addLast(new IdleCodec(codec, key, surface, SystemClock.elapsedRealtime()));
+                    pooled = true;
+                }
+                collectExpired(released);
+            }
+        }
+        releaseAll(released);
+        if (!pooled) {
+            synchronized (this) {
+                evictionCount++;
+            }
+            release(codec);
+        }
+    }
+
+    /**
+     * release连接在surface上的空闲解码器,surface即将销毁时调用.
+     */
+    public void evict(Surface surface) {
+        List<MediaCodec> released = new ArrayList<>();
+        synchronized (this) {
+            Iterator<IdleCodec> it = idleCodecs.iterator();
+            while (it.hasNext()) {
+                IdleCodec idle = it.next();
+                if (idle.surface == surface) {
+                    it.remove();
+                    released.add(idle.codec);
+                    evictionCount++;
+                }
+            }
+        }
+        releaseAll(released);
+    }
+
+    /**
+     * release池中所有空闲的解码器.
+     */
+    public void clear() {
+        List<MediaCodec> released = new ArrayList<>();
+        synchronized (this) {
+            IdleCodec idle;
+            while ((idle = idleCodecs.pollFirst()) != null) {
+                released.add(idle.codec);
+                evictionCount++;
+            }
+        }
+        releaseAll(released);
+    }
+
+    public synchronized void setMaxIdle(int maxIdle) {
+        this.maxIdle = Math.max(0, maxIdle);
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCodecs.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return 因为格式变化不能复用、替换掉surface上原有解码器的次数
+     */
+    public synchronized long getFormatChangeCount() {
+        return formatChangeCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MediaCodecPool{idle=" + idleCodecs.size() + ", hit=" + hitCount + ", miss=" + missCount
+                + ", formatChange=" + formatChangeCount + ", evicted=" + evictionCount + "}";
+    }
+
+    private void collectExpired(List<MediaCodec> out) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<IdleCodec> it = idleCodecs.iterator();
+        while (it.hasNext()) {
+            IdleCodec idle = it.next();
+            if (idleCodecs.size() > maxIdle || now - idle.idleSince >= idleTimeoutMs
+                    || (idle.surface != null && !idle.surface.isValid())) {
+                it.remove();
+                out.add(idle.codec);
+                evictionCount++;
+            }
+        }
+    }
+
+    private static void releaseAll(List<MediaCodec> codecs) {
+        for (MediaCodec codec : codecs) {
+            release(codec);
+        }
+    }
+
+    static void release(MediaCodec codec) {
+        try {
+            codec.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "stop failed", e);
+        }
+        codec.release();
+    }
+}
@@ -0,0 +1,204 @@
+package com.easedroid.mplayer.player;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.easedroid.mplayer.core.PlayerEngine;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：MediaPlayerEngine    <br/>
+ * 类描述：基于android.media.MediaPlayer的PlayerEngine实现,播放器实例从MediaPlayerPool中获取<br/>
+ */
+public class MediaPlayerEngine implements PlayerEngine {
+
+    private final Context mContext;
+    private final MediaPlayerPool mPool;
+    private final MediaPlayer mMediaPlayer;
+    // release()在共享的释放线程中清空,回调在事件线程读取
+    private volatile Listener mListener;
+
+    public static class Factory implements PlayerEngine.Factory {
+        private final Context mContext;
+        private final MediaPlayerPool mPool;
+
+        public Factory(Context context, MediaPlayerPool pool) {
+            mContext = context;
+            mPool = pool;
+        }
+
+        @Override
+        public PlayerEngine create() {
+            return new MediaPlayerEngine(mContext, mPool);
+        }
+    }
+
+    public MediaPlayerEngine(Context context, MediaPlayerPool pool) {
+        mContext = context;
+        mPool = pool;
+        mMediaPlayer = pool.acquire();
+        mMediaPlayer.setOnPreparedListener(mPreparedListener);
+        mMediaPlayer.setOnCompletionListener(mCompletionListener);
+        mMediaPlayer.setOnErrorListener(mErrorListener);
+        mMediaPlayer.setOnInfoListener(mInfoListener);
+        mMediaPlayer.setOnVideoSizeChangedListener(mSizeChangedListener);
+        mMediaPlayer.setOnBufferingUpdateListener(mBufferingUpdateListener);
+        mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mMediaPlayer.setScreenOnWhilePlaying(true);
+    }
+
+    /**
+     * @return 被包装的MediaPlayer
+     */
+    public MediaPlayer getMediaPlayer() {
+        return mMediaPlayer;
+    }
+
+    /**
+     * @return engine包装的MediaPlayer,不是MediaPlayerEngine时返回null
+     */
+    public static MediaPlayer unwrap(PlayerEngine engine) {
+        return engine instanceof MediaPlayerEngine ? ((MediaPlayerEngine) engine).mMediaPlayer : null;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setDataSource(String path, Map<String, String> headers) throws IOException {
+        mMediaPlayer.setDataSource(mContext, Uri.parse(path), headers);
+    }
+
+    @Override
+    public void setDisplay(Object display) {
+        if (display instanceof Surface) {
+            // TextureView的画面
+            mMediaPlayer.setSurface((Surface) display);
+        } else {
+            mMediaPlayer.setDisplay((SurfaceHolder) display);
+        }
+    }
+
+    @Override
+    public void prepareAsync() {
+        mMediaPlayer.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        mMediaPlayer.start();
+    }
+
+    @Override
+    public void pause() {
+        mMediaPlayer.pause();
+    }
+
+    @Override
+    public void stop() {
+        mMediaPlayer.stop();
+    }
+
+    @Override
+    public void seekTo(int millisSec) {
+        mMediaPlayer.seekTo(millisSec);
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mMediaPlayer.isPlaying();
+    }
+
+    @Override
+    public int getDuration() {
+        return mMediaPlayer.getDuration();
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mMediaPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return mMediaPlayer.getVideoWidth();
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return mMediaPlayer.getVideoHeight();
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        mPool.recycle(mMediaPlayer);
+    }
+
+    private MediaPlayer.OnPreparedListener mPreparedListener = new MediaPlayer.OnPreparedListener() {
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            Listener listener = mListener;
+            if (listener != null) {
+                listener.onPrepared(MediaPlayerEngine.this);
+            }
+        }
+    };
+
+    private MediaPlayer.OnCompletionListener mCompletionListener = new MediaPlayer.OnCompletionListener() {
+        @Override
+        public void onCompletion(MediaPlayer mp) {
+            Listener listener = mListener;
+            if (listener != null) {
+                listener.onCompletion(MediaPlayerEngine.this);
+            }
+        }
+    };
+
+    private MediaPlayer.OnErrorListener mErrorListener = new MediaPlayer.OnErrorListener() {
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            Listener listener = mListener;
+            return listener == null || listener.onError(MediaPlayerEngine.this, what, extra);
+        }
+    };
+
+    private MediaPlayer.OnInfoListener mInfoListener = new MediaPlayer.OnInfoListener() {
+        @Override
+        public boolean onInfo(MediaPlayer mp, int what, int extra) {
+            Listener listener = mListener;
+            return listener == null || listener.onInfo(MediaPlayerEngine.this, what, extra);
+        }
+    };
+
+    private MediaPlayer.OnVideoSizeChangedListener mSizeChangedListener =
+            new MediaPlayer.OnVideoSizeChangedListener() {
+                @Override
+                public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+                    Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onVideoSizeChanged(MediaPlayerEngine.this, width, height);
+                    }
+                }
+            };
+
+    private MediaPlayer.OnBufferingUpdateListener mBufferingUpdateListener =
+            new MediaPlayer.OnBufferingUpdateListener() {
+                @Override
+                public void onBufferingUpdate(MediaPlayer mp, int percent) {
+                    Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onBufferingUpdate(MediaPlayerEngine.this, percent);
+                    }
+                }
+            };
+}
@@ -0,0 +1,226 @@
+package com.easedroid.mplayer.player;
+
+import android.media.MediaPlayer;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：MediaPlayerPool    <br/>
+ * 类描述：复用已经reset的MediaPlayer,避免每个视频都重新创建/销毁底层解码器实例<br/>
+ */
+public class MediaPlayerPool {
+
+    private static final String TAG = "MediaPlayerPool";
+
+    public static final int DEFAULT_MAX_IDLE = 2;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private static MediaPlayerPool sDefault;
+
+    private final ArrayDeque<IdlePlayer> idlePlayers = new ArrayDeque<>();
+    // 播放器创建时所在线程的Looper,它的回调只会发送到这个Looper
+    private final Map<MediaPlayer, Looper> owners = new WeakHashMap<>();
+    private int maxIdle;
+    private long idleTimeoutMs;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private static class IdlePlayer {
+        final MediaPlayer player;
+        final Looper looper;
+        final long idleSince;
+
+        IdlePlayer(MediaPlayer player, Looper looper, long idleSince) {
+            this.player = player;
+            this.looper = looper;
+            this.idleSince = idleSince;
+        }
+    }
+
+    /**
+     * 进程内共享的播放器池,PlayerView和StrongPlayerView默认使用它.
+     */
+    public static synchronized MediaPlayerPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new MediaPlayerPool(DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT_MS);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param maxIdle       池中最多保留的空闲播放器数量(高水位),超出的直接release
+     * @param idleTimeoutMs 空闲超过该时间的播放器会被release
+     */
+    public MediaPlayerPool(int maxIdle, long idleTimeoutMs) {
+        this.maxIdle = Math.max(0, maxIdle);
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * 取出一个处于Idle状态的播放器,池中没有可用的时新建.
+     * MediaPlayer的回调会发送到创建它的线程的Looper上,所以只复用在同一个Looper上创建的播放器,
+     * 新建总是在调用线程完成.
+     */
+    public MediaPlayer acquire() {
+        Looper looper = callerLooper();
+        List<MediaPlayer> expired = new ArrayList<>();
+        MediaPlayer player = null;
+        synchronized (this) {
+            collectExpired(expired);
+            Iterator<IdlePlayer> it = idlePlayers.descendingIterator();
+            while (it.hasNext()) {
+                IdlePlayer idle = it.next();
+                if (idle.looper == looper) {
+                    it.remove();
+                    player = idle.player;
+                    break;
+                }
+            }
+            if (player != null) {
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+        releaseAll(expired);
+        if (player == null) {
+            player = new MediaPlayer();
+            synchronized (this) {
+                owners.put(player, looper);
+            }
+        }
+        return player;
+    }
+
+    /**
+     * 回收一个不再使用的播放器.reset()会阻塞,应在子线程调用.
+     *
+     * @param player 任意状态的播放器
+     */
+    public void recycle(MediaPlayer player) {
+        if (player == null) {
+            return;
+        }
+        player.setOnPreparedListener(null);
+        player.setOnVideoSizeChangedListener(null);
+        player.setOnCompletionListener(null);
+        player.setOnErrorListener(null);
+        player.setOnInfoListener(null);
+        player.setOnBufferingUpdateListener(null);
+        player.setOnSeekCompleteListener(null);
+        try {
+            player.reset();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "reset failed, releasing player", e);
+            player.release();
+            return;
+        }
+        List<MediaPlayer> expired = new ArrayList<>();
+        boolean pooled = false;
+        synchronized (this) {
+            collectExpired(expired);
+            Looper looper = owners.get(player);
+            if (looper != null && idlePlayers.size() < maxIdle) {
+                idlePlayers.addLast(new IdlePlayer(player, looper, SystemClock.elapsedRealtime()));
+                pooled = true;
+            } else {
+                evictionCount++;
+            }
+        }
+        releaseAll(expired);
+        if (!pooled) {
+            player.release();
+        }
+    }
+
+    /**
+     * release空闲超时的播放器.
+     */
+    public void evictIdle() {
+        List<MediaPlayer> expired = new ArrayList<>();
+        synchronized (this) {
+            collectExpired(expired);
+        }
+        releaseAll(expired);
+    }
+
+    /**
+     * release池中所有空闲的播放器.
+     */
+    public void clear() {
+        List<MediaPlayer> players = new ArrayList<>();
+        synchronized (this) {
+            IdlePlayer idle;
+            while ((idle = idlePlayers.pollFirst()) != null) {
+                players.add(idle.player);
+                evictionCount++;
+            }
+        }
+        releaseAll(players);
+    }
+
+    public synchronized void setMaxIdle(int maxIdle) {
+        this.maxIdle = Math.max(0, maxIdle);
+    }
+
+    public synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public synchronized void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public synchronized int getIdleCount() {
+        return idlePlayers.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static Looper callerLooper() {
+        Looper looper = Looper.myLooper();
+        return looper != null ? looper : Looper.getMainLooper();
+    }
+
+    private void collectExpired(List<MediaPlayer> out) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<IdlePlayer> it = idlePlayers.iterator();
+        while (it.hasNext()) {
+            IdlePlayer idle = it.next();
+            // Looper所在的线程已经退出时,这个播放器不会再被取出
+            if (idlePlayers.size() > maxIdle || now - idle.idleSince >= idleTimeoutMs
+                    || !idle.looper.getThread().isAlive()) {
+                it.remove();
+                out.add(idle.player);
+                evictionCount++;
+            }
+        }
+    }
+
+    private static void releaseAll(List<MediaPlayer> players) {
+        for (MediaPlayer player : players) {
+            player.release();
+        }
+    }
+}
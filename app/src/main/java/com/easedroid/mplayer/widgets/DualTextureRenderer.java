@@ -0,0 +1,222 @@
+package com.easedroid.mplayer.widgets;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.view.Gravity;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：DualTextureRenderer    <br/>
+ * 类描述：两个叠放的TextureView,一个显示当前视频,另一个在下层接收预备播放器的第一帧.
+ * 交换时只改变上层画面的透明度,由合成器完成,不需要重新连接surface;上层完全透明之后再调整叠放顺序.
+ * 除了getSurface之外的方法都在主线程调用<br/>
+ */
+class DualTextureRenderer {
+
+    interface Callback {
+        /**
+         * 两个画面都可以使用了
+         *
+         * @param front 当前在上层的画面
+         */
+        void onSurfacesAvailable(int front);
+
+        /**
+         * 画面被销毁,返回后不能再向任何一个画面输出
+         */
+        void onSurfacesDestroyed();
+
+        /**
+         * 下层的index画面收到了新的一帧,上层画面的帧不回调
+         */
+        void onFrameAvailable(int index);
+
+        /**
+         * swap()完成,新的画面已经完全显示
+         */
+        void onSwapped(int front);
+    }
+
+    private final Callback callback;
+    private final AspectTextureView[] views = new AspectTextureView[2];
+    private final Surface[] surfaces = new Surface[2];
+    // 当前在上层显示的画面
+    private int front;
+
+    DualTextureRenderer(Callback callback) {
+        this.callback = callback;
+    }
+
+    void attach(Context context, ViewGroup parent) {
+        FrameLayout container = new FrameLayout(context);
+        for (int i = 0; i < views.length; i++) {
+            views[i] = new AspectTextureView(context);
+            views[i].setSurfaceTextureListener(new Listener(i));
+            container.addView(views[i], new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT, Gravity.CENTER));
+        }
+        // 后添加的在上层
+        front = views.length - 1;
+        parent.addView(container, -1, -1);
+    }
+
+    /**
+     * 可以在任意线程调用.
+     *
+     * @return index画面的Surface,还没有创建或已经销毁时返回null
+     */
+    Surface getSurface(int index) {
+        synchronized (surfaces) {
+            return surfaces[index];
+        }
+    }
+
+    /**
+     * 设置当前视频的尺寸.下层画面保持和上层相同的大小,预备播放器的画面不会从上层的边缘露出来.
+     */
+    void setVideoSize(int width, int height) {
+        for (AspectTextureView view : views) {
+            view.setVideoSize(width, height);
+        }
+    }
+
+    /**
+     * 把index画面换到上层.
+     *
+     * @param width       新视频的宽度,尺寸相同时不重新布局
+     * @param height      新视频的高度
+     * @param crossfadeMs 淡入淡出的时长,0表示直接切换
+     */
+    void swap(final int index, int width, int height, long crossfadeMs) {
+        if (width > 0 && height > 0) {
+            views[index].setVideoSize(width, height);
+        }
+        if (index == front) {
+            callback.onSwapped(front);
+            return;
+        }
+        final AspectTextureView outgoing = views[front];
+        final AspectTextureView incoming = views[index];
+        front = index;
+        if (crossfadeMs <= 0) {
+            outgoing.setAlpha(0f);
+            finishSwap(outgoing, incoming, index);
+            return;
+        }
+        // withEndAction需要API 16
+        outgoing.animate().alpha(0f).setDuration(crossfadeMs).setListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                outgoing.animate().setListener(null);
+                finishSwap(outgoing, incoming, index);
+            }
+        });
+    }
+
+    private void finishSwap(AspectTextureView outgoing, AspectTextureView incoming, int index) {
+        // 上层已经看不见了,这时调整叠放顺序不会被看到;恢复不透明,下层的画面继续接收帧
+        incoming.bringToFront();
+        // KitKat之前bringToFront()不会自己重新布局和重绘,叠放顺序不生效,恢复不透明后旧画面仍然在上层
+        View parent = (View) incoming.getParent();
+        if (parent != null) {
+            parent.requestLayout();
+            parent.invalidate();
+        }
+        outgoing.setVideoSize(incoming.videoWidth, incoming.videoHeight);
+        outgoing.setAlpha(1f);
+        callback.onSwapped(index);
+    }
+
+    private class Listener implements TextureView.SurfaceTextureListener {
+        private final int index;
+
+        Listener(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+            boolean ready;
+            synchronized (surfaces) {
+                surfaces[index] = new Surface(texture);
+                ready = surfaces[0] != null && surfaces[1] != null;
+            }
+            if (ready) {
+                callback.onSurfacesAvailable(front);
+            }
+        }
+
+        @Override
+        public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+        }
+
+        @Override
+        public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+            boolean wasReady;
+            synchronized (surfaces) {
+                wasReady = surfaces[0] != null && surfaces[1] != null;
+            }
+            if (wasReady) {
+                callback.onSurfacesDestroyed();
+            }
+            Surface surface;
+            synchronized (surfaces) {
+                surface = surfaces[index];
+                surfaces[index] = null;
+            }
+            if (surface != null) {
+                surface.release();
+            }
+            return true;
+        }
+
+        @Override
+        public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+            if (index != front) {
+                callback.onFrameAvailable(index);
+            }
+        }
+    }
+
+    /**
+     * 按视频宽高比居中显示的TextureView
+     */
+    private static class AspectTextureView extends TextureView {
+        private int videoWidth;
+        private int videoHeight;
+
+        AspectTextureView(Context context) {
+            super(context);
+        }
+
+        void setVideoSize(int width, int height) {
+            if (width == videoWidth && height == videoHeight) {
+                return;
+            }
+            videoWidth = width;
+            videoHeight = height;
+            requestLayout();
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            int width = View.getDefaultSize(videoWidth, widthMeasureSpec);
+            int height = View.getDefaultSize(videoHeight, heightMeasureSpec);
+            if (videoWidth > 0 && videoHeight > 0) {
+                if (videoWidth * height < width * videoHeight) {
+                    width = height * videoWidth / videoHeight;
+                } else if (videoWidth * height > width * videoHeight) {
+                    height = width * videoHeight / videoWidth;
+                }
+            }
+            setMeasuredDimension(width, height);
+        }
+    }
+}
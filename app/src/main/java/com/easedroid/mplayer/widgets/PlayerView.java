@@ -10,6 +10,13 @@ import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.easedroid.mplayer.core.PlayerWorkScheduler;
+import com.easedroid.mplayer.io.ReadAheadPrefetcher;
+import com.easedroid.mplayer.mp4.KeyframeIndex;
+import com.easedroid.mplayer.mp4.KeyframeIndexCache;
+import com.easedroid.mplayer.player.MediaPlayerPool;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
@@ -51,12 +58,16 @@ public class PlayerView {
     private int mVideoHeight;
     private int mSurfaceWidth;
     private int mSurfaceHeight;
+    // 最后一次通过setFixedSize设置的尺寸
+    private int mAppliedWidth;
+    private int mAppliedHeight;
     private MediaPlayer.OnCompletionListener mOnCompletionListener;
     private MediaPlayer.OnPreparedListener mOnPreparedListener;
     private MediaPlayer.OnErrorListener mOnErrorListener;
     private MediaPlayer.OnInfoListener mOnInfoListener;
     private int mSeekWhenPrepared;  // recording the seek position while preparing
     private Context mContext;
+    private MediaPlayerPool mPlayerPool = MediaPlayerPool.getDefault();
     private int mCurrentBufferPercentage;
 
 
@@ -156,7 +167,7 @@ public class PlayerView {
     public void stop() {
         if (mMediaPlayer != null) {
             mMediaPlayer.stop();
-            mMediaPlayer.release();
+            mPlayerPool.recycle(mMediaPlayer);
             mMediaPlayer = null;
             mCurrentState = STATE_IDLE;
             mTargetState = STATE_IDLE;
@@ -195,7 +206,7 @@ public class PlayerView {
         am.requestAudioFocus(null, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
 
         try {
-            mMediaPlayer = new MediaPlayer();
+            mMediaPlayer = mPlayerPool.acquire();
             mMediaPlayer.setOnPreparedListener(mPreparedListener);
             mMediaPlayer.setOnVideoSizeChangedListener(mSizeChangedListener);
             mMediaPlayer.setOnCompletionListener(mCompletionListener);
@@ -234,7 +245,11 @@ public class PlayerView {
                 public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
                     mVideoWidth = mp.getVideoWidth();
                     mVideoHeight = mp.getVideoHeight();
-                    if (mVideoWidth != 0 && mVideoHeight != 0) {
+                    // 和surface当前的尺寸相同时不重新配置和布局
+                    if (mVideoWidth != 0 && mVideoHeight != 0
+                            && (mVideoWidth != mAppliedWidth || mVideoHeight != mAppliedHeight)) {
+                        mAppliedWidth = mVideoWidth;
+                        mAppliedHeight = mVideoHeight;
                         surfaceHolder.setFixedSize(mVideoWidth, mVideoHeight);
                         surfaceView.requestLayout();
                     }
@@ -251,6 +266,7 @@ public class PlayerView {
 
             mVideoWidth = mp.getVideoWidth();
             mVideoHeight = mp.getVideoHeight();
+            loadKeyframeIndex();
 
             int seekToPosition = mSeekWhenPrepared;  // mSeekWhenPrepared may be changed after seekTo() call
             if (seekToPosition != 0) {
@@ -321,6 +337,16 @@ public class PlayerView {
                 }
             };
 
+    /**
+     * Sets the pool the MediaPlayer instances are taken from and recycled to.
+     * Defaults to {@link MediaPlayerPool#getDefault()}.
+     *
+     * @param pool the pool to use
+     */
+    public void setPlayerPool(MediaPlayerPool pool) {
+        mPlayerPool = pool != null ? pool : MediaPlayerPool.getDefault();
+    }
+
     /**
      * Register a callback to be invoked when the media file
      * is loaded and ready to go.
@@ -395,8 +421,7 @@ public class PlayerView {
      */
     private void release(boolean clearTargetState) {
         if (mMediaPlayer != null) {
-            mMediaPlayer.reset();
-            mMediaPlayer.release();
+            mPlayerPool.recycle(mMediaPlayer);
             mMediaPlayer = null;
             mCurrentState = STATE_IDLE;
             if (clearTargetState) {
@@ -449,13 +474,70 @@ public class PlayerView {
 
     public void seekTo(int millisSec) {
         if (isInPlaybackState()) {
-            mMediaPlayer.seekTo(millisSec);
+            mMediaPlayer.seekTo(snapSeek(millisSec));
             mSeekWhenPrepared = 0;
         } else {
             mSeekWhenPrepared = millisSec;
         }
     }
 
+    private int mSeekMode = KeyframeIndex.SEEK_EXACT;
+    private KeyframeIndexCache mKeyframeCache;
+
+    /**
+     * 设置seek的对齐方式,见{@link StrongPlayerView#setSeekMode(int)}
+     *
+     * @param mode {@link KeyframeIndex#SEEK_EXACT}等
+     */
+    public void setSeekMode(int mode) {
+        mSeekMode = mode;
+    }
+
+    public void setKeyframeIndexCache(KeyframeIndexCache cache) {
+        mKeyframeCache = cache;
+    }
+
+    private KeyframeIndexCache keyframeCache() {
+        if (mKeyframeCache == null) {
+            mKeyframeCache = new KeyframeIndexCache(new File(mContext.getCacheDir(), "keyframes"), 4);
+        }
+        return mKeyframeCache;
+    }
+
+    private File keyframeSource() {
+        if (mSeekMode == KeyframeIndex.SEEK_EXACT || mUri == null) {
+            return null;
+        }
+        return ReadAheadPrefetcher.toLocalFile(mUri.toString());
+    }
+
+    private int snapSeek(int millisSec) {
+        File file = keyframeSource();
+        KeyframeIndex index = file != null ? keyframeCache().peek(file) : null;
+        return index != null ? index.snap(millisSec, mSeekMode) : millisSec;
+    }
+
+    private void loadKeyframeIndex() {
+        final File file = keyframeSource();
+        if (file == null) {
+            return;
+        }
+        final KeyframeIndexCache cache = keyframeCache();
+        if (cache.peek(file) != null) {
+            return;
+        }
+        PlayerWorkScheduler.getDefault().prepare(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.get(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to index keyframes: " + file, e);
+                }
+            }
+        });
+    }
+
     public boolean isPlaying() {
         return isInPlaybackState() && mMediaPlayer.isPlaying();
     }
@@ -1,65 +1,140 @@
 package com.easedroid.mplayer.widgets;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.media.AudioManager;
+import android.content.res.Configuration;
 import android.media.MediaPlayer;
 import android.net.Uri;
-import android.text.TextUtils;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewGroup;
 
-import com.easedroid.mplayer.utils.TimeTracker;
+import com.easedroid.mplayer.cache.CachingHttpProxy;
+import com.easedroid.mplayer.cache.ContentStore;
+import com.easedroid.mplayer.cache.HlsPlaylist;
+import com.easedroid.mplayer.cache.HlsPrefetcher;
+import com.easedroid.mplayer.cache.RangeDownloader;
+import com.easedroid.mplayer.core.ArrayPlaylistSource;
+import com.easedroid.mplayer.core.CoalescingEventQueue;
+import com.easedroid.mplayer.core.DecoderBudget;
+import com.easedroid.mplayer.core.MemoryPressureGovernor;
+import com.easedroid.mplayer.core.FilePlaylistSource;
+import com.easedroid.mplayer.core.PlaybackState;
+import com.easedroid.mplayer.core.PlaybackStateMachine;
+import com.easedroid.mplayer.core.PlayerEngine;
+import com.easedroid.mplayer.core.PlayerEventDispatcher;
+import com.easedroid.mplayer.core.PlayerWorkScheduler;
+import com.easedroid.mplayer.core.PlaylistCursor;
+import com.easedroid.mplayer.core.PlaylistSource;
+import com.easedroid.mplayer.core.PrepareLeadEstimator;
+import com.easedroid.mplayer.core.StandbyScheduler;
+import com.easedroid.mplayer.io.PositionJournal;
+import com.easedroid.mplayer.io.ReadAheadPrefetcher;
+import com.easedroid.mplayer.metrics.PlayerMetrics;
+import com.easedroid.mplayer.metrics.SpanTracer;
+import com.easedroid.mplayer.mp4.FaststartJob;
+import com.easedroid.mplayer.mp4.KeyframeIndex;
+import com.easedroid.mplayer.mp4.KeyframeIndexCache;
+import com.easedroid.mplayer.mp4.MediaInfo;
+import com.easedroid.mplayer.mp4.MediaInfoIndex;
+import com.easedroid.mplayer.player.MediaCodecEngine;
+import com.easedroid.mplayer.player.MediaCodecPool;
+import com.easedroid.mplayer.player.MediaPlayerEngine;
+import com.easedroid.mplayer.player.MediaPlayerPool;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 项目名称：MediaPlayer <br/>
  * 类名称：StrongPlayerView    <br/>
- * 类描述：StrongPlayerView 使用两个MediaPlayer来实现无缝切换视频功能的工具<br/>
+ * 类描述：StrongPlayerView 使用两个MediaPlayer来实现无缝切换视频功能的工具.
+ * 播放器在独立的事件线程上创建和操作,它们的回调不占用UI线程;公开方法可以在任意线程调用<br/>
  * 作者：bin.jing on 2017/10/28 19:23<br/>
  * 邮箱：752368300@qq.com<br/>
  */
 public class StrongPlayerView {
 
     public static final String TAG = "StrongPlayerView";
-    private SurfaceHolder surfaceHolder;
-    private SurfaceView surfaceView;
+    // surfaceDestroyed中等待事件线程解除显示的最长时间
+    private static final long SURFACE_RELEASE_TIMEOUT_MS = 2000;
+    // 缓冲进度事件合并用的key,info事件以what作为key
+    private static final Object BUFFERING_KEY = new Object();
 
-    private static final int STATE_ERROR = -1;
-    private static final int STATE_IDLE = 0;
-    private static final int STATE_PREPARING = 1;
-    private static final int STATE_PREPARED = 2;
-    private static final int STATE_PLAYING = 3;
-    private static final int STATE_PAUSED = 4;
-    private static final int STATE_PLAYBACK_COMPLETED = 5;
+    // 只在事件线程读写
+    // 当前播放器的显示目标:SurfaceHolder,或者TextureView渲染时上层画面的Surface
+    private Object mDisplay;
+    private SurfaceView surfaceView;
 
     private Uri mUri;
     private Map<String, String> mHeaders;
 
-    private int mCurrentState = STATE_IDLE;
-    private int mTargetState = STATE_IDLE;
-
-    private MediaPlayer mMediaPlayer = null;
-    private int mVideoWidth;
-    private int mVideoHeight;
-    private int mSurfaceWidth;
-    private int mSurfaceHeight;
-    private MediaPlayer.OnCompletionListener mOnCompletionListener;
-    private MediaPlayer.OnPreparedListener mOnPreparedListener;
-    private MediaPlayer.OnErrorListener mOnErrorListener;
-    private MediaPlayer.OnInfoListener mOnInfoListener;
+    private final PlaybackStateMachine mState = new PlaybackStateMachine();
+
+    private volatile PlayerEngine mPlayer = null;
+    private volatile int mVideoWidth;
+    private volatile int mVideoHeight;
+    private volatile int mSurfaceWidth;
+    private volatile int mSurfaceHeight;
+    private volatile MediaPlayer.OnCompletionListener mOnCompletionListener;
+    private volatile MediaPlayer.OnPreparedListener mOnPreparedListener;
+    private volatile MediaPlayer.OnErrorListener mOnErrorListener;
+    private volatile MediaPlayer.OnInfoListener mOnInfoListener;
+    private volatile MediaPlayer.OnBufferingUpdateListener mOnBufferingUpdateListener;
+    private volatile OnPlayerEventListener mOnPlayerEventListener;
     private int mSeekWhenPrepared;
     private Context mContext;
+    private MediaPlayerPool mPlayerPool = MediaPlayerPool.getDefault();
+    private PlayerEngine.Factory mEngineFactory;
+    private final PlayerMetrics mMetrics = new PlayerMetrics();
+    private final SpanTracer mTracer = new SpanTracer();
+    private long mPrepareStartNanos;
+    private long mPrepareSpanId;
+    // 上一个视频播放完成的时间,等待下一个视频的第一帧
+    private long mSwitchStartNanos;
+    private long mSwitchSpanId;
+
+    private final HandlerThread mEventThread;
+    private final Handler mEventHandler;
+    private final Executor mEventExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // 交给调用者的回调,默认在主线程投递
+    private final CoalescingEventQueue mCallbacks;
 
+    public StrongPlayerView() {
+        mEventThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mEventThread.start();
+        mEventHandler = new Handler(mEventThread.getLooper());
+        mEventExecutor = new HandlerExecutor(mEventHandler);
+        mCallbacks = new CoalescingEventQueue(new HandlerExecutor(mMainHandler));
+    }
 
     public void initView(Context context, ViewGroup parent) {
         this.mContext = context;
+        context.getApplicationContext().registerComponentCallbacks(mMemoryCallbacks);
+        if (mRenderBackend == RENDER_TEXTURE_VIEW) {
+            mTextureRenderer = new DualTextureRenderer(mRendererCallback);
+            mTextureRenderer.attach(context, parent);
+        } else {
+            initSurfaceView(context, parent);
+        }
+        mState.reset();
+    }
+
+    private void initSurfaceView(Context context, ViewGroup parent) {
         surfaceView = new SurfaceView(context) {
             @Override
             protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
@@ -128,9 +203,6 @@ public class StrongPlayerView {
         SurfaceHolder surfaceHolder = surfaceView.getHolder();
         surfaceHolder.addCallback(mSHCallback);
         surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
-
-        mCurrentState = STATE_IDLE;
-        mTargetState = STATE_IDLE;
     }
 
     /**
@@ -152,13 +224,62 @@ public class StrongPlayerView {
     }
 
     public void stop() {
-        if (mMediaPlayer != null) {
-            mMediaPlayer.stop();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
-            mCurrentState = STATE_IDLE;
-            mTargetState = STATE_IDLE;
-        }
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                recordPosition();
+                mEventHandler.removeCallbacks(mJournalTick);
+                mEventHandler.removeCallbacks(mStandbyDueCheck);
+                mScheduler.clear();
+                if (mPlayer != null) {
+                    mPlayer.stop();
+                    mPlayer.release();
+                    mPlayer = null;
+                    mDispatcher.setCurrent(null);
+                    mState.reset();
+                }
+                releasePlayerTicket();
+            }
+        });
+    }
+
+    /**
+     * 停止播放并结束事件线程,之后这个对象不能再使用.
+     */
+    public void destroy() {
+        destroy(null);
+    }
+
+    /**
+     * 停止播放并结束事件线程,之后这个对象不能再使用.
+     *
+     * @param onDestroyed 在事件线程中、最后一次记录位置之后执行,例如关闭位置日志,可以为null
+     */
+    public void destroy(final Runnable onDestroyed) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+                if (mDecoderZone != null) {
+                    mDecoderBudget.unregister(mDecoderZone);
+                    mDecoderZone = null;
+                }
+                if (mContext != null) {
+                    mContext.getApplicationContext().unregisterComponentCallbacks(mMemoryCallbacks);
+                }
+                mEventHandler.removeCallbacks(mMemoryRecoveryCheck);
+                if (mFaststartJob != null) {
+                    mFaststartJob.shutdown();
+                    mFaststartJob = null;
+                }
+                mCallbacks.clear();
+                mCodecPool.clear();
+                if (onDestroyed != null) {
+                    onDestroyed.run();
+                }
+                mEventThread.quit();
+            }
+        });
     }
 
     /**
@@ -173,148 +294,429 @@ public class StrongPlayerView {
      */
     private void setVideoURI(Uri uri, Map<String, String> headers) {
         mUri = uri;
+        mCurrentPath = uri.toString();
+        applyKnownVideoSize(mCurrentPath);
         mHeaders = headers;
         mSeekWhenPrepared = 0;
         openVideo();
     }
 
     private void openVideo() {
-        if (mUri == null || surfaceHolder == null) {
+        if (mUri == null || mDisplay == null) {
             // not ready for playback just yet, will try again later
             return;
         }
-        // we shouldn't clear the target state, because somebody might have
-        // called start() previously
-        release(false);
+        mTracer.begin("openVideo", mCurrentPath);
+        try {
+            // we shouldn't clear the target state, because somebody might have
+            // called start() previously
+            release(false);
+
+            if (mDecoderZone != null) {
+                // 等待解码器名额,批准后在onActiveGranted中打开
+                mPlayerTicket = mDecoderZone.requestActive(mActiveGrant);
+                return;
+            }
+            openAdmittedVideo();
+        } finally {
+            mTracer.end();
+        }
+    }
+
+    private final DecoderBudget.GrantListener mActiveGrant = new DecoderBudget.GrantListener() {
+        @Override
+        public void onGranted(DecoderBudget.Ticket ticket) {
+            if (ticket != mPlayerTicket || !ticket.isGranted() || mUri == null || mDisplay == null) {
+                // 申请之后视频已经被替换或释放
+                ticket.release();
+                return;
+            }
+            openAdmittedVideo();
+        }
+    };
 
+    private void openAdmittedVideo() {
         try {
-            mMediaPlayer = new MediaPlayer();
-            mMediaPlayer.setOnPreparedListener(mPreparedListener);
-            mMediaPlayer.setOnVideoSizeChangedListener(mSizeChangedListener);
-            mMediaPlayer.setOnCompletionListener(mCompletionListener);
-            mMediaPlayer.setOnErrorListener(mErrorListener);
-            mMediaPlayer.setOnInfoListener(mInfoListener);
-            mMediaPlayer.setDataSource(mContext, mUri, mHeaders);
-            mMediaPlayer.setDisplay(surfaceHolder);
-            mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mMediaPlayer.setScreenOnWhilePlaying(true);
-            mMediaPlayer.prepareAsync();
+            mPlayer = createEngine();
+            mPlayer.setListener(mDispatcher);
+            mDispatcher.setCurrent(mPlayer);
+            mPlayer.setDataSource(mUri.toString(), mHeaders);
+            mPlayer.setDisplay(mDisplay);
+            mPrepareStartNanos = System.nanoTime();
+            mPrepareSpanId = mTracer.newAsyncId();
+            mTracer.beginAsync("prepare", mPrepareSpanId, mCurrentPath);
+            mPlayer.prepareAsync();
 
             // we don't set the target state here either, but preserve the
             // target state that was there before.
-            mCurrentState = STATE_PREPARING;
+            mState.moveTo(PlaybackState.STATE_PREPARING);
         } catch (IOException ex) {
             Log.w(TAG, "Unable to open content: " + mUri, ex);
-            mCurrentState = STATE_ERROR;
-            mTargetState = STATE_ERROR;
-            mErrorListener.onError(mMediaPlayer, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+            mState.moveToAndTarget(PlaybackState.STATE_ERROR);
+            mCurrentListener.onError(mPlayer, PlayerEngine.MEDIA_ERROR_UNKNOWN, 0);
             return;
         } catch (IllegalArgumentException ex) {
             Log.w(TAG, "Unable to open content: " + mUri, ex);
-            mCurrentState = STATE_ERROR;
-            mTargetState = STATE_ERROR;
-            mErrorListener.onError(mMediaPlayer, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+            mState.moveToAndTarget(PlaybackState.STATE_ERROR);
+            mCurrentListener.onError(mPlayer, PlayerEngine.MEDIA_ERROR_UNKNOWN, 0);
             return;
         } finally {
         }
     }
 
+    private PlayerEngine createEngine() {
+        if (mEngineFactory == null) {
+            if (mEngineType == ENGINE_MEDIA_CODEC) {
+                MediaCodecEngine.Factory factory = new MediaCodecEngine.Factory(
+                        mContext, mCodecPool, mPlayerPool);
+                factory.setOnFallbackListener(mCodecFallbackListener);
+                mEngineFactory = factory;
+            } else {
+                mEngineFactory = new MediaPlayerEngine.Factory(mContext, mPlayerPool);
+            }
+        }
+        return mEngineFactory.create();
+    }
+
+    /**
+     * 当前播放器的回调
+     */
+    private PlayerEngine.Listener mCurrentListener = new PlayerEngine.Listener() {
 
-    MediaPlayer.OnVideoSizeChangedListener mSizeChangedListener =
-            new MediaPlayer.OnVideoSizeChangedListener() {
-                public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
-                    mVideoWidth = mp.getVideoWidth();
-                    mVideoHeight = mp.getVideoHeight();
-                    if (mVideoWidth != 0 && mVideoHeight != 0) {
-                        surfaceHolder.setFixedSize(mVideoWidth, mVideoHeight);
-                        surfaceView.requestLayout();
-                    }
-                }
-            };
+        public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {
+            applyVideoSize(engine.getVideoWidth(), engine.getVideoHeight());
+        }
 
-    MediaPlayer.OnPreparedListener mPreparedListener = new MediaPlayer.OnPreparedListener() {
-        public void onPrepared(MediaPlayer mp) {
-            mCurrentState = STATE_PREPARED;
-            onVideoStartPlay();
-            if (mOnPreparedListener != null) {
-                mOnPreparedListener.onPrepared(mMediaPlayer);
+        public void onPrepared(PlayerEngine engine) {
+            if (mPrepareStartNanos != 0) {
+                mMetrics.prepare.recordNanos(System.nanoTime() - mPrepareStartNanos);
+                mTracer.endAsync("prepare", mPrepareSpanId);
+                mPrepareStartNanos = 0;
             }
+            mState.moveTo(PlaybackState.STATE_PREPARED);
+            onVideoStartPlay();
+            postPrepared(mPlayer);
 
-            mVideoWidth = mp.getVideoWidth();
-            mVideoHeight = mp.getVideoHeight();
+            mVideoWidth = engine.getVideoWidth();
+            mVideoHeight = engine.getVideoHeight();
 
             int seekToPosition = mSeekWhenPrepared;  // mSeekWhenPrepared may be changed after seekTo() call
             if (seekToPosition != 0) {
                 seekTo(seekToPosition);
             }
-            if (mVideoWidth != 0 && mVideoHeight != 0) {
+            // TextureView的缓冲区尺寸跟随视频,不会有surfaceChanged回调
+            if (mVideoWidth != 0 && mVideoHeight != 0 && mTextureRenderer == null) {
                 //Log.i(TAG, "video size: " + mVideoWidth +"/"+ mVideoHeight);
 //                surfaceHolder.setFixedSize(mVideoWidth, mVideoHeight);
                 if (mSurfaceWidth == mVideoWidth && mSurfaceHeight == mVideoHeight) {
                     // We didn't actually change the size (it was already at the size
                     // we need), so we won't get a "surface changed" callback, so
                     // start the video here instead of in the callback.
-                    if (mTargetState == STATE_PLAYING) {
+                    if (mState.getTarget() == PlaybackState.STATE_PLAYING) {
                         start();
                     }
                 }
             } else {
                 // We don't know the video size yet, but should start anyway.
                 // The video size might be reported to us later.
-                if (mTargetState == STATE_PLAYING) {
+                if (mState.getTarget() == PlaybackState.STATE_PLAYING) {
                     start();
                 }
             }
         }
+
+        public void onCompletion(PlayerEngine engine) {
+            mSwitchStartNanos = System.nanoTime();
+            mSwitchSpanId = mTracer.newAsyncId();
+            mTracer.beginAsync("switchGap", mSwitchSpanId);
+            mState.moveToAndTarget(PlaybackState.STATE_PLAYBACK_COMPLETED);
+            postCompletion(mPlayer);
+            mEventHandler.removeCallbacks(mStandbyDueCheck);
+            if (mJustInTime) {
+                // 检查还没有到时,窗口可能还是空的
+                mScheduler.fill();
+            }
+            boolean switched = mScheduler.requestSwitch();
+            if (switched || mScheduler.isSwitchPending()) {
+                mPrepareLead.recordSwitch(!switched);
+            }
+            if (!switched && mScheduler.isSuspended()) {
+                // 单播放器模式,在当前播放器上直接打开下一个视频
+                String next = mPlaylist.next();
+                if (next != null) {
+                    mCurrentIndex = mPlaylist.getIndex();
+                    mState.setTarget(PlaybackState.STATE_PLAYING);
+                    setVideoPath(resolvePath(next));
+                    recordPosition();
+                }
+            }
+            postSwitch(mScheduler.getLastReadyCount(), mScheduler.getDepth());
+        }
+
+        public boolean onInfo(PlayerEngine engine, int arg1, int arg2) {
+            if (arg1 == PlayerEngine.MEDIA_INFO_VIDEO_RENDERING_START && mSwitchStartNanos != 0) {
+                mMetrics.switchGap.recordNanos(System.nanoTime() - mSwitchStartNanos);
+                mTracer.endAsync("switchGap", mSwitchSpanId);
+                mSwitchStartNanos = 0;
+            }
+            postInfo(engine, arg1, arg2);
+            return true;
+        }
+
+        public void onBufferingUpdate(PlayerEngine engine, int percent) {
+            postBufferingUpdate(engine, percent);
+        }
+
+        public boolean onError(PlayerEngine engine, int framework_err, int impl_err) {
+            Log.d(TAG, "Error: " + framework_err + "," + impl_err);
+            mState.moveToAndTarget(PlaybackState.STATE_ERROR);
+
+            /* If an error handler has been supplied, it is called on the callback thread. */
+            postError(mPlayer, framework_err, impl_err);
+            return true;
+        }
     };
 
-    private MediaPlayer.OnCompletionListener mCompletionListener =
-            new MediaPlayer.OnCompletionListener() {
-                public void onCompletion(MediaPlayer mp) {
-                    TimeTracker.time("SwitchPlayer");
-                    mCurrentState = STATE_PLAYBACK_COMPLETED;
-                    mTargetState = STATE_PLAYBACK_COMPLETED;
-                    if (mOnCompletionListener != null) {
-                        mOnCompletionListener.onCompletion(mMediaPlayer);
-                    }
-                    startStandbyPlayer();
+    /* 调用者回调的投递,在事件线程调用 */
+
+    private void postPrepared(final PlayerEngine engine) {
+        final MediaPlayer mp = MediaPlayerEngine.unwrap(engine);
+        mCallbacks.post(new Runnable() {
+            @Override
+            public void run() {
+                OnPlayerEventListener e = mOnPlayerEventListener;
+                if (e != null) {
+                    e.onPrepared(engine);
                 }
-            };
+                MediaPlayer.OnPreparedListener l = mOnPreparedListener;
+                if (l != null && mp != null) {
+                    l.onPrepared(mp);
+                }
+            }
+        });
+    }
 
-    private boolean once = true;
-    private MediaPlayer.OnInfoListener mInfoListener =
-            new MediaPlayer.OnInfoListener() {
-                public boolean onInfo(MediaPlayer mp, int arg1, int arg2) {
-                    if (arg1 == 3 && once) {
-                        once = false;
-                        TimeTracker.time("SwitchPlayer");
-                    }
-                    if (mOnInfoListener != null) {
-                        mOnInfoListener.onInfo(mp, arg1, arg2);
-                    }
-                    return true;
+    private void postCompletion(final PlayerEngine engine) {
+        final MediaPlayer mp = MediaPlayerEngine.unwrap(engine);
+        mCallbacks.post(new Runnable() {
+            @Override
+            public void run() {
+                OnPlayerEventListener e = mOnPlayerEventListener;
+                if (e != null) {
+                    e.onCompletion(engine);
                 }
-            };
+                MediaPlayer.OnCompletionListener l = mOnCompletionListener;
+                if (l != null && mp != null) {
+                    l.onCompletion(mp);
+                }
+            }
+        });
+    }
 
-    private MediaPlayer.OnErrorListener mErrorListener = new MediaPlayer.OnErrorListener() {
-        public boolean onError(MediaPlayer mp, int framework_err, int impl_err) {
-            Log.d(TAG, "Error: " + framework_err + "," + impl_err);
-            mCurrentState = STATE_ERROR;
-            mTargetState = STATE_ERROR;
+    private void postSwitch(final int readyCount, final int lookaheadDepth) {
+        mCallbacks.post(new Runnable() {
+            @Override
+            public void run() {
+                OnSwitchListener l = mOnSwitchListener;
+                if (l != null) {
+                    l.onSwitch(readyCount, lookaheadDepth);
+                }
+            }
+        });
+    }
 
-            /* If an error handler has been supplied, use it and finish. */
-            if (mOnErrorListener != null) {
-                if (mOnErrorListener.onError(mMediaPlayer, framework_err, impl_err)) {
-                    return true;
+    private void postError(final PlayerEngine engine, final int what, final int extra) {
+        final MediaPlayer mp = MediaPlayerEngine.unwrap(engine);
+        mCallbacks.post(new Runnable() {
+            @Override
+            public void run() {
+                OnPlayerEventListener e = mOnPlayerEventListener;
+                if (e != null) {
+                    e.onError(engine, what, extra);
+                }
+                MediaPlayer.OnErrorListener l = mOnErrorListener;
+                if (l != null && mp != null) {
+                    l.onError(mp, what, extra);
                 }
             }
-            return true;
+        });
+    }
+
+    private void postInfo(final PlayerEngine engine, final int what, final int extra) {
+        final MediaPlayer mp = MediaPlayerEngine.unwrap(engine);
+        Runnable event = new Runnable() {
+            @Override
+            public void run() {
+                OnPlayerEventListener e = mOnPlayerEventListener;
+                if (e != null) {
+                    e.onInfo(engine, what, extra);
+                }
+                MediaPlayer.OnInfoListener l = mOnInfoListener;
+                if (l != null && mp != null) {
+                    l.onInfo(mp, what, extra);
+                }
+            }
+        };
+        if (what == PlayerEngine.MEDIA_INFO_VIDEO_RENDERING_START) {
+            // 每个视频一次,调用者常用它计数,不合并
+            mCallbacks.post(event);
+        } else {
+            mCallbacks.postCoalesced(what, event);
         }
-    };
+    }
+
+    private void postBufferingUpdate(final PlayerEngine engine, final int percent) {
+        final MediaPlayer mp = MediaPlayerEngine.unwrap(engine);
+        mCallbacks.postCoalesced(BUFFERING_KEY, new Runnable() {
+            @Override
+            public void run() {
+                OnPlayerEventListener e = mOnPlayerEventListener;
+                if (e != null) {
+                    e.onBufferingUpdate(engine, percent);
+                }
+                MediaPlayer.OnBufferingUpdateListener l = mOnBufferingUpdateListener;
+                if (l != null && mp != null) {
+                    l.onBufferingUpdate(mp, percent);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the handler whose thread receives the listener callbacks.
+     * Defaults to the main thread. High-rate info and buffering events that arrive
+     * before the handler gets to run are coalesced to the latest one.
+     *
+     * @param handler the handler to deliver on, or null for the main thread
+     */
+    public void setCallbackHandler(Handler handler) {
+        mCallbacks.setExecutor(new HandlerExecutor(handler != null ? handler : mMainHandler));
+    }
+
+    /**
+     * @return 播放器事件线程的Looper,可以用它创建Handler传给setCallbackHandler,省去一次线程切换
+     */
+    public Looper getEventLooper() {
+        return mEventThread.getLooper();
+    }
+
+    /**
+     * @return 因为合并而没有投递给调用者的回调数
+     */
+    public long getCoalescedEventCount() {
+        return mCallbacks.getCoalescedCount();
+    }
+
+    /**
+     * Sets the pool the MediaPlayer instances are taken from and recycled to.
+     * Defaults to {@link MediaPlayerPool#getDefault()}.
+     *
+     * @param pool the pool to use
+     */
+    public void setPlayerPool(MediaPlayerPool pool) {
+        mPlayerPool = pool != null ? pool : MediaPlayerPool.getDefault();
+        mEngineFactory = null;
+    }
+
+    /**
+     * Sets the factory used to create the players.
+     * Defaults to a {@link MediaPlayerEngine.Factory} backed by the player pool.
+     *
+     * @param factory the factory to use, or null for the default
+     */
+    public void setEngineFactory(PlayerEngine.Factory factory) {
+        mEngineFactory = factory;
+    }
+
+    /**
+     * 使用android.media.MediaPlayer播放,默认值
+     */
+    public static final int ENGINE_MEDIA_PLAYER = 0;
+    /**
+     * 使用MediaExtractor和MediaCodec播放,相同格式的视频之间复用解码器.系统版本低于4.1时仍使用MediaPlayer
+     */
+    public static final int ENGINE_MEDIA_CODEC = 1;
+
+    private int mEngineType = ENGINE_MEDIA_PLAYER;
+    private final MediaCodecPool mCodecPool = new MediaCodecPool(
+            MediaCodecPool.DEFAULT_MAX_IDLE, MediaCodecPool.DEFAULT_IDLE_TIMEOUT_MS);
+    private final AtomicLong mCodecFallbackCount = new AtomicLong();
+    private volatile MediaCodecEngine.OnFallbackListener mOnCodecFallbackListener;
+
+    private final MediaCodecEngine.OnFallbackListener mCodecFallbackListener =
+            new MediaCodecEngine.OnFallbackListener() {
+                @Override
+                public void onFallback(String path, String previousFormat, String format) {
+                    mCodecFallbackCount.incrementAndGet();
+                    MediaCodecEngine.OnFallbackListener l = mOnCodecFallbackListener;
+                    if (l != null) {
+                        l.onFallback(path, previousFormat, format);
+                    }
+                }
+            };
+
+    /**
+     * 选择播放器实现,对之后打开的视频生效,会替换{@link #setEngineFactory}设置的工厂.
+     *
+     * @param type {@link #ENGINE_MEDIA_PLAYER}或{@link #ENGINE_MEDIA_CODEC}
+     */
+    public void setEngineType(int type) {
+        mEngineType = type;
+        mEngineFactory = null;
+    }
+
+    public int getEngineType() {
+        return mEngineType;
+    }
+
+    /**
+     * 设置MediaCodec播放器因为视频格式变化不能复用解码器时的回调,在事件线程调用.
+     */
+    public void setOnCodecFallbackListener(MediaCodecEngine.OnFallbackListener l) {
+        mOnCodecFallbackListener = l;
+    }
+
+    /**
+     * @return 因为格式变化重新创建解码器的次数
+     */
+    public long getCodecFallbackCount() {
+        return mCodecFallbackCount.get();
+    }
+
+    /**
+     * @return MediaCodec播放器复用解码器的统计
+     */
+    public MediaCodecPool getCodecPool() {
+        return mCodecPool;
+    }
+
+    /**
+     * 播放器事件的回调,参数是播放器引擎.MediaPlayer的各个Listener只在引擎包装了MediaPlayer时回调,
+     * 使用其他引擎(例如MediaCodec)时用这个接口接收事件.
+     */
+    public interface OnPlayerEventListener {
+        void onPrepared(PlayerEngine engine);
+
+        void onCompletion(PlayerEngine engine);
+
+        void onError(PlayerEngine engine, int what, int extra);
+
+        void onInfo(PlayerEngine engine, int what, int extra);
+
+        void onBufferingUpdate(PlayerEngine engine, int percent);
+    }
+
+    /**
+     * 设置播放器事件的回调,和MediaPlayer的各个Listener一样在回调线程投递,先于它们调用.
+     */
+    public void setOnPlayerEventListener(OnPlayerEventListener l) {
+        mOnPlayerEventListener = l;
+    }
 
     /**
      * Register a callback to be invoked when the media file
-     * is loaded and ready to go.
+     * is loaded and ready to go. Only invoked when the engine wraps a MediaPlayer,
+     * see {@link #setOnPlayerEventListener}.
      *
      * @param l The callback that will be run
      */
@@ -324,7 +726,7 @@ public class StrongPlayerView {
 
     /**
      * Register a callback to be invoked when the end of a media file
-     * has been reached during playback.
+     * has been reached during playback. Only invoked when the engine wraps a MediaPlayer.
      *
      * @param l The callback that will be run
      */
@@ -336,7 +738,7 @@ public class StrongPlayerView {
      * Register a callback to be invoked when an error occurs
      * during playback or setup.  If no listener is specified,
      * or if the listener returned false, VideoView will inform
-     * the user of any errors.
+     * the user of any errors. Only invoked when the engine wraps a MediaPlayer.
      *
      * @param l The callback that will be run
      */
@@ -346,7 +748,7 @@ public class StrongPlayerView {
 
     /**
      * Register a callback to be invoked when an informational event
-     * occurs during playback or setup.
+     * occurs during playback or setup. Only invoked when the engine wraps a MediaPlayer.
      *
      * @param l The callback that will be run
      */
@@ -354,197 +756,701 @@ public class StrongPlayerView {
         mOnInfoListener = l;
     }
 
+    /**
+     * Register a callback to be invoked when the buffering status of a
+     * network stream changes. Updates that arrive faster than the callback
+     * thread can take them are coalesced. Only invoked when the engine wraps a MediaPlayer.
+     *
+     * @param l The callback that will be run
+     */
+    public void setOnBufferingUpdateListener(MediaPlayer.OnBufferingUpdateListener l) {
+        mOnBufferingUpdateListener = l;
+    }
+
     SurfaceHolder.Callback mSHCallback = new SurfaceHolder.Callback() {
         public void surfaceChanged(SurfaceHolder holder, int format,
-                                   int w, int h) {
+                                   final int w, final int h) {
             mSurfaceWidth = w;
             mSurfaceHeight = h;
-            boolean isValidState = (mTargetState == STATE_PLAYING);
-            boolean hasValidSize = (mVideoWidth == w && mVideoHeight == h);
-            if (mMediaPlayer != null && isValidState && hasValidSize) {
-                if (mSeekWhenPrepared != 0) {
-                    seekTo(mSeekWhenPrepared);
+            mTracer.instant("surfaceChanged", w + "x" + h);
+            runOnEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean isValidState = (mState.getTarget() == PlaybackState.STATE_PLAYING);
+                    boolean hasValidSize = (mVideoWidth == w && mVideoHeight == h);
+                    if (mPlayer != null && isValidState && hasValidSize) {
+                        if (mSeekWhenPrepared != 0) {
+                            seekTo(mSeekWhenPrepared);
+                        }
+                        start();
+                    }
                 }
-                start();
-            }
+            });
         }
 
-        public void surfaceCreated(SurfaceHolder holder) {
-            surfaceHolder = holder;
-            openVideo();
+        public void surfaceCreated(final SurfaceHolder holder) {
+            mTracer.instant("surfaceCreated", null);
+            runOnEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    mDisplay = holder;
+                    openVideo();
+                }
+            });
         }
 
         public void surfaceDestroyed(SurfaceHolder holder) {
+            mTracer.begin("surfaceDestroyed");
             // after we return from this we can't use the surface any more
-            surfaceHolder = null;
-            release(true);
+            runOnEventThreadAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    mDisplay = null;
+                    release(true);
+                }
+            }, SURFACE_RELEASE_TIMEOUT_MS);
+            mCodecPool.evict(holder.getSurface());
+            mTracer.end();
         }
     };
 
-    /*
-     * release the media player in any state
-     */
-    private void release(boolean clearTargetState) {
-        if (mMediaPlayer != null) {
-            mMediaPlayer.reset();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
-            mCurrentState = STATE_IDLE;
-            if (clearTargetState) {
-                mTargetState = STATE_IDLE;
-            }
+    private void runOnEventThread(Runnable r) {
+        if (Looper.myLooper() == mEventThread.getLooper()) {
+            r.run();
+        } else {
+            mEventHandler.post(r);
         }
     }
 
-    public void start() {
-        if (isInPlaybackState()) {
-            mMediaPlayer.start();
-            mCurrentState = STATE_PLAYING;
+    private void runOnEventThreadAndWait(final Runnable r, long timeoutMs) {
+        if (Looper.myLooper() == mEventThread.getLooper()) {
+            r.run();
+            return;
         }
-        mTargetState = STATE_PLAYING;
-    }
-
-    public void pause() {
-        if (isInPlaybackState()) {
-            if (mMediaPlayer.isPlaying()) {
-                mMediaPlayer.pause();
-                mCurrentState = STATE_PAUSED;
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean posted = mEventHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    r.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        if (!posted) {
+            return;
+        }
+        try {
+            if (!done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "event thread did not respond in " + timeoutMs + "ms");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        mTargetState = STATE_PAUSED;
     }
 
-    public void suspend() {
-        release(false);
-    }
+    private static class HandlerExecutor implements Executor {
+        private final Handler handler;
 
-    public void resume() {
-        openVideo();
-    }
+        HandlerExecutor(Handler handler) {
+            this.handler = handler;
+        }
 
-    public int getDuration() {
-        if (isInPlaybackState()) {
-            return mMediaPlayer.getDuration();
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
         }
-        return -1;
     }
 
-    public int getCurrentPosition() {
-        if (isInPlaybackState()) {
-            return mMediaPlayer.getCurrentPosition();
+    /*
+     * release the media player in any state
+     */
+    private void release(boolean clearTargetState) {
+        if (mPrepareStartNanos != 0) {
+            // 没有等到onPrepared,结束准备的时间段,否则下一次打开会覆盖它的id
+            mTracer.endAsync("prepare", mPrepareSpanId);
+            mPrepareStartNanos = 0;
         }
-        return 0;
+        if (mPlayer != null) {
+            mPlayer.release();
+            mPlayer = null;
+            mDispatcher.setCurrent(null);
+            mState.moveTo(PlaybackState.STATE_IDLE);
+            if (clearTargetState) {
+                mState.setTarget(PlaybackState.STATE_IDLE);
+            }
+        }
+        releasePlayerTicket();
     }
 
-    public void seekTo(int millisSec) {
-        if (isInPlaybackState()) {
-            mMediaPlayer.seekTo(millisSec);
-            mSeekWhenPrepared = 0;
-        } else {
-            mSeekWhenPrepared = millisSec;
+    private void releasePlayerTicket() {
+        if (mPlayerTicket != null) {
+            mPlayerTicket.release();
+            mPlayerTicket = null;
         }
     }
 
-    public boolean isPlaying() {
-        return isInPlaybackState() && mMediaPlayer.isPlaying();
+    public void start() {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isInPlaybackState()) {
+                    mPlayer.start();
+                    mState.moveTo(PlaybackState.STATE_PLAYING);
+                }
+                mState.setTarget(PlaybackState.STATE_PLAYING);
+            }
+        });
     }
 
+    public void pause() {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isInPlaybackState()) {
+                    if (mPlayer.isPlaying()) {
+                        mPlayer.pause();
+                        mState.moveTo(PlaybackState.STATE_PAUSED);
+                    }
+                }
+                mState.setTarget(PlaybackState.STATE_PAUSED);
+            }
+        });
+    }
+
+    public void suspend() {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                release(false);
+            }
+        });
+    }
+
+    public void resume() {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                openVideo();
+            }
+        });
+    }
+
+    public int getDuration() {
+        PlayerEngine player = mPlayer;
+        if (player != null && mState.isInPlaybackState()) {
+            return player.getDuration();
+        }
+        return -1;
+    }
+
+    public int getCurrentPosition() {
+        PlayerEngine player = mPlayer;
+        if (player != null && mState.isInPlaybackState()) {
+            return player.getCurrentPosition();
+        }
+        return 0;
+    }
+
+    public void seekTo(final int millisSec) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isInPlaybackState()) {
+                    mPlayer.seekTo(snapSeek(millisSec));
+                    mSeekWhenPrepared = 0;
+                    if (mJustInTime) {
+                        // 剩余时间变了,重新计算开始准备的时间
+                        fillStandby();
+                    }
+                } else {
+                    mSeekWhenPrepared = millisSec;
+                }
+            }
+        });
+    }
+
+    public boolean isPlaying() {
+        PlayerEngine player = mPlayer;
+        return player != null && mState.isInPlaybackState() && player.isPlaying();
+    }
+
+    // 只在事件线程调用
     private boolean isInPlaybackState() {
-        return (mMediaPlayer != null &&
-                mCurrentState != STATE_ERROR &&
-                mCurrentState != STATE_IDLE &&
-                mCurrentState != STATE_PREPARING);
+        return mPlayer != null && mState.isInPlaybackState();
     }
 
     /* 多播放器实现逻辑 */
 
-    private String[] videoPaths;
-    private int playIndex;
-    private boolean looping = true;
-    private MediaPlayer standbyPlayer;
-    private boolean preparingStandbyPlayer = false;
-    private MediaPlayer tempMediaPlayer;
-
+    private final PlaylistCursor mPlaylist = new PlaylistCursor();
+    // 不保存共享调度器:它被shutdown后getDefault()会重新创建,每次使用时再取
+    private final ReadAheadPrefetcher mPrefetcher = new ReadAheadPrefetcher(
+            ReadAheadPrefetcher.DEFAULT_BYTE_BUDGET, PlayerWorkScheduler.getDefaultPrepareExecutor());
+    private CachingHttpProxy mHttpProxy;
+    private RangeDownloader mRangeDownloader;
+    private HlsPrefetcher mHlsPrefetcher;
+    private volatile OnSwitchListener mOnSwitchListener;
 
     /**
-     * 子线程调用
-     * 准备下一个MediaPlayer,用于切换。
-     *
-     * @return
+     * 切换播放器时的回调
      */
-    private void prepareNextMediaPlayer() {
-        if (standbyPlayer != null) {//已经准备完成
-            return;
+    public interface OnSwitchListener {
+        /**
+         * @param readyCount     切换时已经准备完成的预备播放器数量
+         * @param lookaheadDepth 当前的预备窗口深度
+         */
+        void onSwitch(int readyCount, int lookaheadDepth);
+    }
+
+    private StandbyScheduler.Host mStandbyHost = new StandbyScheduler.Host() {
+        /**
+         * 准备下一个播放器,用于切换。
+         */
+        @Override
+        public PlayerEngine prepareStandby(StandbyScheduler.Slot slot) {
+            String path = slot.getPath();
+            mTracer.begin("prepareStandby", path);
+            try {
+                PlayerEngine engine = createEngine();
+                slot.setTraceId(mTracer.newAsyncId());
+                mTracer.beginAsync("standbyPrepare", slot.getTraceId(), path);
+                return prepareStandbyEngine(engine, slot);
+            } finally {
+                mTracer.end();
+            }
         }
-        if (preparingStandbyPlayer) { //正在准备中
-            return;
+
+        private PlayerEngine prepareStandbyEngine(PlayerEngine engine, StandbyScheduler.Slot slot) {
+            String path = slot.getPath();
+            engine.setListener(mDispatcher);
+            HlsPrefetcher hlsPrefetcher = mHlsPrefetcher;
+            if (hlsPrefetcher != null && HlsPlaylist.isPlaylistUrl(path) && mHttpProxy != null
+                    && mHttpProxy.isRunning()) {
+                // playlist和开头的分片进入代理之后再准备
+                hlsPrefetcher.prefetch(path, mEventExecutor, new PrepareWhenReady(engine));
+                return engine;
+            }
+            RangeDownloader downloader = mRangeDownloader;
+            if (downloader != null && CachingHttpProxy.isRemote(path) && !HlsPlaylist.isPlaylistUrl(path)
+                    && downloader.getReadyFile(path) == null) {
+                // 有代理时开头下载好后经过代理边下边播,否则等全部下载完;占着预备位置等待
+                CachingHttpProxy proxy = mHttpProxy;
+                boolean partial = proxy != null && proxy.isRunning() && proxy.getRangeDownloader() == downloader;
+                downloader.fetch(path, mEventExecutor, new PrepareWhenReady(engine), partial);
+                return engine;
+            }
+            try {
+                engine.setDataSource(resolvePath(path), null);
+                engine.prepareAsync();
+                return engine;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to prepare standby content: " + path, e);
+                mTracer.endAsync("standbyPrepare", slot.getTraceId());
+                releasePlayerAsync(engine, null);
+                return null;
+            }
         }
-        preparingStandbyPlayer = true;
-        String path = getNextVideoPath();
-        if (TextUtils.isEmpty(path)) {
-            return;
+
+        @Override
+        public void onStandbyPrepared(StandbyScheduler.Slot slot) {
+            long elapsedNanos = System.nanoTime() - slot.getPrepareStartNanos();
+            mMetrics.prepare.recordNanos(elapsedNanos);
+            mTracer.endAsync("standbyPrepare", slot.getTraceId());
+            mPrepareLead.record(slot.getPath(), elapsedNanos / 1000000);
+            attachBackDisplay();
         }
-        try {
-            tempMediaPlayer = new MediaPlayer();
-            tempMediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                @Override
-                public void onPrepared(MediaPlayer mp) {
-                    standbyPlayer = mp;
-                    preparingStandbyPlayer = false;
-                    tempMediaPlayer = null;
-                }
-            });
-            tempMediaPlayer.setOnVideoSizeChangedListener(_OnVideoSizeChangedListener);
-            tempMediaPlayer.setOnCompletionListener(_OnCompletionListener);
-            tempMediaPlayer.setOnErrorListener(_OnErrorListener);
-            tempMediaPlayer.setOnInfoListener(_OnInfoListener);
-            tempMediaPlayer.setDataSource(mContext, Uri.parse(path));
-            tempMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            tempMediaPlayer.setScreenOnWhilePlaying(true);
-            tempMediaPlayer.prepareAsync();
-        } catch (IOException e) {
-            e.printStackTrace();
+
+        @Override
+        public void releaseStandby(StandbyScheduler.Slot slot) {
+            if (slot == mBackSlot) {
+                mBackSlot = null;
+            }
+            if (!slot.isPrepared() && slot.getEngine() != null) {
+                mTracer.endAsync("standbyPrepare", slot.getTraceId());
+            }
+            releasePlayerAsync(slot.getEngine(), slot.getTicket());
         }
-    }
 
-    private MediaPlayer.OnVideoSizeChangedListener _OnVideoSizeChangedListener = new MediaPlayer.OnVideoSizeChangedListener() {
         @Override
-        public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
-            if (mp == mMediaPlayer) {
-                mSizeChangedListener.onVideoSizeChanged(mp, width, height);
+        public void switchTo(StandbyScheduler.Slot slot) {
+            mTracer.begin("switchTo", slot.getPath());
+            try {
+                switchToStandby(slot);
+            } finally {
+                mTracer.end();
+            }
+        }
+
+        private void switchToStandby(StandbyScheduler.Slot slot) {
+            PlayerEngine next = slot.getEngine();
+            // 预备播放器的第一帧已经画在下层画面中,交换画面即可;第一帧还没有到达时下层画面
+            // 仍然是更早视频的最后一帧,改为在当前画面上播放
+            boolean handoff = slot == mBackSlot && mBackFrameNanos != 0;
+            if (slot == mBackSlot) {
+                mBackSlot = null;
+            }
+            if (!handoff) {
+                if (next.getVideoWidth() != 0 && next.getVideoHeight() != 0) {
+                    // 预备播放器已经知道视频尺寸,在交换之前调整surface,尺寸相同时什么也不做
+                    applyVideoSize(next.getVideoWidth(), next.getVideoHeight());
+                } else {
+                    applyKnownVideoSize(slot.getPath());
+                }
+            }
+            if (mPlayer != null) {
+                mPlayer.setDisplay(null);
+            }
+            releasePlayerAsync(mPlayer, mPlayerTicket);
+            mPlayer = slot.getEngine();
+            mPlayerTicket = slot.getTicket();
+            if (mPlayerTicket != null) {
+                mPlayerTicket.promote();
+            }
+            mCurrentIndex = slot.getIndex();
+            mCurrentPath = slot.getPath();
+            mDispatcher.setCurrent(mPlayer);
+            mState.moveTo(PlaybackState.STATE_PREPARED);
+            if (handoff) {
+                swapToBackDisplay(mPlayer);
+            } else {
+                mPlayer.setDisplay(mDisplay);
             }
+            mPlayer.start();
+            mState.moveTo(PlaybackState.STATE_PLAYING);
+            mState.setTarget(PlaybackState.STATE_PLAYING);
+            onVideoStartPlay();
+            recordPosition();
         }
     };
 
-    private MediaPlayer.OnCompletionListener _OnCompletionListener = new MediaPlayer.OnCompletionListener() {
+    private final StandbyScheduler mScheduler = new StandbyScheduler(mPlaylist, mStandbyHost);
+    private DecoderBudget mDecoderBudget;
+    private volatile DecoderBudget.Zone mDecoderZone;
+    // 当前播放器占用的解码器名额,打开视频时可能还在等待批准
+    private DecoderBudget.Ticket mPlayerTicket;
+
+    private final DecoderBudget.ZoneListener mZoneListener = new DecoderBudget.ZoneListener() {
         @Override
-        public void onCompletion(MediaPlayer mp) {
-            if (mp == mMediaPlayer) {
-                mCompletionListener.onCompletion(mp);
+        public void onStandbyRevoked() {
+            mScheduler.revokeStandby();
+        }
+    };
+
+    /**
+     * 加入多个区域共享的解码器名额.当前播放的视频优先于预备播放器获得名额,
+     * 已经打开的播放器仍按原来的设置释放.
+     *
+     * @param budget   共享的名额,null表示不限制
+     * @param zoneName 区域名称,用于统计
+     */
+    public void setDecoderBudget(final DecoderBudget budget, final String zoneName) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.discard();
+                if (mDecoderZone != null) {
+                    mDecoderBudget.unregister(mDecoderZone);
+                }
+                mDecoderBudget = budget;
+                mDecoderZone = budget != null ? budget.register(zoneName, mEventExecutor, mZoneListener) : null;
+                mScheduler.setZone(mDecoderZone);
+                if (isInPlaybackState()) {
+                    fillStandby();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 这个区域的名额占用和等待时间,没有设置DecoderBudget时返回null
+     */
+    public DecoderBudget.Zone getDecoderZone() {
+        return mDecoderZone;
+    }
+    private final PlayerEventDispatcher mDispatcher = new PlayerEventDispatcher(mScheduler, mCurrentListener);
+
+    /**
+     * 设置预备窗口深度,即提前准备的后续视频个数.
+     *
+     * @param depth 预备的视频个数,最小为1
+     */
+    public void setLookaheadDepth(final int depth) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                mRequestedDepth = Math.max(1, depth);
+                applyLookahead();
             }
+        });
+    }
+
+    /**
+     * 按内存压力允许的上限调整预备窗口.
+     *
+     * @return 因此释放的预备播放器数量
+     */
+    private int applyLookahead() {
+        int before = mScheduler.size();
+        int max = mMemoryGovernor.getMaxLookahead(mRequestedDepth + mExtraDepth);
+        if (max == 0) {
+            mScheduler.setSuspended(true);
+        } else {
+            mScheduler.setSuspended(false);
+            mScheduler.setDepth(max);
+        }
+        int dropped = Math.max(0, before - mScheduler.size());
+        if (isInPlaybackState()) {
+            fillStandby();
+        }
+        return dropped;
+    }
+
+    public int getLookaheadDepth() {
+        return mScheduler.getDepth();
+    }
+
+    /**
+     * @return 最近一次切换时已经准备完成的预备播放器数量
+     */
+    public int getLastReadyStandbyCount() {
+        return mScheduler.getLastReadyCount();
+    }
+
+    public void setOnSwitchListener(OnSwitchListener l) {
+        mOnSwitchListener = l;
+    }
+
+    /**
+     * 设置本地视频的预读字节数,0表示不预读.
+     *
+     * @param bytes 每个视频最多预读到page cache中的字节数
+     */
+    public void setReadAheadBudget(final long bytes) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                mRequestedReadAheadBudget = bytes;
+                mPrefetcher.setByteBudget(mMemoryGovernor.isPrefetchAllowed() ? bytes : 0);
+            }
+        });
+    }
+
+    /* 内存压力 */
+
+    private final MemoryPressureGovernor mMemoryGovernor =
+            new MemoryPressureGovernor(MemoryPressureGovernor.DEFAULT_RECOVERY_MS);
+    private int mRequestedDepth = 1;
+    private long mRequestedReadAheadBudget = ReadAheadPrefetcher.DEFAULT_BYTE_BUDGET;
+
+    private final ComponentCallbacks2 mMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            onMemoryPressure(pressureOf(level));
+        }
+
+        @Override
+        public void onLowMemory() {
+            onMemoryPressure(MemoryPressureGovernor.LEVEL_CRITICAL);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
         }
     };
 
-    private MediaPlayer.OnErrorListener _OnErrorListener = new MediaPlayer.OnErrorListener() {
+    private final Runnable mMemoryRecoveryCheck = new Runnable() {
         @Override
-        public boolean onError(MediaPlayer mp, int what, int extra) {
-            if (mp == mMediaPlayer) {
-                mErrorListener.onError(mp, what, extra);
+        public void run() {
+            if (mMemoryGovernor.onQuiet(SystemClock.elapsedRealtime())) {
+                applyMemoryLevel();
             }
-            return true;
+            scheduleMemoryRecovery();
         }
     };
 
-    private MediaPlayer.OnInfoListener _OnInfoListener = new MediaPlayer.OnInfoListener() {
+    /**
+     * 把onTrimMemory的等级映射为MemoryPressureGovernor的等级.
+     * 仅仅是界面不可见(TRIM_MEMORY_UI_HIDDEN)不算内存压力.
+     */
+    static int pressureOf(int trimLevel) {
+        if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || trimLevel == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return MemoryPressureGovernor.LEVEL_CRITICAL;
+        }
+        if (trimLevel == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return MemoryPressureGovernor.LEVEL_NONE;
+        }
+        if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return MemoryPressureGovernor.LEVEL_MODERATE;
+        }
+        return MemoryPressureGovernor.LEVEL_NONE;
+    }
+
+    private void onMemoryPressure(final int pressure) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mMemoryGovernor.onPressure(pressure, SystemClock.elapsedRealtime())) {
+                    applyMemoryLevel();
+                }
+                scheduleMemoryRecovery();
+            }
+        });
+    }
+
+    /**
+     * 中等压力:预备窗口减为1,清空播放器池,停止预读;严重压力:不保留预备播放器.
+     * 压力解除后恢复调用者设置的窗口深度和预读.
+     */
+    private void applyMemoryLevel() {
+        int dropped = applyLookahead();
+        int evicted = 0;
+        if (mMemoryGovernor.getLevel() >= MemoryPressureGovernor.LEVEL_MODERATE) {
+            evicted = mPlayerPool.getIdleCount() + mCodecPool.getIdleCount();
+            mPlayerPool.clear();
+            mCodecPool.clear();
+        }
+        mPrefetcher.setByteBudget(mMemoryGovernor.isPrefetchAllowed() ? mRequestedReadAheadBudget : 0);
+        mMemoryGovernor.recordShed(dropped, evicted);
+        Log.i(TAG, mMemoryGovernor.toString());
+    }
+
+    private void scheduleMemoryRecovery() {
+        mEventHandler.removeCallbacks(mMemoryRecoveryCheck);
+        long delay = mMemoryGovernor.getRecoveryDelay(SystemClock.elapsedRealtime());
+        if (delay >= 0) {
+            mEventHandler.postDelayed(mMemoryRecoveryCheck, delay);
+        }
+    }
+
+    /**
+     * @return 内存压力等级以及降级、恢复和释放资源的计数
+     */
+    public MemoryPressureGovernor getMemoryGovernor() {
+        return mMemoryGovernor;
+    }
+
+    /**
+     * 设置网络视频的缓存代理,播放列表中的http/https地址会改写为经过代理的本地地址.
+     * 代理需要调用者启动,没有运行时地址保持不变.
+     *
+     * @param proxy 缓存代理,null表示直接访问源站
+     */
+    public void setHttpProxy(CachingHttpProxy proxy) {
+        mHttpProxy = proxy;
+        connectRangeDownloader();
+    }
+
+    /**
+     * 设置预备播放器使用的并行下载器.预备的网络视频先用多个Range请求下载开头和结尾,
+     * 有{@link #setHttpProxy 缓存代理}时就绪后经过代理边下边播,没有时下载完成后从本地文件准备;
+     * 下载失败时仍然直接访问网络.下载器由调用者创建和关闭.
+     *
+     * @param downloader 并行下载器,null表示不使用
+     */
+    public void setRangeDownloader(RangeDownloader downloader) {
+        mRangeDownloader = downloader;
+        connectRangeDownloader();
+    }
+
+    private void connectRangeDownloader() {
+        CachingHttpProxy proxy = mHttpProxy;
+        RangeDownloader downloader = mRangeDownloader;
+        if (proxy != null && downloader != null) {
+            proxy.setRangeDownloader(downloader);
+        }
+    }
+
+    /**
+     * 设置预备播放器使用的HLS预取器.预备的m3u8地址先预取playlist和开头的分片,之后播放器经过
+     * {@link #setHttpProxy 缓存代理}从本地起播.需要同时设置正在运行的代理,预取器由调用者创建和关闭.
+     *
+     * @param prefetcher HLS预取器,null表示不使用
+     */
+    public void setHlsPrefetcher(HlsPrefetcher prefetcher) {
+        mHlsPrefetcher = prefetcher;
+    }
+
+    private String resolvePath(String path) {
+        RangeDownloader downloader = mRangeDownloader;
+        File ready = downloader != null ? downloader.getReadyFile(path) : null;
+        if (ready != null) {
+            return ready.getAbsolutePath();
+        }
+        return mHttpProxy != null ? mHttpProxy.proxyUrl(path) : path;
+    }
+
+    /**
+     * 并行下载就绪(边下边播时为开头就绪)或者HLS预取结束(包括失败)后开始准备预备播放器
+     */
+    private final class PrepareWhenReady implements RangeDownloader.Callback, HlsPrefetcher.Callback {
+        private final PlayerEngine mEngine;
+
+        PrepareWhenReady(PlayerEngine engine) {
+            mEngine = engine;
+        }
+
+        @Override
+        public void onReady(String url, File file) {
+            prepare(url);
+        }
+
         @Override
-        public boolean onInfo(MediaPlayer mp, int what, int extra) {
-            if (mp == mMediaPlayer) {
-                mInfoListener.onInfo(mp, what, extra);
+        public void onPrefetched(String url, int segments) {
+            prepare(url);
+        }
+
+        private void prepare(String url) {
+            if (!mScheduler.contains(mEngine)) {
+                // 等待期间已经被释放
+                return;
+            }
+            try {
+                mEngine.setDataSource(resolvePath(url), null);
+                mEngine.prepareAsync();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to prepare standby content: " + url, e);
+                mDispatcher.onError(mEngine, PlayerEngine.MEDIA_ERROR_UNKNOWN, 0);
             }
-            return true;
         }
-    };
+    }
 
+    /**
+     * @return 预读器,可以读取预读的字节数和耗时
+     */
+    public ReadAheadPrefetcher getPrefetcher() {
+        return mPrefetcher;
+    }
+
+    /**
+     * @return from -> to 状态转换发生的次数,状态取值见{@link PlaybackState}
+     */
+    public long getTransitionCount(int from, int to) {
+        return mState.getTransitionCount(from, to);
+    }
+
+    /**
+     * @return 当前状态、被拒绝的非法转换次数以及每种转换的次数,用于诊断
+     */
+    public String dumpStateTransitions() {
+        return mState + " rejected=" + mState.getRejectedCount() + " " + mState.dumpTransitions();
+    }
+
+    /**
+     * @return 切换间隔、准备耗时和释放耗时的统计,可随时调用snapshot()读取
+     */
+    public PlayerMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 打开视频、准备预备播放器、切换、释放和surface回调的时间段记录,默认关闭.
+     * setEnabled(true)之后复现问题,再用exportChromeTrace()导出,在Perfetto UI中查看
+     */
+    public SpanTracer getTracer() {
+        return mTracer;
+    }
 
     /**
      * 设置视频播放路径集合.
@@ -552,62 +1458,642 @@ public class StrongPlayerView {
      * @param videoPaths
      */
     public void setPlayList(String[] videoPaths) {
-        this.videoPaths = videoPaths;
-        this.playIndex = 0;
-        if (this.videoPaths != null && this.videoPaths.length > 0) {
-            TimeTracker.time("SwitchPlayer");
-            setVideoPath(this.videoPaths[playIndex]);
+        setPlayList(new ArrayPlaylistSource(videoPaths));
+    }
+
+    /**
+     * 设置播放列表来源,例如按需读取的{@link FilePlaylistSource},从第一个条目开始播放.
+     *
+     * @param source 播放列表来源
+     */
+    public void setPlayList(final PlaylistSource source) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                startPlayList(source, null);
+            }
+        });
+    }
+
+    /**
+     * 设置播放列表并从位置日志中记录的条目和进度继续播放,之后定期把播放位置写入日志.
+     * 日志中没有这个播放列表的记录时从第一个条目开始.
+     *
+     * @param source     播放列表来源
+     * @param playlistId 播放列表的标识,内容变化后应使用新的标识
+     */
+    public void resumePlayList(final PlaylistSource source, final String playlistId) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                startPlayList(source, playlistId);
+            }
+        });
+    }
+
+    private void startPlayList(PlaylistSource source, String playlistId) {
+        source = mapToStore(source);
+        mScheduler.clear();
+        mPlaylist.reset(source);
+        indexPlayList(source);
+        mSwitchStartNanos = 0;
+        mPlaylistId = playlistId;
+        PositionJournal.Entry resume = mJournal != null && playlistId != null ? mJournal.latest(playlistId) : null;
+        String path = resume != null ? mPlaylist.seek(resume.index) : mPlaylist.first();
+        mCurrentIndex = mPlaylist.getIndex();
+        if (path != null) {
+            setVideoPath(resolvePath(path));
+            if (resume != null && resume.index == mCurrentIndex) {
+                mSeekWhenPrepared = resume.positionMs;
+            }
+            mPrefetcher.prefetch(mPlaylist.peek(1));
+        }
+        mEventHandler.removeCallbacks(mJournalTick);
+        if (mPlaylistId != null) {
+            mEventHandler.postDelayed(mJournalTick, JOURNAL_INTERVAL_MS);
         }
     }
 
-    private String getNextVideoPath() {
-        synchronized (this.videoPaths) {
-            int length = this.videoPaths.length;
-            if (looping) {
-                String path = this.videoPaths[(++playIndex) % length];
-                return path;
+    /* 播放位置日志 */
+
+    // 定期写入播放位置的间隔
+    private static final long JOURNAL_INTERVAL_MS = 5000;
+
+    private volatile PositionJournal mJournal;
+    private String mPlaylistId;
+    // 当前播放的条目在播放列表中的下标
+    private int mCurrentIndex = -1;
+
+    private final Runnable mJournalTick = new Runnable() {
+        @Override
+        public void run() {
+            recordPosition();
+            if (mPlaylistId != null) {
+                mEventHandler.postDelayed(this, JOURNAL_INTERVAL_MS);
             }
-            if (++playIndex >= length) {
-                return null;
+        }
+    };
+
+    /**
+     * 设置记录播放位置的日志,配合resumePlayList使用.日志由调用者打开和关闭,
+     * 定期刷盘在共享调度器的准备线程上进行.
+     *
+     * @param journal 位置日志,null表示不记录
+     */
+    public void setPositionJournal(PositionJournal journal) {
+        if (journal != null) {
+            journal.setSyncExecutor(PlayerWorkScheduler.getDefaultPrepareExecutor());
+        }
+        mJournal = journal;
+    }
+
+    private void recordPosition() {
+        PositionJournal journal = mJournal;
+        if (journal == null || mPlaylistId == null || mCurrentIndex < 0) {
+            return;
+        }
+        int position = isInPlaybackState() ? mPlayer.getCurrentPosition() : mSeekWhenPrepared;
+        journal.record(mPlaylistId, mCurrentIndex, position);
+    }
+
+    /**
+     * 替换播放列表来源而不打断当前视频,例如每晚重新生成的列表文件.
+     * 已经预备的播放器会被丢弃,之后从当前位置继续按新列表准备.
+     * {@link FilePlaylistSource}会重新扫描,传入同一个对象也能读到修改后的文件.
+     *
+     * @param source 新的播放列表来源
+     */
+    public void swapPlayList(final PlaylistSource source) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if (source instanceof FilePlaylistSource) {
+                    ((FilePlaylistSource) source).refresh();
+                }
+                PlaylistSource mapped = mapToStore(source);
+                mScheduler.discard();
+                mPlaylist.swap(mapped);
+                indexPlayList(mapped);
+                if (isInPlaybackState()) {
+                    fillStandby();
+                }
             }
-            return this.videoPaths[playIndex];
+        });
+    }
+
+    /* 内容存储 */
+
+    private volatile ContentStore mContentStore;
+
+    /**
+     * 设置按内容寻址的视频存储.之后设置的播放列表中已经加入存储的条目改为存储中的文件,
+     * 内容相同的条目共享同一个文件.存储由调用者填充和保存.
+     *
+     * @param store 视频存储,null表示直接使用播放列表中的路径
+     */
+    public void setContentStore(ContentStore store) {
+        mContentStore = store;
+    }
+
+    private PlaylistSource mapToStore(PlaylistSource source) {
+        ContentStore store = mContentStore;
+        return store != null ? store.map(source) : source;
+    }
+
+    /* 视频信息索引 */
+
+    private volatile MediaInfoIndex mMediaInfoIndex;
+
+    /**
+     * 设置视频信息索引,可以在多个播放器之间共享.设置播放列表时在后台索引所有本地条目;
+     * 打开已经索引过的视频时直接按记录的宽高布局,不用等解码器报告视频尺寸.
+     *
+     * @param index 视频信息索引,null表示不使用
+     */
+    public void setMediaInfoIndex(MediaInfoIndex index) {
+        mMediaInfoIndex = index;
+    }
+
+    /**
+     * @return path的时长、宽高、旋转角度和编码格式,没有索引或文件已经变化时返回null
+     */
+    public MediaInfo getMediaInfo(String path) {
+        MediaInfoIndex index = mMediaInfoIndex;
+        return index != null ? index.get(path) : null;
+    }
+
+    private void indexPlayList(PlaylistSource source) {
+        MediaInfoIndex index = mMediaInfoIndex;
+        if (index != null) {
+            index.indexAsync(source, null);
         }
     }
 
-    private void startStandbyPlayer() {
-        if (standbyPlayer == null) {
+    // 只在事件线程调用,只查内存;记录过期时之后的onVideoSizeChanged会纠正
+    private void applyKnownVideoSize(String path) {
+        MediaInfoIndex index = mMediaInfoIndex;
+        MediaInfo info = index != null ? index.peek(path) : null;
+        if (info == null || info.getDisplayWidth() == 0 || info.getDisplayHeight() == 0) {
+            return;
+        }
+        applyVideoSize(info.getDisplayWidth(), info.getDisplayHeight());
+    }
+
+    /* 画面尺寸 */
+
+    // 最后一次提交给surface的视频尺寸,只在事件线程读写
+    private int mAppliedWidth;
+    private int mAppliedHeight;
+    private volatile long mRelayoutCount;
+    private volatile long mSkippedRelayoutCount;
+
+    /**
+     * 只在事件线程调用.尺寸和surface当前的缓冲区尺寸相同时不调用setFixedSize和requestLayout,
+     * 连续播放同样尺寸的视频时切换不会触发重新测量和surface重新配置.
+     */
+    private void applyVideoSize(final int videoWidth, final int videoHeight) {
+        if (videoWidth == 0 || videoHeight == 0) {
+            return;
+        }
+        mVideoWidth = videoWidth;
+        mVideoHeight = videoHeight;
+        if (videoWidth == mAppliedWidth && videoHeight == mAppliedHeight) {
+            mSkippedRelayoutCount++;
+            return;
+        }
+        mAppliedWidth = videoWidth;
+        mAppliedHeight = videoHeight;
+        mRelayoutCount++;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mTextureRenderer != null) {
+                    mTextureRenderer.setVideoSize(videoWidth, videoHeight);
+                    return;
+                }
+                surfaceView.getHolder().setFixedSize(videoWidth, videoHeight);
+                surfaceView.requestLayout();
+            }
+        });
+    }
+
+    /* TextureView双画面渲染 */
+
+    /**
+     * 使用一个SurfaceView,切换时把新的播放器连接到同一个surface上
+     */
+    public static final int RENDER_SURFACE_VIEW = 0;
+    /**
+     * 使用两个叠放的TextureView,下一个视频的第一帧提前画在下层画面中,切换时交换两个画面
+     */
+    public static final int RENDER_TEXTURE_VIEW = 1;
+
+    private int mRenderBackend = RENDER_SURFACE_VIEW;
+    private DualTextureRenderer mTextureRenderer;
+    private volatile long mCrossfadeMs;
+    // 以下只在事件线程读写
+    private int mFrontIndex;
+    // 已经连接到下层画面的预备播放器
+    private StandbyScheduler.Slot mBackSlot;
+    // 下层画面收到预备播放器第一帧的时间,还没有收到时为0
+    private long mBackFrameNanos;
+    // 正在交换画面,交换完成之前下层画面还在显示,不能连接新的预备播放器
+    private boolean mSwapping;
+    private long mSwapStartNanos;
+
+    /**
+     * 选择渲染方式,需要在initView之前调用.TextureView需要硬件加速.
+     *
+     * @param backend {@link #RENDER_SURFACE_VIEW}或{@link #RENDER_TEXTURE_VIEW}
+     */
+    public void setRenderBackend(int backend) {
+        if (mContext != null) {
+            throw new IllegalStateException("setRenderBackend must be called before initView");
+        }
+        mRenderBackend = backend;
+    }
+
+    public int getRenderBackend() {
+        return mRenderBackend;
+    }
+
+    /**
+     * 设置TextureView渲染时切换画面的淡入淡出时长,默认为0,直接切换.
+     */
+    public void setCrossfadeDuration(long ms) {
+        mCrossfadeMs = Math.max(0, ms);
+    }
+
+    private final DualTextureRenderer.Callback mRendererCallback = new DualTextureRenderer.Callback() {
+        @Override
+        public void onSurfacesAvailable(final int front) {
+            mTracer.instant("surfacesAvailable", null);
+            runOnEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    mFrontIndex = front;
+                    mDisplay = mTextureRenderer.getSurface(front);
+                    openVideo();
+                }
+            });
+        }
+
+        @Override
+        public void onSurfacesDestroyed() {
+            mTracer.begin("surfacesDestroyed");
+            runOnEventThreadAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    detachBackDisplay();
+                    mSwapping = false;
+                    mDisplay = null;
+                    release(true);
+                }
+            }, SURFACE_RELEASE_TIMEOUT_MS);
+            for (int i = 0; i < 2; i++) {
+                Surface surface = mTextureRenderer.getSurface(i);
+                if (surface != null) {
+                    mCodecPool.evict(surface);
+                }
+            }
+            mTracer.end();
+        }
+
+        @Override
+        public void onFrameAvailable(final int index) {
+            runOnEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mBackSlot != null && index != mFrontIndex && mBackFrameNanos == 0) {
+                        mBackFrameNanos = System.nanoTime();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onSwapped(int front) {
+            runOnEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mSwapping) {
+                        return;
+                    }
+                    mSwapping = false;
+                    mMetrics.swap.recordNanos(System.nanoTime() - mSwapStartNanos);
+                    attachBackDisplay();
+                }
+            });
+        }
+    };
+
+    /**
+     * 只在事件线程调用.把已经准备好的下一个预备播放器连接到下层画面,
+     * 在prepared状态下seek会把第一帧输出到画面,切换时不需要等待解码.
+     */
+    private void attachBackDisplay() {
+        if (mTextureRenderer == null || mBackSlot != null || mSwapping || mDisplay == null) {
+            return;
+        }
+        StandbyScheduler.Slot next = mScheduler.peekNext();
+        if (next == null || !next.isPrepared() || next.getEngine() == null) {
+            return;
+        }
+        Surface back = mTextureRenderer.getSurface(1 - mFrontIndex);
+        if (back == null) {
             return;
         }
-        if (mMediaPlayer != null) {
-            mMediaPlayer.setDisplay(null);
+        next.getEngine().setDisplay(back);
+        next.getEngine().seekTo(0);
+        mBackSlot = next;
+        mBackFrameNanos = 0;
+    }
+
+    private void detachBackDisplay() {
+        if (mBackSlot != null && mBackSlot.getEngine() != null) {
+            mBackSlot.getEngine().setDisplay(null);
+        }
+        mBackSlot = null;
+    }
+
+    /**
+     * 只在事件线程调用.engine已经在下层画面中,交换上下层;被换下的画面保留上一个视频的最后一帧直到完全被盖住.
+     */
+    private void swapToBackDisplay(PlayerEngine engine) {
+        final int index = 1 - mFrontIndex;
+        mFrontIndex = index;
+        mDisplay = mTextureRenderer.getSurface(index);
+        if (mBackFrameNanos != 0) {
+            mMetrics.standbyFrameLead.recordNanos(System.nanoTime() - mBackFrameNanos);
+        }
+        final int width = engine.getVideoWidth();
+        final int height = engine.getVideoHeight();
+        if (width != 0 && height != 0) {
+            // 交换时一起设置尺寸,不单独调整仍在显示的上层画面
+            mVideoWidth = width;
+            mVideoHeight = height;
+            mAppliedWidth = width;
+            mAppliedHeight = height;
         }
-        releasePlayerAsync(mMediaPlayer);
-        mCurrentState = STATE_PREPARED;
-        mMediaPlayer = standbyPlayer;
-        mMediaPlayer.setDisplay(surfaceHolder);
-        mMediaPlayer.start();
-        once = true;
-        standbyPlayer = null;
-        onVideoStartPlay();
+        mSwapping = true;
+        mSwapStartNanos = System.nanoTime();
+        final long crossfadeMs = mCrossfadeMs;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTextureRenderer.swap(index, width, height, crossfadeMs);
+            }
+        });
+    }
+
+    /**
+     * @return 因视频尺寸变化调整surface和重新布局的次数
+     */
+    public long getRelayoutCount() {
+        return mRelayoutCount;
+    }
+
+    /**
+     * @return 尺寸没有变化而跳过的调整次数
+     */
+    public long getSkippedRelayoutCount() {
+        return mSkippedRelayoutCount;
+    }
+
+    // 只在事件线程读写
+    private FaststartJob mFaststartJob;
+
+    /**
+     * 在后台把当前播放列表中moov在文件末尾的本地视频改写为moov在前,之后的prepare不需要先读文件末尾.
+     * 文件被原子替换,正在播放或已经预备的播放器继续读原来的文件.
+     * 设置了{@link #setContentStore}时,已经加入存储的条目不改写,应该在加入存储之前调用.
+     *
+     * @param listener 每个文件的结果和最终报告,在后台线程回调,可以为null
+     */
+    public void optimizePlayList(final FaststartJob.Listener listener) {
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                PlaylistSource source = mPlaylist.getSource();
+                if (source == null) {
+                    return;
+                }
+                if (mFaststartJob == null) {
+                    mFaststartJob = new FaststartJob();
+                }
+                ContentStore store = mContentStore;
+                mFaststartJob.setExcludedDirectory(store != null ? store.getDirectory() : null);
+                mFaststartJob.submit(source, listener);
+            }
+        });
     }
 
     private void onVideoStartPlay() {
-        prepareNextMediaPlayer();
+        if (mJustInTime) {
+            updateExtraDepth();
+        }
+        fillStandby();
+        // 预读窗口之后的下一个视频,等到它被准备时数据已经在page cache中
+        mPrefetcher.prefetch(mPlaylist.peek(1));
+        loadKeyframeIndex(mCurrentPath);
     }
 
-    private void releasePlayerAsync(final MediaPlayer player) {
-        mTargetState = STATE_IDLE;
-        final MediaPlayer temp = player;
-        executor.execute(new Runnable() {
+    /* 按时准备 */
+
+    // 视频比准备耗时还短时,为了按时准备最多额外加深的预备窗口
+    private static final int MAX_EXTRA_DEPTH = 2;
+
+    private final PrepareLeadEstimator mPrepareLead = new PrepareLeadEstimator();
+    private volatile boolean mJustInTime;
+    // 只在事件线程读写
+    private int mExtraDepth;
+
+    /**
+     * 设置是否按时准备预备播放器.开启后不在当前视频开始时立即准备下一个,而是等到剩余播放时间
+     * 接近按来源学习到的准备耗时(加上余量)时才开始,长视频不必一直多占一个解码器;
+     * 视频比准备耗时还短时自动加深预备窗口.
+     *
+     * @param enabled true表示按时准备,false表示当前视频开始后立即准备
+     */
+    public void setJustInTimeStandby(final boolean enabled) {
+        runOnEventThread(new Runnable() {
             @Override
             public void run() {
-                if (temp != null) {
-                    temp.reset();
-                    temp.release();
+                mJustInTime = enabled;
+                if (!enabled && mExtraDepth != 0) {
+                    mExtraDepth = 0;
+                    applyLookahead();
+                } else if (isInPlaybackState()) {
+                    fillStandby();
                 }
             }
         });
     }
 
-    private Executor executor = Executors.newSingleThreadExecutor();
-}
\ No newline at end of file
+    public boolean isJustInTimeStandby() {
+        return mJustInTime;
+    }
+
+    /**
+     * @return 准备耗时的估计,可以读取最近选择的提前量和预备播放器来不及准备好的次数
+     */
+    public PrepareLeadEstimator getPrepareLeadEstimator() {
+        return mPrepareLead;
+    }
+
+    /**
+     * 只在事件线程调用.补足预备窗口;按时准备时推迟到剩余时间不超过提前量时再补足.
+     */
+    private void fillStandby() {
+        mEventHandler.removeCallbacks(mStandbyDueCheck);
+        if (mJustInTime) {
+            mStandbyDueCheck.run();
+        } else {
+            mScheduler.fill();
+        }
+    }
+
+    private final Runnable mStandbyDueCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (!isInPlaybackState()) {
+                return;
+            }
+            int duration = mPlayer.getDuration();
+            long remaining = duration > 0 ? duration - mPlayer.getCurrentPosition() : -1;
+            long delay = mPrepareLead.getDelayMs(mPlaylist, pendingStandbyCount(), remaining);
+            if (delay <= 0) {
+                mScheduler.fill();
+            } else {
+                // 暂停时位置不变,到时再检查一次
+                mEventHandler.postDelayed(this, delay);
+            }
+        }
+    };
+
+    /**
+     * @return 下一次fill()要准备的条目数,它们都要按时准备好
+     */
+    private int pendingStandbyCount() {
+        return Math.max(1, mScheduler.getDepth() - mScheduler.size());
+    }
+
+    private void updateExtraDepth() {
+        int duration = mPlayer != null ? mPlayer.getDuration() : -1;
+        long lead = mPrepareLead.getLeadMs(mPlaylist, pendingStandbyCount());
+        int extra = duration > 0 ? (int) Math.min(MAX_EXTRA_DEPTH, (lead - 1) / duration) : 0;
+        if (extra != mExtraDepth) {
+            mExtraDepth = extra;
+            applyLookahead();
+        }
+    }
+
+    /* 关键帧对齐的seek */
+
+    private static final int KEYFRAME_MEMORY_ENTRIES = 16;
+    private volatile int mSeekMode = KeyframeIndex.SEEK_EXACT;
+    private volatile KeyframeIndexCache mKeyframeCache;
+    // 当前播放的视频路径,只在事件线程读写
+    private String mCurrentPath;
+
+    /**
+     * 设置seek的对齐方式.对齐到关键帧的seek不需要从前一个关键帧解码到目标位置,
+     * 在长GOP的视频上快很多.关键帧索引在视频开始播放后在后台建立,建立之前的seek不对齐.
+     *
+     * @param mode {@link KeyframeIndex#SEEK_EXACT}等
+     */
+    public void setSeekMode(int mode) {
+        mSeekMode = mode;
+    }
+
+    public int getSeekMode() {
+        return mSeekMode;
+    }
+
+    /**
+     * 设置关键帧索引缓存,可以在多个播放器之间共享.默认在应用缓存目录的keyframes下.
+     */
+    public void setKeyframeIndexCache(KeyframeIndexCache cache) {
+        mKeyframeCache = cache;
+    }
+
+    private KeyframeIndexCache keyframeCache() {
+        if (mKeyframeCache == null) {
+            mKeyframeCache = new KeyframeIndexCache(
+                    new File(mContext.getCacheDir(), "keyframes"), KEYFRAME_MEMORY_ENTRIES);
+        }
+        return mKeyframeCache;
+    }
+
+    // 只在事件线程调用,只查内存中的索引
+    private int snapSeek(int millisSec) {
+        int mode = mSeekMode;
+        File file = mode == KeyframeIndex.SEEK_EXACT ? null : ReadAheadPrefetcher.toLocalFile(mCurrentPath);
+        if (file == null) {
+            return millisSec;
+        }
+        KeyframeIndex index = keyframeCache().peek(file);
+        return index != null ? index.snap(millisSec, mode) : millisSec;
+    }
+
+    private void loadKeyframeIndex(String path) {
+        if (mSeekMode == KeyframeIndex.SEEK_EXACT) {
+            return;
+        }
+        final File file = ReadAheadPrefetcher.toLocalFile(path);
+        final KeyframeIndexCache cache = keyframeCache();
+        if (file == null || cache.peek(file) != null) {
+            return;
+        }
+        // 准备队列已满时放弃,这个视频的seek不对齐
+        PlayerWorkScheduler.getDefault().prepare(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.get(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to index keyframes: " + file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 所有播放器共享的释放/准备任务调度器,可以读取队列深度和等待时间
+     */
+    public PlayerWorkScheduler getWorkScheduler() {
+        return PlayerWorkScheduler.getDefault();
+    }
+
+    /**
+     * 在共享的释放线程中释放播放器,释放队列已满时在当前线程释放.
+     * 播放器释放之后才归还它的解码器名额.
+     */
+    private void releasePlayerAsync(final PlayerEngine player, final DecoderBudget.Ticket ticket) {
+        if (player == null) {
+            if (ticket != null) {
+                ticket.release();
+            }
+            return;
+        }
+        final long spanId = mTracer.newAsyncId();
+        mTracer.beginAsync("releasePlayer", spanId);
+        PlayerWorkScheduler.getDefault().release(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                mTracer.begin("release");
+                try {
+                    player.release();
+                } finally {
+                    if (ticket != null) {
+                        ticket.release();
+                    }
+                    mTracer.end();
+                }
+                mMetrics.release.recordNanos(System.nanoTime() - start);
+                mTracer.endAsync("releasePlayer", spanId);
+            }
+        });
+    }
+}
@@ -0,0 +1,160 @@
+package com.easedroid.mplayer.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 播放器回调经过PlayerEventDispatcher分发到当前播放器/预备窗口的开销.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventDispatchBenchmark {
+
+    @Param({"1", "4"})
+    public int depth;
+
+    private PlayerEventDispatcher dispatcher;
+    private StandbyScheduler scheduler;
+    private PlayerEngine current;
+    private PlayerEngine stale;
+    private PlayerEngine lastStandby;
+    private int infoCount;
+
+    @Setup
+    public void setUp() {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"a", "b", "c", "d", "e"});
+        cursor.first();
+        scheduler = new StandbyScheduler(cursor, new StandbyScheduler.Host() {
+            @Override
+            public PlayerEngine prepareStandby(StandbyScheduler.Slot slot) {
+                lastStandby = new IdleEngine();
+                return lastStandby;
+            }
+
+            @Override
+            public void onStandbyPrepared(StandbyScheduler.Slot slot) {
+            }
+
+            @Override
+            public void releaseStandby(StandbyScheduler.Slot slot) {
+            }
+
+            @Override
+            public void switchTo(StandbyScheduler.Slot slot) {
+            }
+        });
+        scheduler.setDepth(depth);
+        scheduler.fill();
+        dispatcher = new PlayerEventDispatcher(scheduler, new PlayerEngine.Listener() {
+            @Override
+            public void onPrepared(PlayerEngine engine) {
+            }
+
+            @Override
+            public void onCompletion(PlayerEngine engine) {
+            }
+
+            @Override
+            public boolean onError(PlayerEngine engine, int what, int extra) {
+                return true;
+            }
+
+            @Override
+            public boolean onInfo(PlayerEngine engine, int what, int extra) {
+                infoCount++;
+                return true;
+            }
+
+            @Override
+            public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {
+            }
+
+            @Override
+            public void onBufferingUpdate(PlayerEngine engine, int percent) {
+            }
+        });
+        current = new IdleEngine();
+        stale = new IdleEngine();
+        dispatcher.setCurrent(current);
+    }
+
+    @Benchmark
+    public int infoFromCurrent() {
+        dispatcher.onInfo(current, PlayerEngine.MEDIA_INFO_VIDEO_RENDERING_START, 0);
+        return infoCount;
+    }
+
+    @Benchmark
+    public long infoFromStalePlayer() {
+        dispatcher.onInfo(stale, PlayerEngine.MEDIA_INFO_VIDEO_RENDERING_START, 0);
+        return dispatcher.getDroppedCount();
+    }
+
+    @Benchmark
+    public void preparedFromStandby(Blackhole bh) {
+        // 窗口最后一个播放器,查找需要遍历整个窗口
+        dispatcher.onPrepared(lastStandby);
+        bh.consume(scheduler.getReadyCount());
+    }
+
+    static class IdleEngine implements PlayerEngine {
+        public void setListener(Listener listener) {
+        }
+
+        public void setDataSource(String path, Map<String, String> headers) {
+        }
+
+        public void setDisplay(Object display) {
+        }
+
+        public void prepareAsync() {
+        }
+
+        public void start() {
+        }
+
+        public void pause() {
+        }
+
+        public void stop() {
+        }
+
+        public void seekTo(int millisSec) {
+        }
+
+        public boolean isPlaying() {
+            return false;
+        }
+
+        public int getDuration() {
+            return 0;
+        }
+
+        public int getCurrentPosition() {
+            return 0;
+        }
+
+        public int getVideoWidth() {
+            return 0;
+        }
+
+        public int getVideoHeight() {
+            return 0;
+        }
+
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.easedroid.mplayer.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个视频从打开到切换的完整状态转换序列.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlaybackStateBenchmark {
+
+    private final PlaybackStateMachine machine = new PlaybackStateMachine();
+
+    @Benchmark
+    public int clipLifecycle() {
+        machine.moveTo(PlaybackState.STATE_IDLE);
+        machine.moveTo(PlaybackState.STATE_PREPARING);
+        machine.moveTo(PlaybackState.STATE_PREPARED);
+        machine.moveTo(PlaybackState.STATE_PLAYING);
+        machine.setTarget(PlaybackState.STATE_PLAYING);
+        machine.moveToAndTarget(PlaybackState.STATE_PLAYBACK_COMPLETED);
+        machine.moveTo(PlaybackState.STATE_PREPARED);
+        return machine.getCurrent();
+    }
+
+    @Benchmark
+    public boolean rejectedTransition() {
+        machine.reset();
+        return machine.moveTo(PlaybackState.STATE_PLAYING);
+    }
+}
@@ -0,0 +1,47 @@
+package com.easedroid.mplayer.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlaylistCursorBenchmark {
+
+    @Param({"3", "10000"})
+    public int size;
+
+    private PlaylistCursor cursor;
+
+    @Setup
+    public void setUp() {
+        String[] paths = new String[size];
+        for (int i = 0; i < size; i++) {
+            paths[i] = "/storage/sdcard/vod/clip_" + i + ".mp4";
+        }
+        cursor = new PlaylistCursor();
+        cursor.reset(paths);
+        cursor.first();
+    }
+
+    @Benchmark
+    public String advance() {
+        return cursor.next();
+    }
+
+    @Benchmark
+    public String advanceAndRewind() {
+        cursor.next();
+        cursor.next();
+        cursor.rewind(1);
+        return cursor.next();
+    }
+}
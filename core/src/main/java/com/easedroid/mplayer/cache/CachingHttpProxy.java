@@ -0,0 +1,812 @@
+package com.easedroid.mplayer.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：CachingHttpProxy    <br/>
+ * 类描述：运行在127.0.0.1上的缓存代理,播放器通过它访问网络视频,
+ * 第一次完整读取时写入磁盘缓存,之后的请求(包括Range请求)直接从缓存返回.
+ * HLS的playlist不写入磁盘,保存在内存中并改写其中的地址,使分片也经过代理.
+ * 设置了RangeDownloader时,正在下载的视频从它的临时文件返回,读到还没下载的位置时等待<br/>
+ */
+public class CachingHttpProxy {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+    private static final String URL_PARAM = "url=";
+    // 标记改写后的子playlist地址,这类地址不一定以.m3u8结尾
+    private static final String PLAYLIST_PARAM = "hls=1";
+    private static final int MAX_PLAYLIST_BYTES = 1024 * 1024;
+    private static final int MAX_PLAYLISTS = 32;
+    // master和点播playlist不会变化,直播playlist只在一个分片时长内有效
+    private static final long STATIC_PLAYLIST_MAX_AGE_MS = 10 * 60 * 1000;
+
+    private final LruDiskCache cache;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "CachingHttpProxy");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // 正在写入缓存的key,同一个地址同时只下载一份
+    private final Set<String> downloading = new HashSet<>();
+    private ServerSocket serverSocket;
+    // playlist地址 -> 最近一次从源站读取的内容,按访问顺序淘汰
+    private final LinkedHashMap<String, PlaylistSnapshot> playlists = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long hlsMaxBandwidth;
+    private volatile RangeDownloader rangeDownloader;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+    private final AtomicLong missBytes = new AtomicLong();
+
+    public CachingHttpProxy(File cacheDir, long maxCacheBytes) {
+        this(new LruDiskCache(cacheDir, maxCacheBytes));
+    }
+
+    public CachingHttpProxy(LruDiskCache cache) {
+        this.cache = cache;
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        final ServerSocket server = serverSocket;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop(server);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (serverSocket != null) {
+            closeQuietly(serverSocket);
+            serverSocket = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    public synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    public LruDiskCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 设置HLS的码率上限,master playlist改写为只包含选中的一个码率,和HlsPrefetcher预取的码率一致.
+     *
+     * @param bandwidth 码率上限(bps),0表示使用列表中的第一个码率
+     */
+    public void setHlsMaxBandwidth(long bandwidth) {
+        hlsMaxBandwidth = Math.max(0, bandwidth);
+    }
+
+    public long getHlsMaxBandwidth() {
+        return hlsMaxBandwidth;
+    }
+
+    /**
+     * @param downloader 使用同一个缓存的下载器,它正在下载的地址不再重复访问源站
+     */
+    public void setRangeDownloader(RangeDownloader downloader) {
+        rangeDownloader = downloader;
+    }
+
+    public RangeDownloader getRangeDownloader() {
+        return rangeDownloader;
+    }
+
+    public static boolean isRemote(String url) {
+        if (url == null) {
+            return false;
+        }
+        String lower = url.toLowerCase(Locale.US);
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    /**
+     * 把网络地址改写为经过代理的本地地址,代理没有运行或不是网络地址时原样返回.
+     */
+    public String proxyUrl(String url) {
+        return proxyUrl(url, false);
+    }
+
+    private String proxyUrl(String url, boolean playlist) {
+        int port = getPort();
+        if (port < 0 || !isRemote(url)) {
+            return url;
+        }
+        try {
+            // 保留扩展名,播放器可能根据它判断格式
+            return "http://127.0.0.1:" + port + "/" + LruDiskCache.keyFor(url) + extensionOf(url)
+                    + "?" + URL_PARAM + URLEncoder.encode(url, "UTF-8") + (playlist ? "&" + PLAYLIST_PARAM : "");
+        } catch (UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return 从磁盘缓存返回给播放器的字节数
+     */
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    /**
+     * @return 从源站读取的字节数
+     */
+    public long getMissBytes() {
+        return missBytes.get();
+    }
+
+    private void acceptLoop(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handle(socket);
+                        } catch (IOException e) {
+                            // 播放器关闭了连接,例如seek或者release
+                        } finally {
+                            closeQuietly(socket);
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                // stop()关闭了serverSocket
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return;
+        }
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+        }
+        OutputStream out = socket.getOutputStream();
+        String[] parts = requestLine.split(" ");
+        String url = parts.length >= 2 ? originUrlOf(parts[1]) : null;
+        if (url == null) {
+            writeHead(out, 400, "Bad Request", null, 0, null);
+            return;
+        }
+        boolean head = "HEAD".equals(parts[0]);
+        if (HlsPlaylist.isPlaylistUrl(url) || parts[1].endsWith("&" + PLAYLIST_PARAM)) {
+            servePlaylist(out, url, head);
+            return;
+        }
+        String range = headers.get("range");
+        String key = LruDiskCache.keyFor(url);
+
+        File cached = cache.get(key);
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            serveFromCache(out, cached, url, range, head);
+            return;
+        }
+        RangeDownloader downloader = rangeDownloader;
+        RangeDownloader.Reader reader = downloader != null ? downloader.openPartial(url) : null;
+        if (reader != null) {
+            hitCount.incrementAndGet();
+            try {
+                servePartial(out, reader, url, range, head);
+            } finally {
+                reader.close();
+            }
+            return;
+        }
+        // 下载器可能刚刚完成
+        cached = cache.get(key);
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            serveFromCache(out, cached, url, range, head);
+            return;
+        }
+        missCount.incrementAndGet();
+        long rangeStart = parseRangeStart(range);
+        if (!head && rangeStart == 0 && startDownload(key)) {
+            try {
+                downloadAndServe(out, url, key, range != null);
+            } finally {
+                finishDownload(key);
+            }
+        } else {
+            passThrough(out, url, range, head);
+        }
+    }
+
+    private void serveFromCache(OutputStream out, File file, String url, String range, boolean head)
+            throws IOException {
+        long length = file.length();
+        long start = 0;
+        long end = length - 1;
+        boolean partial = range != null;
+        if (partial) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                writeHead(out, 416, "Range Not Satisfiable", null, 0, "bytes */" + length);
+                return;
+            }
+            start = bounds[0];
+            end = bounds[1];
+        }
+        long count = end - start + 1;
+        if (partial) {
+            writeHead(out, 206, "Partial Content", contentTypeOf(url), count,
+                    "bytes " + start + "-" + end + "/" + length);
+        } else {
+            writeHead(out, 200, "OK", contentTypeOf(url), count, null);
+        }
+        if (head) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = count;
+            while (remaining > 0) {
+                int n = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+                hitBytes.addAndGet(n);
+                remaining -= n;
+            }
+            out.flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 从RangeDownloader正在下载的文件返回,读不到的部分(下载失败或者等待超时)从源站读取.
+     */
+    private void servePartial(OutputStream out, RangeDownloader.Reader reader, String url, String range,
+                              boolean head) throws IOException {
+        long length = reader.length();
+        long start = 0;
+        long end = length - 1;
+        boolean partial = range != null;
+        if (partial) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                writeHead(out, 416, "Range Not Satisfiable", null, 0, "bytes */" + length);
+                return;
+            }
+            start = bounds[0];
+            end = bounds[1];
+        }
+        long count = end - start + 1;
+        if (partial) {
+            writeHead(out, 206, "Partial Content", contentTypeOf(url), count,
+                    "bytes " + start + "-" + end + "/" + length);
+        } else {
+            writeHead(out, 200, "OK", contentTypeOf(url), count, null);
+        }
+        if (head) {
+            return;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = start;
+        while (position <= end) {
+            int n = reader.read(position, buffer, 0, (int) Math.min(buffer.length, end - position + 1));
+            if (n < 0) {
+                break;
+            }
+            out.write(buffer, 0, n);
+            hitBytes.addAndGet(n);
+            position += n;
+        }
+        if (position <= end) {
+            copyFromOrigin(out, url, position, end);
+        }
+        out.flush();
+    }
+
+    /**
+     * 已经写出了响应头,把start到end(包含)从源站读出来接在后面
+     */
+    private void copyFromOrigin(OutputStream out, String url, long start, long end) throws IOException {
+        HttpURLConnection connection = openOrigin(url, "bytes=" + start + "-" + end, false);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + connection.getResponseCode() + " for range of " + url);
+            }
+            InputStream body = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = end - start + 1;
+                int n;
+                while (remaining > 0 && (n = body.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+                    out.write(buffer, 0, n);
+                    missBytes.addAndGet(n);
+                    remaining -= n;
+                }
+                if (remaining > 0) {
+                    throw new IOException("short range from " + url);
+                }
+            } finally {
+                body.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 返回改写过地址的playlist:子playlist和分片指向代理,master只保留选中的码率.
+     */
+    private void servePlaylist(OutputStream out, String url, boolean head) throws IOException {
+        HlsPlaylist playlist;
+        try {
+            playlist = loadPlaylist(url);
+        } catch (IOException e) {
+            writeHead(out, 502, "Bad Gateway", null, 0, null);
+            return;
+        }
+        final boolean master = playlist.isMaster();
+        String text = playlist.rewrite(new HlsPlaylist.UriMapper() {
+            @Override
+            public String map(String uri) {
+                return proxyUrl(uri, master);
+            }
+        }, playlist.selectVariant(hlsMaxBandwidth));
+        byte[] body = text.getBytes("UTF-8");
+        writeHead(out, 200, "OK", contentTypeOf(".m3u8"), body.length, null);
+        if (!head) {
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    /**
+     * 读取并解析playlist,内存中的内容还有效时不访问源站.
+     */
+    HlsPlaylist loadPlaylist(String url) throws IOException {
+        synchronized (playlists) {
+            PlaylistSnapshot snapshot = playlists.get(url);
+            if (snapshot != null && System.nanoTime() < snapshot.expiresNanos) {
+                return snapshot.playlist;
+            }
+        }
+        HttpURLConnection connection = openOrigin(url, null, false);
+        HlsPlaylist playlist;
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " for playlist " + url);
+            }
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            InputStream body = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = body.read(buffer)) >= 0) {
+                    text.write(buffer, 0, n);
+                    if (text.size() > MAX_PLAYLIST_BYTES) {
+                        throw new IOException("playlist too large: " + url);
+                    }
+                }
+            } finally {
+                body.close();
+            }
+            // 重定向之后相对地址以最终地址为准
+            playlist = HlsPlaylist.parse(connection.getURL().toString(), text.toString("UTF-8"));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            connection.disconnect();
+        }
+        long maxAgeMs = playlist.isMaster() || playlist.isEndList() ? STATIC_PLAYLIST_MAX_AGE_MS
+                : Math.max(1000, (long) (playlist.getTargetDurationSec() * 1000));
+        synchronized (playlists) {
+            playlists.put(url, new PlaylistSnapshot(playlist, System.nanoTime() + maxAgeMs * 1000000));
+            if (playlists.size() > MAX_PLAYLISTS) {
+                playlists.remove(playlists.keySet().iterator().next());
+            }
+        }
+        return playlist;
+    }
+
+    /**
+     * 把url的完整内容下载到缓存,已经缓存或者正在下载时直接返回.
+     *
+     * @return 下载的字节数
+     */
+    long prefetch(String url) throws IOException {
+        String key = LruDiskCache.keyFor(url);
+        if (cache.contains(key) || !startDownload(key)) {
+            return 0;
+        }
+        try {
+            HttpURLConnection connection = openOrigin(url, null, false);
+            try {
+                int code = connection.getResponseCode();
+                if (code != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + code + " for " + url);
+                }
+                long length = contentLengthOf(connection);
+                File temp = cache.newTempFile(key);
+                long written = 0;
+                InputStream body = connection.getInputStream();
+                FileOutputStream fileOut = new FileOutputStream(temp);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = body.read(buffer)) >= 0) {
+                        fileOut.write(buffer, 0, n);
+                        written += n;
+                    }
+                } finally {
+                    fileOut.close();
+                    body.close();
+                }
+                if (length >= 0 && written != length) {
+                    temp.delete();
+                    throw new IOException("incomplete response for " + url);
+                }
+                cache.commit(key, temp);
+                return written;
+            } finally {
+                connection.disconnect();
+            }
+        } finally {
+            finishDownload(key);
+        }
+    }
+
+    private static class PlaylistSnapshot {
+        final HlsPlaylist playlist;
+        final long expiresNanos;
+
+        PlaylistSnapshot(HlsPlaylist playlist, long expiresNanos) {
+            this.playlist = playlist;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    /**
+     * 从源站下载完整内容,同时返回给播放器并写入缓存.播放器中途断开时继续下载直到写完缓存.
+     */
+    private void downloadAndServe(OutputStream out, String url, String key, boolean rangeRequest)
+            throws IOException {
+        HttpURLConnection connection = openOrigin(url, null, false);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                writeHead(out, code, connection.getResponseMessage(), null, 0, null);
+                return;
+            }
+            long length = contentLengthOf(connection);
+            String contentType = connection.getContentType();
+            if (rangeRequest && length >= 0) {
+                writeHead(out, 206, "Partial Content", contentType, length,
+                        "bytes 0-" + (length - 1) + "/" + length);
+            } else {
+                writeHead(out, 200, "OK", contentType, length, null);
+            }
+            File temp = cache.newTempFile(key);
+            long written = 0;
+            boolean clientAlive = true;
+            InputStream body = connection.getInputStream();
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = body.read(buffer)) >= 0) {
+                    fileOut.write(buffer, 0, n);
+                    written += n;
+                    missBytes.addAndGet(n);
+                    if (clientAlive) {
+                        try {
+                            out.write(buffer, 0, n);
+                        } catch (IOException e) {
+                            clientAlive = false;
+                        }
+                    }
+                }
+            } finally {
+                fileOut.close();
+                body.close();
+            }
+            if (length < 0 || written == length) {
+                cache.commit(key, temp);
+            } else {
+                temp.delete();
+            }
+            if (clientAlive) {
+                out.flush();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 不经过缓存直接转发请求,用于缓存还没有建立时的Range请求.
+     */
+    private void passThrough(OutputStream out, String url, String range, boolean head) throws IOException {
+        HttpURLConnection connection = openOrigin(url, range, head);
+        try {
+            int code = connection.getResponseCode();
+            long length = contentLengthOf(connection);
+            writeHead(out, code, connection.getResponseMessage(), connection.getContentType(), length,
+                    connection.getHeaderField("Content-Range"));
+            if (head || code >= 400) {
+                return;
+            }
+            InputStream body = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = body.read(buffer)) >= 0) {
+                    out.write(buffer, 0, n);
+                    missBytes.addAndGet(n);
+                }
+                out.flush();
+            } finally {
+                body.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection openOrigin(String url, String range, boolean head) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // 需要拿到原始字节和准确的长度
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        if (head) {
+            connection.setRequestMethod("HEAD");
+        }
+        return connection;
+    }
+
+    // getContentLength()在超过2GB时溢出,getContentLengthLong()需要API 24
+    private static long contentLengthOf(HttpURLConnection connection) {
+        String value = connection.getHeaderField("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private boolean startDownload(String key) {
+        synchronized (downloading) {
+            return downloading.add(key);
+        }
+    }
+
+    private void finishDownload(String key) {
+        synchronized (downloading) {
+            downloading.remove(key);
+        }
+    }
+
+    private static void writeHead(OutputStream out, int code, String message, String contentType,
+                                  long contentLength, String contentRange) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(code).append(' ').append(message != null ? message : "").append("\r\n");
+        if (contentType != null) {
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (contentRange != null) {
+            sb.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        sb.append("Accept-Ranges: bytes\r\n");
+        sb.append("Connection: close\r\n\r\n");
+        out.write(sb.toString().getBytes("US-ASCII"));
+    }
+
+    /**
+     * @return 单个Range对应的{start, end}(包含end),无法满足时返回null
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length());
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String from = spec.substring(0, dash).trim();
+        String to = spec.substring(dash + 1).trim();
+        long start;
+        long end = length - 1;
+        try {
+            if (from.length() == 0) {
+                if (to.length() == 0) {
+                    return null;
+                }
+                start = Math.max(0, length - Long.parseLong(to));
+            } else {
+                start = Long.parseLong(from);
+                if (to.length() > 0) {
+                    end = Math.min(end, Long.parseLong(to));
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (start >= length || start > end) {
+            return null;
+        }
+        return new long[]{start, end};
+    }
+
+    /**
+     * @return Range请求的起始位置,没有Range时为0,无法解析时为-1
+     */
+    static long parseRangeStart(String range) {
+        if (range == null) {
+            return 0;
+        }
+        if (!range.startsWith("bytes=")) {
+            return -1;
+        }
+        String spec = range.substring("bytes=".length());
+        int dash = spec.indexOf('-');
+        if (dash <= 0 || spec.indexOf(',') >= 0) {
+            return -1;
+        }
+        try {
+            // 只有 bytes=0- 才能当作完整请求处理
+            if (dash + 1 < spec.length()) {
+                return -1;
+            }
+            return Long.parseLong(spec.substring(0, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String originUrlOf(String requestTarget) {
+        int query = requestTarget.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String param : requestTarget.substring(query + 1).split("&")) {
+            if (param.startsWith(URL_PARAM)) {
+                try {
+                    return URLDecoder.decode(param.substring(URL_PARAM.length()), "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    static String extensionOf(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int slash = url.lastIndexOf('/', end - 1);
+        int dot = url.lastIndexOf('.', end - 1);
+        if (dot <= slash || end - dot > 6) {
+            return "";
+        }
+        return url.substring(dot, end);
+    }
+
+    private static String contentTypeOf(String url) {
+        String extension = extensionOf(url).toLowerCase(Locale.US);
+        if (".mp4".equals(extension)) {
+            return "video/mp4";
+        } else if (".m3u8".equals(extension)) {
+            return "application/vnd.apple.mpegurl";
+        } else if (".ts".equals(extension)) {
+            return "video/mp2t";
+        }
+        return "application/octet-stream";
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int last = sb.length() - 1;
+                if (last >= 0 && sb.charAt(last) == '\r') {
+                    sb.setLength(last);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    // Socket和ServerSocket在API 19之前没有实现Closeable
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package com.easedroid.mplayer.cache;
+
+import com.easedroid.mplayer.core.PlaylistSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：ContentStore    <br/>
+ * 类描述：按内容寻址的视频存储.加入的文件按SHA-256保存在objects目录下,内容相同的文件只保存一份;
+ * 每个key(本地路径或网络地址)引用一个摘要,引用计数为0的文件在{@link #purge}或下次打开时删除.
+ * 播放列表经过{@link #map}之后,不同名字的同一个视频指向同一个文件,预读、索引和page cache都可以共享<br/>
+ */
+public class ContentStore {
+
+    private static final int MAGIC = 0x43415331; // "CAS1"
+    private static final String OBJECTS_DIR = "objects";
+    private static final String REFS_FILE = "refs";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final File directory;
+    private final File objects;
+    private final File refsFile;
+    private final Object saveLock = new Object();
+    // key -> 摘要
+    private final Map<String, String> refs = new HashMap<>();
+    // 摘要 -> 引用计数
+    private final Map<String, Integer> counts = new HashMap<>();
+    // 引用计数已经为0,等待purge()删除的摘要
+    private final Set<String> unreferenced = new HashSet<>();
+    private boolean dirty;
+    private int tempSequence;
+
+    private long addCount;
+    private long duplicateCount;
+    private long duplicateBytes;
+
+    /**
+     * 打开目录中的存储,删除上次没有写完的临时文件和没有被引用的文件.
+     */
+    public ContentStore(File directory) {
+        this.directory = directory;
+        this.objects = new File(directory, OBJECTS_DIR);
+        this.refsFile = new File(directory, REFS_FILE);
+        objects.mkdirs();
+        load();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 把本地文件加入存储.
+     *
+     * @param key  引用的名字,通常是播放列表中的路径
+     * @param file 文件内容
+     * @param move true时存储接管这个文件:内容已经存在时删除它,否则移动到存储中;false时复制.
+     *             接管之前先把引用写入文件,进程在中途退出时不会丢失内容
+     * @return 存储中的文件
+     */
+    public File add(String key, File file, boolean move) throws IOException {
+        FileChannel in = new FileInputStream(file).getChannel();
+        String digest;
+        try {
+            digest = hash(in, null);
+        } finally {
+            in.close();
+        }
+        long length = file.length();
+        File object = objectFile(digest);
+        // 引用先落盘:之后退出时,还没有移动的内容由原文件保留,下次打开时丢弃指向不存在文件的引用
+        if (move && !writeRefs(key, digest)) {
+            throw new IOException("unable to save refs for " + key);
+        }
+        synchronized (this) {
+            if (object.isFile()) {
+                if (move) {
+                    file.delete();
+                }
+                recordDuplicate(length);
+                reference(key, digest);
+                return object;
+            }
+            if (move && file.renameTo(object)) {
+                reference(key, digest);
+                return object;
+            }
+        }
+        // 复制时不持有锁;不在同一个分区时也无法直接移动
+        File temp = newTempFile();
+        try {
+            copy(file, temp);
+        } catch (IOException e) {
+            temp.delete();
+            markDirty();
+            throw e;
+        }
+        synchronized (this) {
+            if (object.isFile()) {
+                // 复制期间其他线程加入了同样的内容
+                temp.delete();
+                recordDuplicate(length);
+            } else if (!temp.renameTo(object)) {
+                temp.delete();
+                dirty = true;
+                throw new IOException("unable to store " + file);
+            }
+            if (move) {
+                file.delete();
+            }
+            reference(key, digest);
+        }
+        return object;
+    }
+
+    /**
+     * 把流中的内容加入存储,写入临时文件的同时计算摘要,例如边下载边保存.
+     *
+     * @return 存储中的文件
+     */
+    public File add(String key, InputStream in) throws IOException {
+        File temp = newTempFile();
+        String digest;
+        FileChannel out = new FileOutputStream(temp).getChannel();
+        try {
+            digest = hash(Channels.newChannel(in), out);
+        } catch (IOException e) {
+            out.close();
+            temp.delete();
+            throw e;
+        }
+        out.close();
+        File object = objectFile(digest);
+        synchronized (this) {
+            if (object.isFile()) {
+                recordDuplicate(temp.length());
+                temp.delete();
+            } else if (!temp.renameTo(object)) {
+                temp.delete();
+                throw new IOException("unable to store " + key);
+            }
+            reference(key, digest);
+        }
+        return object;
+    }
+
+    /**
+     * 把播放列表中还没有加入存储的本地文件加入存储,网络地址和不存在的文件跳过.
+     *
+     * @param move 见{@link #add(String, File, boolean)}
+     * @return 加入的条目数
+     */
+    public int addAll(PlaylistSource source, boolean move) {
+        int added = 0;
+        for (int i = 0; i < source.size(); i++) {
+            String path = source.get(i);
+            if (path == null || CachingHttpProxy.isRemote(path) || contains(path)) {
+                continue;
+            }
+            File file = new File(path.startsWith("file://") ? path.substring("file://".length()) : path);
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                add(path, file, move);
+                added++;
+            } catch (IOException e) {
+                // 跳过读取失败的文件,播放时仍然使用原来的路径
+            }
+        }
+        save();
+        return added;
+    }
+
+    /**
+     * @return key对应的存储文件,没有加入存储时返回null
+     */
+    public synchronized File get(String key) {
+        String digest = refs.get(key);
+        return digest != null ? objectFile(digest) : null;
+    }
+
+    public synchronized boolean contains(String key) {
+        return refs.containsKey(key);
+    }
+
+    /**
+     * @return key对应的内容摘要,没有加入存储时返回null
+     */
+    public synchronized String digestOf(String key) {
+        return refs.get(key);
+    }
+
+    /**
+     * @return 引用这个摘要的key数
+     */
+    public synchronized int refCount(String digest) {
+        Integer count = counts.get(digest);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @return 存储中的文件路径,没有加入存储时原样返回
+     */
+    public String resolve(String path) {
+        File file = path != null ? get(path) : null;
+        return file != null ? file.getAbsolutePath() : path;
+    }
+
+    /**
+     * @return 条目映射到存储文件的播放列表,没有加入存储的条目保持不变
+     */
+    public PlaylistSource map(final PlaylistSource source) {
+        return new PlaylistSource() {
+            @Override
+            public int size() {
+                return source.size();
+            }
+
+            @Override
+            public String get(int index) {
+                return resolve(source.get(index));
+            }
+        };
+    }
+
+    /**
+     * 删除key的引用.内容不再被引用时文件暂时保留,{@link #map}返回的路径可能还在预备播放器中使用,
+     * 由{@link #purge}删除.
+     */
+    public synchronized void release(String key) {
+        String digest = refs.remove(key);
+        if (digest != null) {
+            unreference(digest);
+            dirty = true;
+        }
+    }
+
+    /**
+     * 删除不再被引用的文件,应在使用旧播放列表的播放器都释放之后调用,例如切换播放列表之后.
+     *
+     * @return 删除的文件数
+     */
+    public int purge() {
+        List<File> files = new ArrayList<>();
+        synchronized (this) {
+            for (String digest : unreferenced) {
+                files.add(objectFile(digest));
+            }
+            unreferenced.clear();
+        }
+        int deleted = 0;
+        for (File file : files) {
+            if (file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return 存储的文件数
+     */
+    public synchronized int getObjectCount() {
+        return counts.size();
+    }
+
+    public synchronized int getKeyCount() {
+        return refs.size();
+    }
+
+    /**
+     * @return 存储的文件总字节数
+     */
+    public synchronized long getStoredBytes() {
+        long total = 0;
+        for (String digest : counts.keySet()) {
+            total += objectFile(digest).length();
+        }
+        return total;
+    }
+
+    public synchronized long getAddCount() {
+        return addCount;
+    }
+
+    /**
+     * @return 加入时内容已经存在的次数
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return 因为内容已经存在而没有再保存的字节数
+     */
+    public synchronized long getDuplicateBytes() {
+        return duplicateBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ContentStore{keys=" + refs.size() + ", objects=" + counts.size()
+                + ", duplicates=" + duplicateCount + ", saved=" + duplicateBytes / 1024 + "KB}";
+    }
+
+    /**
+     * 把有变化的引用写入文件,先写临时文件再替换.引用没有保存时进程退出,
+     * 下次打开时没有引用的文件会被删除.
+     */
+    public void save() {
+        writeRefs(null, null);
+    }
+
+    /**
+     * @param pendingKey 不为null时额外写入一个还没有加入内存的引用
+     * @return 是否写入成功,没有变化时也返回true
+     */
+    private boolean writeRefs(String pendingKey, String pendingDigest) {
+        synchronized (saveLock) {
+            Map<String, String> copy;
+            synchronized (this) {
+                if (!dirty && pendingKey == null) {
+                    return true;
+                }
+                copy = new HashMap<>(refs);
+                dirty = false;
+            }
+            if (pendingKey != null) {
+                copy.put(pendingKey, pendingDigest);
+            }
+            File temp = new File(refsFile.getPath() + TEMP_SUFFIX);
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                out.writeInt(MAGIC);
+                out.writeInt(copy.size());
+                for (Map.Entry<String, String> entry : copy.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+                out.close();
+                out = null;
+                if (!temp.renameTo(refsFile)) {
+                    throw new IOException("unable to replace " + refsFile);
+                }
+                return true;
+            } catch (IOException e) {
+                temp.delete();
+                markDirty();
+                return false;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (refsFile.isFile()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(refsFile)));
+                if (in.readInt() == MAGIC) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String key = in.readUTF();
+                        String digest = in.readUTF();
+                        if (objectFile(digest).isFile()) {
+                            refs.put(key, digest);
+                            Integer refCount = counts.get(digest);
+                            counts.put(digest, refCount != null ? refCount + 1 : 1);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // 文件不完整,没有读到的引用需要重新加入
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        File[] files = objects.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX) || !counts.containsKey(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    private void reference(String key, String digest) {
+        addCount++;
+        String previous = refs.put(key, digest);
+        if (digest.equals(previous)) {
+            return;
+        }
+        Integer count = counts.get(digest);
+        counts.put(digest, count != null ? count + 1 : 1);
+        unreferenced.remove(digest);
+        if (previous != null) {
+            // key的内容变了
+            unreference(previous);
+        }
+        dirty = true;
+    }
+
+    private void unreference(String digest) {
+        Integer count = counts.get(digest);
+        if (count == null || count <= 1) {
+            counts.remove(digest);
+            unreferenced.add(digest);
+        } else {
+            counts.put(digest, count - 1);
+        }
+    }
+
+    private void recordDuplicate(long length) {
+        duplicateCount++;
+        duplicateBytes += length;
+    }
+
+    private File objectFile(String digest) {
+        return new File(objects, digest);
+    }
+
+    private synchronized File newTempFile() {
+        return new File(objects, (tempSequence++) + "." + System.nanoTime() + TEMP_SUFFIX);
+    }
+
+    /**
+     * 读完in并计算SHA-256,out不为null时同时写入out.使用direct buffer,
+     * 文件通道读入时不需要经过Java堆的中转拷贝.
+     */
+    static String hash(ReadableByteChannel in, FileChannel out) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        while (in.read(buffer) >= 0) {
+            buffer.flip();
+            if (out != null) {
+                buffer.mark();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.reset();
+            }
+            digest.update(buffer);
+            buffer.clear();
+        }
+        byte[] hash = digest.digest();
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        FileChannel in = new FileInputStream(from).getChannel();
+        try {
+            FileChannel out = new RandomAccessFile(to, "rw").getChannel();
+            try {
+                long position = 0;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.easedroid.mplayer.cache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：HlsPlaylist    <br/>
+ * 类描述：解析HLS的master playlist和media playlist,选择码率,并改写其中的地址.
+ * 只处理预取和转发需要的标签,其余行原样保留<br/>
+ */
+public class HlsPlaylist {
+
+    private static final String TAG_HEADER = "#EXTM3U";
+    private static final String TAG_STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final String TAG_INF = "#EXTINF:";
+    private static final String TAG_TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+    private static final String TAG_MEDIA_SEQUENCE = "#EXT-X-MEDIA-SEQUENCE:";
+    private static final String TAG_BYTERANGE = "#EXT-X-BYTERANGE:";
+    private static final String TAG_ENDLIST = "#EXT-X-ENDLIST";
+    private static final String TAG_PLAYLIST_TYPE_VOD = "#EXT-X-PLAYLIST-TYPE:VOD";
+    private static final String TAG_KEY = "#EXT-X-KEY:";
+    private static final String TAG_MAP = "#EXT-X-MAP:";
+    private static final Pattern URI_ATTRIBUTE = Pattern.compile("URI=\"([^\"]*)\"");
+    private static final Pattern BANDWIDTH_ATTRIBUTE = Pattern.compile("(?:^|[:,])BANDWIDTH=(\\d+)");
+    private static final Pattern RESOLUTION_ATTRIBUTE = Pattern.compile("RESOLUTION=(\\d+)x(\\d+)");
+    // 直播从倒数第几个分片开始播放,和播放器的默认行为一致
+    private static final int LIVE_EDGE_SEGMENTS = 3;
+
+    /**
+     * 改写playlist中的地址
+     */
+    public interface UriMapper {
+        /**
+         * @param uri 已经按playlist地址解析成的绝对地址
+         * @return 写入playlist的地址
+         */
+        String map(String uri);
+    }
+
+    public static class Variant {
+        public final String uri;
+        public final long bandwidth;
+        public final int width;
+        public final int height;
+
+        Variant(String uri, long bandwidth, int width, int height) {
+            this.uri = uri;
+            this.bandwidth = bandwidth;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return "Variant{" + bandwidth + "bps, " + width + "x" + height + ", " + uri + "}";
+        }
+    }
+
+    public static class Segment {
+        public final String uri;
+        public final double durationSec;
+        // 带#EXT-X-BYTERANGE的分片只是文件的一部分
+        public final boolean byteRange;
+
+        Segment(String uri, double durationSec, boolean byteRange) {
+            this.uri = uri;
+            this.durationSec = durationSec;
+            this.byteRange = byteRange;
+        }
+    }
+
+    private final String url;
+    private final List<String> lines;
+    private final List<Variant> variants = new ArrayList<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private double targetDurationSec;
+    private long mediaSequence;
+    private boolean endList;
+    private String initUri;
+
+    private HlsPlaylist(String url, List<String> lines) {
+        this.url = url;
+        this.lines = lines;
+    }
+
+    /**
+     * @return 地址是否指向m3u8 playlist
+     */
+    public static boolean isPlaylistUrl(String url) {
+        return url != null && ".m3u8".equalsIgnoreCase(CachingHttpProxy.extensionOf(url));
+    }
+
+    /**
+     * @param url  playlist的地址,用于解析相对地址
+     * @param text playlist的内容
+     * @throws IllegalArgumentException 不是m3u8格式
+     */
+    public static HlsPlaylist parse(String url, String text) {
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\r?\n")) {
+            lines.add(line.trim());
+        }
+        int first = 0;
+        while (first < lines.size() && lines.get(first).length() == 0) {
+            first++;
+        }
+        if (first == lines.size() || !lines.get(first).startsWith(TAG_HEADER)) {
+            throw new IllegalArgumentException("not a m3u8 playlist: " + url);
+        }
+        HlsPlaylist playlist = new HlsPlaylist(url, lines);
+        String streamInf = null;
+        double duration = -1;
+        boolean byteRange = false;
+        for (String line : lines) {
+            if (line.length() == 0) {
+                continue;
+            }
+            if (line.startsWith("#")) {
+                if (line.startsWith(TAG_STREAM_INF)) {
+                    streamInf = line;
+                } else if (line.startsWith(TAG_INF)) {
+                    duration = parseDouble(line.substring(TAG_INF.length()).split(",")[0]);
+                } else if (line.startsWith(TAG_BYTERANGE)) {
+                    byteRange = true;
+                } else if (line.startsWith(TAG_TARGET_DURATION)) {
+                    playlist.targetDurationSec = parseDouble(line.substring(TAG_TARGET_DURATION.length()));
+                } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
+                    playlist.mediaSequence = (long) parseDouble(line.substring(TAG_MEDIA_SEQUENCE.length()));
+                } else if (line.startsWith(TAG_MAP)) {
+                    Matcher uri = URI_ATTRIBUTE.matcher(line);
+                    if (uri.find()) {
+                        playlist.initUri = resolve(url, uri.group(1));
+                    }
+                } else if (line.startsWith(TAG_ENDLIST) || line.startsWith(TAG_PLAYLIST_TYPE_VOD)) {
+                    playlist.endList = true;
+                }
+                continue;
+            }
+            String uri = resolve(url, line);
+            if (streamInf != null) {
+                Matcher resolution = RESOLUTION_ATTRIBUTE.matcher(streamInf);
+                boolean sized = resolution.find();
+                playlist.variants.add(new Variant(uri, parseBandwidth(streamInf),
+                        sized ? Integer.parseInt(resolution.group(1)) : 0,
+                        sized ? Integer.parseInt(resolution.group(2)) : 0));
+                streamInf = null;
+            } else {
+                playlist.segments.add(new Segment(uri, Math.max(0, duration), byteRange));
+            }
+            duration = -1;
+            byteRange = false;
+        }
+        return playlist;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return 是否是列出多个码率的master playlist
+     */
+    public boolean isMaster() {
+        return !variants.isEmpty();
+    }
+
+    public List<Variant> getVariants() {
+        return Collections.unmodifiableList(variants);
+    }
+
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    public double getTargetDurationSec() {
+        return targetDurationSec;
+    }
+
+    public long getMediaSequence() {
+        return mediaSequence;
+    }
+
+    /**
+     * @return fMP4分片的初始化分片(#EXT-X-MAP)地址,没有时返回null
+     */
+    public String getInitUri() {
+        return initUri;
+    }
+
+    /**
+     * @return 是否是点播(不会再增加分片),否则是直播
+     */
+    public boolean isEndList() {
+        return endList;
+    }
+
+    /**
+     * 选择不超过maxBandwidth的最高码率;都超过时选择最低码率.
+     *
+     * @param maxBandwidth 码率上限(bps),0表示使用列表中的第一个,和播放器起播时的选择一致
+     * @return 选中的码率,不是master playlist时返回null
+     */
+    public Variant selectVariant(long maxBandwidth) {
+        if (variants.isEmpty()) {
+            return null;
+        }
+        if (maxBandwidth <= 0) {
+            return variants.get(0);
+        }
+        Variant best = null;
+        Variant lowest = null;
+        for (Variant variant : variants) {
+            if (variant.bandwidth <= maxBandwidth && (best == null || variant.bandwidth > best.bandwidth)) {
+                best = variant;
+            }
+            if (lowest == null || variant.bandwidth < lowest.bandwidth) {
+                lowest = variant;
+            }
+        }
+        return best != null ? best : lowest;
+    }
+
+    /**
+     * @return 播放器起播时最先请求的count个分片:点播从头开始,直播从倒数第三个分片开始
+     */
+    public List<Segment> startSegments(int count) {
+        int start = endList ? 0 : Math.max(0, segments.size() - LIVE_EDGE_SEGMENTS);
+        int end = Math.min(segments.size(), start + Math.max(0, count));
+        return Collections.unmodifiableList(segments.subList(start, end));
+    }
+
+    /**
+     * 改写playlist中的地址.密钥地址只解析成绝对地址,不经过mapper,避免密钥写入缓存.
+     *
+     * @param mapper 改写分片、子playlist和初始化分片的地址
+     * @param keep   master playlist中只保留这个码率,null表示全部保留
+     */
+    public String rewrite(UriMapper mapper, Variant keep) {
+        StringBuilder sb = new StringBuilder();
+        String pendingStreamInf = null;
+        for (String line : lines) {
+            if (line.length() == 0) {
+                continue;
+            }
+            if (line.startsWith(TAG_STREAM_INF)) {
+                pendingStreamInf = line;
+                continue;
+            }
+            if (line.startsWith("#")) {
+                sb.append(rewriteAttribute(line, mapper)).append('\n');
+                continue;
+            }
+            String uri = resolve(url, line);
+            if (pendingStreamInf != null) {
+                boolean kept = keep == null || keep.uri.equals(uri);
+                if (kept) {
+                    sb.append(pendingStreamInf).append('\n').append(mapper.map(uri)).append('\n');
+                }
+                pendingStreamInf = null;
+            } else {
+                sb.append(mapper.map(uri)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private String rewriteAttribute(String line, UriMapper mapper) {
+        Matcher matcher = URI_ATTRIBUTE.matcher(line);
+        if (!matcher.find()) {
+            return line;
+        }
+        String uri = resolve(url, matcher.group(1));
+        String mapped = line.startsWith(TAG_KEY) ? uri : mapper.map(uri);
+        return line.substring(0, matcher.start(1)) + mapped + line.substring(matcher.end(1));
+    }
+
+    /**
+     * @return uri相对于base的绝对地址,无法解析时原样返回
+     */
+    static String resolve(String base, String uri) {
+        try {
+            return new URL(new URL(base), uri).toString();
+        } catch (MalformedURLException e) {
+            return uri;
+        }
+    }
+
+    private static long parseBandwidth(String streamInf) {
+        Matcher matcher = BANDWIDTH_ATTRIBUTE.matcher(streamInf);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.easedroid.mplayer.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：HlsPrefetcher    <br/>
+ * 类描述：预取即将播放的HLS视频:通过CachingHttpProxy读取master和media playlist,
+ * 按代理的码率上限选择码率,把播放器起播时最先请求的几个分片下载到缓存.
+ * 之后播放器经过代理读取playlist和这些分片时都不需要访问源站<br/>
+ */
+public class HlsPrefetcher {
+
+    public static final int DEFAULT_SEGMENT_COUNT = 3;
+    public static final long DEFAULT_BYTE_BUDGET = 8 * 1024 * 1024;
+
+    public interface Callback {
+        /**
+         * 预取结束,在prefetch()指定的Executor上调用.
+         *
+         * @param segments 已经在缓存中的分片数(包括初始化分片),失败或被取消时可能为0
+         */
+        void onPrefetched(String url, int segments);
+    }
+
+    private final CachingHttpProxy proxy;
+    // 依次处理,同时只占用一个连接,不和正在播放的视频抢带宽
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HlsPrefetcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // cancelAll()时加一,之前提交的预取不再下载
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile int segmentCount;
+    private volatile long byteBudget;
+
+    private final AtomicLong prefetchedSegments = new AtomicLong();
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public HlsPrefetcher(CachingHttpProxy proxy) {
+        this(proxy, DEFAULT_SEGMENT_COUNT, DEFAULT_BYTE_BUDGET);
+    }
+
+    /**
+     * @param proxy        播放器使用的缓存代理,分片写入它的缓存
+     * @param segmentCount 每个视频预取的分片数
+     * @param byteBudget   每个视频预取的字节数上限
+     */
+    public HlsPrefetcher(CachingHttpProxy proxy, int segmentCount, long byteBudget) {
+        this.proxy = proxy;
+        this.segmentCount = Math.max(0, segmentCount);
+        this.byteBudget = Math.max(0, byteBudget);
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = Math.max(0, segmentCount);
+    }
+
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = Math.max(0, byteBudget);
+    }
+
+    public void prefetch(String url) {
+        prefetch(url, null, null);
+    }
+
+    /**
+     * 在后台预取url,不是HLS地址时直接回调.
+     *
+     * @param executor 回调所在的Executor,callback为null时忽略
+     * @param callback 预取结束(包括失败)后的回调,可以为null
+     */
+    public void prefetch(final String url, final Executor executor, final Callback callback) {
+        if (!CachingHttpProxy.isRemote(url) || !HlsPlaylist.isPlaylistUrl(url)) {
+            deliver(executor, callback, url, 0);
+            return;
+        }
+        final int expected = generation.get();
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int segments = 0;
+                try {
+                    segments = fetch(url, expected);
+                } catch (IOException e) {
+                    failedCount.incrementAndGet();
+                }
+                deliver(executor, callback, url, segments);
+            }
+        });
+    }
+
+    /**
+     * 放弃还没有完成的预取,它们的回调仍然会收到.
+     */
+    public void cancelAll() {
+        generation.incrementAndGet();
+    }
+
+    public void shutdown() {
+        cancelAll();
+        executor.shutdown();
+    }
+
+    /**
+     * @return 下载到缓存的分片数,不包括已经在缓存中的
+     */
+    public long getPrefetchedSegments() {
+        return prefetchedSegments.get();
+    }
+
+    public long getPrefetchedBytes() {
+        return prefetchedBytes.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "HlsPrefetcher{segments=" + prefetchedSegments.get() + ", bytes=" + prefetchedBytes.get() / 1024
+                + "KB, failed=" + failedCount.get() + "}";
+    }
+
+    /**
+     * @return 在缓存中的分片数
+     */
+    private int fetch(String url, int expected) throws IOException {
+        HlsPlaylist playlist = proxy.loadPlaylist(url);
+        long bandwidth = 0;
+        if (playlist.isMaster()) {
+            HlsPlaylist.Variant variant = playlist.selectVariant(proxy.getHlsMaxBandwidth());
+            bandwidth = variant.bandwidth;
+            playlist = proxy.loadPlaylist(variant.uri);
+        }
+        List<String> uris = new ArrayList<>();
+        List<Double> durations = new ArrayList<>();
+        if (playlist.getInitUri() != null) {
+            uris.add(playlist.getInitUri());
+            durations.add(0.0);
+        }
+        for (HlsPlaylist.Segment segment : playlist.startSegments(segmentCount)) {
+            if (segment.byteRange) {
+                // 分片只是大文件的一部分,整个下载可能远超预算
+                break;
+            }
+            uris.add(segment.uri);
+            durations.add(segment.durationSec);
+        }
+        long budget = byteBudget;
+        long used = 0;
+        int segments = 0;
+        for (int i = 0; i < uris.size(); i++) {
+            // 按码率估计分片大小,第一个之后超出预算时停止
+            long estimate = (long) (bandwidth / 8 * durations.get(i));
+            if (generation.get() != expected || used > 0 && used + estimate > budget) {
+                break;
+            }
+            long bytes = proxy.prefetch(uris.get(i));
+            if (bytes > 0) {
+                prefetchedSegments.incrementAndGet();
+                prefetchedBytes.addAndGet(bytes);
+            }
+            used += bytes;
+            segments++;
+            if (used >= budget) {
+                break;
+            }
+        }
+        return segments;
+    }
+
+    private static void deliver(Executor executor, final Callback callback, final String url, final int segments) {
+        if (callback == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPrefetched(url, segments);
+            }
+        });
+    }
+}
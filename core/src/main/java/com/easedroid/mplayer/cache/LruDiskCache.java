@@ -0,0 +1,165 @@
+package com.easedroid.mplayer.cache;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：LruDiskCache    <br/>
+ * 类描述：按总字节数限制大小的磁盘缓存,超出上限时淘汰最久没有访问的文件<br/>
+ */
+public class LruDiskCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    // key -> 文件长度,按访问顺序排列,队首最久没有被访问
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long evictionCount;
+    private int tempSequence;
+
+    public LruDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+        load();
+    }
+
+    /**
+     * 根据文件的修改时间恢复访问顺序,并删除上次没有写完的临时文件.
+     */
+    private synchronized void load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * @return 缓存的文件,不存在时返回null
+     */
+    public synchronized File get(String key) {
+        // get()会把key移动到访问顺序的末尾
+        if (entries.get(key) == null) {
+            return null;
+        }
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            size -= entries.remove(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * @return 用于写入key对应内容的临时文件,写完后调用commit()
+     */
+    public synchronized File newTempFile(String key) {
+        return new File(directory, key + "." + (tempSequence++) + TEMP_SUFFIX);
+    }
+
+    /**
+     * 将写完的临时文件加入缓存,并在超出上限时淘汰旧文件.
+     *
+     * @return 加入缓存的文件,文件本身超过上限时返回null
+     */
+    public synchronized File commit(String key, File temp) {
+        long length = temp.length();
+        if (length > maxBytes) {
+            temp.delete();
+            return null;
+        }
+        remove(key);
+        File file = new File(directory, key);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return null;
+        }
+        entries.put(key, length);
+        size += length;
+        trimToSize();
+        return entries.containsKey(key) ? file : null;
+    }
+
+    public synchronized void remove(String key) {
+        Long length = entries.remove(key);
+        if (length != null) {
+            size -= length;
+            new File(directory, key).delete();
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            evictionCount++;
+            // 正在被读取的文件在Linux上删除后仍然可以继续读完
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * @return 由url生成的缓存key
+     */
+    public static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
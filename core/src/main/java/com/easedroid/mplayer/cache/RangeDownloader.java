@@ -0,0 +1,801 @@
+package com.easedroid.mplayer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：RangeDownloader    <br/>
+ * 类描述：用多个并行的HTTP Range请求下载即将播放的网络视频.文件按长度预先分配(稀疏文件),
+ * 每个连接领取一个块,通过FileChannel按位置写入;先下载开头和最后一块(moov可能在末尾),再按顺序下载其余部分.
+ * 下载完成后加入LruDiskCache.下载中的文件不直接交给播放器(未写入的部分读出来是0),只能通过{@link #openPartial}
+ * 读取,CachingHttpProxy用它边下边播,读到还没下载的位置时等待.所有连接共享一个带宽上限<br/>
+ */
+public class RangeDownloader {
+
+    public static final int DEFAULT_CONNECTIONS = 4;
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+    public static final long DEFAULT_READY_BYTES = 2 * 1024 * 1024;
+    // 同时进行的下载数,超出时取消最早开始且没有被读取的
+    public static final int DEFAULT_MAX_ACTIVE = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+    private static final int CHUNK_RETRIES = 2;
+
+    public interface Callback {
+        /**
+         * 视频可以播放了,在fetch()指定的Executor上调用.
+         *
+         * @param file 下载完成的缓存文件;为null时调用者应通过CachingHttpProxy访问,
+         *             可能是下载失败或被取消,也可能是partial方式的开头已经就绪
+         */
+        void onReady(String url, File file);
+    }
+
+    /**
+     * 读取正在下载的文件,读到还没下载的位置时等待.只能在一个线程中使用,用完后必须close().
+     */
+    public interface Reader {
+        long length();
+
+        /**
+         * @return 读到的字节数,到达文件末尾,下载失败或者等待超时时返回-1,调用者应从源站读取剩余部分
+         */
+        int read(long position, byte[] buffer, int offset, int count) throws IOException;
+
+        void close();
+    }
+
+    private final LruDiskCache cache;
+    private final int connections;
+    private final int chunkSize;
+    private final RateLimiter limiter;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RangeDownloader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // url -> 下载,按开始顺序排列
+    private final LinkedHashMap<String, Download> downloads = new LinkedHashMap<>();
+    private volatile long readyBytes = DEFAULT_READY_BYTES;
+    private int maxActive = DEFAULT_MAX_ACTIVE;
+
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+
+    public RangeDownloader(LruDiskCache cache) {
+        this(cache, DEFAULT_CONNECTIONS, DEFAULT_CHUNK_SIZE, 0);
+    }
+
+    /**
+     * @param cache             下载完成的文件加入这个缓存,CachingHttpProxy使用同一个缓存时之后的请求直接命中
+     * @param connections       每个下载的并行连接数
+     * @param chunkSize         每个Range请求的字节数
+     * @param maxBytesPerSecond 所有下载合计的带宽上限,0表示不限制
+     */
+    public RangeDownloader(LruDiskCache cache, int connections, int chunkSize, long maxBytesPerSecond) {
+        this.cache = cache;
+        this.connections = Math.max(1, connections);
+        this.chunkSize = Math.max(BUFFER_SIZE, chunkSize);
+        this.limiter = new RateLimiter(maxBytesPerSecond);
+    }
+
+    /**
+     * @param bytes 开头连续下载多少字节之后交给播放器,文件更短时需要全部下载完
+     */
+    public void setReadyBytes(long bytes) {
+        readyBytes = Math.max(0, bytes);
+    }
+
+    public synchronized void setMaxActive(int maxActive) {
+        this.maxActive = Math.max(1, maxActive);
+    }
+
+    public void setMaxBytesPerSecond(long bytesPerSecond) {
+        limiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * @return url已经下载完成的缓存文件,还在下载或者不是网络地址时返回null
+     */
+    public File getReadyFile(String url) {
+        if (!CachingHttpProxy.isRemote(url)) {
+            return null;
+        }
+        return cache.get(LruDiskCache.keyFor(url));
+    }
+
+    /**
+     * 开始下载url(已经在下载时不重复开始),下载完成或失败后在executor上回调callback.
+     */
+    public void fetch(String url, Executor executor, Callback callback) {
+        fetch(url, executor, callback, false);
+    }
+
+    /**
+     * @param partial 为true时开头就绪后就以null回调,调用者通过CachingHttpProxy边下边播,
+     *                代理需要先{@link CachingHttpProxy#setRangeDownloader}
+     */
+    public void fetch(String url, Executor executor, Callback callback, boolean partial) {
+        File cached = cache.get(LruDiskCache.keyFor(url));
+        if (cached != null) {
+            deliver(executor, callback, url, cached);
+            return;
+        }
+        List<Download> evicted = new ArrayList<>();
+        Download download;
+        boolean created = false;
+        synchronized (this) {
+            download = downloads.get(url);
+            if (download == null) {
+                download = new Download(url);
+                downloads.put(url, download);
+                created = true;
+                Iterator<Download> it = downloads.values().iterator();
+                while (downloads.size() - evicted.size() > maxActive && it.hasNext()) {
+                    Download oldest = it.next();
+                    // 正在被播放器读取的下载不能取消
+                    if (oldest != download && !oldest.hasReaders()) {
+                        evicted.add(oldest);
+                    }
+                }
+            }
+        }
+        for (Download old : evicted) {
+            old.cancel(false);
+        }
+        if (!download.addCallback(executor, callback, partial) || !created) {
+            return;
+        }
+        final Download started = download;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.probe();
+            }
+        });
+    }
+
+    /**
+     * 打开url正在进行的下载,用于边下边播.打开期间这个下载不会被取消,临时文件也不会被删除.
+     *
+     * @return 没有在下载,服务器不支持Range或者还不知道文件长度时返回null
+     */
+    public Reader openPartial(String url) {
+        Download download;
+        synchronized (this) {
+            download = downloads.get(url);
+        }
+        return download != null ? download.openReader() : null;
+    }
+
+    /**
+     * 取消url的下载,等待中的回调收到null.正在被读取的下载不会被取消.
+     */
+    public void cancel(String url) {
+        Download download;
+        synchronized (this) {
+            download = downloads.get(url);
+        }
+        if (download != null) {
+            download.cancel(false);
+        }
+    }
+
+    /**
+     * 取消所有没有被读取的下载.
+     */
+    public void cancelAll() {
+        cancelAll(false);
+    }
+
+    /**
+     * 取消所有下载,正在读取的Reader随后返回-1.
+     */
+    public void shutdown() {
+        cancelAll(true);
+        executor.shutdown();
+    }
+
+    private void cancelAll(boolean force) {
+        List<Download> all;
+        synchronized (this) {
+            all = new ArrayList<>(downloads.values());
+        }
+        for (Download download : all) {
+            download.cancel(force);
+        }
+    }
+
+    public synchronized int getActiveCount() {
+        return downloads.size();
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RangeDownloader{active=" + getActiveCount() + ", completed=" + completedCount.get()
+                + ", failed=" + failedCount.get() + ", cancelled=" + cancelledCount.get()
+                + ", downloaded=" + downloadedBytes.get() / 1024 + "KB}";
+    }
+
+    private synchronized void remove(Download download) {
+        if (downloads.get(download.url) == download) {
+            downloads.remove(download.url);
+        }
+    }
+
+    private static void deliver(Executor executor, final Callback callback, final String url, final File file) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onReady(url, file);
+            }
+        });
+    }
+
+    /**
+     * 一个文件的下载状态
+     */
+    private final class Download {
+        final String url;
+        final String key;
+        final File temp;
+        private final List<Executor> executors = new ArrayList<>();
+        private final List<Callback> callbacks = new ArrayList<>();
+        private final List<Boolean> partials = new ArrayList<>();
+        private FileChannel channel;
+        private long length = -1;
+        // 按Range分块下载时大于0
+        private int chunkCount;
+        private final BitSet done = new BitSet();
+        private final BitSet claimed = new BitSet();
+        // 领取顺序中的下一个位置:0, 最后一块, 1, 2, ...
+        private int nextOrder;
+        // Reader正在等待的块,优先领取
+        private int wanted = -1;
+        private int workers;
+        private int readers;
+        private boolean ready;
+        private boolean finished;
+        private boolean failed;
+        // 结束时还有Reader,临时文件在最后一个Reader关闭时删除
+        private boolean deleteOnClose;
+        private volatile boolean cancelled;
+
+        Download(String url) {
+            this.url = url;
+            this.key = LruDiskCache.keyFor(url);
+            this.temp = cache.newTempFile(key);
+        }
+
+        synchronized boolean hasReaders() {
+            return readers > 0;
+        }
+
+        /**
+         * @return 是否需要等待;已经结束,或者partial方式且已经就绪时直接投递
+         */
+        boolean addCallback(Executor executor, Callback callback, boolean partial) {
+            boolean ended;
+            synchronized (this) {
+                ended = finished;
+                if (!finished && !(partial && ready)) {
+                    executors.add(executor);
+                    callbacks.add(callback);
+                    partials.add(partial);
+                    return true;
+                }
+            }
+            // 已经完成时从缓存取
+            deliver(executor, callback, url, ended ? cache.get(key) : null);
+            return false;
+        }
+
+        synchronized Reader openReader() {
+            if (finished || cancelled || chunkCount == 0 || channel == null) {
+                return null;
+            }
+            final RandomAccessFile file;
+            try {
+                // 在finish()改名或删除临时文件之前打开,之后仍然可以读取
+                file = new RandomAccessFile(temp, "r");
+            } catch (IOException e) {
+                return null;
+            }
+            readers++;
+            return new Reader() {
+                private boolean closed;
+
+                @Override
+                public long length() {
+                    return length;
+                }
+
+                @Override
+                public int read(long position, byte[] buffer, int offset, int count) throws IOException {
+                    long available = awaitBytes(position);
+                    if (available <= 0) {
+                        return -1;
+                    }
+                    int n = (int) Math.min(count, available);
+                    file.seek(position);
+                    return file.read(buffer, offset, n);
+                }
+
+                @Override
+                public void close() {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        // 只读文件,忽略
+                    }
+                    closeReader();
+                }
+            };
+        }
+
+        /**
+         * 等待position所在的块下载完成
+         *
+         * @return 从position开始连续可读的字节数,不会再有数据时返回0
+         */
+        private synchronized long awaitBytes(long position) throws IOException {
+            if (position >= length) {
+                return 0;
+            }
+            int chunk = (int) (position / chunkSize);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT_MS);
+            while (!done.get(chunk)) {
+                long remaining = deadline - System.nanoTime();
+                if (finished || remaining <= 0) {
+                    return 0;
+                }
+                if (!claimed.get(chunk)) {
+                    wanted = chunk;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            long end = Math.min(length, (long) done.nextClearBit(chunk) * chunkSize);
+            return end - position;
+        }
+
+        private void closeReader() {
+            boolean delete;
+            synchronized (this) {
+                readers--;
+                delete = readers == 0 && deleteOnClose;
+            }
+            if (delete) {
+                temp.delete();
+            }
+        }
+
+        /**
+         * 第一个请求同时取得文件长度并确认服务器支持Range
+         */
+        void probe() {
+            HttpURLConnection connection = null;
+            try {
+                connection = open(0, chunkSize - 1);
+                int code = connection.getResponseCode();
+                if (code == HttpURLConnection.HTTP_PARTIAL) {
+                    long total = totalLengthOf(connection.getHeaderField("Content-Range"));
+                    if (total < 0) {
+                        throw new IOException("bad Content-Range from " + url);
+                    }
+                    openFile(total, true);
+                    long first = Math.min(chunkSize, total);
+                    if (readInto(connection.getInputStream(), 0, first) != first) {
+                        throw new IOException("short range of " + url);
+                    }
+                    onChunkDone(0);
+                    connection.disconnect();
+                    connection = null;
+                    for (int i = 1; i < connections; i++) {
+                        addWorker();
+                    }
+                    // 当前线程也作为一个连接
+                    runWorker();
+                } else if (code == HttpURLConnection.HTTP_OK) {
+                    // 服务器不支持Range,用这个连接顺序下载
+                    long total = contentLengthOf(connection);
+                    openFile(Math.max(0, total), false);
+                    long read = readInto(connection.getInputStream(), 0, total >= 0 ? total : Long.MAX_VALUE);
+                    if (cancelled || total >= 0 && read != total) {
+                        throw new IOException("incomplete response from " + url);
+                    }
+                    synchronized (this) {
+                        length = read;
+                    }
+                    finish(true);
+                } else {
+                    throw new IOException("HTTP " + code + " from " + url);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+
+        private void addWorker() {
+            synchronized (this) {
+                workers++;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runWorker();
+                    } finally {
+                        synchronized (Download.this) {
+                            workers--;
+                        }
+                    }
+                }
+            });
+        }
+
+        private void runWorker() {
+            int chunk;
+            while ((chunk = claim()) >= 0) {
+                IOException last = null;
+                for (int attempt = 0; attempt <= CHUNK_RETRIES && !cancelled; attempt++) {
+                    try {
+                        fetchChunk(chunk);
+                        last = null;
+                        break;
+                    } catch (IOException e) {
+                        last = e;
+                    }
+                }
+                if (last != null || cancelled) {
+                    fail(last);
+                    return;
+                }
+                onChunkDone(chunk);
+            }
+            if (cancelled) {
+                // 在两个块之间被取消
+                finish(false);
+            }
+        }
+
+        private synchronized int claim() {
+            if (cancelled || finished) {
+                return -1;
+            }
+            if (wanted >= 0 && !claimed.get(wanted)) {
+                int chunk = wanted;
+                wanted = -1;
+                claimed.set(chunk);
+                return chunk;
+            }
+            int last = chunkCount - 1;
+            while (nextOrder < chunkCount) {
+                int order = nextOrder++;
+                int chunk = order == 0 ? 0 : (order == 1 ? last : order - 1);
+                if (!claimed.get(chunk)) {
+                    claimed.set(chunk);
+                    return chunk;
+                }
+            }
+            return -1;
+        }
+
+        private void fetchChunk(int chunk) throws IOException {
+            long start = (long) chunk * chunkSize;
+            long end = Math.min(length, start + chunkSize) - 1;
+            HttpURLConnection connection = open(start, end);
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("HTTP " + connection.getResponseCode() + " for range of " + url);
+                }
+                long read = readInto(connection.getInputStream(), start, end - start + 1);
+                if (read != end - start + 1) {
+                    throw new IOException("short range " + read + " of " + (end - start + 1));
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * @param ranged 是否按Range分块下载,只有这时Reader才能知道哪些部分已经写入
+         */
+        private void openFile(long total, boolean ranged) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            // 只设置长度不写入,未下载的部分不占用磁盘
+            raf.setLength(total);
+            synchronized (this) {
+                if (finished) {
+                    raf.close();
+                    throw new IOException("cancelled");
+                }
+                channel = raf.getChannel();
+                length = total;
+                if (ranged) {
+                    chunkCount = (int) ((total + chunkSize - 1) / chunkSize);
+                    // 第一块由probe()的连接下载
+                    claimed.set(0);
+                }
+            }
+        }
+
+        /**
+         * 按位置写入文件,不同连接写入的区域互不重叠,不需要加锁
+         *
+         * @return 读到的字节数
+         */
+        private long readInto(InputStream in, long position, long max) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            long total = 0;
+            try {
+                while (total < max && !cancelled) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, max - total));
+                    if (n < 0) {
+                        break;
+                    }
+                    limiter.acquire(n);
+                    wrapped.clear();
+                    wrapped.limit(n);
+                    while (wrapped.hasRemaining()) {
+                        channel.write(wrapped, position + total + wrapped.position());
+                    }
+                    total += n;
+                    downloadedBytes.addAndGet(n);
+                }
+            } finally {
+                in.close();
+            }
+            return total;
+        }
+
+        private void onChunkDone(int chunk) {
+            boolean nowReady = false;
+            boolean complete;
+            synchronized (this) {
+                done.set(chunk);
+                notifyAll();
+                complete = done.cardinality() == chunkCount;
+                if (!ready && !complete) {
+                    long contiguous = Math.min(length, (long) done.nextClearBit(0) * chunkSize);
+                    nowReady = contiguous >= Math.min(readyBytes, length) && done.get(chunkCount - 1);
+                    ready = nowReady;
+                }
+            }
+            if (nowReady) {
+                notifyCallbacks(null, true);
+            }
+            if (complete) {
+                finish(true);
+            }
+        }
+
+        /**
+         * @param force 为false时不取消正在被读取的下载
+         */
+        void cancel(boolean force) {
+            boolean idle;
+            synchronized (this) {
+                if (!force && readers > 0) {
+                    return;
+                }
+                cancelled = true;
+                // 还没有开始写入时没有线程会调用finish
+                idle = channel == null && workers == 0;
+            }
+            if (idle) {
+                finish(false);
+            }
+        }
+
+        /**
+         * @param e 出错原因,被取消时为null
+         */
+        private void fail(IOException e) {
+            synchronized (this) {
+                failed = e != null && !cancelled;
+            }
+            cancelled = true;
+            finish(false);
+        }
+
+        private void finish(boolean success) {
+            FileChannel toClose;
+            boolean wasFailed;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                wasFailed = failed;
+                toClose = channel;
+                channel = null;
+            }
+            remove(this);
+            File file = null;
+            try {
+                if (toClose != null) {
+                    if (success) {
+                        toClose.force(false);
+                    }
+                    toClose.close();
+                }
+                if (success) {
+                    file = cache.commit(key, temp);
+                    completedCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                file = null;
+            }
+            if (!success) {
+                (wasFailed ? failedCount : cancelledCount).incrementAndGet();
+            }
+            boolean delete;
+            synchronized (this) {
+                delete = file == null && readers == 0;
+                deleteOnClose = file == null && readers > 0;
+                notifyAll();
+            }
+            if (delete) {
+                temp.delete();
+            }
+            notifyCallbacks(file, false);
+        }
+
+        /**
+         * @param partialOnly 只通知partial方式的回调
+         */
+        private void notifyCallbacks(File file, boolean partialOnly) {
+            List<Executor> targets = new ArrayList<>();
+            List<Callback> pending = new ArrayList<>();
+            synchronized (this) {
+                for (int i = callbacks.size() - 1; i >= 0; i--) {
+                    if (!partialOnly || partials.get(i)) {
+                        targets.add(0, executors.remove(i));
+                        pending.add(0, callbacks.remove(i));
+                        partials.remove(i);
+                    }
+                }
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                deliver(targets.get(i), pending.get(i), url, file);
+            }
+        }
+
+        private HttpURLConnection open(long start, long end) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            return connection;
+        }
+    }
+
+    /**
+     * @return "bytes 0-99/1000"中的总长度,未知或格式错误时返回-1
+     */
+    static long totalLengthOf(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long contentLengthOf(HttpURLConnection connection) {
+        String value = connection.getHeaderField("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 令牌桶,允许透支:透支的调用者按欠下的字节数等待,之后的调用者等待更久
+     */
+    private static class RateLimiter {
+        private long bytesPerSecond;
+        private double available;
+        private long lastNanos = System.nanoTime();
+
+        RateLimiter(long bytesPerSecond) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        }
+
+        synchronized void setRate(long bytesPerSecond) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            available = 0;
+            lastNanos = System.nanoTime();
+        }
+
+        void acquire(int bytes) throws IOException {
+            long waitNanos;
+            synchronized (this) {
+                if (bytesPerSecond == 0) {
+                    return;
+                }
+                long now = System.nanoTime();
+                // 最多积累一秒的额度
+                available = Math.min(bytesPerSecond,
+                        available + (now - lastNanos) / 1e9 * bytesPerSecond);
+                lastNanos = now;
+                available -= bytes;
+                waitNanos = available < 0 ? (long) (-available * 1e9 / bytesPerSecond) : 0;
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.easedroid.mplayer.core;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：ArrayPlaylistSource    <br/>
+ * 类描述：基于内存数组的播放列表<br/>
+ */
+public class ArrayPlaylistSource implements PlaylistSource {
+
+    private final String[] paths;
+
+    public ArrayPlaylistSource(String[] paths) {
+        this.paths = paths != null ? paths : new String[0];
+    }
+
+    @Override
+    public int size() {
+        return paths.length;
+    }
+
+    @Override
+    public String get(int index) {
+        return paths[index];
+    }
+}
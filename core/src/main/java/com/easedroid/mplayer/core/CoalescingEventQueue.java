@@ -0,0 +1,158 @@
+package com.easedroid.mplayer.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：CoalescingEventQueue    <br/>
+ * 类描述：把播放器线程上产生的回调转交到调用者指定的线程.高频事件(缓冲进度、重复的info)按key合并,
+ * 一次投递中只保留最新的一个;普通事件按顺序投递,并且作为合并的分界,不会越过它合并之前的事件<br/>
+ */
+public class CoalescingEventQueue {
+
+    private static class Entry {
+        final Runnable event;
+        boolean cancelled;
+
+        Entry(Runnable event) {
+            this.event = event;
+        }
+    }
+
+    private final Object lock = new Object();
+    private Executor executor;
+    private List<Entry> pending = new ArrayList<>();
+    // 上一个普通事件之后可以合并的事件
+    private final Map<Object, Entry> coalescable = new HashMap<>();
+    private boolean flushScheduled;
+
+    private long postedCount;
+    private long coalescedCount;
+    private long deliveredCount;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param executor 投递回调的线程
+     */
+    public CoalescingEventQueue(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 更换投递线程,已经在排队的事件仍在原来的线程投递.
+     */
+    public void setExecutor(Executor executor) {
+        synchronized (lock) {
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * 按顺序投递一个事件,不会被合并.
+     */
+    public void post(Runnable event) {
+        Executor target;
+        synchronized (lock) {
+            postedCount++;
+            pending.add(new Entry(event));
+            coalescable.clear();
+            target = scheduleLocked();
+        }
+        if (target != null) {
+            target.execute(flush);
+        }
+    }
+
+    /**
+     * 投递一个可以合并的事件,尚未投递的同key事件会被丢弃,由这个事件代替.
+     *
+     * @param key   合并的依据,需要正确实现equals/hashCode
+     * @param event 事件
+     */
+    public void postCoalesced(Object key, Runnable event) {
+        Executor target;
+        synchronized (lock) {
+            postedCount++;
+            Entry entry = new Entry(event);
+            Entry previous = coalescable.put(key, entry);
+            if (previous != null) {
+                previous.cancelled = true;
+                coalescedCount++;
+            }
+            pending.add(entry);
+            target = scheduleLocked();
+        }
+        if (target != null) {
+            target.execute(flush);
+        }
+    }
+
+    /**
+     * 丢弃所有尚未投递的事件.
+     */
+    public void clear() {
+        synchronized (lock) {
+            pending.clear();
+            coalescable.clear();
+        }
+    }
+
+    public long getPostedCount() {
+        synchronized (lock) {
+            return postedCount;
+        }
+    }
+
+    /**
+     * @return 被后来的同key事件代替而没有投递的事件数
+     */
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalescedCount;
+        }
+    }
+
+    public long getDeliveredCount() {
+        synchronized (lock) {
+            return deliveredCount;
+        }
+    }
+
+    private Executor scheduleLocked() {
+        if (flushScheduled) {
+            return null;
+        }
+        flushScheduled = true;
+        return executor;
+    }
+
+    private void flush() {
+        List<Entry> events;
+        synchronized (lock) {
+            events = pending;
+            pending = new ArrayList<>();
+            coalescable.clear();
+            flushScheduled = false;
+        }
+        int delivered = 0;
+        for (Entry entry : events) {
+            if (!entry.cancelled) {
+                entry.event.run();
+                delivered++;
+            }
+        }
+        synchronized (lock) {
+            deliveredCount += delivered;
+        }
+    }
+}
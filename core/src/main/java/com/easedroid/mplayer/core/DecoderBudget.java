@@ -0,0 +1,396 @@
+package com.easedroid.mplayer.core;
+
+import com.easedroid.mplayer.metrics.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：DecoderBudget    <br/>
+ * 类描述：多个播放区域(每个区域一个StrongPlayerView)共享的解码器名额.
+ * 正在播放的视频(active)优先于预备播放器(standby):有active请求在等待时不再批准standby,
+ * 并要求持有最多standby名额的区域归还一个;standby请求在区域之间轮流批准<br/>
+ */
+public class DecoderBudget {
+
+    static final int KIND_ACTIVE = 0;
+    static final int KIND_STANDBY = 1;
+
+    private static final int STATE_WAITING = 0;
+    private static final int STATE_GRANTED = 1;
+    private static final int STATE_RELEASED = 2;
+
+    public interface GrantListener {
+        /**
+         * 名额已经批准,在区域的Executor上回调.
+         */
+        void onGranted(Ticket ticket);
+    }
+
+    public interface ZoneListener {
+        /**
+         * 其他区域的active请求在等待,需要归还一个standby名额.在区域的Executor上回调.
+         */
+        void onStandbyRevoked();
+    }
+
+    /**
+     * 一次名额申请,批准后需要在解码器释放后调用release()归还
+     */
+    public final class Ticket {
+        private final Zone zone;
+        private int kind;
+        private int state = STATE_WAITING;
+        private final long requestNanos = System.nanoTime();
+        private final GrantListener listener;
+
+        Ticket(Zone zone, int kind, GrantListener listener) {
+            this.zone = zone;
+            this.kind = kind;
+            this.listener = listener;
+        }
+
+        public Zone getZone() {
+            return zone;
+        }
+
+        public boolean isActive() {
+            synchronized (lock) {
+                return kind == KIND_ACTIVE;
+            }
+        }
+
+        public boolean isGranted() {
+            synchronized (lock) {
+                return state == STATE_GRANTED;
+            }
+        }
+
+        /**
+         * 预备播放器切换为正在播放,名额转为active,不会改变占用的名额数.
+         */
+        public void promote() {
+            synchronized (lock) {
+                if (kind == KIND_STANDBY && state == STATE_GRANTED) {
+                    zone.standbyHeld--;
+                    zone.activeHeld++;
+                }
+                kind = KIND_ACTIVE;
+            }
+        }
+
+        /**
+         * 归还名额,还在等待时取消申请.可以重复调用.
+         */
+        public void release() {
+            List<Ticket> granted;
+            synchronized (lock) {
+                if (state == STATE_RELEASED) {
+                    return;
+                }
+                if (state == STATE_WAITING) {
+                    if (kind == KIND_ACTIVE) {
+                        activeQueue.remove(this);
+                    } else {
+                        zone.standbyQueue.remove(this);
+                    }
+                    state = STATE_RELEASED;
+                    return;
+                }
+                state = STATE_RELEASED;
+                inUse--;
+                if (kind == KIND_ACTIVE) {
+                    zone.activeHeld--;
+                } else {
+                    zone.standbyHeld--;
+                    if (revocationsInFlight > 0) {
+                        revocationsInFlight--;
+                    }
+                }
+                granted = dispatchLocked();
+            }
+            deliver(granted);
+        }
+    }
+
+    /**
+     * 一个播放区域,记录它持有的名额和等待时间
+     */
+    public final class Zone {
+        private final String name;
+        private final Executor executor;
+        private final ZoneListener listener;
+        private final ArrayDeque<Ticket> standbyQueue = new ArrayDeque<>();
+        private int activeHeld;
+        private int standbyHeld;
+        private long revokedCount;
+        /**
+         * active请求从申请到批准的等待时间
+         */
+        public final LatencyHistogram activeWait;
+        /**
+         * standby请求从申请到批准的等待时间
+         */
+        public final LatencyHistogram standbyWait;
+
+        Zone(String name, Executor executor, ZoneListener listener) {
+            this.name = name;
+            this.executor = executor;
+            this.listener = listener;
+            activeWait = new LatencyHistogram(name + ".activeWait");
+            standbyWait = new LatencyHistogram(name + ".standbyWait");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 为正在播放的视频申请名额.
+         */
+        public Ticket requestActive(GrantListener listener) {
+            return request(this, KIND_ACTIVE, listener);
+        }
+
+        /**
+         * 为预备播放器申请名额.
+         */
+        public Ticket requestStandby(GrantListener listener) {
+            return request(this, KIND_STANDBY, listener);
+        }
+
+        public int getActiveHeld() {
+            synchronized (lock) {
+                return activeHeld;
+            }
+        }
+
+        public int getStandbyHeld() {
+            synchronized (lock) {
+                return standbyHeld;
+            }
+        }
+
+        public int getStandbyWaiting() {
+            synchronized (lock) {
+                return standbyQueue.size();
+            }
+        }
+
+        /**
+         * @return 被要求归还standby名额的次数
+         */
+        public long getRevokedCount() {
+            synchronized (lock) {
+                return revokedCount;
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (lock) {
+                return name + "{active=" + activeHeld + ", standby=" + standbyHeld
+                        + ", waiting=" + standbyQueue.size() + ", revoked=" + revokedCount
+                        + ", " + activeWait.snapshot() + ", " + standbyWait.snapshot() + "}";
+            }
+        }
+    }
+
+    private final Object lock = new Object();
+    private int capacity;
+    private int inUse;
+    private final ArrayDeque<Ticket> activeQueue = new ArrayDeque<>();
+    private final List<Zone> zones = new ArrayList<>();
+    // 下一个优先批准standby的区域
+    private int nextZone;
+    private int revocationsInFlight;
+
+    /**
+     * @param capacity 同时准备或播放的解码器上限
+     */
+    public DecoderBudget(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * 注册一个播放区域.
+     *
+     * @param executor 批准和归还通知的回调线程,通常是区域播放器的事件线程
+     */
+    public Zone register(String name, Executor executor, ZoneListener listener) {
+        Zone zone = new Zone(name, executor, listener);
+        synchronized (lock) {
+            zones.add(zone);
+        }
+        return zone;
+    }
+
+    /**
+     * 注销区域并取消它所有等待中的申请,已经批准的名额仍需各自release().
+     */
+    public void unregister(Zone zone) {
+        List<Ticket> cancelled = new ArrayList<>();
+        synchronized (lock) {
+            int index = zones.indexOf(zone);
+            if (index < 0) {
+                return;
+            }
+            zones.remove(index);
+            if (nextZone > index) {
+                nextZone--;
+            }
+            cancelled.addAll(zone.standbyQueue);
+            for (Ticket ticket : activeQueue) {
+                if (ticket.zone == zone) {
+                    cancelled.add(ticket);
+                }
+            }
+        }
+        for (Ticket ticket : cancelled) {
+            ticket.release();
+        }
+    }
+
+    public void setCapacity(int capacity) {
+        List<Ticket> granted;
+        synchronized (lock) {
+            this.capacity = Math.max(1, capacity);
+            granted = dispatchLocked();
+        }
+        deliver(granted);
+    }
+
+    public int getCapacity() {
+        synchronized (lock) {
+            return capacity;
+        }
+    }
+
+    public int getInUse() {
+        synchronized (lock) {
+            return inUse;
+        }
+    }
+
+    public int getActiveWaiting() {
+        synchronized (lock) {
+            return activeQueue.size();
+        }
+    }
+
+    private Ticket request(Zone zone, int kind, GrantListener listener) {
+        Ticket ticket = new Ticket(zone, kind, listener);
+        List<Ticket> granted;
+        Zone revoked = null;
+        synchronized (lock) {
+            if (kind == KIND_ACTIVE) {
+                activeQueue.addLast(ticket);
+            } else {
+                zone.standbyQueue.addLast(ticket);
+            }
+            granted = dispatchLocked();
+            if (!activeQueue.isEmpty() && revocationsInFlight < activeQueue.size()) {
+                revoked = pickRevocationLocked();
+            }
+        }
+        deliver(granted);
+        if (revoked != null) {
+            final ZoneListener l = revoked.listener;
+            if (l != null) {
+                revoked.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        l.onStandbyRevoked();
+                    }
+                });
+            }
+        }
+        return ticket;
+    }
+
+    private List<Ticket> dispatchLocked() {
+        List<Ticket> granted = null;
+        while (inUse < capacity) {
+            Ticket ticket = activeQueue.pollFirst();
+            if (ticket == null) {
+                ticket = pollStandbyLocked();
+            }
+            if (ticket == null) {
+                break;
+            }
+            ticket.state = STATE_GRANTED;
+            inUse++;
+            long waited = System.nanoTime() - ticket.requestNanos;
+            if (ticket.kind == KIND_ACTIVE) {
+                ticket.zone.activeHeld++;
+                ticket.zone.activeWait.recordNanos(waited);
+            } else {
+                ticket.zone.standbyHeld++;
+                ticket.zone.standbyWait.recordNanos(waited);
+            }
+            if (granted == null) {
+                granted = new ArrayList<>();
+            }
+            granted.add(ticket);
+        }
+        if (activeQueue.isEmpty()) {
+            revocationsInFlight = 0;
+        }
+        return granted;
+    }
+
+    private Ticket pollStandbyLocked() {
+        int count = zones.size();
+        for (int i = 0; i < count; i++) {
+            Zone zone = zones.get((nextZone + i) % count);
+            Ticket ticket = zone.standbyQueue.pollFirst();
+            if (ticket != null) {
+                nextZone = (nextZone + i + 1) % count;
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    private Zone pickRevocationLocked() {
+        Zone victim = null;
+        for (Zone zone : zones) {
+            if (zone.standbyHeld > 0 && (victim == null || zone.standbyHeld > victim.standbyHeld)) {
+                victim = zone;
+            }
+        }
+        if (victim != null) {
+            victim.revokedCount++;
+            revocationsInFlight++;
+        }
+        return victim;
+    }
+
+    private static void deliver(List<Ticket> granted) {
+        if (granted == null) {
+            return;
+        }
+        for (final Ticket ticket : granted) {
+            if (ticket.listener == null) {
+                continue;
+            }
+            ticket.zone.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ticket.listener.onGranted(ticket);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "DecoderBudget{inUse=" + inUse + "/" + capacity
+                    + ", activeWaiting=" + activeQueue.size() + ", zones=" + zones + "}";
+        }
+    }
+}
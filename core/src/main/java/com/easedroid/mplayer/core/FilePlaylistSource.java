@@ -0,0 +1,262 @@
+package com.easedroid.mplayer.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：FilePlaylistSource    <br/>
+ * 类描述：按需分页读取的文本/M3U播放列表文件.第一次访问时顺序扫描一遍文件,
+ * 每PAGE_SIZE个条目记录一个文件偏移;之后只把访问到的页读入内存,最多保留两页.
+ * 文件的长度和修改时间最多每隔检查间隔比较一次,期间size()和get()不访问文件系统;
+ * 重新生成的文件可能长度相同且修改时间没有变化,这时需要调用{@link #refresh}<br/>
+ */
+public class FilePlaylistSource implements PlaylistSource {
+
+    static final int PAGE_SIZE = 64;
+    public static final long DEFAULT_CHECK_INTERVAL_MS = 5000;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final File file;
+    private final File baseDir;
+    private final long checkIntervalNanos;
+    // 上一次比较文件长度和修改时间的时间
+    private long checkedNanos;
+
+    // 以下字段在scan()中建立,文件被修改后重新建立
+    private long scannedLength = -1;
+    private long scannedModified;
+    private int size;
+    private long[] pageOffsets = new long[0];
+
+    // 最近读取的两页,交替使用
+    private final String[][] pages = new String[2][];
+    private final int[] pageNumbers = {-1, -1};
+    private int nextPageSlot;
+
+    public FilePlaylistSource(File file) {
+        this(file, DEFAULT_CHECK_INTERVAL_MS);
+    }
+
+    /**
+     * @param checkIntervalMs 检查文件是否被修改的最小间隔,负数表示只在{@link #refresh}之后重新扫描
+     */
+    public FilePlaylistSource(File file, long checkIntervalMs) {
+        this.file = file;
+        this.baseDir = file.getAbsoluteFile().getParentFile();
+        this.checkIntervalNanos = checkIntervalMs < 0 ? Long.MAX_VALUE : checkIntervalMs * 1000000L;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized int size() {
+        ensureScanned();
+        return size;
+    }
+
+    @Override
+    public synchronized String get(int index) {
+        ensureScanned();
+        if (index < 0 || index >= size) {
+            return null;
+        }
+        int page = index / PAGE_SIZE;
+        for (int slot = 0; slot < pages.length; slot++) {
+            if (pageNumbers[slot] == page) {
+                return pages[slot][index % PAGE_SIZE];
+            }
+        }
+        String[] entries = readPage(page);
+        if (entries == null) {
+            return null;
+        }
+        int slot = nextPageSlot;
+        nextPageSlot = (nextPageSlot + 1) % pages.length;
+        pages[slot] = entries;
+        pageNumbers[slot] = page;
+        return entries[index % PAGE_SIZE];
+    }
+
+    /**
+     * 下一次访问时重新扫描文件,不比较长度和修改时间.
+     */
+    public synchronized void refresh() {
+        scannedLength = -1;
+    }
+
+    private void ensureScanned() {
+        if (scannedLength >= 0) {
+            long now = System.nanoTime();
+            if (now - checkedNanos < checkIntervalNanos) {
+                return;
+            }
+            checkedNanos = now;
+            if (file.length() == scannedLength && file.lastModified() == scannedModified) {
+                return;
+            }
+        }
+        try {
+            scan();
+        } catch (IOException e) {
+            size = 0;
+            pageOffsets = new long[0];
+        }
+        pageNumbers[0] = -1;
+        pageNumbers[1] = -1;
+    }
+
+    /**
+     * 顺序扫描文件,只记录条目数和每页起始条目的偏移.
+     */
+    private void scan() throws IOException {
+        checkedNanos = System.nanoTime();
+        scannedLength = file.length();
+        scannedModified = file.lastModified();
+        long[] offsets = new long[16];
+        int count = 0;
+        LineReader reader = new LineReader(file, 0);
+        try {
+            long offset;
+            while ((offset = reader.nextLineOffset()) >= 0) {
+                if (!reader.isEntry()) {
+                    continue;
+                }
+                if (count % PAGE_SIZE == 0) {
+                    int page = count / PAGE_SIZE;
+                    if (page == offsets.length) {
+                        long[] grown = new long[offsets.length * 2];
+                        System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                        offsets = grown;
+                    }
+                    offsets[page] = offset;
+                }
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        size = count;
+        pageOffsets = offsets;
+    }
+
+    private String[] readPage(int page) {
+        int first = page * PAGE_SIZE;
+        int count = Math.min(PAGE_SIZE, size - first);
+        String[] entries = new String[count];
+        try {
+            LineReader reader = new LineReader(file, pageOffsets[page]);
+            try {
+                int read = 0;
+                while (read < count && reader.nextLineOffset() >= 0) {
+                    if (reader.isEntry()) {
+                        entries[read++] = resolve(reader.lineAsString());
+                    }
+                }
+                if (read < count) {
+                    return null;
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return entries;
+    }
+
+    /**
+     * 相对路径按播放列表文件所在的目录解析.
+     */
+    private String resolve(String entry) {
+        if (entry.startsWith("/") || entry.indexOf("://") > 0 || baseDir == null) {
+            return entry;
+        }
+        return new File(baseDir, entry).getPath();
+    }
+
+    /**
+     * 按字节读取行,记录每行的起始偏移.
+     */
+    private static class LineReader {
+        private final RandomAccessFile raf;
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private int bufferStart;
+        private int bufferEnd;
+        private long bufferOffset;
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private int entryStart;
+        private int entryEnd;
+
+        LineReader(File file, long offset) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            raf.seek(offset);
+            bufferOffset = offset;
+        }
+
+        /**
+         * @return 下一行的起始偏移,文件结束时返回-1
+         */
+        long nextLineOffset() throws IOException {
+            lineLength = 0;
+            long offset = bufferOffset + bufferStart;
+            boolean any = false;
+            while (true) {
+                if (bufferStart == bufferEnd) {
+                    bufferOffset += bufferEnd;
+                    bufferStart = 0;
+                    bufferEnd = raf.read(buffer);
+                    if (bufferEnd <= 0) {
+                        bufferEnd = 0;
+                        return any ? offset : -1;
+                    }
+                }
+                byte b = buffer[bufferStart++];
+                any = true;
+                if (b == '\n') {
+                    return offset;
+                }
+                if (lineLength == line.length) {
+                    byte[] grown = new byte[line.length * 2];
+                    System.arraycopy(line, 0, grown, 0, lineLength);
+                    line = grown;
+                }
+                line[lineLength++] = b;
+            }
+        }
+
+        /**
+         * @return 当前行是否是播放条目(不是空行,也不是#开头的M3U注释/标签)
+         */
+        boolean isEntry() {
+            int start = 0;
+            int end = lineLength;
+            // 跳过UTF-8 BOM;按无符号比较,UTF-8多字节字符的字节不是空白
+            if (end >= 3 && (line[0] & 0xff) == 0xef && (line[1] & 0xff) == 0xbb && (line[2] & 0xff) == 0xbf) {
+                start = 3;
+            }
+            while (start < end && (line[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (line[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+            entryStart = start;
+            entryEnd = end;
+            return start < end && line[start] != '#';
+        }
+
+        String lineAsString() throws UnsupportedEncodingException {
+            return new String(line, entryStart, entryEnd - entryStart, "UTF-8");
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.easedroid.mplayer.core;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：MemoryPressureGovernor    <br/>
+ * 类描述：根据系统的内存压力决定播放器保留多少资源.压力信号只会提升等级,
+ * 连续一段时间没有新的信号后逐级恢复;每次降级和恢复以及丢弃的资源都会计数<br/>
+ */
+public class MemoryPressureGovernor {
+
+    public static final int LEVEL_NONE = 0;
+    /**
+     * 只保留下一个视频的预备播放器,清空播放器池,停止预读
+     */
+    public static final int LEVEL_MODERATE = 1;
+    /**
+     * 不保留预备播放器,单播放器顺序播放
+     */
+    public static final int LEVEL_CRITICAL = 2;
+
+    public static final long DEFAULT_RECOVERY_MS = 60 * 1000;
+
+    private final long recoveryMs;
+    private int level = LEVEL_NONE;
+    private long lastSignalMs;
+    private final long[] enterCounts = new long[LEVEL_CRITICAL + 1];
+    private long recoveryCount;
+    private long droppedStandbyCount;
+    private long evictedPooledCount;
+
+    /**
+     * @param recoveryMs 没有新的压力信号多久之后恢复一级
+     */
+    public MemoryPressureGovernor(long recoveryMs) {
+        this.recoveryMs = recoveryMs;
+    }
+
+    /**
+     * 收到一次内存压力信号.
+     *
+     * @return 等级是否提升了
+     */
+    public synchronized boolean onPressure(int pressure, long nowMs) {
+        if (pressure <= LEVEL_NONE) {
+            return false;
+        }
+        pressure = Math.min(pressure, LEVEL_CRITICAL);
+        lastSignalMs = nowMs;
+        if (pressure <= level) {
+            return false;
+        }
+        level = pressure;
+        enterCounts[pressure]++;
+        return true;
+    }
+
+    /**
+     * 检查是否可以恢复一级.
+     *
+     * @return 等级是否降低了
+     */
+    public synchronized boolean onQuiet(long nowMs) {
+        if (level == LEVEL_NONE || nowMs - lastSignalMs < recoveryMs) {
+            return false;
+        }
+        level--;
+        recoveryCount++;
+        // 下一级也需要再安静一个周期才恢复
+        lastSignalMs = nowMs;
+        return true;
+    }
+
+    /**
+     * @return 距离下一次可以恢复的毫秒数,已经没有压力时返回-1
+     */
+    public synchronized long getRecoveryDelay(long nowMs) {
+        if (level == LEVEL_NONE) {
+            return -1;
+        }
+        return Math.max(0, lastSignalMs + recoveryMs - nowMs);
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return 当前等级允许的预备窗口深度上限
+     */
+    public synchronized int getMaxLookahead(int requested) {
+        switch (level) {
+            case LEVEL_CRITICAL:
+                return 0;
+            case LEVEL_MODERATE:
+                return Math.min(1, requested);
+            default:
+                return requested;
+        }
+    }
+
+    public synchronized boolean isPrefetchAllowed() {
+        return level == LEVEL_NONE;
+    }
+
+    /**
+     * 记录因内存压力释放的预备播放器和池中播放器数量.
+     */
+    public synchronized void recordShed(int droppedStandby, int evictedPooled) {
+        droppedStandbyCount += droppedStandby;
+        evictedPooledCount += evictedPooled;
+    }
+
+    /**
+     * @return 进入某个等级的次数
+     */
+    public synchronized long getEnterCount(int level) {
+        return level > LEVEL_NONE && level <= LEVEL_CRITICAL ? enterCounts[level] : 0;
+    }
+
+    public synchronized long getRecoveryCount() {
+        return recoveryCount;
+    }
+
+    public synchronized long getDroppedStandbyCount() {
+        return droppedStandbyCount;
+    }
+
+    public synchronized long getEvictedPooledCount() {
+        return evictedPooledCount;
+    }
+
+    public static String name(int level) {
+        switch (level) {
+            case LEVEL_NONE:
+                return "NONE";
+            case LEVEL_MODERATE:
+                return "MODERATE";
+            case LEVEL_CRITICAL:
+                return "CRITICAL";
+            default:
+                return "UNKNOWN(" + level + ")";
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryPressure{level=" + name(level)
+                + ", moderate=" + enterCounts[LEVEL_MODERATE]
+                + ", critical=" + enterCounts[LEVEL_CRITICAL]
+                + ", recovered=" + recoveryCount
+                + ", droppedStandby=" + droppedStandbyCount
+                + ", evictedPooled=" + evictedPooledCount + "}";
+    }
+}
@@ -0,0 +1,75 @@
+package com.easedroid.mplayer.core;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlaybackState    <br/>
+ * 类描述：播放状态常量及合法的状态转换<br/>
+ */
+public final class PlaybackState {
+
+    public static final int STATE_ERROR = -1;
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_PREPARING = 1;
+    public static final int STATE_PREPARED = 2;
+    public static final int STATE_PLAYING = 3;
+    public static final int STATE_PAUSED = 4;
+    public static final int STATE_PLAYBACK_COMPLETED = 5;
+
+    static final int STATE_COUNT = 7;
+
+    // TRANSITIONS[from + 1] 的第 (to + 1) 位表示 from -> to 是否合法
+    private static final int[] TRANSITIONS = new int[STATE_COUNT];
+
+    static {
+        allow(STATE_IDLE, STATE_IDLE, STATE_PREPARING, STATE_ERROR);
+        allow(STATE_PREPARING, STATE_IDLE, STATE_PREPARED, STATE_ERROR);
+        allow(STATE_PREPARED, STATE_IDLE, STATE_PREPARED, STATE_PLAYING, STATE_PAUSED,
+                STATE_PLAYBACK_COMPLETED, STATE_ERROR);
+        allow(STATE_PLAYING, STATE_IDLE, STATE_PLAYING, STATE_PAUSED,
+                STATE_PLAYBACK_COMPLETED, STATE_ERROR);
+        allow(STATE_PAUSED, STATE_IDLE, STATE_PLAYING, STATE_PAUSED,
+                STATE_PLAYBACK_COMPLETED, STATE_ERROR);
+        // 播放完成后切换到已准备好的预备播放器,状态回到PREPARED
+        allow(STATE_PLAYBACK_COMPLETED, STATE_IDLE, STATE_PREPARED, STATE_PLAYING,
+                STATE_PLAYBACK_COMPLETED, STATE_ERROR);
+        allow(STATE_ERROR, STATE_IDLE, STATE_PREPARING, STATE_ERROR);
+    }
+
+    private PlaybackState() {
+    }
+
+    private static void allow(int from, int... targets) {
+        for (int to : targets) {
+            TRANSITIONS[from + 1] |= 1 << (to + 1);
+        }
+    }
+
+    public static boolean isValid(int state) {
+        return state >= STATE_ERROR && state <= STATE_PLAYBACK_COMPLETED;
+    }
+
+    public static boolean canTransition(int from, int to) {
+        return isValid(from) && isValid(to) && (TRANSITIONS[from + 1] & (1 << (to + 1))) != 0;
+    }
+
+    public static String name(int state) {
+        switch (state) {
+            case STATE_ERROR:
+                return "ERROR";
+            case STATE_IDLE:
+                return "IDLE";
+            case STATE_PREPARING:
+                return "PREPARING";
+            case STATE_PREPARED:
+                return "PREPARED";
+            case STATE_PLAYING:
+                return "PLAYING";
+            case STATE_PAUSED:
+                return "PAUSED";
+            case STATE_PLAYBACK_COMPLETED:
+                return "PLAYBACK_COMPLETED";
+            default:
+                return "UNKNOWN(" + state + ")";
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.easedroid.mplayer.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlaybackStateMachine    <br/>
+ * 类描述：当前播放器的状态(current)和调用者期望到达的状态(target).
+ * 两者保存在同一个int中,用CAS更新,任意线程都可以读写而不需要加锁<br/>
+ */
+public class PlaybackStateMachine {
+
+    // current is the player's actual state.
+    // target is the state that a method caller intends to reach.
+    // For instance, regardless the current state, calling pause()
+    // intends to bring the player to a target state of STATE_PAUSED.
+    // 高8位为current + 1,低8位为target + 1
+    private final AtomicInteger word = new AtomicInteger(pack(PlaybackState.STATE_IDLE, PlaybackState.STATE_IDLE));
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // 下标为 (from + 1) * STATE_COUNT + (to + 1)
+    private final AtomicLongArray transitionCounts =
+            new AtomicLongArray(PlaybackState.STATE_COUNT * PlaybackState.STATE_COUNT);
+
+    public int getCurrent() {
+        return currentOf(word.get());
+    }
+
+    public int getTarget() {
+        return targetOf(word.get());
+    }
+
+    /**
+     * 切换当前状态,非法的转换会被拒绝并计数.
+     *
+     * @return 是否切换成功
+     */
+    public boolean moveTo(int state) {
+        while (true) {
+            int w = word.get();
+            int from = currentOf(w);
+            if (!PlaybackState.canTransition(from, state)) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            if (word.compareAndSet(w, pack(state, targetOf(w)))) {
+                countTransition(from, state);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 只有当前状态为expected时才切换,用于两个线程可能同时推进状态的场景.
+     *
+     * @return 是否切换成功;当前状态不是expected时返回false,不计为非法转换
+     */
+    public boolean compareAndMove(int expected, int state) {
+        while (true) {
+            int w = word.get();
+            if (currentOf(w) != expected) {
+                return false;
+            }
+            if (!PlaybackState.canTransition(expected, state)) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            if (word.compareAndSet(w, pack(state, targetOf(w)))) {
+                countTransition(expected, state);
+                return true;
+            }
+        }
+    }
+
+    public void setTarget(int state) {
+        if (!PlaybackState.isValid(state)) {
+            return;
+        }
+        while (true) {
+            int w = word.get();
+            if (word.compareAndSet(w, pack(currentOf(w), state))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 同时设置当前状态和目标状态,用于出错、停止等场景.
+     * 当前状态的转换非法时只设置目标状态.
+     */
+    public boolean moveToAndTarget(int state) {
+        if (!PlaybackState.isValid(state)) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        while (true) {
+            int w = word.get();
+            int from = currentOf(w);
+            boolean legal = PlaybackState.canTransition(from, state);
+            if (word.compareAndSet(w, pack(legal ? state : from, state))) {
+                if (legal) {
+                    countTransition(from, state);
+                } else {
+                    rejectedCount.incrementAndGet();
+                }
+                return legal;
+            }
+        }
+    }
+
+    public void reset() {
+        word.set(pack(PlaybackState.STATE_IDLE, PlaybackState.STATE_IDLE));
+    }
+
+    public boolean isInPlaybackState() {
+        int current = getCurrent();
+        return current != PlaybackState.STATE_ERROR
+                && current != PlaybackState.STATE_IDLE
+                && current != PlaybackState.STATE_PREPARING;
+    }
+
+    /**
+     * @return 被拒绝的非法状态转换次数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return from -> to 成功转换的次数
+     */
+    public long getTransitionCount(int from, int to) {
+        if (!PlaybackState.isValid(from) || !PlaybackState.isValid(to)) {
+            return 0;
+        }
+        return transitionCounts.get(indexOf(from, to));
+    }
+
+    /**
+     * @return 所有发生过的转换及次数,例如 "IDLE->PREPARING=3 PREPARING->PREPARED=3"
+     */
+    public String dumpTransitions() {
+        StringBuilder sb = new StringBuilder();
+        for (int from = PlaybackState.STATE_ERROR; from <= PlaybackState.STATE_PLAYBACK_COMPLETED; from++) {
+            for (int to = PlaybackState.STATE_ERROR; to <= PlaybackState.STATE_PLAYBACK_COMPLETED; to++) {
+                long count = transitionCounts.get(indexOf(from, to));
+                if (count > 0) {
+                    if (sb.length() > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(PlaybackState.name(from)).append("->").append(PlaybackState.name(to))
+                            .append('=').append(count);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        int w = word.get();
+        return PlaybackState.name(currentOf(w)) + "->" + PlaybackState.name(targetOf(w));
+    }
+
+    private void countTransition(int from, int to) {
+        transitionCounts.incrementAndGet(indexOf(from, to));
+    }
+
+    private static int indexOf(int from, int to) {
+        return (from + 1) * PlaybackState.STATE_COUNT + (to + 1);
+    }
+
+    private static int pack(int current, int target) {
+        return ((current + 1) << 8) | (target + 1);
+    }
+
+    private static int currentOf(int word) {
+        return (word >>> 8) - 1;
+    }
+
+    private static int targetOf(int word) {
+        return (word & 0xff) - 1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.easedroid.mplayer.core;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlayerEngine    <br/>
+ * 类描述：单个播放器实例的抽象,方法和状态约定与android.media.MediaPlayer一致<br/>
+ */
+public interface PlayerEngine {
+
+    // 与MediaPlayer中的同名常量取值一致
+    int MEDIA_ERROR_UNKNOWN = 1;
+    int MEDIA_INFO_VIDEO_RENDERING_START = 3;
+
+    interface Listener {
+        void onPrepared(PlayerEngine engine);
+
+        void onCompletion(PlayerEngine engine);
+
+        boolean onError(PlayerEngine engine, int what, int extra);
+
+        boolean onInfo(PlayerEngine engine, int what, int extra);
+
+        void onVideoSizeChanged(PlayerEngine engine, int width, int height);
+
+        /**
+         * 网络视频的缓冲进度,播放期间会频繁回调.
+         */
+        void onBufferingUpdate(PlayerEngine engine, int percent);
+    }
+
+    interface Factory {
+        /**
+         * @return 处于Idle状态的新播放器
+         */
+        PlayerEngine create();
+    }
+
+    void setListener(Listener listener);
+
+    void setDataSource(String path, Map<String, String> headers) throws IOException;
+
+    /**
+     * @param display 平台相关的显示目标,Android上为SurfaceHolder或Surface;传null表示解除显示
+     */
+    void setDisplay(Object display);
+
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    void stop();
+
+    void seekTo(int millisSec);
+
+    boolean isPlaying();
+
+    int getDuration();
+
+    int getCurrentPosition();
+
+    int getVideoWidth();
+
+    int getVideoHeight();
+
+    /**
+     * 释放播放器,可能阻塞,应在子线程调用.
+     */
+    void release();
+}
@@ -0,0 +1,91 @@
+package com.easedroid.mplayer.core;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlayerEventDispatcher    <br/>
+ * 类描述：分发所有播放器的回调,当前播放器的事件交给listener,预备播放器的事件交给StandbyScheduler,
+ * 其余(已经被替换掉的播放器)的事件丢弃<br/>
+ */
+public class PlayerEventDispatcher implements PlayerEngine.Listener {
+
+    private final StandbyScheduler scheduler;
+    private final PlayerEngine.Listener listener;
+    private PlayerEngine current;
+    private long droppedCount;
+
+    public PlayerEventDispatcher(StandbyScheduler scheduler, PlayerEngine.Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    public void setCurrent(PlayerEngine current) {
+        this.current = current;
+    }
+
+    public PlayerEngine getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return 没有被处理而丢弃的事件数,例如已经被替换掉的播放器的事件
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public void onPrepared(PlayerEngine engine) {
+        if (engine == current) {
+            listener.onPrepared(engine);
+        } else if (scheduler.onPrepared(engine) == null) {
+            droppedCount++;
+        }
+    }
+
+    @Override
+    public void onCompletion(PlayerEngine engine) {
+        if (engine == current) {
+            listener.onCompletion(engine);
+        } else {
+            droppedCount++;
+        }
+    }
+
+    @Override
+    public boolean onError(PlayerEngine engine, int what, int extra) {
+        if (engine == current) {
+            return listener.onError(engine, what, extra);
+        }
+        if (!scheduler.onError(engine)) {
+            droppedCount++;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onInfo(PlayerEngine engine, int what, int extra) {
+        if (engine == current) {
+            return listener.onInfo(engine, what, extra);
+        }
+        droppedCount++;
+        return true;
+    }
+
+    @Override
+    public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {
+        if (engine == current) {
+            listener.onVideoSizeChanged(engine, width, height);
+        } else {
+            droppedCount++;
+        }
+    }
+
+    @Override
+    public void onBufferingUpdate(PlayerEngine engine, int percent) {
+        if (engine == current) {
+            listener.onBufferingUpdate(engine, percent);
+        } else {
+            droppedCount++;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.easedroid.mplayer.core;
+
+import com.easedroid.mplayer.metrics.LatencyHistogram;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlayerWorkScheduler    <br/>
+ * 类描述：进程内所有播放器共享的后台任务调度.释放任务和准备任务(预读等)分别在两个有界队列中排队:
+ * 释放队列满时在调用线程直接释放,保证不会积压未释放的解码器;准备队列满时丢弃任务.
+ * 空闲的线程会自动退出<br/>
+ */
+public class PlayerWorkScheduler {
+
+    public static final int DEFAULT_RELEASE_THREADS = 2;
+    public static final int DEFAULT_RELEASE_QUEUE = 8;
+    public static final int DEFAULT_PREPARE_THREADS = 1;
+    public static final int DEFAULT_PREPARE_QUEUE = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static PlayerWorkScheduler sDefault;
+    // 每次提交时取当前的共享实例,之前的实例关闭后不会继续向它提交
+    private static final Executor sDefaultPrepareExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            getDefault().prepare(command);
+        }
+    };
+
+    private final Lane releaseLane;
+    private final Lane prepareLane;
+    private final Executor prepareExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            prepare(command);
+        }
+    };
+
+    /**
+     * 进程内共享的调度器,所有StrongPlayerView默认使用它.之前的实例被shutdown后会重新创建.
+     */
+    public static synchronized PlayerWorkScheduler getDefault() {
+        if (sDefault == null || sDefault.isShutdown()) {
+            sDefault = new PlayerWorkScheduler(DEFAULT_RELEASE_THREADS, DEFAULT_RELEASE_QUEUE,
+                    DEFAULT_PREPARE_THREADS, DEFAULT_PREPARE_QUEUE);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @return 向当前共享实例提交准备任务的Executor,共享实例被shutdown并重新创建后仍然可用
+     */
+    public static Executor getDefaultPrepareExecutor() {
+        return sDefaultPrepareExecutor;
+    }
+
+    public PlayerWorkScheduler(int releaseThreads, int releaseQueue, int prepareThreads, int prepareQueue) {
+        releaseLane = new Lane("PlayerRelease", releaseThreads, releaseQueue);
+        prepareLane = new Lane("PlayerPrepare", prepareThreads, prepareQueue);
+    }
+
+    /**
+     * 提交一个释放任务.队列已满或调度器已关闭时在调用线程执行,调用者因此被减速.
+     */
+    public void release(Runnable task) {
+        if (!releaseLane.offer(task)) {
+            releaseLane.runInline(task);
+        }
+    }
+
+    /**
+     * 提交一个可以放弃的准备任务,例如预读.
+     *
+     * @return 是否进入队列;队列已满或调度器已关闭时丢弃并返回false
+     */
+    public boolean prepare(Runnable task) {
+        return prepareLane.offer(task);
+    }
+
+    /**
+     * @return 通过prepare()提交任务的Executor,队列已满时静默丢弃
+     */
+    public Executor getPrepareExecutor() {
+        return prepareExecutor;
+    }
+
+    public Lane getReleaseLane() {
+        return releaseLane;
+    }
+
+    public Lane getPrepareLane() {
+        return prepareLane;
+    }
+
+    /**
+     * 停止接收任务.尚未开始的准备任务被丢弃,已经排队的释放任务会执行完.
+     *
+     * @param timeoutMs 等待释放任务完成的最长时间
+     * @return 释放任务是否在超时前全部完成
+     */
+    public boolean shutdown(long timeoutMs) throws InterruptedException {
+        prepareLane.executor.shutdownNow();
+        releaseLane.executor.shutdown();
+        return releaseLane.executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isShutdown() {
+        return releaseLane.executor.isShutdown();
+    }
+
+    @Override
+    public String toString() {
+        return releaseLane + " " + prepareLane;
+    }
+
+    /**
+     * 一个有界队列及其线程,记录排队深度、排队等待和执行的耗时
+     */
+    public static class Lane {
+        private final String name;
+        private final int capacity;
+        private final ThreadPoolExecutor executor;
+        /**
+         * 提交到开始执行的等待时间
+         */
+        public final LatencyHistogram wait;
+        /**
+         * 任务的执行时间,包括在调用线程执行的
+         */
+        public final LatencyHistogram run;
+        private final AtomicInteger peakQueueDepth = new AtomicInteger();
+        private final AtomicLong submittedCount = new AtomicLong();
+        private final AtomicLong inlineCount = new AtomicLong();
+        private final AtomicLong rejectedCount = new AtomicLong();
+
+        Lane(final String name, int threads, int capacity) {
+            this.name = name;
+            this.capacity = Math.max(1, capacity);
+            wait = new LatencyHistogram(name + ".wait");
+            run = new LatencyHistogram(name + ".run");
+            final AtomicInteger threadCount = new AtomicInteger();
+            int poolSize = Math.max(1, threads);
+            executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(this.capacity), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        boolean offer(final Runnable task) {
+            final long enqueued = System.nanoTime();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        wait.recordNanos(start - enqueued);
+                        try {
+                            task.run();
+                        } finally {
+                            Lane.this.run.recordNanos(System.nanoTime() - start);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            submittedCount.incrementAndGet();
+            int depth = executor.getQueue().size();
+            int peak;
+            while (depth > (peak = peakQueueDepth.get())) {
+                if (peakQueueDepth.compareAndSet(peak, depth)) {
+                    break;
+                }
+            }
+            return true;
+        }
+
+        void runInline(Runnable task) {
+            inlineCount.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                run.recordNanos(System.nanoTime() - start);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return 正在排队(尚未开始执行)的任务数
+         */
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        public int getPeakQueueDepth() {
+            return peakQueueDepth.get();
+        }
+
+        public long getSubmittedCount() {
+            return submittedCount.get();
+        }
+
+        /**
+         * @return 队列已满或已关闭而在调用线程执行的任务数
+         */
+        public long getInlineCount() {
+            return inlineCount.get();
+        }
+
+        /**
+         * @return 没有进入队列的任务数,包括之后在调用线程执行的
+         */
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+
+        @Override
+        public String toString() {
+            return name + "{depth=" + getQueueDepth() + "/" + capacity
+                    + ", peak=" + getPeakQueueDepth()
+                    + ", submitted=" + getSubmittedCount()
+                    + ", inline=" + getInlineCount()
+                    + ", rejected=" + getRejectedCount()
+                    + ", " + wait.snapshot() + ", " + run.snapshot() + "}";
+        }
+    }
+}
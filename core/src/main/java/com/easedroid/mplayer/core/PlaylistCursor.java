@@ -0,0 +1,142 @@
+package com.easedroid.mplayer.core;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlaylistCursor    <br/>
+ * 类描述：播放列表游标,记录最后一个被取出的条目位置<br/>
+ */
+public class PlaylistCursor {
+
+    private PlaylistSource source;
+    // 最后一个被取出的条目下标,-1表示还没有取出过
+    private int index = -1;
+    private boolean looping = true;
+
+    public synchronized void reset(String[] paths) {
+        reset(paths != null ? new ArrayPlaylistSource(paths) : null);
+    }
+
+    public synchronized void reset(PlaylistSource source) {
+        this.source = source;
+        this.index = -1;
+    }
+
+    /**
+     * 替换数据来源但保留当前位置,新列表较短时从末尾回到合法位置.
+     */
+    public synchronized void swap(PlaylistSource source) {
+        this.source = source;
+        int length = size();
+        if (length == 0) {
+            index = -1;
+        } else if (index >= length) {
+            index = looping ? index % length : length - 1;
+        }
+    }
+
+    public synchronized PlaylistSource getSource() {
+        return source;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public synchronized int size() {
+        return source == null ? 0 : source.size();
+    }
+
+    public synchronized int getIndex() {
+        return index;
+    }
+
+    public synchronized void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    public synchronized boolean isLooping() {
+        return looping;
+    }
+
+    /**
+     * 回到列表开头并取出第一个条目.
+     *
+     * @return 第一个条目,列表为空时返回null
+     */
+    public synchronized String first() {
+        if (isEmpty()) {
+            index = -1;
+            return null;
+        }
+        index = 0;
+        return source.get(0);
+    }
+
+    /**
+     * 直接跳到index并取出该条目,用于恢复上次的播放位置.
+     *
+     * @return 对应的条目,index超出范围时回到开头取出第一个条目,列表为空时返回null
+     */
+    public synchronized String seek(int index) {
+        int length = size();
+        if (length == 0) {
+            this.index = -1;
+            return null;
+        }
+        this.index = index >= 0 && index < length ? index : 0;
+        return source.get(this.index);
+    }
+
+    /**
+     * 取出下一个条目,循环模式下到达末尾后回到开头.
+     *
+     * @return 下一个条目,非循环模式到达末尾时返回null
+     */
+    public synchronized String next() {
+        int length = size();
+        if (length == 0) {
+            return null;
+        }
+        if (looping) {
+            index = (index + 1) % length;
+            return source.get(index);
+        }
+        if (index + 1 >= length) {
+            return null;
+        }
+        return source.get(++index);
+    }
+
+    /**
+     * 查看之后的条目而不移动游标.
+     *
+     * @param ahead 1表示下一次next()将返回的条目
+     * @return 对应的条目,超出范围时返回null
+     */
+    public synchronized String peek(int ahead) {
+        int length = size();
+        if (length == 0 || ahead <= 0) {
+            return null;
+        }
+        if (looping) {
+            return source.get((int) ((index + (long) ahead) % length + length) % length);
+        }
+        long position = index + (long) ahead;
+        return position < length ? source.get((int) position) : null;
+    }
+
+    /**
+     * 退回count个已经取出的条目,下一次next()会重新取出它们.
+     */
+    public synchronized void rewind(int count) {
+        int length = size();
+        if (length == 0 || count <= 0) {
+            return;
+        }
+        if (looping) {
+            index = ((index - count) % length + length) % length;
+        } else {
+            index = Math.max(-1, index - count);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.easedroid.mplayer.core;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlaylistSource    <br/>
+ * 类描述：播放列表的数据来源,按下标读取条目<br/>
+ */
+public interface PlaylistSource {
+
+    /**
+     * @return 条目数
+     */
+    int size();
+
+    /**
+     * @param index 0 <= index < size()
+     * @return 对应的条目,读取失败时返回null
+     */
+    String get(int index);
+}
@@ -0,0 +1,198 @@
+package com.easedroid.mplayer.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PrepareLeadEstimator    <br/>
+ * 类描述：按来源学习预备播放器的准备耗时,决定在当前视频还剩多少时间时开始准备下一个.
+ * 估计方法和TCP的重传超时相同:耗时的指数加权平均加上4倍的平均偏差,再加上固定的余量.
+ * 来源是网络地址的主机或本地路径所在的存储卷,同一来源的视频准备耗时相近<br/>
+ */
+public class PrepareLeadEstimator {
+
+    public static final long DEFAULT_INITIAL_MS = 1500;
+    public static final long DEFAULT_MARGIN_MS = 300;
+
+    private static final double GAIN = 0.125;
+    private static final double DEVIATION_GAIN = 0.25;
+    private static final int DEVIATION_FACTOR = 4;
+    private static final int MAX_SOURCES = 64;
+
+    private static class Estimate {
+        double averageMs;
+        double deviationMs;
+        long samples;
+    }
+
+    private final long initialMs;
+    private final long marginMs;
+    // 来源 -> 估计,按访问顺序淘汰
+    private final LinkedHashMap<String, Estimate> estimates = new LinkedHashMap<>(16, 0.75f, true);
+    private long lastLeadMs = -1;
+    private long switchCount;
+    private long lateCount;
+
+    public PrepareLeadEstimator() {
+        this(DEFAULT_INITIAL_MS, DEFAULT_MARGIN_MS);
+    }
+
+    /**
+     * @param initialMs 来源还没有样本时使用的提前量
+     * @param marginMs  加在估计上的固定余量,覆盖切换和第一帧的耗时
+     */
+    public PrepareLeadEstimator(long initialMs, long marginMs) {
+        this.initialMs = initialMs;
+        this.marginMs = marginMs;
+    }
+
+    /**
+     * 记录一次准备耗时.
+     */
+    public synchronized void record(String path, long latencyMs) {
+        if (path == null || latencyMs < 0) {
+            return;
+        }
+        String source = sourceOf(path);
+        Estimate estimate = estimates.get(source);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimate.averageMs = latencyMs;
+            estimate.deviationMs = latencyMs / 2.0;
+            estimates.put(source, estimate);
+            trim();
+        } else {
+            estimate.deviationMs += DEVIATION_GAIN * (Math.abs(latencyMs - estimate.averageMs) - estimate.deviationMs);
+            estimate.averageMs += GAIN * (latencyMs - estimate.averageMs);
+        }
+        estimate.samples++;
+    }
+
+    /**
+     * @return 准备path需要提前的毫秒数
+     */
+    public synchronized long getLeadMs(String path) {
+        Estimate estimate = path != null ? estimates.get(sourceOf(path)) : null;
+        if (estimate == null) {
+            return initialMs + marginMs;
+        }
+        return (long) (estimate.averageMs + DEVIATION_FACTOR * estimate.deviationMs) + marginMs;
+    }
+
+    /**
+     * 计算还要等多久才开始准备next,并记录选择的提前量.
+     *
+     * @param next        下一个视频
+     * @param remainingMs 当前视频剩余的播放时间,未知(例如直播)时传入负数
+     * @return 等待的毫秒数,0表示应该立即开始
+     */
+    public long getDelayMs(String next, long remainingMs) {
+        return delayFor(getLeadMs(next), remainingMs);
+    }
+
+    /**
+     * 同{@link #getDelayMs(String, long)},一次补足会同时准备游标之后的多个视频,按其中最慢的来源计算.
+     *
+     * @param count 这次补足要准备的视频个数
+     */
+    public long getDelayMs(PlaylistCursor cursor, int count, long remainingMs) {
+        return delayFor(getLeadMs(cursor, count), remainingMs);
+    }
+
+    /**
+     * @return 准备游标之后count个视频需要提前的毫秒数中的最大值
+     */
+    public long getLeadMs(PlaylistCursor cursor, int count) {
+        long lead = getLeadMs(cursor.peek(1));
+        for (int i = 2; i <= count; i++) {
+            String path = cursor.peek(i);
+            if (path == null) {
+                break;
+            }
+            lead = Math.max(lead, getLeadMs(path));
+        }
+        return lead;
+    }
+
+    private long delayFor(long lead, long remainingMs) {
+        synchronized (this) {
+            lastLeadMs = lead;
+        }
+        return remainingMs < 0 ? 0 : Math.max(0, remainingMs - lead);
+    }
+
+    /**
+     * 记录一次切换,late表示当前视频结束时下一个播放器还没有准备好.
+     */
+    public synchronized void recordSwitch(boolean late) {
+        switchCount++;
+        if (late) {
+            lateCount++;
+        }
+    }
+
+    /**
+     * @return 最近一次选择的提前量,还没有选择过时为-1
+     */
+    public synchronized long getLastLeadMs() {
+        return lastLeadMs;
+    }
+
+    public synchronized long getSwitchCount() {
+        return switchCount;
+    }
+
+    /**
+     * @return 下一个播放器没有及时准备好的切换次数
+     */
+    public synchronized long getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * @return 来源的样本数
+     */
+    public synchronized long getSampleCount(String path) {
+        Estimate estimate = estimates.get(sourceOf(path));
+        return estimate != null ? estimate.samples : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("PrepareLeadEstimator{switches=").append(switchCount)
+                .append(", late=").append(lateCount).append(", lastLead=").append(lastLeadMs).append("ms");
+        for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+            Estimate estimate = entry.getValue();
+            sb.append(", ").append(entry.getKey()).append('=').append((long) estimate.averageMs)
+                    .append("±").append((long) estimate.deviationMs).append("ms");
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * @return 网络地址的协议和主机,本地路径的前两级目录(存储卷)
+     */
+    static String sourceOf(String path) {
+        String lower = path.toLowerCase(Locale.US);
+        int scheme = lower.indexOf("://");
+        if (scheme > 0 && !lower.startsWith("file://")) {
+            int end = lower.indexOf('/', scheme + 3);
+            return end > 0 ? lower.substring(0, end) : lower;
+        }
+        String local = lower.startsWith("file://") ? path.substring("file://".length()) : path;
+        int first = local.indexOf('/', 1);
+        int second = first > 0 ? local.indexOf('/', first + 1) : -1;
+        return second > 0 ? local.substring(0, second) : (first > 0 ? local.substring(0, first) : "/");
+    }
+
+    private void trim() {
+        Iterator<String> it = estimates.keySet().iterator();
+        while (estimates.size() > MAX_SOURCES && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.easedroid.mplayer.core;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：StandbyScheduler    <br/>
+ * 类描述：维护按播放列表顺序预先准备的播放器窗口,并决定何时切换到下一个播放器.
+ * 设置了DecoderBudget区域时,窗口中的条目先申请解码器名额,批准后才开始准备<br/>
+ */
+public class StandbyScheduler {
+
+    public interface Host {
+        /**
+         * 创建播放器并开始异步准备slot的条目.
+         *
+         * @return 正在准备的播放器,失败时返回null
+         */
+        PlayerEngine prepareStandby(Slot slot);
+
+        /**
+         * 预备播放器准备完成.
+         */
+        void onStandbyPrepared(Slot slot);
+
+        /**
+         * 释放一个不再需要的预备播放器,播放器释放之后需要归还slot的名额(如果有).
+         * 返回后slot可能被重新使用,需要在调用中取出engine和ticket.
+         */
+        void releaseStandby(Slot slot);
+
+        /**
+         * 切换到已经准备完成的预备播放器.
+         */
+        void switchTo(Slot slot);
+    }
+
+    public static class Slot {
+        private final String path;
+        // 条目在播放列表中的下标
+        private final int index;
+        // 等待名额时为null
+        private PlayerEngine engine;
+        private DecoderBudget.Ticket ticket;
+        private long prepareStartNanos;
+        private boolean prepared;
+        // 由Host设置,用于配对准备过程的异步时间段
+        private long traceId;
+
+        Slot(String path, int index) {
+            this.path = path;
+            this.index = index;
+        }
+
+        public PlayerEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * @return 占用的解码器名额,没有设置DecoderBudget时为null
+         */
+        public DecoderBudget.Ticket getTicket() {
+            return ticket;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getPrepareStartNanos() {
+            return prepareStartNanos;
+        }
+
+        public boolean isPrepared() {
+            return prepared;
+        }
+
+        public long getTraceId() {
+            return traceId;
+        }
+
+        public void setTraceId(long traceId) {
+            this.traceId = traceId;
+        }
+    }
+
+    private final PlaylistCursor cursor;
+    private final Host host;
+    // 队首为下一个要切换的播放器
+    private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+    private int depth = 1;
+    // 当前视频已经播放完成,但队首的预备播放器还没有准备好
+    private boolean pendingSwitch;
+    private int lastReadyCount;
+    // 单播放器模式,不准备预备播放器
+    private boolean suspended;
+    private DecoderBudget.Zone zone;
+    // 正在申请名额的条目,区域的Executor同步回调时批准会在申请返回之前到达
+    private Slot admitting;
+
+    private final DecoderBudget.GrantListener admission = new DecoderBudget.GrantListener() {
+        @Override
+        public void onGranted(DecoderBudget.Ticket ticket) {
+            onAdmitted(ticket);
+        }
+    };
+
+    public StandbyScheduler(PlaylistCursor cursor, Host host) {
+        this.cursor = cursor;
+        this.host = host;
+    }
+
+    /**
+     * 设置解码器名额所属的区域,区域的回调需要在调用这个调度器的线程上执行.
+     *
+     * @param zone 区域,null表示不限制
+     */
+    public void setZone(DecoderBudget.Zone zone) {
+        this.zone = zone;
+    }
+
+    public DecoderBudget.Zone getZone() {
+        return zone;
+    }
+
+    public PlaylistCursor getCursor() {
+        return cursor;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * 设置预备窗口深度,窗口缩小时从队尾丢弃并回退播放列表位置.
+     *
+     * @param depth 预备的视频个数,最小为1
+     */
+    public void setDepth(int depth) {
+        this.depth = Math.max(1, depth);
+        int dropped = 0;
+        while (slots.size() > this.depth) {
+            releaseSlot(slots.pollLast());
+            dropped++;
+        }
+        cursor.rewind(dropped);
+    }
+
+    /**
+     * 暂停或恢复预备.暂停时释放窗口中所有的预备播放器并退回条目,之后fill()不再准备,
+     * 由调用者在视频播放完成后自己打开下一个.
+     */
+    public void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        if (suspended) {
+            discard();
+        }
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * 补足预备窗口.
+     */
+    public void fill() {
+        while (!suspended && slots.size() < depth) {
+            String path = cursor.next();
+            if (path == null || path.length() == 0) {
+                return;
+            }
+            Slot slot = new Slot(path, cursor.getIndex());
+            slots.addLast(slot);
+            if (zone != null) {
+                requestAdmission(slot);
+            } else if (!startPrepare(slot)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 归还一个已经批准的名额给其他区域:窗口中最后一个持有名额的播放器被释放,
+     * 条目保留在窗口中重新排队申请.
+     *
+     * @return 是否归还了名额
+     */
+    public boolean revokeStandby() {
+        Iterator<Slot> it = slots.descendingIterator();
+        while (it.hasNext()) {
+            Slot slot = it.next();
+            if (slot.ticket != null && slot.ticket.isGranted()) {
+                releaseSlot(slot);
+                slot.engine = null;
+                slot.prepared = false;
+                slot.ticket = null;
+                if (zone != null) {
+                    requestAdmission(slot);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 当前视频播放完成,请求切换到下一个播放器.
+     *
+     * @return 是否立即完成了切换;false表示队首还在准备中或窗口为空
+     */
+    public boolean requestSwitch() {
+        lastReadyCount = getReadyCount();
+        return switchIfReady(true);
+    }
+
+    /**
+     * @return 窗口中的播放器,不属于窗口时返回null
+     */
+    public Slot onPrepared(PlayerEngine engine) {
+        Slot slot = find(engine);
+        if (slot == null) {
+            return null;
+        }
+        slot.prepared = true;
+        host.onStandbyPrepared(slot);
+        if (pendingSwitch && slot == slots.peekFirst()) {
+            switchIfReady(false);
+        }
+        return slot;
+    }
+
+    /**
+     * 预备播放器出错,将其移出窗口并重新补足.
+     *
+     * @return 出错的播放器是否属于窗口
+     */
+    public boolean onError(PlayerEngine engine) {
+        Slot slot = find(engine);
+        if (slot == null) {
+            return false;
+        }
+        slots.remove(slot);
+        releaseSlot(slot);
+        // 先补足再检查切换:窗口为空时检查会清除等待中的切换,补上的播放器准备好后不会再切换
+        fill();
+        if (pendingSwitch) {
+            switchIfReady(false);
+        }
+        return true;
+    }
+
+    public boolean contains(PlayerEngine engine) {
+        return find(engine) != null;
+    }
+
+    /**
+     * 释放窗口中所有的预备播放器.
+     */
+    public void clear() {
+        Slot slot;
+        while ((slot = slots.pollFirst()) != null) {
+            releaseSlot(slot);
+        }
+        pendingSwitch = false;
+    }
+
+    /**
+     * 释放窗口中所有的预备播放器,并把它们占用的条目退回给播放列表.
+     */
+    public void discard() {
+        int dropped = slots.size();
+        clear();
+        cursor.rewind(dropped);
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return 下一个要切换到的条目,窗口为空时返回null
+     */
+    public Slot peekNext() {
+        return slots.peekFirst();
+    }
+
+    /**
+     * @return 在等待解码器名额的条目数
+     */
+    public int getWaitingCount() {
+        int count = 0;
+        for (Slot slot : slots) {
+            if (slot.engine == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getReadyCount() {
+        int count = 0;
+        for (Slot slot : slots) {
+            if (slot.prepared) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 最近一次请求切换时已经准备完成的预备播放器数量
+     */
+    public int getLastReadyCount() {
+        return lastReadyCount;
+    }
+
+    public boolean isSwitchPending() {
+        return pendingSwitch;
+    }
+
+    private boolean switchIfReady(boolean markPending) {
+        Slot next = slots.peekFirst();
+        if (next == null) {
+            pendingSwitch = false;
+            return false;
+        }
+        if (!next.prepared) {
+            // 保持播放顺序,等待队首的播放器准备完成后再切换
+            pendingSwitch = markPending || pendingSwitch;
+            return false;
+        }
+        pendingSwitch = false;
+        slots.pollFirst();
+        host.switchTo(next);
+        return true;
+    }
+
+    private void requestAdmission(Slot slot) {
+        admitting = slot;
+        try {
+            DecoderBudget.Ticket ticket = zone.requestStandby(admission);
+            if (slot.ticket == null) {
+                slot.ticket = ticket;
+            }
+        } finally {
+            admitting = null;
+        }
+    }
+
+    private void onAdmitted(DecoderBudget.Ticket ticket) {
+        if (admitting != null && admitting.ticket == null) {
+            admitting.ticket = ticket;
+        }
+        Slot slot = null;
+        for (Slot s : slots) {
+            if (s.ticket == ticket) {
+                slot = s;
+                break;
+            }
+        }
+        if (slot == null || !ticket.isGranted()) {
+            // 条目已经被丢弃
+            ticket.release();
+            return;
+        }
+        if (!startPrepare(slot)) {
+            slots.remove(slot);
+            ticket.release();
+            if (pendingSwitch) {
+                // 当前视频已经结束,在等待下一个播放器,补上出错的条目
+                fill();
+                switchIfReady(false);
+            }
+        }
+    }
+
+    private boolean startPrepare(Slot slot) {
+        slot.prepareStartNanos = System.nanoTime();
+        PlayerEngine engine = host.prepareStandby(slot);
+        if (engine == null) {
+            if (slot.ticket == null) {
+                slots.remove(slot);
+            }
+            return false;
+        }
+        slot.engine = engine;
+        return true;
+    }
+
+    private void releaseSlot(Slot slot) {
+        if (slot.engine != null) {
+            host.releaseStandby(slot);
+        } else if (slot.ticket != null) {
+            slot.ticket.release();
+        }
+    }
+
+    private Slot find(PlayerEngine engine) {
+        for (Slot slot : slots) {
+            if (slot.engine == engine) {
+                return slot;
+            }
+        }
+        return null;
+    }
+}
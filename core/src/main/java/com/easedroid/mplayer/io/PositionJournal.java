@@ -0,0 +1,239 @@
+package com.easedroid.mplayer.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PositionJournal    <br/>
+ * 类描述：记录播放位置(播放列表、条目下标、视频内的毫秒数)的日志文件,用于进程重启后从原来的位置继续播放.
+ * 文件被映射到内存,每条记录固定32字节,按序号循环追加,写入只是一次内存拷贝,刷到存储在{@link #setSyncExecutor}的线程中进行;
+ * 打开时按播放列表取校验通过的序号最大的记录,写了一半的记录会被忽略<br/>
+ */
+public class PositionJournal implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    static final int RECORD_SIZE = 32;
+    // 序号(8) 播放列表key(8) 下标(4) 位置(4) 时间秒数(4) CRC32(4)
+    private static final int OFFSET_KEY = 8;
+    private static final int OFFSET_INDEX = 16;
+    private static final int OFFSET_POSITION = 20;
+    private static final int OFFSET_TIME = 24;
+    private static final int OFFSET_CRC = 28;
+    // 每写入这么多条记录在syncExecutor上把映射的页刷到存储上一次
+    private static final int FORCE_EVERY = 8;
+
+    public static class Entry {
+        public final long sequence;
+        public final long playlistKey;
+        public final int index;
+        public final int positionMs;
+        public final long timeMs;
+
+        Entry(long sequence, long playlistKey, int index, int positionMs, long timeMs) {
+            this.sequence = sequence;
+            this.playlistKey = playlistKey;
+            this.index = index;
+            this.positionMs = positionMs;
+            this.timeMs = timeMs;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " index=" + index + " position=" + positionMs + "ms";
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private Entry latest;
+    // 播放列表key -> 这个播放列表最后一条记录
+    private final Map<Long, Entry> latestByKey = new HashMap<>();
+    private boolean closed;
+    private long sequence;
+    private int unforced;
+    private long writeCount;
+    private volatile Executor syncExecutor;
+    private final Runnable syncTask = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+        }
+    };
+
+    public PositionJournal(File path) throws IOException {
+        this(path, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 循环保留的记录条数,文件已经存在时以文件大小为准
+     */
+    public PositionJournal(File path, int capacity) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        try {
+            long length = file.length();
+            if (length < RECORD_SIZE) {
+                length = (long) Math.max(1, capacity) * RECORD_SIZE;
+                file.setLength(length);
+            }
+            this.capacity = (int) (length / RECORD_SIZE);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) this.capacity * RECORD_SIZE);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        recover();
+    }
+
+    /**
+     * @return 播放列表标识对应的key,标识相同的播放列表才会从日志中恢复位置
+     */
+    public static long keyOf(String playlistId) {
+        // 64位FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < playlistId.length(); i++) {
+            hash ^= playlistId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 设置定期刷盘的线程.刷盘可能阻塞几十毫秒,不应该在切换视频的线程上进行;
+     * 没有设置时只在sync()和close()时刷到存储.
+     *
+     * @param executor 执行刷盘的Executor,null表示不定期刷盘
+     */
+    public void setSyncExecutor(Executor executor) {
+        syncExecutor = executor;
+    }
+
+    /**
+     * 追加一条记录,日志关闭之后忽略.
+     */
+    public synchronized void record(String playlistId, int index, int positionMs) {
+        if (closed) {
+            return;
+        }
+        long timeMs = System.currentTimeMillis();
+        long seq = ++sequence;
+        long key = keyOf(playlistId);
+        record.clear();
+        record.putLong(0, seq);
+        record.putLong(OFFSET_KEY, key);
+        record.putInt(OFFSET_INDEX, index);
+        record.putInt(OFFSET_POSITION, positionMs);
+        record.putInt(OFFSET_TIME, (int) (timeMs / 1000));
+        crc.reset();
+        crc.update(record.array(), 0, OFFSET_CRC);
+        record.putInt(OFFSET_CRC, (int) crc.getValue());
+
+        ByteBuffer dst = buffer.duplicate();
+        dst.position(slotOf(seq));
+        dst.put(record.array());
+        latest = new Entry(seq, key, index, positionMs, timeMs / 1000 * 1000);
+        latestByKey.put(key, latest);
+        writeCount++;
+        Executor executor = syncExecutor;
+        if (++unforced >= FORCE_EVERY && executor != null) {
+            unforced = 0;
+            executor.execute(syncTask);
+        }
+    }
+
+    /**
+     * @return 最后一条记录,日志为空时返回null
+     */
+    public synchronized Entry latest() {
+        return latest;
+    }
+
+    /**
+     * 其他播放列表写入超过容量的记录之后,这个播放列表的记录会被循环覆盖.
+     *
+     * @return playlistId最后一条记录,日志中没有这个播放列表的记录时返回null
+     */
+    public synchronized Entry latest(String playlistId) {
+        return latestByKey.get(keyOf(playlistId));
+    }
+
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 把还没有写入存储的记录刷到存储上.
+     */
+    public void sync() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            unforced = 0;
+        }
+        // 不持有锁,刷盘期间record()不被阻塞
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        file.close();
+    }
+
+    private void recover() {
+        byte[] bytes = new byte[RECORD_SIZE];
+        ByteBuffer src = buffer.duplicate();
+        ByteBuffer r = ByteBuffer.wrap(bytes);
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * RECORD_SIZE;
+            src.position(offset);
+            src.get(bytes);
+            long seq = r.getLong(0);
+            if (seq <= 0 || slotOf(seq) != offset) {
+                continue;
+            }
+            crc.reset();
+            crc.update(bytes, 0, OFFSET_CRC);
+            if (r.getInt(OFFSET_CRC) != (int) crc.getValue()) {
+                continue;
+            }
+            long key = r.getLong(OFFSET_KEY);
+            Entry previous = latestByKey.get(key);
+            if (previous == null || seq > previous.sequence) {
+                Entry entry = new Entry(seq, key, r.getInt(OFFSET_INDEX),
+                        r.getInt(OFFSET_POSITION), (r.getInt(OFFSET_TIME) & 0xffffffffL) * 1000);
+                latestByKey.put(key, entry);
+                if (latest == null || seq > latest.sequence) {
+                    latest = entry;
+                }
+            }
+        }
+        sequence = latest != null ? latest.sequence : 0;
+    }
+
+    private int slotOf(long seq) {
+        return (int) (seq % capacity) * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,274 @@
+package com.easedroid.mplayer.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：ReadAheadPrefetcher    <br/>
+ * 类描述：在后台读取本地视频文件的头部和moov box,使其进入系统的page cache,
+ * 减少播放器prepare时在慢速存储上的等待<br/>
+ */
+public class ReadAheadPrefetcher {
+
+    public static final long DEFAULT_BYTE_BUDGET = 4 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // 查找moov时最多检查的顶层box数
+    private static final int MAX_TOP_LEVEL_BOXES = 64;
+    private static final int TYPE_MOOV = 0x6d6f6f76;
+
+    public interface Listener {
+        /**
+         * 一个文件预读完成,在预读线程回调.
+         *
+         * @param result 预读结果
+         */
+        void onWarmed(Result result);
+    }
+
+    public static class Result {
+        public final String path;
+        public final long bytesWarmed;
+        public final long elapsedNanos;
+        // moov box的位置,没有找到时为-1
+        public final long moovOffset;
+
+        Result(String path, long bytesWarmed, long elapsedNanos, long moovOffset) {
+            this.path = path;
+            this.bytesWarmed = bytesWarmed;
+            this.elapsedNanos = elapsedNanos;
+            this.moovOffset = moovOffset;
+        }
+
+        @Override
+        public String toString() {
+            return path + " warmed " + bytesWarmed + " bytes in " + elapsedNanos / 1000000 + "ms"
+                    + (moovOffset >= 0 ? ", moov@" + moovOffset : ", no moov");
+        }
+    }
+
+    private final Executor executor;
+    // 自己创建的线程,使用外部Executor时为null
+    private final ExecutorService ownExecutor;
+    // 每个预读线程一个缓冲区
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private volatile long byteBudget;
+    private volatile Listener listener;
+    private final AtomicLong warmedCount = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    public ReadAheadPrefetcher() {
+        this(DEFAULT_BYTE_BUDGET);
+    }
+
+    /**
+     * @param byteBudget 每个文件最多预读的字节数
+     */
+    public ReadAheadPrefetcher(long byteBudget) {
+        this.byteBudget = byteBudget;
+        this.ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ReadAheadPrefetcher");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.executor = ownExecutor;
+    }
+
+    /**
+     * @param byteBudget 每个文件最多预读的字节数
+     * @param executor   执行预读的线程,例如共享的PlayerWorkScheduler.getPrepareExecutor()
+     */
+    public ReadAheadPrefetcher(long byteBudget, Executor executor) {
+        this.byteBudget = byteBudget;
+        this.ownExecutor = null;
+        this.executor = executor;
+    }
+
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 在后台预读path,非本地文件或预读预算为0时忽略.
+     */
+    public void prefetch(final String path) {
+        final File file = toLocalFile(path);
+        if (file == null || byteBudget <= 0) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Result result = warm(file, byteBudget);
+                    Listener l = listener;
+                    if (l != null) {
+                        l.onWarmed(result);
+                    }
+                } catch (IOException e) {
+                    // 文件不可读时交给播放器去报错
+                }
+            }
+        });
+    }
+
+    /**
+     * 在调用线程中预读文件.moov不在头部时先读moov,剩余的预算用于读文件头部.
+     */
+    public Result warm(File file, long budget) throws IOException {
+        long start = System.nanoTime();
+        long warmed = 0;
+        long moovOffset = -1;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            long[] moov = findMoov(channel, size);
+            if (moov != null) {
+                moovOffset = moov[0];
+                if (moov[0] + moov[1] > budget) {
+                    // moov不在预读的头部范围内(通常在文件末尾),优先读取
+                    warmed += readRange(channel, moov[0], Math.min(moov[1], budget));
+                }
+            }
+            long headEnd = Math.min(size, budget - warmed);
+            if (headEnd > 0) {
+                warmed += readRange(channel, 0, headEnd);
+            }
+        } finally {
+            raf.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        warmedCount.incrementAndGet();
+        totalBytes.addAndGet(warmed);
+        totalNanos.addAndGet(elapsed);
+        return new Result(file.getPath(), warmed, elapsed, moovOffset);
+    }
+
+    public long getWarmedCount() {
+        return warmedCount.get();
+    }
+
+    public long getTotalBytesWarmed() {
+        return totalBytes.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * 停止自己创建的预读线程,外部传入的Executor由调用者管理.
+     */
+    public void shutdown() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return 本地文件路径对应的文件,网络地址或不存在的文件返回null
+     */
+    public static File toLocalFile(String path) {
+        if (path == null) {
+            return null;
+        }
+        if (path.startsWith("file://")) {
+            path = path.substring("file://".length());
+        }
+        if (!path.startsWith("/")) {
+            return null;
+        }
+        File file = new File(path);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * @return {offset, size},没有找到时返回null
+     */
+    private long[] findMoov(FileChannel channel, long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        for (int i = 0; i < MAX_TOP_LEVEL_BOXES && position + 8 <= fileSize; i++) {
+            header.clear();
+            if (readFully(channel, header, position) < 8) {
+                return null;
+            }
+            long boxSize = header.getInt(0) & 0xffffffffL;
+            int type = header.getInt(4);
+            if (boxSize == 1) {
+                if (header.position() < 16) {
+                    return null;
+                }
+                boxSize = header.getLong(8);
+            } else if (boxSize == 0) {
+                boxSize = fileSize - position;
+            }
+            if (boxSize < 8) {
+                return null;
+            }
+            if (type == TYPE_MOOV) {
+                return new long[]{position, Math.min(boxSize, fileSize - position)};
+            }
+            position += boxSize;
+        }
+        return null;
+    }
+
+    private long readRange(FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        long read = 0;
+        while (read < length) {
+            buffer.clear();
+            if (length - read < buffer.capacity()) {
+                buffer.limit((int) (length - read));
+            }
+            int n = channel.read(buffer, position + read);
+            if (n <= 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + total);
+            if (n <= 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,160 @@
+package com.easedroid.mplayer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：LatencyHistogram    <br/>
+ * 类描述：固定内存的延迟直方图,记录时不分配对象也不加锁,相对误差约3%<br/>
+ */
+public class LatencyHistogram {
+
+    // 每个2的幂区间内的线性子桶数为 1 << SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 可记录的最大值,约71分钟(单位微秒),超出的按最大值计
+    private static final long MAX_TRACKABLE_US = (1L << 32) - 1;
+    private static final int BUCKET_COUNT = indexOf(MAX_TRACKABLE_US) + 1;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 记录一个以纳秒为单位的耗时.
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * 记录一个以微秒为单位的耗时.
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        } else if (micros > MAX_TRACKABLE_US) {
+            micros = MAX_TRACKABLE_US;
+        }
+        buckets.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get())) {
+            if (max.compareAndSet(current, micros)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 清空所有记录.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return 当前记录的快照,与正在进行的记录并发时结果是近似的
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long maxUs = max.get();
+        return new Snapshot(name, total,
+                total == 0 ? 0 : sum.get() / total,
+                percentile(counts, total, 0.50, maxUs),
+                percentile(counts, total, 0.95, maxUs),
+                percentile(counts, total, 0.99, maxUs),
+                maxUs);
+    }
+
+    private static long percentile(long[] counts, long total, double p, long maxUs) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), maxUs);
+            }
+        }
+        return maxUs;
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * 直方图快照,所有时间单位为微秒.
+     */
+    public static class Snapshot {
+        public final String name;
+        public final long count;
+        public final long meanUs;
+        public final long p50Us;
+        public final long p95Us;
+        public final long p99Us;
+        public final long maxUs;
+
+        Snapshot(String name, long count, long meanUs, long p50Us, long p95Us, long p99Us, long maxUs) {
+            this.name = name;
+            this.count = count;
+            this.meanUs = meanUs;
+            this.p50Us = p50Us;
+            this.p95Us = p95Us;
+            this.p99Us = p99Us;
+            this.maxUs = maxUs;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{count=" + count
+                    + ", mean=" + meanUs / 1000 + "ms"
+                    + ", p50=" + p50Us / 1000 + "ms"
+                    + ", p95=" + p95Us / 1000 + "ms"
+                    + ", p99=" + p99Us / 1000 + "ms"
+                    + ", max=" + maxUs / 1000 + "ms}";
+        }
+    }
+}
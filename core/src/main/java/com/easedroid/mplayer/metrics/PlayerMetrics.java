@@ -0,0 +1,68 @@
+package com.easedroid.mplayer.metrics;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：PlayerMetrics    <br/>
+ * 类描述：播放器切换相关的延迟统计<br/>
+ */
+public class PlayerMetrics {
+
+    /**
+     * 上一个视频播放完成到下一个视频渲染出第一帧的间隔
+     */
+    public final LatencyHistogram switchGap = new LatencyHistogram("switchGap");
+    /**
+     * prepareAsync()到onPrepared()的耗时
+     */
+    public final LatencyHistogram prepare = new LatencyHistogram("prepare");
+    /**
+     * 释放(回收)一个播放器的耗时
+     */
+    public final LatencyHistogram release = new LatencyHistogram("release");
+    /**
+     * 预备播放器的第一帧在后台画面中画好之后多久才切换过去,只有双画面渲染时记录
+     */
+    public final LatencyHistogram standbyFrameLead = new LatencyHistogram("standbyFrameLead");
+    /**
+     * 开始切换到两个画面交换完成(包括淡入淡出)的耗时,只有双画面渲染时记录
+     */
+    public final LatencyHistogram swap = new LatencyHistogram("swap");
+
+    public Snapshot snapshot() {
+        return new Snapshot(switchGap.snapshot(), prepare.snapshot(), release.snapshot(),
+                standbyFrameLead.snapshot(), swap.snapshot());
+    }
+
+    public void reset() {
+        switchGap.reset();
+        prepare.reset();
+        release.reset();
+        standbyFrameLead.reset();
+        swap.reset();
+    }
+
+    public static class Snapshot {
+        public final LatencyHistogram.Snapshot switchGap;
+        public final LatencyHistogram.Snapshot prepare;
+        public final LatencyHistogram.Snapshot release;
+        public final LatencyHistogram.Snapshot standbyFrameLead;
+        public final LatencyHistogram.Snapshot swap;
+
+        Snapshot(LatencyHistogram.Snapshot switchGap,
+                 LatencyHistogram.Snapshot prepare,
+                 LatencyHistogram.Snapshot release,
+                 LatencyHistogram.Snapshot standbyFrameLead,
+                 LatencyHistogram.Snapshot swap) {
+            this.switchGap = switchGap;
+            this.prepare = prepare;
+            this.release = release;
+            this.standbyFrameLead = standbyFrameLead;
+            this.swap = swap;
+        }
+
+        @Override
+        public String toString() {
+            return switchGap + " " + prepare + " " + release + " " + standbyFrameLead + " " + swap;
+        }
+    }
+}
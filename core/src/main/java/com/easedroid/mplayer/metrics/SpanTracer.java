@@ -0,0 +1,320 @@
+package com.easedroid.mplayer.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：SpanTracer    <br/>
+ * 类描述：记录播放器各个阶段的时间段,用于分析切换间隔花在哪里.
+ * 同步时间段(begin/end)在同一个线程中开始和结束;异步时间段(beginAsync/endAsync)用id配对,
+ * 可以跨线程,例如prepareAsync()到onPrepared().
+ * 每个线程写入自己的环形缓冲区,写满后覆盖最旧的事件;关闭时每次调用只读一个volatile字段.
+ * 导出为Chrome trace event格式的JSON,可以在chrome://tracing或Perfetto UI中打开<br/>
+ */
+public class SpanTracer {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final byte PHASE_BEGIN = 'B';
+    private static final byte PHASE_END = 'E';
+    private static final byte PHASE_ASYNC_BEGIN = 'b';
+    private static final byte PHASE_ASYNC_END = 'e';
+    private static final byte PHASE_INSTANT = 'i';
+    private static final String CATEGORY = "player";
+
+    /**
+     * 一个线程的事件,只有所属线程写入,导出时由其他线程读取
+     */
+    private static class Ring {
+        final long tid;
+        final String threadName;
+        final byte[] phases;
+        final String[] names;
+        final String[] details;
+        final long[] ids;
+        final long[] timestamps;
+        // 下一个写入的位置和写入过的事件总数
+        int next;
+        long written;
+
+        Ring(Thread thread, int capacity) {
+            tid = thread.getId();
+            threadName = thread.getName();
+            phases = new byte[capacity];
+            names = new String[capacity];
+            details = new String[capacity];
+            ids = new long[capacity];
+            timestamps = new long[capacity];
+        }
+
+        synchronized void add(byte phase, String name, String detail, long id, long nanos) {
+            phases[next] = phase;
+            names[next] = name;
+            details[next] = detail;
+            ids[next] = id;
+            timestamps[next] = nanos;
+            next = next + 1 == phases.length ? 0 : next + 1;
+            written++;
+        }
+
+        synchronized void clear() {
+            next = 0;
+            written = 0;
+        }
+    }
+
+    private final int capacity;
+    private final long originNanos = System.nanoTime();
+    private final AtomicLong nextId = new AtomicLong();
+    private final List<Ring> rings = new ArrayList<>();
+    private final ThreadLocal<Ring> localRing = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Ring ring = new Ring(Thread.currentThread(), capacity);
+            synchronized (rings) {
+                rings.add(ring);
+            }
+            return ring;
+        }
+    };
+    private volatile boolean enabled;
+
+    public SpanTracer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 每个线程保留的事件数
+     */
+    public SpanTracer(int capacity) {
+        this.capacity = Math.max(16, capacity);
+    }
+
+    /**
+     * 开始或停止记录,默认关闭.停止后已经记录的事件仍然可以导出.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return 用于异步时间段的新id
+     */
+    public long newAsyncId() {
+        return nextId.incrementAndGet();
+    }
+
+    public void begin(String name) {
+        if (enabled) {
+            localRing.get().add(PHASE_BEGIN, name, null, 0, System.nanoTime());
+        }
+    }
+
+    /**
+     * @param detail 附加的说明,例如视频路径,导出到args中
+     */
+    public void begin(String name, String detail) {
+        if (enabled) {
+            localRing.get().add(PHASE_BEGIN, name, detail, 0, System.nanoTime());
+        }
+    }
+
+    /**
+     * 结束当前线程最近开始的同步时间段.
+     */
+    public void end() {
+        if (enabled) {
+            localRing.get().add(PHASE_END, null, null, 0, System.nanoTime());
+        }
+    }
+
+    public void beginAsync(String name, long id) {
+        if (enabled) {
+            localRing.get().add(PHASE_ASYNC_BEGIN, name, null, id, System.nanoTime());
+        }
+    }
+
+    public void beginAsync(String name, long id, String detail) {
+        if (enabled) {
+            localRing.get().add(PHASE_ASYNC_BEGIN, name, detail, id, System.nanoTime());
+        }
+    }
+
+    /**
+     * 结束name和id相同的异步时间段,可以在任意线程调用.
+     */
+    public void endAsync(String name, long id) {
+        if (enabled) {
+            localRing.get().add(PHASE_ASYNC_END, name, null, id, System.nanoTime());
+        }
+    }
+
+    /**
+     * 记录一个时间点
+     */
+    public void instant(String name, String detail) {
+        if (enabled) {
+            localRing.get().add(PHASE_INSTANT, name, detail, 0, System.nanoTime());
+        }
+    }
+
+    /**
+     * 清除所有线程已经记录的事件.
+     */
+    public void clear() {
+        for (Ring ring : snapshotRings()) {
+            ring.clear();
+        }
+    }
+
+    /**
+     * @return 所有线程缓冲区中现有的事件数
+     */
+    public int getEventCount() {
+        int count = 0;
+        for (Ring ring : snapshotRings()) {
+            synchronized (ring) {
+                count += (int) Math.min(ring.written, capacity);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 导出到文件,见{@link #writeChromeTrace(Writer)}.
+     */
+    public void exportChromeTrace(File file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeChromeTrace(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 以Chrome trace event格式写出现有的事件,时间单位为微秒,从创建tracer开始计时.
+     * 缓冲区覆盖了开头事件的同步时间段,它们的结束事件会被跳过.
+     */
+    public void writeChromeTrace(Writer out) throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (Ring ring : snapshotRings()) {
+            int count;
+            int start;
+            byte[] phases;
+            String[] names;
+            String[] details;
+            long[] ids;
+            long[] timestamps;
+            synchronized (ring) {
+                count = (int) Math.min(ring.written, capacity);
+                start = ring.written > capacity ? ring.next : 0;
+                phases = ring.phases.clone();
+                names = ring.names.clone();
+                details = ring.details.clone();
+                ids = ring.ids.clone();
+                timestamps = ring.timestamps.clone();
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + ring.tid + ",\"args\":{\"name\":");
+            writeString(out, ring.threadName);
+            out.write("}}");
+            int depth = 0;
+            for (int i = 0; i < count; i++) {
+                int index = (start + i) % capacity;
+                byte phase = phases[index];
+                if (phase == PHASE_BEGIN) {
+                    depth++;
+                } else if (phase == PHASE_END) {
+                    if (depth == 0) {
+                        continue;
+                    }
+                    depth--;
+                }
+                out.write(",{\"ph\":\"");
+                out.write((char) phase);
+                out.write("\",\"pid\":1,\"tid\":");
+                out.write(Long.toString(ring.tid));
+                out.write(",\"ts\":");
+                out.write(String.format(Locale.US, "%.3f", (timestamps[index] - originNanos) / 1000.0));
+                if (names[index] != null) {
+                    out.write(",\"name\":");
+                    writeString(out, names[index]);
+                }
+                if (phase == PHASE_ASYNC_BEGIN || phase == PHASE_ASYNC_END) {
+                    out.write(",\"cat\":\"" + CATEGORY + "\",\"id\":\"0x" + Long.toHexString(ids[index]) + "\"");
+                } else if (phase == PHASE_INSTANT) {
+                    out.write(",\"s\":\"t\"");
+                }
+                if (details[index] != null) {
+                    out.write(",\"args\":{\"detail\":");
+                    writeString(out, details[index]);
+                    out.write('}');
+                }
+                out.write('}');
+            }
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "SpanTracer{enabled=" + enabled + ", threads=" + snapshotRings().size()
+                + ", events=" + getEventCount() + "}";
+    }
+
+    private List<Ring> snapshotRings() {
+        synchronized (rings) {
+            return new ArrayList<>(rings);
+        }
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
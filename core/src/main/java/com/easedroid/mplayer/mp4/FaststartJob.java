@@ -0,0 +1,179 @@
+package com.easedroid.mplayer.mp4;
+
+import com.easedroid.mplayer.core.ArrayPlaylistSource;
+import com.easedroid.mplayer.core.PlaylistSource;
+import com.easedroid.mplayer.io.ReadAheadPrefetcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：FaststartJob    <br/>
+ * 类描述：后台维护任务,找出播放列表中moov在文件末尾的本地MP4并逐个改写为faststart.
+ * 在自己的低优先级线程上顺序执行,不占用播放器的准备线程;可以随时取消,正在改写的文件会先完成<br/>
+ */
+public class FaststartJob {
+
+    public interface Listener {
+        /**
+         * 一个文件处理完成,在任务线程回调.
+         */
+        void onFile(FaststartRewriter.Result result);
+
+        /**
+         * 整个播放列表处理完成或被取消,在任务线程回调.
+         */
+        void onFinished(Report report);
+    }
+
+    public static class Report {
+        public int scanned;
+        public int rewritten;
+        public int alreadyFaststart;
+        public int skipped;
+        public int failed;
+        public long bytesCopied;
+        public long elapsedNanos;
+        // 被改写的文件在prepare时不再需要跳过的总字节数
+        public long skippedBytesSaved;
+        public boolean cancelled;
+
+        @Override
+        public String toString() {
+            return "Faststart{scanned=" + scanned + ", rewritten=" + rewritten
+                    + ", already=" + alreadyFaststart + ", skipped=" + skipped + ", failed=" + failed
+                    + ", copied=" + bytesCopied + ", elapsed=" + elapsedNanos / 1000000 + "ms"
+                    + ", skipSaved=" + skippedBytesSaved
+                    + (cancelled ? ", cancelled" : "") + "}";
+        }
+    }
+
+    private final FaststartRewriter rewriter;
+    private final ExecutorService executor;
+    private volatile boolean cancelled;
+    // 这个目录下的文件不改写,以路径分隔符结尾,null表示不排除
+    private volatile String excludedPrefix;
+
+    public FaststartJob() {
+        this(new FaststartRewriter());
+    }
+
+    public FaststartJob(FaststartRewriter rewriter) {
+        this.rewriter = rewriter;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FaststartJob");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 设置不改写的目录,例如{@link com.easedroid.mplayer.cache.ContentStore}的目录:
+     * 存储中的文件以内容摘要命名,原地改写后名字和内容不再对应.这些文件计入skipped.
+     *
+     * @param directory 不改写的目录,null表示处理所有本地文件
+     */
+    public void setExcludedDirectory(File directory) {
+        excludedPrefix = directory != null ? directory.getAbsolutePath() + File.separator : null;
+    }
+
+    /**
+     * 在后台处理source中的所有本地文件.调用线程不读取source,条目在任务线程中逐个读取,
+     * 按需读取的大播放列表不需要一次全部读入内存.
+     */
+    public void submit(final PlaylistSource source, final Listener listener) {
+        cancelled = false;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Report report = FaststartJob.this.run(source, listener);
+                if (listener != null) {
+                    listener.onFinished(report);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在调用线程同步处理paths.
+     */
+    public Report run(List<String> paths, Listener listener) {
+        return run(new ArrayPlaylistSource(paths.toArray(new String[paths.size()])), listener);
+    }
+
+    /**
+     * 在调用线程同步处理source,重复的条目再次处理时已经是faststart,只读取box头.
+     */
+    public Report run(PlaylistSource source, Listener listener) {
+        long start = System.nanoTime();
+        Report report = new Report();
+        for (int i = 0; i < source.size(); i++) {
+            if (cancelled) {
+                report.cancelled = true;
+                break;
+            }
+            String path = source.get(i);
+            if (path == null) {
+                continue;
+            }
+            File file = ReadAheadPrefetcher.toLocalFile(path);
+            if (file == null || isExcluded(file)) {
+                report.skipped++;
+                continue;
+            }
+            report.scanned++;
+            FaststartRewriter.Result result;
+            try {
+                // 不需要改写的文件只读取顶层box头就返回
+                result = rewriter.rewrite(file);
+            } catch (IOException e) {
+                report.failed++;
+                continue;
+            } catch (RuntimeException e) {
+                // 损坏的文件不应该结束整个任务,否则onFinished不会被回调
+                report.failed++;
+                continue;
+            }
+            if (result.isRewritten()) {
+                report.rewritten++;
+                report.bytesCopied += result.bytesCopied;
+                report.skippedBytesSaved += result.getSkippedBytesSaved();
+            } else if (result.status == FaststartRewriter.STATUS_ALREADY_FASTSTART) {
+                report.alreadyFaststart++;
+            } else {
+                report.skipped++;
+            }
+            if (listener != null) {
+                listener.onFile(result);
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private boolean isExcluded(File file) {
+        String prefix = excludedPrefix;
+        return prefix != null && file.getAbsolutePath().startsWith(prefix);
+    }
+
+    /**
+     * 取消还没有开始的文件.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public void shutdown() {
+        cancelled = true;
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,337 @@
+package com.easedroid.mplayer.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：FaststartRewriter    <br/>
+ * 类描述：把moov在文件末尾的MP4改写为moov在mdat之前(faststart),播放器prepare时不需要先seek到文件末尾.
+ * 媒体数据用FileChannel.transferTo直接在文件之间复制,只有moov读入内存并修正stco/co64中的偏移;
+ * 新文件写到同目录的临时文件,刷到存储后rename替换原文件,正在读原文件的播放器不受影响<br/>
+ */
+public class FaststartRewriter {
+
+    public static final int STATUS_REWRITTEN = 0;
+    /**
+     * moov已经在mdat之前
+     */
+    public static final int STATUS_ALREADY_FASTSTART = 1;
+    /**
+     * 不是MP4,或者缺少moov/mdat
+     */
+    public static final int STATUS_NOT_MP4 = 2;
+    /**
+     * 分片MP4、压缩的moov、过大的moov,或者移动后32位stco放不下的偏移
+     */
+    public static final int STATUS_UNSUPPORTED = 3;
+    /**
+     * 改写期间原文件被修改,放弃替换
+     */
+    public static final int STATUS_CHANGED = 4;
+    /**
+     * 剩余空间不足以写临时文件
+     */
+    public static final int STATUS_NO_SPACE = 5;
+
+    public static final int DEFAULT_MAX_MOOV_SIZE = 32 * 1024 * 1024;
+
+    private static final String TEMP_SUFFIX = ".faststart.tmp";
+    private static final int TYPE_MOOF = Mp4BoxReader.fourcc("moof");
+    private static final int TYPE_CMOV = Mp4BoxReader.fourcc("cmov");
+    // 可能包含stco/co64的容器box
+    private static final int[] CONTAINERS = {
+            Mp4BoxReader.TYPE_MOOV, Mp4BoxReader.TYPE_TRAK, Mp4BoxReader.TYPE_MDIA,
+            Mp4BoxReader.TYPE_MINF, Mp4BoxReader.TYPE_STBL
+    };
+
+    public static class Result {
+        public final String path;
+        public final int status;
+        // 改写前moov的位置,也就是prepare时需要跳过的字节数
+        public final long moovOffsetBefore;
+        public final long moovSize;
+        public final long bytesCopied;
+        public final long elapsedNanos;
+
+        Result(String path, int status, long moovOffsetBefore, long moovSize, long bytesCopied,
+               long elapsedNanos) {
+            this.path = path;
+            this.status = status;
+            this.moovOffsetBefore = moovOffsetBefore;
+            this.moovSize = moovSize;
+            this.bytesCopied = bytesCopied;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isRewritten() {
+            return status == STATUS_REWRITTEN;
+        }
+
+        /**
+         * 不在这里测量prepare节省的时间:改写前后的读取都命中刚刚读过的page cache,差值只是噪声.
+         *
+         * @return 每次prepare不再需要跳过的字节数,没有改写时为0
+         */
+        public long getSkippedBytesSaved() {
+            return isRewritten() ? moovOffsetBefore : 0;
+        }
+
+        @Override
+        public String toString() {
+            return path + " " + statusName(status) + (isRewritten()
+                    ? ", moov " + moovSize + " bytes moved from " + moovOffsetBefore
+                    + ", copied " + bytesCopied + " bytes in " + elapsedNanos / 1000000 + "ms"
+                    : "");
+        }
+    }
+
+    private final int maxMoovSize;
+
+    public FaststartRewriter() {
+        this(DEFAULT_MAX_MOOV_SIZE);
+    }
+
+    /**
+     * @param maxMoovSize 能读入内存改写的最大moov
+     */
+    public FaststartRewriter(int maxMoovSize) {
+        this.maxMoovSize = maxMoovSize;
+    }
+
+    /**
+     * 只检查顶层box,判断文件是否需要改写.
+     */
+    public static boolean needsFaststart(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            Layout layout = Layout.scan(new Mp4BoxReader(raf.getChannel()));
+            return layout.moov != null && layout.mdat != null && layout.moov.offset > layout.mdat.offset;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 改写file,在调用线程同步执行,耗时和文件大小成正比.
+     */
+    public Result rewrite(File file) throws IOException {
+        long start = System.nanoTime();
+        String path = file.getPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel src = in.getChannel();
+            Mp4BoxReader reader = new Mp4BoxReader(src);
+            Layout layout = Layout.scan(reader);
+            if (layout.moov == null || layout.mdat == null) {
+                return new Result(path, STATUS_NOT_MP4, -1, 0, 0, System.nanoTime() - start);
+            }
+            Mp4BoxReader.Box moov = layout.moov;
+            if (moov.offset < layout.mdat.offset) {
+                return new Result(path, STATUS_ALREADY_FASTSTART, moov.offset, moov.size, 0,
+                        System.nanoTime() - start);
+            }
+            if (layout.fragmented || moov.size > maxMoovSize) {
+                return unsupported(path, moov, start);
+            }
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir == null || dir.getUsableSpace() < length) {
+                return new Result(path, STATUS_NO_SPACE, moov.offset, moov.size, 0, System.nanoTime() - start);
+            }
+
+            ByteBuffer moovBytes = ByteBuffer.allocate((int) moov.size);
+            if (Mp4BoxReader.readFully(src, moovBytes, moov.offset) < moov.size) {
+                return new Result(path, STATUS_NOT_MP4, moov.offset, moov.size, 0, System.nanoTime() - start);
+            }
+            // moov插入到第一个mdat之前,[insert, moov)之间的数据整体后移moov.size
+            long insert = layout.mdat.offset;
+            if (!shiftOffsets(moovBytes, 0, (int) moov.size, insert, moov.offset, moov.size)) {
+                return unsupported(path, moov, start);
+            }
+            moovBytes.clear();
+
+            long copied = write(src, temp, moovBytes, insert, moov);
+            if (file.lastModified() != lastModified || file.length() != length) {
+                temp.delete();
+                return new Result(path, STATUS_CHANGED, moov.offset, moov.size, copied, System.nanoTime() - start);
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("unable to replace " + path);
+            }
+            return new Result(path, STATUS_REWRITTEN, moov.offset, moov.size, copied,
+                    System.nanoTime() - start);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Result unsupported(String path, Mp4BoxReader.Box moov, long start) {
+        return new Result(path, STATUS_UNSUPPORTED, moov.offset, moov.size, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * 写出 [0, insert) moov [insert, moov) [moov结束, 文件结束),然后刷到存储
+     */
+    private static long write(FileChannel src, File temp, ByteBuffer moovBytes, long insert,
+                              Mp4BoxReader.Box moov) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            FileChannel dst = out.getChannel();
+            long copied = transfer(src, 0, insert, dst);
+            while (moovBytes.hasRemaining()) {
+                dst.write(moovBytes);
+            }
+            copied += transfer(src, insert, moov.offset - insert, dst);
+            copied += transfer(src, moov.end(), src.size() - moov.end(), dst);
+            dst.force(true);
+            return copied;
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long transfer(FileChannel src, long position, long count, FileChannel dst) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = src.transferTo(position + done, count - done, dst);
+            if (n <= 0) {
+                throw new IOException("short transfer at " + (position + done));
+            }
+            done += n;
+        }
+        return done;
+    }
+
+    /**
+     * 递归修正moov中所有stco/co64的chunk偏移.
+     *
+     * @return 偏移能被修正时返回true
+     */
+    static boolean shiftOffsets(ByteBuffer moov, int start, int end, long insert, long moovOffset, long shift) {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = moov.getInt(position) & 0xffffffffL;
+            int type = moov.getInt(position + 4);
+            int header = 8;
+            if (size == 1) {
+                if (position + 16 > end) {
+                    return false;
+                }
+                size = moov.getLong(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < header || position + size > end) {
+                return false;
+            }
+            int body = position + header;
+            int boxEnd = (int) (position + size);
+            if (type == TYPE_CMOV) {
+                return false;
+            }
+            if (type == Mp4BoxReader.TYPE_STCO || type == Mp4BoxReader.TYPE_CO64) {
+                boolean wide = type == Mp4BoxReader.TYPE_CO64;
+                // version/flags(4) entry_count(4)
+                if (body + 8 > boxEnd) {
+                    return false;
+                }
+                long count = moov.getInt(body + 4) & 0xffffffffL;
+                int entries = body + 8;
+                if (entries + count * (wide ? 8 : 4) > boxEnd) {
+                    return false;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (wide) {
+                        int at = entries + i * 8;
+                        moov.putLong(at, shift(moov.getLong(at), insert, moovOffset, shift));
+                    } else {
+                        int at = entries + i * 4;
+                        long moved = shift(moov.getInt(at) & 0xffffffffL, insert, moovOffset, shift);
+                        if (moved > 0xffffffffL) {
+                            return false;
+                        }
+                        moov.putInt(at, (int) moved);
+                    }
+                }
+            } else if (isContainer(type)) {
+                if (!shiftOffsets(moov, body, boxEnd, insert, moovOffset, shift)) {
+                    return false;
+                }
+            }
+            position = boxEnd;
+        }
+        return true;
+    }
+
+    private static long shift(long offset, long insert, long moovOffset, long shift) {
+        return offset >= insert && offset < moovOffset ? offset + shift : offset;
+    }
+
+    private static boolean isContainer(int type) {
+        for (int container : CONTAINERS) {
+            if (container == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String statusName(int status) {
+        switch (status) {
+            case STATUS_REWRITTEN:
+                return "REWRITTEN";
+            case STATUS_ALREADY_FASTSTART:
+                return "ALREADY_FASTSTART";
+            case STATUS_NOT_MP4:
+                return "NOT_MP4";
+            case STATUS_UNSUPPORTED:
+                return "UNSUPPORTED";
+            case STATUS_CHANGED:
+                return "CHANGED";
+            case STATUS_NO_SPACE:
+                return "NO_SPACE";
+            default:
+                return "UNKNOWN(" + status + ")";
+        }
+    }
+
+    /**
+     * 顶层box中的moov、第一个mdat以及是否有分片
+     */
+    private static class Layout {
+        Mp4BoxReader.Box moov;
+        Mp4BoxReader.Box mdat;
+        boolean fragmented;
+
+        static Layout scan(Mp4BoxReader reader) throws IOException {
+            Layout layout = new Layout();
+            long size = reader.getChannel().size();
+            long position = 0;
+            Mp4BoxReader.Box box;
+            while ((box = reader.readHeader(position, size)) != null) {
+                if (box.type == Mp4BoxReader.TYPE_MOOV && layout.moov == null) {
+                    layout.moov = box;
+                } else if (box.type == Mp4BoxReader.TYPE_MDAT && layout.mdat == null) {
+                    layout.mdat = box;
+                } else if (box.type == TYPE_MOOF) {
+                    layout.fragmented = true;
+                }
+                position = box.end();
+            }
+            return layout;
+        }
+    }
+}
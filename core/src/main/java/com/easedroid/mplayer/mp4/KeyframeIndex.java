@@ -0,0 +1,234 @@
+package com.easedroid.mplayer.mp4;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：KeyframeIndex    <br/>
+ * 类描述：一个视频中所有同步帧(关键帧)的时间,由视频轨道的stss和stts计算,
+ * 用于把seek的目标对齐到关键帧,避免解码器从很远的关键帧开始解码.
+ * 时间为解码时间,不考虑编辑列表和ctts<br/>
+ */
+public class KeyframeIndex {
+
+    /**
+     * 不对齐,直接seek到指定位置
+     */
+    public static final int SEEK_EXACT = 0;
+    /**
+     * 对齐到指定位置之前(含)的关键帧
+     */
+    public static final int SEEK_PREVIOUS_SYNC = 1;
+    /**
+     * 对齐到指定位置之后(含)的关键帧
+     */
+    public static final int SEEK_NEXT_SYNC = 2;
+    /**
+     * 对齐到距离最近的关键帧
+     */
+    public static final int SEEK_CLOSEST_SYNC = 3;
+
+    private static final int READ_CHUNK = 64 * 1024;
+
+    // 升序的关键帧时间(毫秒);allSync时为空
+    private final int[] timesMs;
+    // 视频轨道没有stss,每一帧都是关键帧
+    private final boolean allSync;
+
+    KeyframeIndex(int[] timesMs, boolean allSync) {
+        this.timesMs = timesMs;
+        this.allSync = allSync;
+    }
+
+    public int size() {
+        return timesMs.length;
+    }
+
+    public int timeAt(int i) {
+        return timesMs[i];
+    }
+
+    public boolean isAllSync() {
+        return allSync;
+    }
+
+    /**
+     * @param ms   seek的目标位置
+     * @param mode SEEK_*
+     * @return 对齐后的位置
+     */
+    public int snap(int ms, int mode) {
+        if (mode == SEEK_EXACT || allSync || timesMs.length == 0) {
+            return ms;
+        }
+        int i = Arrays.binarySearch(timesMs, ms);
+        if (i >= 0) {
+            return timesMs[i];
+        }
+        int next = -i - 1;
+        int previous = next - 1;
+        switch (mode) {
+            case SEEK_PREVIOUS_SYNC:
+                return previous >= 0 ? timesMs[previous] : timesMs[0];
+            case SEEK_NEXT_SYNC:
+                // 最后一个关键帧之后没有可以对齐的位置,退回到它
+                return next < timesMs.length ? timesMs[next] : timesMs[timesMs.length - 1];
+            default:
+                if (previous < 0) {
+                    return timesMs[0];
+                }
+                if (next >= timesMs.length) {
+                    return timesMs[previous];
+                }
+                return ms - timesMs[previous] <= timesMs[next] - ms ? timesMs[previous] : timesMs[next];
+        }
+    }
+
+    /**
+     * 解析MP4文件第一个视频轨道的关键帧.
+     *
+     * @return 关键帧索引,文件不是MP4或没有视频轨道时返回null
+     */
+    public static KeyframeIndex parse(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return parse(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static KeyframeIndex parse(FileChannel channel) throws IOException {
+        Mp4BoxReader reader = new Mp4BoxReader(channel);
+        Mp4BoxReader.Box moov = reader.find(0, channel.size(), Mp4BoxReader.TYPE_MOOV);
+        if (moov == null) {
+            return null;
+        }
+        for (Mp4BoxReader.Box trak : reader.findAll(moov, Mp4BoxReader.TYPE_TRAK)) {
+            Mp4BoxReader.Box mdia = reader.find(trak, Mp4BoxReader.TYPE_MDIA);
+            Mp4BoxReader.Box hdlr = reader.find(mdia, Mp4BoxReader.TYPE_HDLR);
+            // version/flags(4) pre_defined(4) handler_type(4)
+            if (hdlr == null || reader.readInt(hdlr.bodyOffset() + 8) != Mp4BoxReader.HANDLER_VIDE) {
+                continue;
+            }
+            Mp4BoxReader.Box mdhd = reader.find(mdia, Mp4BoxReader.TYPE_MDHD);
+            Mp4BoxReader.Box stbl = reader.path(mdia, Mp4BoxReader.TYPE_MINF, Mp4BoxReader.TYPE_STBL);
+            if (mdhd == null || stbl == null) {
+                return null;
+            }
+            int version = reader.readInt(mdhd.bodyOffset()) >>> 24;
+            long timescale = reader.readInt(mdhd.bodyOffset() + (version == 1 ? 20 : 12)) & 0xffffffffL;
+            Mp4BoxReader.Box stts = reader.find(stbl, Mp4BoxReader.TYPE_STTS);
+            Mp4BoxReader.Box stss = reader.find(stbl, Mp4BoxReader.TYPE_STSS);
+            if (timescale == 0 || stts == null) {
+                return null;
+            }
+            if (stss == null) {
+                return new KeyframeIndex(new int[0], true);
+            }
+            return build(channel, stts, stss, timescale);
+        }
+        return null;
+    }
+
+    private static KeyframeIndex build(FileChannel channel, Mp4BoxReader.Box stts, Mp4BoxReader.Box stss,
+                                       long timescale) throws IOException {
+        IntStream syncs = new IntStream(channel, stss.bodyOffset() + 4, stss.end());
+        // 不信任文件中的条目数:version/flags(4)和条目数(4)之后每个条目4字节
+        int syncCount = (int) Math.min(syncs.next() & 0xffffffffL,
+                Math.max(0, (stss.end() - stss.bodyOffset() - 8) / 4));
+        IntStream deltas = new IntStream(channel, stts.bodyOffset() + 4, stts.end());
+        int entryCount = deltas.next();
+
+        int[] times = new int[syncCount];
+        int found = 0;
+        // 当前stts条目覆盖的样本为 [firstSample, firstSample + sampleCount),样本编号从1开始
+        long firstSample = 1;
+        long baseTime = 0;
+        long sampleCount = 0;
+        long sampleDelta = 0;
+        int entry = 0;
+        for (int i = 0; i < syncCount; i++) {
+            long sample = syncs.next() & 0xffffffffL;
+            while (sample >= firstSample + sampleCount && entry < entryCount) {
+                baseTime += sampleCount * sampleDelta;
+                firstSample += sampleCount;
+                sampleCount = deltas.next() & 0xffffffffL;
+                sampleDelta = deltas.next() & 0xffffffffL;
+                entry++;
+            }
+            if (sample >= firstSample + sampleCount) {
+                // stss引用了stts之外的样本
+                break;
+            }
+            long time = baseTime + (sample - firstSample) * sampleDelta;
+            times[found++] = (int) Math.min(Integer.MAX_VALUE, time * 1000 / timescale);
+        }
+        if (found < times.length) {
+            times = Arrays.copyOf(times, found);
+        }
+        // stss按规范是升序的,保险起见排序一次
+        Arrays.sort(times);
+        return new KeyframeIndex(times, false);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeBoolean(allSync);
+        out.writeInt(timesMs.length);
+        for (int time : timesMs) {
+            out.writeInt(time);
+        }
+    }
+
+    static KeyframeIndex readFrom(DataInputStream in) throws IOException {
+        boolean allSync = in.readBoolean();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("bad keyframe count " + count);
+        }
+        int[] times = new int[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = in.readInt();
+        }
+        return new KeyframeIndex(times, allSync);
+    }
+
+    /**
+     * 分块顺序读取大端int,stts/stss可能有几十万个条目
+     */
+    private static class IntStream {
+        private final FileChannel channel;
+        private final long end;
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+        private long position;
+
+        IntStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            buffer.limit(0);
+        }
+
+        int next() throws IOException {
+            if (buffer.remaining() < 4) {
+                buffer.compact();
+                int want = (int) Math.min(buffer.remaining(), end - position);
+                buffer.limit(buffer.position() + Math.max(0, want));
+                int n = Mp4BoxReader.readFully(channel, buffer, position);
+                position += n;
+                buffer.flip();
+                if (buffer.remaining() < 4) {
+                    throw new IOException("truncated sample table");
+                }
+            }
+            return buffer.getInt();
+        }
+    }
+}
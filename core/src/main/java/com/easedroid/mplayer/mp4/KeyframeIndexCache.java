@@ -0,0 +1,192 @@
+package com.easedroid.mplayer.mp4;
+
+import com.easedroid.mplayer.cache.LruDiskCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：KeyframeIndexCache    <br/>
+ * 类描述：关键帧索引的两级缓存,内存中保留最近使用的索引,磁盘上每个视频一个文件.
+ * 以路径作为key,文件的修改时间和大小变化后索引失效,重新解析<br/>
+ */
+public class KeyframeIndexCache {
+
+    private static final int MAGIC = 0x4b464931; // "KFI1"
+    private static final String SUFFIX = ".kfi";
+
+    private static class Cached {
+        final long lastModified;
+        final long length;
+        final KeyframeIndex index;
+
+        Cached(long lastModified, long length, KeyframeIndex index) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.index = index;
+        }
+    }
+
+    private final File directory;
+    private final LinkedHashMap<String, Cached> memory;
+    private long memoryHits;
+    private long diskHits;
+    private long parseCount;
+
+    /**
+     * @param directory     磁盘缓存目录,为null时只缓存在内存中
+     * @param memoryEntries 内存中保留的索引个数
+     */
+    public KeyframeIndexCache(File directory, final int memoryEntries) {
+        this.directory = directory;
+        this.memory = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * 只查找内存中的索引,不读文件,可以在事件线程上调用.
+     *
+     * @return 索引,还没有加载或已经失效时返回null
+     */
+    public KeyframeIndex peek(File file) {
+        Cached cached;
+        synchronized (this) {
+            cached = memory.get(file.getPath());
+        }
+        if (cached == null || cached.lastModified != file.lastModified() || cached.length != file.length()) {
+            return null;
+        }
+        return cached.index;
+    }
+
+    /**
+     * 依次从内存、磁盘查找索引,都没有时解析视频文件并写入缓存.会读文件,不要在事件线程上调用.
+     *
+     * @return 索引,不是MP4文件时返回null
+     */
+    public KeyframeIndex get(File file) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        String key = file.getPath();
+        synchronized (this) {
+            Cached cached = memory.get(key);
+            if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+                memoryHits++;
+                return cached.index;
+            }
+        }
+        KeyframeIndex index = readDisk(key, lastModified, length);
+        if (index != null) {
+            synchronized (this) {
+                diskHits++;
+            }
+        } else {
+            index = KeyframeIndex.parse(file);
+            if (index == null) {
+                return null;
+            }
+            synchronized (this) {
+                parseCount++;
+            }
+            writeDisk(key, lastModified, length, index);
+        }
+        synchronized (this) {
+            memory.put(key, new Cached(lastModified, length, index));
+        }
+        return index;
+    }
+
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getParseCount() {
+        return parseCount;
+    }
+
+    public synchronized void clearMemory() {
+        memory.clear();
+    }
+
+    private File diskFile(String key) {
+        return new File(directory, LruDiskCache.keyFor(key) + SUFFIX);
+    }
+
+    private KeyframeIndex readDisk(String key, long lastModified, long length) {
+        if (directory == null) {
+            return null;
+        }
+        File file = diskFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readLong() != lastModified || in.readLong() != length) {
+                return null;
+            }
+            return KeyframeIndex.readFrom(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeDisk(String key, long lastModified, long length, KeyframeIndex index) {
+        if (directory == null) {
+            return;
+        }
+        File target = diskFile(key);
+        File temp = new File(directory, target.getName() + ".tmp" + Thread.currentThread().getId());
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeLong(lastModified);
+            out.writeLong(length);
+            index.writeTo(out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(target)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            // 磁盘缓存只是优化,写失败下次重新解析
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
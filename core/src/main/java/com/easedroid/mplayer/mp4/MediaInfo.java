@@ -0,0 +1,160 @@
+package com.easedroid.mplayer.mp4;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：MediaInfo    <br/>
+ * 类描述：从MP4容器头部读出的视频信息:时长、第一个视频轨道的宽高、旋转角度和编码格式,
+ * 不需要创建播放器和解码器.同时记录文件的修改时间和大小,文件变化后信息失效<br/>
+ */
+public class MediaInfo {
+
+    private static final int TYPE_MVHD = Mp4BoxReader.fourcc("mvhd");
+    private static final int TYPE_TKHD = Mp4BoxReader.fourcc("tkhd");
+    private static final int TYPE_STSD = Mp4BoxReader.fourcc("stsd");
+
+    public final long lastModified;
+    public final long length;
+    public final int durationMs;
+    // tkhd中的宽高,旋转之前
+    public final int width;
+    public final int height;
+    // 顺时针旋转角度: 0, 90, 180, 270
+    public final int rotation;
+    // 视频采样描述的fourcc,例如avc1、hvc1,没有视频轨道时为0
+    public final int codec;
+
+    MediaInfo(long lastModified, long length, int durationMs, int width, int height, int rotation, int codec) {
+        this.lastModified = lastModified;
+        this.length = length;
+        this.durationMs = durationMs;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.codec = codec;
+    }
+
+    /**
+     * @return 信息是否仍然对应file当前的内容
+     */
+    public boolean isValidFor(File file) {
+        return file.lastModified() == lastModified && file.length() == length;
+    }
+
+    public boolean hasVideo() {
+        return codec != 0;
+    }
+
+    /**
+     * @return 旋转之后显示的宽度
+     */
+    public int getDisplayWidth() {
+        return rotation == 90 || rotation == 270 ? height : width;
+    }
+
+    public int getDisplayHeight() {
+        return rotation == 90 || rotation == 270 ? width : height;
+    }
+
+    public String getCodecName() {
+        return codec != 0 ? Mp4BoxReader.typeName(codec) : "none";
+    }
+
+    @Override
+    public String toString() {
+        return "MediaInfo{" + durationMs + "ms, " + width + "x" + height
+                + (rotation != 0 ? " rotate " + rotation : "") + ", " + getCodecName() + "}";
+    }
+
+    /**
+     * 解析MP4文件头部.
+     *
+     * @return 视频信息,不是MP4文件时返回null
+     */
+    public static MediaInfo parse(File file) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            Mp4BoxReader reader = new Mp4BoxReader(raf.getChannel());
+            Mp4BoxReader.Box moov = reader.find(0, raf.length(), Mp4BoxReader.TYPE_MOOV);
+            if (moov == null) {
+                return null;
+            }
+            int durationMs = 0;
+            Mp4BoxReader.Box mvhd = reader.find(moov, TYPE_MVHD);
+            if (mvhd != null) {
+                long body = mvhd.bodyOffset();
+                boolean v1 = reader.readInt(body) >>> 24 == 1;
+                long timescale = reader.readInt(body + (v1 ? 20 : 12)) & 0xffffffffL;
+                long duration = v1 ? reader.readLong(body + 24) : reader.readInt(body + 16) & 0xffffffffL;
+                if (timescale > 0) {
+                    durationMs = (int) Math.min(Integer.MAX_VALUE, duration * 1000 / timescale);
+                }
+            }
+            for (Mp4BoxReader.Box trak : reader.findAll(moov, Mp4BoxReader.TYPE_TRAK)) {
+                Mp4BoxReader.Box mdia = reader.find(trak, Mp4BoxReader.TYPE_MDIA);
+                Mp4BoxReader.Box hdlr = reader.find(mdia, Mp4BoxReader.TYPE_HDLR);
+                if (hdlr == null || reader.readInt(hdlr.bodyOffset() + 8) != Mp4BoxReader.HANDLER_VIDE) {
+                    continue;
+                }
+                int width = 0;
+                int height = 0;
+                int rotation = 0;
+                Mp4BoxReader.Box tkhd = reader.find(trak, TYPE_TKHD);
+                if (tkhd != null) {
+                    long body = tkhd.bodyOffset();
+                    boolean v1 = reader.readInt(body) >>> 24 == 1;
+                    // 时间和时长字段之后依次是reserved(8) layer(2) alternate_group(2) volume(2) reserved(2)
+                    long matrix = body + (v1 ? 36 : 24) + 16;
+                    rotation = rotationOf(reader.readInt(matrix), reader.readInt(matrix + 4),
+                            reader.readInt(matrix + 12), reader.readInt(matrix + 16));
+                    // 16.16定点数
+                    width = reader.readInt(matrix + 36) >>> 16;
+                    height = reader.readInt(matrix + 40) >>> 16;
+                }
+                int codec = 0;
+                Mp4BoxReader.Box stsd = reader.find(
+                        reader.path(mdia, Mp4BoxReader.TYPE_MINF, Mp4BoxReader.TYPE_STBL), TYPE_STSD);
+                if (stsd != null && reader.readInt(stsd.bodyOffset() + 4) > 0) {
+                    // version/flags(4) entry_count(4) 第一个条目的size(4) format(4)
+                    codec = reader.readInt(stsd.bodyOffset() + 12);
+                }
+                return new MediaInfo(lastModified, length, durationMs, width, height, rotation, codec);
+            }
+            return new MediaInfo(lastModified, length, durationMs, 0, 0, 0, 0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 由矩阵的a b c d(16.16定点数)计算旋转角度,只识别90度的整数倍
+     */
+    static int rotationOf(int a, int b, int c, int d) {
+        if (a == 0 && d == 0) {
+            return b > 0 && c < 0 ? 90 : (b < 0 && c > 0 ? 270 : 0);
+        }
+        return a < 0 && d < 0 ? 180 : 0;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(lastModified);
+        out.writeLong(length);
+        out.writeInt(durationMs);
+        out.writeShort(width);
+        out.writeShort(height);
+        out.writeShort(rotation);
+        out.writeInt(codec);
+    }
+
+    static MediaInfo readFrom(DataInputStream in) throws IOException {
+        return new MediaInfo(in.readLong(), in.readLong(), in.readInt(),
+                in.readUnsignedShort(), in.readUnsignedShort(), in.readUnsignedShort(), in.readInt());
+    }
+}
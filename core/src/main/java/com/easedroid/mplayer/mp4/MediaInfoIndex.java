@@ -0,0 +1,342 @@
+package com.easedroid.mplayer.mp4;
+
+import com.easedroid.mplayer.core.PlaylistSource;
+import com.easedroid.mplayer.io.ReadAheadPrefetcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：MediaInfoIndex    <br/>
+ * 类描述：播放列表中所有本地视频的{@link MediaInfo}索引.多个线程并行解析容器头部,
+ * 每个线程从共享的下标取下一个条目,慢的文件不会拖住其他线程;结果保存在一个二进制文件中,
+ * 文件的修改时间或大小变化后对应的条目重新解析<br/>
+ */
+public class MediaInfoIndex {
+
+    private static final int MAGIC = 0x4d494931; // "MII1"
+
+    public interface Listener {
+        /**
+         * 一次索引完成,在索引线程回调.
+         */
+        void onIndexed(Stats stats);
+    }
+
+    public static class Stats {
+        public final int total;
+        public final int cached;
+        public final int parsed;
+        public final int failed;
+        public final long elapsedNanos;
+
+        Stats(int total, int cached, int parsed, int failed, long elapsedNanos) {
+            this.total = total;
+            this.cached = cached;
+            this.parsed = parsed;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "MediaInfoIndex{total=" + total + ", cached=" + cached + ", parsed=" + parsed
+                    + ", failed=" + failed + ", elapsed=" + elapsedNanos / 1000000 + "ms}";
+        }
+    }
+
+    private final File file;
+    private final int parallelism;
+    private final Map<String, MediaInfo> entries = new HashMap<>();
+    // 保证同一时间只有一个线程写索引文件
+    private final Object saveLock = new Object();
+    private ExecutorService executor;
+    private boolean shutdown;
+    private boolean dirty;
+
+    public MediaInfoIndex(File file) {
+        this(file, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * @param file        索引文件,为null时只保存在内存中
+     * @param parallelism 同时解析的线程数
+     */
+    public MediaInfoIndex(File file, int parallelism) {
+        this.file = file;
+        this.parallelism = Math.max(1, parallelism);
+        load();
+    }
+
+    /**
+     * 只查内存,不访问文件系统,可以在任意线程调用.
+     *
+     * @return path最后一次索引的信息,没有索引过时返回null;调用者需要自己判断是否过期
+     */
+    public synchronized MediaInfo peek(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * @return path对应文件当前的信息,没有索引或已经过期时返回null
+     */
+    public MediaInfo get(String path) {
+        File local = ReadAheadPrefetcher.toLocalFile(path);
+        MediaInfo info = peek(path);
+        return local != null && info != null && info.isValidFor(local) ? info : null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 在后台线程索引source中的所有本地文件,完成后保存索引文件.调用线程不读取source.
+     * shutdown()之后忽略,listener不会被回调.
+     */
+    public void indexAsync(final PlaylistSource source, final Listener listener) {
+        final ExecutorService pool = executor();
+        if (pool == null) {
+            return;
+        }
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // 按需读取的大播放列表也在后台线程中展开
+                    Stats stats = index(snapshot(source), pool);
+                    if (listener != null) {
+                        listener.onIndexed(stats);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 同时被shutdown
+        }
+    }
+
+    /**
+     * 在调用线程等待,直到paths全部索引完成并保存.
+     *
+     * @param workers 执行解析的线程,至少提供parallelism个线程时才能完全并行
+     */
+    public Stats index(List<String> paths, Executor workers) {
+        long start = System.nanoTime();
+        final List<String> pending = new ArrayList<>();
+        int cached = 0;
+        for (String path : paths) {
+            File local = ReadAheadPrefetcher.toLocalFile(path);
+            if (local == null) {
+                continue;
+            }
+            MediaInfo info = peek(path);
+            if (info != null && info.isValidFor(local)) {
+                cached++;
+            } else {
+                pending.add(path);
+            }
+        }
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger parsed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        // 按条目计数而不是按线程计数:还没有开始的线程取不到条目直接退出,调用线程不会等待它们
+        final CountDownLatch done = new CountDownLatch(pending.size());
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < pending.size()) {
+                    try {
+                        if (parseOne(pending.get(i))) {
+                            parsed.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        int threads = Math.min(parallelism, pending.size());
+        try {
+            for (int t = 1; t < threads; t++) {
+                workers.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            // 线程池已经关闭,剩下的条目由调用线程解析
+        }
+        // 调用线程也参与解析
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        save();
+        return new Stats(cached + pending.size(), cached, parsed.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    private boolean parseOne(String path) {
+        File local = ReadAheadPrefetcher.toLocalFile(path);
+        if (local == null) {
+            return false;
+        }
+        MediaInfo info;
+        try {
+            info = MediaInfo.parse(local);
+        } catch (IOException e) {
+            info = null;
+        }
+        if (info == null) {
+            return false;
+        }
+        synchronized (this) {
+            entries.put(path, info);
+            dirty = true;
+        }
+        return true;
+    }
+
+    /**
+     * 把有变化的索引写入文件,先写临时文件再替换.
+     */
+    public void save() {
+        synchronized (saveLock) {
+            saveLocked();
+        }
+    }
+
+    private void saveLocked() {
+        Map<String, MediaInfo> copy;
+        synchronized (this) {
+            if (!dirty || file == null) {
+                return;
+            }
+            copy = new HashMap<>(entries);
+            dirty = false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(copy.size());
+            for (Map.Entry<String, MediaInfo> entry : copy.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+            synchronized (this) {
+                dirty = true;
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭后台线程,正在进行的索引会完成,之后的indexAsync()被忽略.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void load() {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int count = in.readInt();
+            Map<String, MediaInfo> loaded = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                loaded.put(path, MediaInfo.readFrom(in));
+            }
+            synchronized (this) {
+                entries.putAll(loaded);
+            }
+        } catch (IOException e) {
+            // 文件不完整,没有读到的条目重新索引
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 后台线程池,shutdown()之后返回null
+     */
+    private synchronized ExecutorService executor() {
+        if (shutdown) {
+            return null;
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "MediaInfoIndex-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private static List<String> snapshot(PlaylistSource source) {
+        LinkedHashSet<String> paths = new LinkedHashSet<>();
+        for (int i = 0; i < source.size(); i++) {
+            String path = source.get(i);
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+}
@@ -0,0 +1,192 @@
+package com.easedroid.mplayer.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：Mp4BoxReader    <br/>
+ * 类描述：按需读取MP4(ISO BMFF)的box头,只读取需要的box,不把整个moov读入内存<br/>
+ */
+public final class Mp4BoxReader {
+
+    public static final int TYPE_FTYP = fourcc("ftyp");
+    public static final int TYPE_MOOV = fourcc("moov");
+    public static final int TYPE_MDAT = fourcc("mdat");
+    public static final int TYPE_TRAK = fourcc("trak");
+    public static final int TYPE_MDIA = fourcc("mdia");
+    public static final int TYPE_MDHD = fourcc("mdhd");
+    public static final int TYPE_HDLR = fourcc("hdlr");
+    public static final int TYPE_MINF = fourcc("minf");
+    public static final int TYPE_STBL = fourcc("stbl");
+    public static final int TYPE_STTS = fourcc("stts");
+    public static final int TYPE_STSS = fourcc("stss");
+    public static final int TYPE_STCO = fourcc("stco");
+    public static final int TYPE_CO64 = fourcc("co64");
+    public static final int HANDLER_VIDE = fourcc("vide");
+
+    public static class Box {
+        public final int type;
+        public final long offset;
+        public final long size;
+        public final int headerSize;
+
+        Box(int type, long offset, long size, int headerSize) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.headerSize = headerSize;
+        }
+
+        public long bodyOffset() {
+            return offset + headerSize;
+        }
+
+        public long end() {
+            return offset + size;
+        }
+
+        @Override
+        public String toString() {
+            return typeName(type) + "@" + offset + "+" + size;
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(16);
+
+    public Mp4BoxReader(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 读取position处的box头.
+     *
+     * @param limit 父box的结束位置,box不能超出它
+     * @return box,已经到达limit或格式错误时返回null
+     */
+    public Box readHeader(long position, long limit) throws IOException {
+        if (position + 8 > limit) {
+            return null;
+        }
+        header.clear();
+        if (readFully(channel, header, position) < 8) {
+            return null;
+        }
+        long size = header.getInt(0) & 0xffffffffL;
+        int type = header.getInt(4);
+        int headerSize = 8;
+        if (size == 1) {
+            if (header.position() < 16) {
+                return null;
+            }
+            size = header.getLong(8);
+            headerSize = 16;
+        } else if (size == 0) {
+            size = limit - position;
+        }
+        if (size < headerSize || position + size > limit) {
+            return null;
+        }
+        return new Box(type, position, size, headerSize);
+    }
+
+    /**
+     * 在[start, end)范围内的同级box中查找第一个type类型的box.
+     */
+    public Box find(long start, long end, int type) throws IOException {
+        Box box;
+        long position = start;
+        while ((box = readHeader(position, end)) != null) {
+            if (box.type == type) {
+                return box;
+            }
+            position = box.end();
+        }
+        return null;
+    }
+
+    /**
+     * 在parent的子box中查找第一个type类型的box.
+     */
+    public Box find(Box parent, int type) throws IOException {
+        return parent == null ? null : find(parent.bodyOffset(), parent.end(), type);
+    }
+
+    /**
+     * @return parent的所有type类型的子box
+     */
+    public List<Box> findAll(Box parent, int type) throws IOException {
+        List<Box> result = new ArrayList<>();
+        Box box;
+        long position = parent.bodyOffset();
+        while ((box = readHeader(position, parent.end())) != null) {
+            if (box.type == type) {
+                result.add(box);
+            }
+            position = box.end();
+        }
+        return result;
+    }
+
+    /**
+     * 按路径逐级查找,例如 find(trak, MDIA, MINF, STBL).
+     */
+    public Box path(Box parent, int... types) throws IOException {
+        Box box = parent;
+        for (int type : types) {
+            box = find(box, type);
+            if (box == null) {
+                return null;
+            }
+        }
+        return box;
+    }
+
+    public int readInt(long position) throws IOException {
+        header.clear();
+        header.limit(4);
+        if (readFully(channel, header, position) < 4) {
+            throw new IOException("unexpected end of file at " + position);
+        }
+        return header.getInt(0);
+    }
+
+    public long readLong(long position) throws IOException {
+        header.clear();
+        header.limit(8);
+        if (readFully(channel, header, position) < 8) {
+            throw new IOException("unexpected end of file at " + position);
+        }
+        return header.getLong(0);
+    }
+
+    public static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    public static String typeName(int type) {
+        return new String(new char[]{
+                (char) ((type >>> 24) & 0xff), (char) ((type >>> 16) & 0xff),
+                (char) ((type >>> 8) & 0xff), (char) (type & 0xff)});
+    }
+
+    static int readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + total);
+            if (n <= 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
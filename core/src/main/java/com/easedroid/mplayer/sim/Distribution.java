@@ -0,0 +1,88 @@
+package com.easedroid.mplayer.sim;
+
+import java.util.Random;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：Distribution    <br/>
+ * 类描述：模拟中使用的时长分布,单位微秒.随机数由调用者提供,相同种子得到相同的序列<br/>
+ */
+public abstract class Distribution {
+
+    /**
+     * @return 一个非负的样本
+     */
+    public abstract long sample(Random random);
+
+    /**
+     * @return 总是返回valueUs
+     */
+    public static Distribution fixed(final long valueUs) {
+        return new Distribution() {
+            @Override
+            public long sample(Random random) {
+                return valueUs;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + valueUs + "us)";
+            }
+        };
+    }
+
+    /**
+     * @return [minUs, maxUs]之间的均匀分布
+     */
+    public static Distribution uniform(final long minUs, final long maxUs) {
+        return new Distribution() {
+            @Override
+            public long sample(Random random) {
+                return minUs + (long) (random.nextDouble() * (maxUs - minUs));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + minUs + "us, " + maxUs + "us)";
+            }
+        };
+    }
+
+    /**
+     * 对数正态分布,适合有长尾的准备耗时.
+     *
+     * @param medianUs 中位数
+     * @param sigma    对数的标准差,越大尾部越长
+     */
+    public static Distribution logNormal(final long medianUs, final double sigma) {
+        return new Distribution() {
+            @Override
+            public long sample(Random random) {
+                return (long) (medianUs * Math.exp(sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "logNormal(" + medianUs + "us, " + sigma + ")";
+            }
+        };
+    }
+
+    /**
+     * @return 以probability的概率从slow取样,否则从base取样,用于模拟偶发的慢文件
+     */
+    public static Distribution withOutliers(final Distribution base, final Distribution slow,
+                                            final double probability) {
+        return new Distribution() {
+            @Override
+            public long sample(Random random) {
+                return random.nextDouble() < probability ? slow.sample(random) : base.sample(random);
+            }
+
+            @Override
+            public String toString() {
+                return base + " + " + probability + " x " + slow;
+            }
+        };
+    }
+}
@@ -0,0 +1,339 @@
+package com.easedroid.mplayer.sim;
+
+import com.easedroid.mplayer.core.PlayerEngine;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：FakePlayerEngine    <br/>
+ * 类描述：在VirtualClock上运行的PlayerEngine,不解码任何内容.准备、第一帧和释放的耗时以及失败
+ * 按Profile中的分布随机产生,回调和MediaPlayer一样异步投递.状态不允许的调用抛出IllegalStateException,
+ * 用于发现调用方的时序错误<br/>
+ */
+public class FakePlayerEngine implements PlayerEngine {
+
+    /**
+     * 模拟出错时回调的what
+     */
+    public static final int ERROR_PREPARE = 1001;
+    public static final int ERROR_PLAYBACK = 1002;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_INITIALIZED = 1;
+    private static final int STATE_PREPARING = 2;
+    private static final int STATE_PREPARED = 3;
+    private static final int STATE_STARTED = 4;
+    private static final int STATE_PAUSED = 5;
+    private static final int STATE_STOPPED = 6;
+    private static final int STATE_COMPLETED = 7;
+    private static final int STATE_ERROR = 8;
+    private static final int STATE_RELEASED = 9;
+
+    /**
+     * 解码器占用计数,在prepareAsync时占用,释放完成后归还
+     */
+    public interface DecoderMeter {
+        void onDecoderAcquired(FakePlayerEngine engine);
+
+        void onDecoderReleased(FakePlayerEngine engine);
+    }
+
+    /**
+     * 模拟的设备和文件特性,各项耗时单位微秒
+     */
+    public static class Profile {
+        private Distribution prepareLatency = Distribution.logNormal(120000, 0.5);
+        private Distribution firstFrameLatency = Distribution.uniform(10000, 40000);
+        private Distribution releaseLatency = Distribution.uniform(5000, 30000);
+        private Distribution clipDuration = Distribution.uniform(5000000, 15000000);
+        private double prepareFailureRate;
+        private double playbackFailureRate;
+        private int videoWidth = 1920;
+        private int videoHeight = 1080;
+
+        public void setPrepareLatency(Distribution prepareLatency) {
+            this.prepareLatency = prepareLatency;
+        }
+
+        public void setFirstFrameLatency(Distribution firstFrameLatency) {
+            this.firstFrameLatency = firstFrameLatency;
+        }
+
+        public void setReleaseLatency(Distribution releaseLatency) {
+            this.releaseLatency = releaseLatency;
+        }
+
+        public void setClipDuration(Distribution clipDuration) {
+            this.clipDuration = clipDuration;
+        }
+
+        /**
+         * @param rate 准备失败(在准备耗时之后回调onError)的概率
+         */
+        public void setPrepareFailureRate(double rate) {
+            this.prepareFailureRate = rate;
+        }
+
+        /**
+         * @param rate 播放中途出错的概率,出错位置在视频内均匀分布
+         */
+        public void setPlaybackFailureRate(double rate) {
+            this.playbackFailureRate = rate;
+        }
+
+        public void setVideoSize(int width, int height) {
+            this.videoWidth = width;
+            this.videoHeight = height;
+        }
+
+        @Override
+        public String toString() {
+            return "Profile{prepare=" + prepareLatency + ", firstFrame=" + firstFrameLatency
+                    + ", release=" + releaseLatency + ", duration=" + clipDuration
+                    + ", prepareFailure=" + prepareFailureRate + ", playbackFailure=" + playbackFailureRate + "}";
+        }
+    }
+
+    private final VirtualClock clock;
+    private final Random random;
+    private final Profile profile;
+    private final DecoderMeter meter;
+    private Listener listener;
+    private String path;
+    private Object display;
+    private int state = STATE_IDLE;
+    private long durationUs;
+    // 播放位置:STARTED时为positionUs加上从startedAtUs开始经过的时间
+    private long positionUs;
+    private long startedAtUs;
+    private boolean renderingStarted;
+    // 每次改变播放状态时加一,之前安排的事件失效
+    private int generation;
+    private boolean holdsDecoder;
+
+    public FakePlayerEngine(VirtualClock clock, Random random, Profile profile, DecoderMeter meter) {
+        this.clock = clock;
+        this.random = random;
+        this.profile = profile;
+        this.meter = meter;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Object getDisplay() {
+        return display;
+    }
+
+    /**
+     * @return 是否占用着解码器,释放之后要等释放耗时结束才归还
+     */
+    public boolean holdsDecoder() {
+        return holdsDecoder;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setDataSource(String path, Map<String, String> headers) {
+        checkState(state == STATE_IDLE, "setDataSource");
+        this.path = path;
+        state = STATE_INITIALIZED;
+    }
+
+    @Override
+    public void setDisplay(Object display) {
+        checkState(state != STATE_RELEASED, "setDisplay");
+        this.display = display;
+    }
+
+    @Override
+    public void prepareAsync() {
+        checkState(state == STATE_INITIALIZED || state == STATE_STOPPED, "prepareAsync");
+        state = STATE_PREPARING;
+        if (!holdsDecoder) {
+            holdsDecoder = true;
+            meter.onDecoderAcquired(this);
+        }
+        final boolean fail = random.nextDouble() < profile.prepareFailureRate;
+        final int expected = ++generation;
+        clock.schedule(profile.prepareLatency.sample(random), new Runnable() {
+            @Override
+            public void run() {
+                if (generation != expected || state != STATE_PREPARING) {
+                    return;
+                }
+                if (fail) {
+                    error(ERROR_PREPARE);
+                    return;
+                }
+                state = STATE_PREPARED;
+                durationUs = profile.clipDuration.sample(random);
+                positionUs = 0;
+                if (listener != null) {
+                    listener.onVideoSizeChanged(FakePlayerEngine.this, profile.videoWidth, profile.videoHeight);
+                    listener.onPrepared(FakePlayerEngine.this);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        checkState(state == STATE_PREPARED || state == STATE_PAUSED || state == STATE_COMPLETED
+                || state == STATE_STARTED, "start");
+        if (state == STATE_STARTED) {
+            return;
+        }
+        if (state == STATE_COMPLETED) {
+            positionUs = 0;
+        }
+        state = STATE_STARTED;
+        final int expected = ++generation;
+        long firstFrameUs = 0;
+        if (!renderingStarted) {
+            firstFrameUs = profile.firstFrameLatency.sample(random);
+            clock.schedule(firstFrameUs, new Runnable() {
+                @Override
+                public void run() {
+                    if (generation != expected) {
+                        return;
+                    }
+                    renderingStarted = true;
+                    if (listener != null) {
+                        listener.onInfo(FakePlayerEngine.this, MEDIA_INFO_VIDEO_RENDERING_START, 0);
+                    }
+                }
+            });
+        }
+        // 第一帧出来之前播放位置不前进
+        startedAtUs = clock.nowUs() + firstFrameUs;
+        long remainingUs = durationUs - positionUs;
+        final boolean fail = random.nextDouble() < profile.playbackFailureRate;
+        long delayUs = firstFrameUs + (fail ? (long) (random.nextDouble() * remainingUs) : remainingUs);
+        clock.schedule(delayUs, new Runnable() {
+            @Override
+            public void run() {
+                if (generation != expected || state != STATE_STARTED) {
+                    return;
+                }
+                if (fail) {
+                    error(ERROR_PLAYBACK);
+                    return;
+                }
+                positionUs = durationUs;
+                state = STATE_COMPLETED;
+                if (listener != null) {
+                    listener.onCompletion(FakePlayerEngine.this);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void pause() {
+        checkState(state == STATE_STARTED || state == STATE_PAUSED, "pause");
+        if (state == STATE_STARTED) {
+            positionUs = currentPositionUs();
+            state = STATE_PAUSED;
+            generation++;
+        }
+    }
+
+    @Override
+    public void stop() {
+        checkState(state >= STATE_PREPARED && state <= STATE_COMPLETED, "stop");
+        positionUs = currentPositionUs();
+        state = STATE_STOPPED;
+        generation++;
+    }
+
+    @Override
+    public void seekTo(int millisSec) {
+        checkState(state >= STATE_PREPARED && state <= STATE_COMPLETED && state != STATE_STOPPED, "seekTo");
+        boolean playing = state == STATE_STARTED;
+        positionUs = Math.max(0, Math.min(durationUs, millisSec * 1000L));
+        if (playing) {
+            // 从新的位置重新安排完成事件
+            state = STATE_PAUSED;
+            start();
+        } else if (state == STATE_COMPLETED) {
+            state = STATE_PAUSED;
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return state == STATE_STARTED;
+    }
+
+    @Override
+    public int getDuration() {
+        return (int) (durationUs / 1000);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return (int) (currentPositionUs() / 1000);
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return state >= STATE_PREPARED && state != STATE_RELEASED ? profile.videoWidth : 0;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return state >= STATE_PREPARED && state != STATE_RELEASED ? profile.videoHeight : 0;
+    }
+
+    /**
+     * 立即返回,解码器在释放耗时之后才归还,和在释放线程上执行的真实播放器一致.
+     */
+    @Override
+    public void release() {
+        if (state == STATE_RELEASED) {
+            return;
+        }
+        state = STATE_RELEASED;
+        generation++;
+        listener = null;
+        display = null;
+        if (holdsDecoder) {
+            holdsDecoder = false;
+            clock.schedule(profile.releaseLatency.sample(random), new Runnable() {
+                @Override
+                public void run() {
+                    meter.onDecoderReleased(FakePlayerEngine.this);
+                }
+            });
+        }
+    }
+
+    private long currentPositionUs() {
+        if (state != STATE_STARTED) {
+            return positionUs;
+        }
+        return Math.min(durationUs, positionUs + Math.max(0, clock.nowUs() - startedAtUs));
+    }
+
+    private void error(int what) {
+        state = STATE_ERROR;
+        generation++;
+        if (listener != null) {
+            listener.onError(this, what, 0);
+        }
+    }
+
+    private void checkState(boolean valid, String call) {
+        if (!valid) {
+            throw new IllegalStateException(call + " called in state " + state + " for " + path);
+        }
+    }
+}
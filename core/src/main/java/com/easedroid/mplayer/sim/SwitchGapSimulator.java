@@ -0,0 +1,466 @@
+package com.easedroid.mplayer.sim;
+
+import com.easedroid.mplayer.core.ArrayPlaylistSource;
+import com.easedroid.mplayer.core.DecoderBudget;
+import com.easedroid.mplayer.core.PlayerEngine;
+import com.easedroid.mplayer.core.PlayerEventDispatcher;
+import com.easedroid.mplayer.core.PlaylistCursor;
+import com.easedroid.mplayer.core.PrepareLeadEstimator;
+import com.easedroid.mplayer.core.StandbyScheduler;
+import com.easedroid.mplayer.metrics.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：SwitchGapSimulator    <br/>
+ * 类描述：用FakePlayerEngine和虚拟时钟驱动StandbyScheduler播放整个列表,按StrongPlayerView的方式
+ * 打开、切换和释放播放器,统计切换间隔(上一个视频结束到下一个视频第一帧)的分布和同时占用的解码器峰值.
+ * 不依赖Android和真实时间,相同的种子和参数得到相同的结果<br/>
+ */
+public class SwitchGapSimulator {
+
+    private static final long MAX_EVENTS_PER_CLIP = 1000;
+
+    public static class Report {
+        public final int clips;
+        public final int played;
+        public final long startupUs;
+        public final LatencyHistogram.Snapshot gap;
+        // 播放完成时队首的预备播放器还没有准备好的次数
+        public final int stalls;
+        public final int prepareFailures;
+        public final int playbackFailures;
+        public final int peakDecoders;
+        // 平均同时占用的解码器数
+        public final double meanDecoders;
+        public final long virtualUs;
+        public final long events;
+        public final long wallNanos;
+
+        Report(int clips, int played, long startupUs, LatencyHistogram.Snapshot gap, int stalls,
+               int prepareFailures, int playbackFailures, int peakDecoders, double meanDecoders,
+               long virtualUs, long events, long wallNanos) {
+            this.clips = clips;
+            this.played = played;
+            this.startupUs = startupUs;
+            this.gap = gap;
+            this.stalls = stalls;
+            this.prepareFailures = prepareFailures;
+            this.playbackFailures = playbackFailures;
+            this.peakDecoders = peakDecoders;
+            this.meanDecoders = meanDecoders;
+            this.virtualUs = virtualUs;
+            this.events = events;
+            this.wallNanos = wallNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "SwitchGapSimulator.Report{clips=" + clips + ", played=" + played
+                    + ", startup=" + startupUs / 1000 + "ms"
+                    + ", stalls=" + stalls + ", prepareFailures=" + prepareFailures
+                    + ", playbackFailures=" + playbackFailures + ", peakDecoders=" + peakDecoders
+                    + ", meanDecoders=" + String.format("%.2f", meanDecoders)
+                    + ", virtual=" + virtualUs / 1000000 + "s, events=" + events
+                    + ", wall=" + wallNanos / 1000000 + "ms}\n" + gap;
+        }
+    }
+
+    private final VirtualClock clock = new VirtualClock();
+    private final Random random;
+    private final FakePlayerEngine.Profile profile;
+    private final PlaylistCursor cursor = new PlaylistCursor();
+    private final StandbyScheduler scheduler;
+    private final PlayerEventDispatcher dispatcher;
+    private final LatencyHistogram gaps = new LatencyHistogram("switchGap");
+    private final Object display = new Object();
+    private DecoderBudget.Zone zone;
+    // 引擎释放完成之后才归还的名额
+    private final Map<FakePlayerEngine, DecoderBudget.Ticket> releasingTickets = new HashMap<>();
+
+    private FakePlayerEngine current;
+    private DecoderBudget.Ticket currentTicket;
+    private int decoders;
+    private int peakDecoders;
+    // 解码器数对虚拟时间的积分
+    private long decoderUs;
+    private long decoderChangedUs;
+    private PrepareLeadEstimator estimator;
+    // 预备播放器开始准备的虚拟时间
+    private final Map<PlayerEngine, Long> prepareStartUs = new HashMap<>();
+    // 每次安排新的准备检查时加一,之前的检查失效
+    private int fillGeneration;
+    private long switchStartUs = -1;
+    private long startupUs = -1;
+    private int played;
+    private int stalls;
+    private int prepareFailures;
+    private int playbackFailures;
+    private boolean finished;
+
+    /**
+     * @param profile 模拟的设备特性
+     * @param depth   预备窗口深度
+     * @param seed    随机数种子
+     */
+    public SwitchGapSimulator(FakePlayerEngine.Profile profile, int depth, long seed) {
+        this.profile = profile;
+        this.random = new Random(seed);
+        scheduler = new StandbyScheduler(cursor, host);
+        scheduler.setDepth(depth);
+        dispatcher = new PlayerEventDispatcher(scheduler, currentListener);
+    }
+
+    /**
+     * 用DecoderBudget限制同时占用的解码器,需要在run之前调用.
+     *
+     * @param capacity 名额,0表示不限制
+     */
+    public void setDecoderCapacity(int capacity) {
+        if (capacity <= 0) {
+            zone = null;
+        } else {
+            zone = new DecoderBudget(capacity).register("sim", clock.asExecutor(), new DecoderBudget.ZoneListener() {
+                @Override
+                public void onStandbyRevoked() {
+                    scheduler.revokeStandby();
+                }
+            });
+        }
+        scheduler.setZone(zone);
+    }
+
+    /**
+     * 按剩余播放时间和学习到的准备耗时推迟预备播放器的准备,需要在run之前调用.
+     *
+     * @param estimator 准备耗时的估计,null表示当前视频准备好后立即准备下一个
+     */
+    public void setJustInTime(PrepareLeadEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * 依次播放clips个视频,直到列表结束.
+     */
+    public Report run(int clips) {
+        long wallStart = System.nanoTime();
+        String[] paths = new String[clips];
+        for (int i = 0; i < clips; i++) {
+            paths[i] = "clip-" + i;
+        }
+        cursor.reset(new ArrayPlaylistSource(paths));
+        cursor.setLooping(false);
+        switchStartUs = 0;
+        open(cursor.first());
+        long maxEvents = MAX_EVENTS_PER_CLIP * Math.max(1, clips);
+        while (!finished && clock.getExecutedCount() < maxEvents && clock.runNext()) {
+            // 事件在runNext中执行
+        }
+        if (!finished) {
+            throw new IllegalStateException("simulation stalled after " + played + " of " + clips + " clips");
+        }
+        updateDecoderTime();
+        return new Report(clips, played, startupUs, gaps.snapshot(), stalls, prepareFailures,
+                playbackFailures, peakDecoders, clock.nowUs() > 0 ? (double) decoderUs / clock.nowUs() : 0,
+                clock.nowUs(), clock.getExecutedCount(), System.nanoTime() - wallStart);
+    }
+
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    private FakePlayerEngine createEngine() {
+        return new FakePlayerEngine(clock, random, profile, meter);
+    }
+
+    private void open(final String path) {
+        if (zone == null) {
+            openAdmitted(path);
+            return;
+        }
+        currentTicket = zone.requestActive(new DecoderBudget.GrantListener() {
+            @Override
+            public void onGranted(DecoderBudget.Ticket ticket) {
+                if (ticket != currentTicket || !ticket.isGranted()) {
+                    ticket.release();
+                    return;
+                }
+                openAdmitted(path);
+            }
+        });
+    }
+
+    private void openAdmitted(String path) {
+        current = createEngine();
+        current.setListener(engineListener);
+        dispatcher.setCurrent(current);
+        current.setDataSource(path, null);
+        current.setDisplay(display);
+        current.prepareAsync();
+    }
+
+    /**
+     * 当前视频结束或出错,切换到下一个
+     */
+    private void advance() {
+        switchStartUs = clock.nowUs();
+        fillGeneration++;
+        if (estimator != null) {
+            scheduler.fill();
+        }
+        if (scheduler.requestSwitch()) {
+            recordSwitch(false);
+            return;
+        }
+        if (scheduler.isSwitchPending()) {
+            stalls++;
+            recordSwitch(true);
+            return;
+        }
+        // 窗口为空:列表已经结束,或者预备播放器全部失败
+        String next = cursor.next();
+        releaseCurrent();
+        if (next == null) {
+            finished = true;
+            return;
+        }
+        stalls++;
+        open(next);
+    }
+
+    private void recordSwitch(boolean late) {
+        if (estimator != null) {
+            estimator.recordSwitch(late);
+        }
+    }
+
+    /**
+     * 补足预备窗口;设置了estimator时等到当前视频的剩余时间不超过提前量再补足
+     */
+    private void fillWhenDue() {
+        if (estimator == null) {
+            scheduler.fill();
+            return;
+        }
+        final int expected = ++fillGeneration;
+        checkFill(expected);
+    }
+
+    private void checkFill(final int expected) {
+        if (expected != fillGeneration || current == null) {
+            return;
+        }
+        long remainingUs = (current.getDuration() - current.getCurrentPosition()) * 1000L;
+        int pending = Math.max(1, scheduler.getDepth() - scheduler.size());
+        long delayUs = estimator.getDelayMs(cursor, pending, remainingUs / 1000) * 1000;
+        if (delayUs <= 0) {
+            scheduler.fill();
+            return;
+        }
+        clock.schedule(delayUs, new Runnable() {
+            @Override
+            public void run() {
+                checkFill(expected);
+            }
+        });
+    }
+
+    private void updateDecoderTime() {
+        decoderUs += decoders * (clock.nowUs() - decoderChangedUs);
+        decoderChangedUs = clock.nowUs();
+    }
+
+    private void releaseCurrent() {
+        release(current, currentTicket);
+        current = null;
+        currentTicket = null;
+        dispatcher.setCurrent(null);
+    }
+
+    private void release(FakePlayerEngine engine, DecoderBudget.Ticket ticket) {
+        if (engine == null) {
+            if (ticket != null) {
+                ticket.release();
+            }
+            return;
+        }
+        if (ticket != null) {
+            if (engine.holdsDecoder()) {
+                releasingTickets.put(engine, ticket);
+            } else {
+                ticket.release();
+            }
+        }
+        engine.release();
+    }
+
+    private final FakePlayerEngine.DecoderMeter meter = new FakePlayerEngine.DecoderMeter() {
+        @Override
+        public void onDecoderAcquired(FakePlayerEngine engine) {
+            updateDecoderTime();
+            decoders++;
+            peakDecoders = Math.max(peakDecoders, decoders);
+        }
+
+        @Override
+        public void onDecoderReleased(FakePlayerEngine engine) {
+            updateDecoderTime();
+            decoders--;
+            DecoderBudget.Ticket ticket = releasingTickets.remove(engine);
+            if (ticket != null) {
+                ticket.release();
+            }
+        }
+    };
+
+    private final StandbyScheduler.Host host = new StandbyScheduler.Host() {
+        @Override
+        public PlayerEngine prepareStandby(StandbyScheduler.Slot slot) {
+            FakePlayerEngine engine = createEngine();
+            engine.setListener(engineListener);
+            engine.setDataSource(slot.getPath(), null);
+            engine.prepareAsync();
+            prepareStartUs.put(engine, clock.nowUs());
+            return engine;
+        }
+
+        @Override
+        public void onStandbyPrepared(StandbyScheduler.Slot slot) {
+        }
+
+        @Override
+        public void releaseStandby(StandbyScheduler.Slot slot) {
+            prepareStartUs.remove(slot.getEngine());
+            release((FakePlayerEngine) slot.getEngine(), slot.getTicket());
+        }
+
+        @Override
+        public void switchTo(StandbyScheduler.Slot slot) {
+            current.setDisplay(null);
+            releaseCurrent();
+            current = (FakePlayerEngine) slot.getEngine();
+            currentTicket = slot.getTicket();
+            if (currentTicket != null) {
+                currentTicket.promote();
+            }
+            dispatcher.setCurrent(current);
+            current.setDisplay(display);
+            current.start();
+            fillWhenDue();
+        }
+    };
+
+    /**
+     * 所有播放器的回调先经过这里统计失败,再交给dispatcher分发
+     */
+    private final PlayerEngine.Listener engineListener = new PlayerEngine.Listener() {
+        @Override
+        public void onPrepared(PlayerEngine engine) {
+            Long startUs = prepareStartUs.remove(engine);
+            if (startUs != null && estimator != null) {
+                estimator.record(((FakePlayerEngine) engine).getPath(), (clock.nowUs() - startUs) / 1000);
+            }
+            dispatcher.onPrepared(engine);
+        }
+
+        @Override
+        public void onCompletion(PlayerEngine engine) {
+            dispatcher.onCompletion(engine);
+        }
+
+        @Override
+        public boolean onError(PlayerEngine engine, int what, int extra) {
+            prepareStartUs.remove(engine);
+            if (what == FakePlayerEngine.ERROR_PREPARE) {
+                prepareFailures++;
+            } else {
+                playbackFailures++;
+            }
+            return dispatcher.onError(engine, what, extra);
+        }
+
+        @Override
+        public boolean onInfo(PlayerEngine engine, int what, int extra) {
+            return dispatcher.onInfo(engine, what, extra);
+        }
+
+        @Override
+        public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {
+            dispatcher.onVideoSizeChanged(engine, width, height);
+        }
+
+        @Override
+        public void onBufferingUpdate(PlayerEngine engine, int percent) {
+            dispatcher.onBufferingUpdate(engine, percent);
+        }
+    };
+
+    private final PlayerEngine.Listener currentListener = new PlayerEngine.Listener() {
+        @Override
+        public void onPrepared(PlayerEngine engine) {
+            engine.start();
+            fillWhenDue();
+        }
+
+        @Override
+        public void onCompletion(PlayerEngine engine) {
+            advance();
+        }
+
+        @Override
+        public boolean onError(PlayerEngine engine, int what, int extra) {
+            // 跳过出错的视频
+            advance();
+            return true;
+        }
+
+        @Override
+        public boolean onInfo(PlayerEngine engine, int what, int extra) {
+            if (what == PlayerEngine.MEDIA_INFO_VIDEO_RENDERING_START && switchStartUs >= 0) {
+                if (startupUs < 0) {
+                    startupUs = clock.nowUs() - switchStartUs;
+                } else {
+                    gaps.record(clock.nowUs() - switchStartUs);
+                }
+                switchStartUs = -1;
+                played++;
+            }
+            return true;
+        }
+
+        @Override
+        public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {
+        }
+
+        @Override
+        public void onBufferingUpdate(PlayerEngine engine, int percent) {
+        }
+    };
+
+    /**
+     * 在命令行运行一次模拟: [clips] [depth] [decoderCapacity] [seed] [jit]
+     */
+    public static void main(String[] args) {
+        int clips = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        FakePlayerEngine.Profile profile = new FakePlayerEngine.Profile();
+        profile.setPrepareLatency(Distribution.withOutliers(
+                Distribution.logNormal(150000, 0.6), Distribution.uniform(2000000, 6000000), 0.01));
+        profile.setPrepareFailureRate(0.005);
+        profile.setPlaybackFailureRate(0.002);
+        SwitchGapSimulator simulator = new SwitchGapSimulator(profile, depth, seed);
+        simulator.setDecoderCapacity(capacity);
+        PrepareLeadEstimator estimator = args.length > 4 && "jit".equals(args[4]) ? new PrepareLeadEstimator() : null;
+        simulator.setJustInTime(estimator);
+        System.out.println(profile);
+        System.out.println(simulator.run(clips));
+        if (estimator != null) {
+            System.out.println(estimator);
+        }
+    }
+}
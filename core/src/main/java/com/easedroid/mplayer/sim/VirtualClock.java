@@ -0,0 +1,103 @@
+package com.easedroid.mplayer.sim;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * 项目名称：MediaPlayer <br/>
+ * 类名称：VirtualClock    <br/>
+ * 类描述：单线程的虚拟时钟和事件队列.事件按时间执行,同一时间的事件按提交顺序执行,
+ * 执行结果只取决于提交的事件,不受机器速度影响<br/>
+ */
+public class VirtualClock {
+
+    private static class Event implements Comparable<Event> {
+        final long timeUs;
+        final long seq;
+        final Runnable task;
+
+        Event(long timeUs, long seq, Runnable task) {
+            this.timeUs = timeUs;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (timeUs != other.timeUs) {
+                return timeUs < other.timeUs ? -1 : 1;
+            }
+            return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    private long nowUs;
+    private long seq;
+    private long executedCount;
+
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            schedule(0, command);
+        }
+    };
+
+    /**
+     * @return 当前虚拟时间,单位微秒
+     */
+    public long nowUs() {
+        return nowUs;
+    }
+
+    /**
+     * 在delayUs之后执行task,相当于Handler.postDelayed.
+     */
+    public void schedule(long delayUs, Runnable task) {
+        queue.add(new Event(nowUs + Math.max(0, delayUs), seq++, task));
+    }
+
+    /**
+     * @return 在当前时间执行任务的Executor,相当于Handler.post
+     */
+    public Executor asExecutor() {
+        return executor;
+    }
+
+    /**
+     * 执行下一个事件,时间前进到它的执行时间.
+     *
+     * @return 是否执行了事件
+     */
+    public boolean runNext() {
+        Event event = queue.poll();
+        if (event == null) {
+            return false;
+        }
+        nowUs = event.timeUs;
+        executedCount++;
+        event.task.run();
+        return true;
+    }
+
+    /**
+     * 执行事件直到队列为空或执行了maxEvents个.
+     *
+     * @return 执行的事件数
+     */
+    public long runUntilIdle(long maxEvents) {
+        long count = 0;
+        while (count < maxEvents && runNext()) {
+            count++;
+        }
+        return count;
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public long getExecutedCount() {
+        return executedCount;
+    }
+}
@@ -0,0 +1,173 @@
+package com.easedroid.mplayer.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用JDK自带的HttpServer作为源站测试缓存代理.
+ */
+public class CachingHttpProxyTest {
+
+    private static final int CLIP_SIZE = 300 * 1024;
+
+    private HttpServer origin;
+    private final AtomicInteger originRequests = new AtomicInteger();
+    private final byte[] clip = new byte[CLIP_SIZE];
+    private File cacheDir;
+    private CachingHttpProxy proxy;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < clip.length; i++) {
+            clip[i] = (byte) (i * 31);
+        }
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                originRequests.incrementAndGet();
+                if (exchange.getRequestURI().getPath().contains("missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+                exchange.sendResponseHeaders(200, clip.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(clip);
+                out.close();
+            }
+        });
+        origin.start();
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "proxy-test-" + System.nanoTime());
+        proxy = new CachingHttpProxy(cacheDir, CLIP_SIZE * 2 + CLIP_SIZE / 2);
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        proxy.stop();
+        origin.stop(0);
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void secondPass_isServedFromCache() throws Exception {
+        String url = originUrl("/vod/a.mp4");
+        assertArrayEquals(clip, get(proxy.proxyUrl(url), null, 200));
+        awaitCached(url);
+        assertArrayEquals(clip, get(proxy.proxyUrl(url), null, 200));
+
+        assertEquals(1, originRequests.get());
+        assertEquals(1, proxy.getMissCount());
+        assertEquals(1, proxy.getHitCount());
+        assertEquals(CLIP_SIZE, proxy.getMissBytes());
+        assertEquals(CLIP_SIZE, proxy.getHitBytes());
+    }
+
+    @Test
+    public void rangeRequest_isServedFromCache() throws Exception {
+        String url = originUrl("/vod/b.mp4");
+        get(proxy.proxyUrl(url), null, 200);
+        awaitCached(url);
+
+        byte[] tail = get(proxy.proxyUrl(url), "bytes=1000-1999", 206);
+        assertEquals(1000, tail.length);
+        for (int i = 0; i < tail.length; i++) {
+            assertEquals(clip[1000 + i], tail[i]);
+        }
+        assertEquals(100, get(proxy.proxyUrl(url), "bytes=-100", 206).length);
+        assertEquals(1, originRequests.get());
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvicted() throws Exception {
+        String a = originUrl("/vod/a.mp4");
+        String b = originUrl("/vod/b.mp4");
+        String c = originUrl("/vod/c.mp4");
+        get(proxy.proxyUrl(a), null, 200);
+        awaitCached(a);
+        get(proxy.proxyUrl(b), null, 200);
+        awaitCached(b);
+        get(proxy.proxyUrl(a), null, 200);
+        get(proxy.proxyUrl(c), null, 200);
+        awaitCached(c);
+
+        LruDiskCache cache = proxy.getCache();
+        assertTrue(cache.contains(LruDiskCache.keyFor(a)));
+        assertFalse(cache.contains(LruDiskCache.keyFor(b)));
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.size() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void originErrors_arePassedThrough() throws Exception {
+        String url = originUrl("/vod/missing.mp4");
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxy.proxyUrl(url)).openConnection();
+        assertEquals(404, connection.getResponseCode());
+        connection.disconnect();
+        assertFalse(proxy.getCache().contains(LruDiskCache.keyFor(url)));
+    }
+
+    @Test
+    public void localPaths_areNotRewritten() throws Exception {
+        assertEquals("/storage/sdcard/vod/demo.mp4", proxy.proxyUrl("/storage/sdcard/vod/demo.mp4"));
+        assertTrue(proxy.proxyUrl(originUrl("/a.mp4")).contains(".mp4?url="));
+    }
+
+    private String originUrl(String path) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+    }
+
+    private void awaitCached(String url) throws InterruptedException {
+        String key = LruDiskCache.keyFor(url);
+        for (int i = 0; i < 200 && !proxy.getCache().contains(key); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(proxy.getCache().contains(key));
+    }
+
+    private static byte[] get(String url, String range, int expectedCode) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        try {
+            assertEquals(expectedCode, connection.getResponseCode());
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            in.close();
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.easedroid.mplayer.cache;
+
+import com.easedroid.mplayer.core.ArrayPlaylistSource;
+import com.easedroid.mplayer.core.PlaylistSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ContentStoreTest {
+
+    private File root;
+    private File sources;
+    private ContentStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        root = new File(System.getProperty("java.io.tmpdir"), "store-test-" + System.nanoTime());
+        sources = new File(root, "sources");
+        sources.mkdirs();
+        store = new ContentStore(new File(root, "store"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(root);
+    }
+
+    @Test
+    public void add_sameContentIsStoredOnce() throws Exception {
+        File a = write("a.mp4", content(300 * 1024, 1));
+        File b = write("renamed-b.mp4", content(300 * 1024, 1));
+        File c = write("c.mp4", content(300 * 1024, 2));
+
+        File objectA = store.add(a.getPath(), a, false);
+        File objectB = store.add(b.getPath(), b, false);
+        File objectC = store.add(c.getPath(), c, false);
+
+        assertEquals(objectA, objectB);
+        assertNotEquals(objectA, objectC);
+        assertEquals(2, store.getObjectCount());
+        assertEquals(3, store.getKeyCount());
+        assertEquals(2, store.refCount(store.digestOf(a.getPath())));
+        assertEquals(1, store.getDuplicateCount());
+        assertEquals(300 * 1024, store.getDuplicateBytes());
+        assertEquals(600 * 1024, store.getStoredBytes());
+        assertTrue(a.isFile());
+    }
+
+    @Test
+    public void purge_deletesReleasedObject() throws Exception {
+        File a = write("a.mp4", content(1000, 1));
+        File b = write("b.mp4", content(1000, 1));
+        File object = store.add(a.getPath(), a, false);
+        store.add(b.getPath(), b, false);
+
+        store.release(a.getPath());
+        assertTrue(object.isFile());
+        assertNull(store.get(a.getPath()));
+
+        store.release(b.getPath());
+        // 映射出的路径可能还在预备播放器中,purge()之前不删除
+        assertTrue(object.isFile());
+        assertEquals(0, store.getObjectCount());
+
+        assertEquals(1, store.purge());
+        assertFalse(object.isFile());
+    }
+
+    @Test
+    public void add_moveTakesOverFiles() throws Exception {
+        File a = write("a.mp4", content(1000, 3));
+        File b = write("b.mp4", content(1000, 3));
+        File object = store.add("http://cdn.example.com/a.mp4", a, true);
+        store.add("/schedule/b.mp4", b, true);
+
+        assertFalse(a.exists());
+        assertFalse(b.exists());
+        assertTrue(object.isFile());
+        assertArrayEquals(content(1000, 3), Files.readAllBytes(object.toPath()));
+    }
+
+    @Test
+    public void add_streamIsHashedWhileWriting() throws Exception {
+        File a = write("a.mp4", content(700 * 1024, 4));
+        File fromFile = store.add(a.getPath(), a, false);
+        File fromStream = store.add("http://cdn.example.com/x.mp4",
+                new ByteArrayInputStream(content(700 * 1024, 4)));
+
+        assertEquals(fromFile, fromStream);
+        assertEquals(1, store.getObjectCount());
+    }
+
+    @Test
+    public void map_resolvesPlaylistEntries() throws Exception {
+        File a = write("a.mp4", content(1000, 5));
+        File b = write("b.mp4", content(1000, 5));
+        PlaylistSource playlist = new ArrayPlaylistSource(new String[]{
+                a.getPath(), b.getPath(), "/missing.mp4", "http://cdn.example.com/y.mp4"});
+        assertEquals(2, store.addAll(playlist, false));
+
+        PlaylistSource mapped = store.map(playlist);
+        assertEquals(4, mapped.size());
+        assertEquals(mapped.get(0), mapped.get(1));
+        assertTrue(mapped.get(0).startsWith(store.getDirectory().getAbsolutePath()));
+        assertEquals("/missing.mp4", mapped.get(2));
+        assertEquals("http://cdn.example.com/y.mp4", mapped.get(3));
+    }
+
+    @Test
+    public void reopen_restoresReferencesAndDropsOrphans() throws Exception {
+        File a = write("a.mp4", content(1000, 6));
+        File b = write("b.mp4", content(1000, 7));
+        File kept = store.add(a.getPath(), a, false);
+        store.save();
+        // 没有保存的引用在重新打开后丢失
+        File orphan = store.add(b.getPath(), b, false);
+
+        ContentStore reopened = new ContentStore(store.getDirectory());
+        assertEquals(kept, reopened.get(a.getPath()));
+        assertNull(reopened.get(b.getPath()));
+        assertFalse(orphan.exists());
+        assertEquals(1, reopened.getObjectCount());
+    }
+
+    @Test
+    public void reopen_keepsMovedFilesWithoutSave() throws Exception {
+        File a = write("a.mp4", content(1000, 8));
+        File b = write("b.mp4", content(1000, 8));
+        File object = store.add(a.getPath(), a, true);
+        store.add(b.getPath(), b, true);
+        assertFalse(a.exists());
+        assertFalse(b.exists());
+
+        // 没有调用save(),相当于进程在这里退出
+        ContentStore reopened = new ContentStore(store.getDirectory());
+        assertEquals(object, reopened.get(a.getPath()));
+        assertEquals(object, reopened.get(b.getPath()));
+        assertArrayEquals(content(1000, 8), Files.readAllBytes(object.toPath()));
+    }
+
+    private File write(String name, byte[] bytes) throws IOException {
+        File file = new File(sources, name);
+        OutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+        return file;
+    }
+
+    private static byte[] content(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * seed + (i >> 10));
+        }
+        return bytes;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,117 @@
+package com.easedroid.mplayer.cache;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HlsPlaylistTest {
+
+    private static final String MASTER = "#EXTM3U\n"
+            + "#EXT-X-STREAM-INF:AVERAGE-BANDWIDTH=700000,BANDWIDTH=800000,RESOLUTION=640x360\n"
+            + "low/index.m3u8\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=2500000,RESOLUTION=1280x720\n"
+            + "mid/index.m3u8\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=5000000,RESOLUTION=1920x1080\n"
+            + "http://cdn.example.com/high/index.m3u8\n";
+
+    private static final String VOD = "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:6\n"
+            + "#EXT-X-MEDIA-SEQUENCE:0\n"
+            + "#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\"\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:6.0,\n"
+            + "seg0.m4s\n"
+            + "#EXTINF:6.0,\n"
+            + "seg1.m4s\n"
+            + "#EXTINF:4.5,\n"
+            + "seg2.m4s\n"
+            + "#EXT-X-ENDLIST\n";
+
+    private static final String LIVE = "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:2\n"
+            + "#EXT-X-MEDIA-SEQUENCE:100\n"
+            + "#EXTINF:2.0,\nlive100.ts\n"
+            + "#EXTINF:2.0,\nlive101.ts\n"
+            + "#EXTINF:2.0,\nlive102.ts\n"
+            + "#EXTINF:2.0,\nlive103.ts\n"
+            + "#EXTINF:2.0,\nlive104.ts\n";
+
+    @Test
+    public void parse_masterResolvesVariants() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse("http://example.com/vod/master.m3u8", MASTER);
+
+        assertTrue(playlist.isMaster());
+        List<HlsPlaylist.Variant> variants = playlist.getVariants();
+        assertEquals(3, variants.size());
+        assertEquals("http://example.com/vod/low/index.m3u8", variants.get(0).uri);
+        assertEquals(800000, variants.get(0).bandwidth);
+        assertEquals(1280, variants.get(1).width);
+        assertEquals("http://cdn.example.com/high/index.m3u8", variants.get(2).uri);
+    }
+
+    @Test
+    public void selectVariant_highestUnderCap() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse("http://example.com/vod/master.m3u8", MASTER);
+
+        assertEquals(800000, playlist.selectVariant(0).bandwidth);
+        assertEquals(2500000, playlist.selectVariant(3000000).bandwidth);
+        assertEquals(5000000, playlist.selectVariant(Long.MAX_VALUE).bandwidth);
+        assertEquals(800000, playlist.selectVariant(100000).bandwidth);
+    }
+
+    @Test
+    public void parse_mediaPlaylist() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse("http://example.com/vod/mid/index.m3u8", VOD);
+
+        assertFalse(playlist.isMaster());
+        assertTrue(playlist.isEndList());
+        assertEquals(6.0, playlist.getTargetDurationSec(), 0);
+        assertEquals("http://example.com/vod/mid/init.mp4", playlist.getInitUri());
+        assertEquals(3, playlist.getSegments().size());
+        assertEquals(4.5, playlist.getSegments().get(2).durationSec, 0);
+        List<HlsPlaylist.Segment> start = playlist.startSegments(2);
+        assertEquals(2, start.size());
+        assertEquals("http://example.com/vod/mid/seg0.m4s", start.get(0).uri);
+    }
+
+    @Test
+    public void startSegments_liveStartsNearEdge() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse("http://example.com/live/index.m3u8", LIVE);
+
+        assertFalse(playlist.isEndList());
+        assertEquals(100, playlist.getMediaSequence());
+        List<HlsPlaylist.Segment> start = playlist.startSegments(5);
+        assertEquals(3, start.size());
+        assertEquals("http://example.com/live/live102.ts", start.get(0).uri);
+    }
+
+    @Test
+    public void rewrite_mapsUrisAndKeepsOneVariant() throws Exception {
+        HlsPlaylist.UriMapper mapper = new HlsPlaylist.UriMapper() {
+            @Override
+            public String map(String uri) {
+                return "local:" + uri;
+            }
+        };
+        HlsPlaylist master = HlsPlaylist.parse("http://example.com/vod/master.m3u8", MASTER);
+        String rewritten = master.rewrite(mapper, master.selectVariant(3000000));
+
+        HlsPlaylist reparsed = HlsPlaylist.parse("http://127.0.0.1/", rewritten);
+        assertEquals(1, reparsed.getVariants().size());
+        assertEquals("local:http://example.com/vod/mid/index.m3u8", reparsed.getVariants().get(0).uri);
+
+        String media = HlsPlaylist.parse("http://example.com/vod/mid/index.m3u8", VOD).rewrite(mapper, null);
+        assertTrue(media.contains("URI=\"local:http://example.com/vod/mid/init.mp4\""));
+        // 密钥地址不经过代理
+        assertTrue(media.contains("URI=\"http://example.com/vod/mid/key.bin\""));
+        assertTrue(media.contains("\nlocal:http://example.com/vod/mid/seg1.m4s\n"));
+        assertTrue(media.endsWith("#EXT-X-ENDLIST\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsNonPlaylist() throws Exception {
+        HlsPlaylist.parse("http://example.com/a.m3u8", "<html></html>");
+    }
+}
@@ -0,0 +1,183 @@
+package com.easedroid.mplayer.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用JDK自带的HttpServer作为HLS源站测试分片预取和playlist改写.
+ */
+public class HlsPrefetcherTest {
+
+    private static final int SEGMENT_SIZE = 50 * 1024;
+
+    private HttpServer origin;
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private File cacheDir;
+    private CachingHttpProxy proxy;
+    private HlsPrefetcher prefetcher;
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                requestCount(path).incrementAndGet();
+                byte[] body;
+                if (path.endsWith("master.m3u8")) {
+                    body = ("#EXTM3U\n"
+                            + "#EXT-X-STREAM-INF:BANDWIDTH=400000\nlow/index.m3u8\n"
+                            + "#EXT-X-STREAM-INF:BANDWIDTH=2000000\nhigh/index.m3u8\n").getBytes("UTF-8");
+                } else if (path.endsWith("index.m3u8")) {
+                    StringBuilder sb = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:1\n");
+                    for (int i = 0; i < 6; i++) {
+                        sb.append("#EXTINF:1.0,\nseg").append(i).append(".ts\n");
+                    }
+                    body = sb.append("#EXT-X-ENDLIST\n").toString().getBytes("UTF-8");
+                } else {
+                    body = new byte[SEGMENT_SIZE];
+                    body[0] = (byte) path.hashCode();
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        origin.start();
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "hls-test-" + System.nanoTime());
+        proxy = new CachingHttpProxy(cacheDir, 10 * 1024 * 1024);
+        proxy.start();
+        prefetcher = new HlsPrefetcher(proxy, 3, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        prefetcher.shutdown();
+        proxy.stop();
+        origin.stop(0);
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void prefetch_cachesStartSegmentsOfSelectedVariant() throws Exception {
+        proxy.setHlsMaxBandwidth(1000000);
+        String url = originUrl("/hls/master.m3u8");
+        assertEquals(3, await(url));
+
+        assertEquals(3, prefetcher.getPrefetchedSegments());
+        assertEquals(1, requestCount("/hls/low/seg0.ts").get());
+        assertEquals(1, requestCount("/hls/low/seg2.ts").get());
+        assertEquals(0, requestCount("/hls/low/seg3.ts").get());
+        assertEquals(0, requestCount("/hls/high/seg0.ts").get());
+
+        // 播放器经过代理起播,全部来自本地
+        String master = new String(get(proxy.proxyUrl(url)), "UTF-8");
+        HlsPlaylist served = HlsPlaylist.parse(proxy.proxyUrl(url), master);
+        assertEquals(1, served.getVariants().size());
+        String media = new String(get(served.getVariants().get(0).uri), "UTF-8");
+        HlsPlaylist mediaPlaylist = HlsPlaylist.parse(served.getVariants().get(0).uri, media);
+        assertEquals(6, mediaPlaylist.getSegments().size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(SEGMENT_SIZE, get(mediaPlaylist.getSegments().get(i).uri).length);
+        }
+        assertEquals(1, requestCount("/hls/master.m3u8").get());
+        assertEquals(1, requestCount("/hls/low/index.m3u8").get());
+        assertEquals(1, requestCount("/hls/low/seg0.ts").get());
+        assertEquals(3, proxy.getHitCount());
+        assertEquals(0, proxy.getMissCount());
+    }
+
+    @Test
+    public void prefetch_stopsAtByteBudget() throws Exception {
+        prefetcher.setByteBudget(SEGMENT_SIZE + 1);
+        assertEquals(2, await(originUrl("/hls/low/index.m3u8")));
+        assertEquals(0, requestCount("/hls/low/seg2.ts").get());
+    }
+
+    @Test
+    public void prefetch_nonHlsUrlIsDeliveredImmediately() throws Exception {
+        assertEquals(0, await(originUrl("/vod/a.mp4")));
+        assertTrue(requests.isEmpty());
+    }
+
+    private int await(String url) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger result = new AtomicInteger(-1);
+        prefetcher.prefetch(url, direct, new HlsPrefetcher.Callback() {
+            @Override
+            public void onPrefetched(String url, int segments) {
+                result.set(segments);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private AtomicInteger requestCount(String path) {
+        AtomicInteger count = requests.get(path);
+        if (count == null) {
+            requests.putIfAbsent(path, new AtomicInteger());
+            count = requests.get(path);
+        }
+        return count;
+    }
+
+    private String originUrl(String path) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+    }
+
+    private static byte[] get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            assertEquals(200, connection.getResponseCode());
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            in.close();
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.easedroid.mplayer.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用支持Range的HttpServer作为源站测试并行下载.
+ */
+public class RangeDownloaderTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CLIP_SIZE = 10 * CHUNK_SIZE + 123;
+
+    private HttpServer origin;
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final byte[] clip = new byte[CLIP_SIZE];
+    private volatile boolean rangeSupported = true;
+    // 不为null时,请求第5块的连接等待它
+    private volatile CountDownLatch gate;
+    private File cacheDir;
+    private LruDiskCache cache;
+    private RangeDownloader downloader;
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < clip.length; i++) {
+            clip[i] = (byte) (i * 31 + (i >> 8));
+        }
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.setExecutor(Executors.newCachedThreadPool());
+        origin.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                int start = 0;
+                int end = clip.length - 1;
+                int code = 200;
+                if (range != null && rangeSupported) {
+                    rangeRequests.incrementAndGet();
+                    String[] bounds = range.substring("bytes=".length()).split("-");
+                    start = Integer.parseInt(bounds[0]);
+                    CountDownLatch waitFor = gate;
+                    if (waitFor != null && start == 5 * CHUNK_SIZE) {
+                        try {
+                            waitFor.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                    code = 206;
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + start + "-" + end + "/" + clip.length);
+                }
+                exchange.sendResponseHeaders(code, end - start + 1);
+                OutputStream out = exchange.getResponseBody();
+                out.write(clip, start, end - start + 1);
+                out.close();
+            }
+        });
+        origin.start();
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "range-test-" + System.nanoTime());
+        cacheDir.mkdirs();
+        cache = new LruDiskCache(cacheDir, CLIP_SIZE * 4);
+        downloader = new RangeDownloader(cache, 3, CHUNK_SIZE, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        downloader.shutdown();
+        origin.stop(0);
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void fetch_downloadsChunksInParallelIntoCache() throws Exception {
+        String url = originUrl("/vod/a.mp4");
+        downloader.setReadyBytes(CLIP_SIZE);
+        File file = await(url);
+
+        assertNotNull(file);
+        assertArrayEquals(clip, Files.readAllBytes(file.toPath()));
+        assertEquals(11, rangeRequests.get());
+        assertTrue(cache.contains(LruDiskCache.keyFor(url)));
+        assertEquals(file, downloader.getReadyFile(url));
+        assertEquals(1, downloader.getCompletedCount());
+    }
+
+    @Test
+    public void partialFetch_isReadableBeforeComplete() throws Exception {
+        final String url = originUrl("/vod/b.mp4");
+        gate = new CountDownLatch(1);
+        downloader.setReadyBytes(CHUNK_SIZE);
+        File ready = await(url, true);
+
+        // 开头就绪时不交出稀疏的临时文件
+        assertNull(ready);
+        assertEquals(0, downloader.getCompletedCount());
+        assertNull(downloader.getReadyFile(url));
+
+        final RangeDownloader.Reader reader = downloader.openPartial(url);
+        assertNotNull(reader);
+        assertEquals(CLIP_SIZE, reader.length());
+        final byte[] content = new byte[CLIP_SIZE];
+        final AtomicInteger total = new AtomicInteger();
+        Thread player = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int n;
+                    while (total.get() < CLIP_SIZE
+                            && (n = reader.read(total.get(), content, total.get(), CLIP_SIZE - total.get())) > 0) {
+                        total.addAndGet(n);
+                    }
+                } catch (IOException e) {
+                    // total不完整,下面的断言会失败
+                }
+            }
+        });
+        player.start();
+        // 第5块还没下载,读取停在它前面;被读取的下载不会被取消
+        long deadline = System.currentTimeMillis() + 5000;
+        while (total.get() < 5 * CHUNK_SIZE && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5 * CHUNK_SIZE, total.get());
+        downloader.cancel(url);
+        downloader.cancelAll();
+        assertEquals(0, downloader.getCancelledCount());
+
+        gate.countDown();
+        player.join(5000);
+        reader.close();
+
+        assertEquals(CLIP_SIZE, total.get());
+        assertArrayEquals(clip, content);
+        deadline = System.currentTimeMillis() + 5000;
+        while (downloader.getCompletedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertArrayEquals(clip, Files.readAllBytes(downloader.getReadyFile(url).toPath()));
+    }
+
+    @Test
+    public void proxy_servesPartialDownloadWithoutOriginRequests() throws Exception {
+        String url = originUrl("/vod/f.mp4");
+        gate = new CountDownLatch(1);
+        downloader.setReadyBytes(CHUNK_SIZE);
+        CachingHttpProxy proxy = new CachingHttpProxy(cache);
+        proxy.setRangeDownloader(downloader);
+        proxy.start();
+        try {
+            assertNull(await(url, true));
+            final HttpURLConnection connection = (HttpURLConnection) new URL(proxy.proxyUrl(url)).openConnection();
+            connection.setRequestProperty("Range", "bytes=100-");
+            final AtomicReference<byte[]> body = new AtomicReference<>();
+            Thread player = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        InputStream in = connection.getInputStream();
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[8192];
+                        int n;
+                        while ((n = in.read(buffer)) >= 0) {
+                            out.write(buffer, 0, n);
+                        }
+                        in.close();
+                        body.set(out.toByteArray());
+                    } catch (IOException e) {
+                        // body为null,下面的断言会失败
+                    }
+                }
+            });
+            player.start();
+            Thread.sleep(100);
+            gate.countDown();
+            player.join(5000);
+
+            assertEquals(206, connection.getResponseCode());
+            byte[] expected = new byte[CLIP_SIZE - 100];
+            System.arraycopy(clip, 100, expected, 0, expected.length);
+            assertArrayEquals(expected, body.get());
+            assertEquals(11, rangeRequests.get());
+            assertEquals(0, proxy.getMissCount());
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    @Test
+    public void fetch_waitsForCompleteFile() throws Exception {
+        String url = originUrl("/vod/e.mp4");
+        downloader.setReadyBytes(CHUNK_SIZE);
+        File file = await(url);
+
+        assertNotNull(file);
+        assertEquals(1, downloader.getCompletedCount());
+        assertArrayEquals(clip, Files.readAllBytes(file.toPath()));
+        assertNull(downloader.openPartial(url));
+    }
+
+    @Test
+    public void fetch_fallsBackToSingleStreamWithoutRange() throws Exception {
+        rangeSupported = false;
+        String url = originUrl("/vod/c.mp4");
+        File file = await(url);
+
+        assertNotNull(file);
+        assertArrayEquals(clip, Files.readAllBytes(file.toPath()));
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void fetch_cachedUrlIsDeliveredWithoutRequests() throws Exception {
+        String url = originUrl("/vod/d.mp4");
+        downloader.setReadyBytes(CLIP_SIZE);
+        await(url);
+        int requests = rangeRequests.get();
+
+        assertNotNull(await(url));
+        assertEquals(requests, rangeRequests.get());
+    }
+
+    @Test
+    public void getReadyFile_localPathIsIgnored() throws Exception {
+        assertNull(downloader.getReadyFile("/sdcard/a.mp4"));
+    }
+
+    private File await(String url) throws InterruptedException {
+        return await(url, false);
+    }
+
+    private File await(String url, boolean partial) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<File> result = new AtomicReference<>();
+        downloader.fetch(url, direct, new RangeDownloader.Callback() {
+            @Override
+            public void onReady(String url, File file) {
+                result.set(file);
+                latch.countDown();
+            }
+        }, partial);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private String originUrl(String path) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+    }
+}
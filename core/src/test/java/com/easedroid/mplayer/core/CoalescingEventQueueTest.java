@@ -0,0 +1,88 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class CoalescingEventQueueTest {
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<String> delivered = new ArrayList<>();
+    private CoalescingEventQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        queue = new CoalescingEventQueue(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                scheduled.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void ordinaryEvents_areDeliveredInOrderWithOneFlush() throws Exception {
+        queue.post(event("prepared"));
+        queue.post(event("info"));
+        queue.post(event("completion"));
+        assertEquals(1, scheduled.size());
+        runScheduled();
+        assertEquals(Arrays.asList("prepared", "info", "completion"), delivered);
+        assertEquals(3, queue.getDeliveredCount());
+    }
+
+    @Test
+    public void sameKey_keepsLatestOnly() throws Exception {
+        for (int i = 0; i <= 100; i += 10) {
+            queue.postCoalesced("buffering", event("buffering " + i));
+        }
+        queue.postCoalesced(700, event("lagging"));
+        runScheduled();
+        assertEquals(Arrays.asList("buffering 100", "lagging"), delivered);
+        assertEquals(10, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void ordinaryEvent_isABarrier() throws Exception {
+        queue.postCoalesced("buffering", event("buffering 10"));
+        queue.post(event("completion"));
+        queue.postCoalesced("buffering", event("buffering 0"));
+        queue.postCoalesced("buffering", event("buffering 5"));
+        runScheduled();
+        assertEquals(Arrays.asList("buffering 10", "completion", "buffering 5"), delivered);
+    }
+
+    @Test
+    public void eventsAfterFlush_scheduleAgain() throws Exception {
+        queue.postCoalesced("buffering", event("buffering 10"));
+        runScheduled();
+        queue.postCoalesced("buffering", event("buffering 20"));
+        assertEquals(1, scheduled.size());
+        runScheduled();
+        assertEquals(Arrays.asList("buffering 10", "buffering 20"), delivered);
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    private Runnable event(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                delivered.add(name);
+            }
+        };
+    }
+
+    private void runScheduled() {
+        List<Runnable> runs = new ArrayList<>(scheduled);
+        scheduled.clear();
+        for (Runnable r : runs) {
+            r.run();
+        }
+    }
+}
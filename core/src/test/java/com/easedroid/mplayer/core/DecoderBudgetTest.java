@@ -0,0 +1,173 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class DecoderBudgetTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private DecoderBudget budget;
+    private final List<String> granted = new ArrayList<>();
+    private final List<String> revoked = new ArrayList<>();
+    private final List<DecoderBudget.Ticket> tickets = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        budget = new DecoderBudget(3);
+    }
+
+    @Test
+    public void capacity_isNeverExceeded() throws Exception {
+        DecoderBudget.Zone a = zone("a");
+        DecoderBudget.Ticket t1 = a.requestActive(listener("a1"));
+        DecoderBudget.Ticket t2 = a.requestStandby(listener("a2"));
+        a.requestStandby(listener("a3"));
+        DecoderBudget.Ticket t4 = a.requestStandby(listener("a4"));
+        assertEquals(3, budget.getInUse());
+        assertFalse(t4.isGranted());
+        assertEquals(1, a.getStandbyWaiting());
+
+        t2.release();
+        assertTrue(t4.isGranted());
+        assertEquals("[a1, a2, a3, a4]", granted.toString());
+        t1.release();
+        t1.release();
+        assertEquals(2, budget.getInUse());
+    }
+
+    @Test
+    public void active_isServedBeforeStandbyAndRevokes() throws Exception {
+        DecoderBudget.Zone a = zone("a");
+        DecoderBudget.Zone b = zone("b");
+        a.requestActive(listener("a-active"));
+        DecoderBudget.Ticket s1 = a.requestStandby(listener("a-s1"));
+        a.requestStandby(listener("a-s2"));
+        DecoderBudget.Ticket s3 = a.requestStandby(listener("a-s3"));
+        assertFalse(s3.isGranted());
+
+        DecoderBudget.Ticket active = b.requestActive(listener("b-active"));
+        assertFalse(active.isGranted());
+        assertEquals("[a]", revoked.toString());
+        assertEquals(1, a.getRevokedCount());
+
+        // 被要求归还的区域释放一个standby,等待中的active先于a-s3得到名额
+        s1.release();
+        assertTrue(active.isGranted());
+        assertFalse(s3.isGranted());
+        assertEquals(1, b.activeWait.getCount());
+    }
+
+    @Test
+    public void standby_isGrantedRoundRobinAcrossZones() throws Exception {
+        budget.setCapacity(1);
+        DecoderBudget.Zone a = zone("a");
+        DecoderBudget.Zone b = zone("b");
+        DecoderBudget.Ticket first = a.requestStandby(listener("a1"));
+        a.requestStandby(listener("a2"));
+        a.requestStandby(listener("a3"));
+        b.requestStandby(listener("b1"));
+        b.requestStandby(listener("b2"));
+
+        DecoderBudget.Ticket current = first;
+        for (int i = 0; i < 4; i++) {
+            current.release();
+            current = tickets.get(tickets.size() - 1);
+        }
+        assertEquals("[a1, b1, a2, b2, a3]", granted.toString());
+    }
+
+    @Test
+    public void promote_keepsThePermit() throws Exception {
+        budget.setCapacity(2);
+        DecoderBudget.Zone a = zone("a");
+        DecoderBudget.Ticket active = a.requestActive(listener("a-active"));
+        DecoderBudget.Ticket standby = a.requestStandby(listener("a-standby"));
+        standby.promote();
+        active.release();
+        assertEquals(1, a.getActiveHeld());
+        assertEquals(0, a.getStandbyHeld());
+        assertEquals(1, budget.getInUse());
+        assertTrue(standby.isActive());
+    }
+
+    @Test
+    public void schedulerSlots_waitForAdmission() throws Exception {
+        budget.setCapacity(2);
+        DecoderBudget.Zone a = zone("a");
+        DecoderBudget.Ticket active = a.requestActive(listener("a-active"));
+        final List<String> preparing = new ArrayList<>();
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"0", "1", "2", "3"});
+        cursor.first();
+        StandbyScheduler scheduler = new StandbyScheduler(cursor, new StandbyScheduler.Host() {
+            @Override
+            public PlayerEngine prepareStandby(StandbyScheduler.Slot slot) {
+                preparing.add(slot.getPath());
+                return new StandbySchedulerTest.StubEngine(slot.getPath());
+            }
+
+            @Override
+            public void onStandbyPrepared(StandbyScheduler.Slot slot) {
+            }
+
+            @Override
+            public void releaseStandby(StandbyScheduler.Slot slot) {
+                slot.getTicket().release();
+            }
+
+            @Override
+            public void switchTo(StandbyScheduler.Slot slot) {
+            }
+        });
+        scheduler.setZone(a);
+        scheduler.setDepth(3);
+        scheduler.fill();
+        assertEquals(3, scheduler.size());
+        assertEquals(2, scheduler.getWaitingCount());
+        assertEquals("[1]", preparing.toString());
+
+        active.release();
+        assertEquals("[1, 2]", preparing.toString());
+        assertEquals(1, scheduler.getWaitingCount());
+
+        // 另一个区域开始播放,a归还最后一个持有名额的条目,条目留在窗口中重新排队
+        DecoderBudget.Ticket other = zone("b").requestActive(listener("b-active"));
+        assertEquals("[a]", revoked.toString());
+        assertTrue(scheduler.revokeStandby());
+        assertTrue(other.isGranted());
+        assertEquals(3, scheduler.size());
+        assertEquals(2, scheduler.getWaitingCount());
+        assertEquals("[1, 2]", preparing.toString());
+    }
+
+    private DecoderBudget.Zone zone(final String name) {
+        return budget.register(name, DIRECT, new DecoderBudget.ZoneListener() {
+            @Override
+            public void onStandbyRevoked() {
+                revoked.add(name);
+            }
+        });
+    }
+
+    private DecoderBudget.GrantListener listener(final String name) {
+        return new DecoderBudget.GrantListener() {
+            @Override
+            public void onGranted(DecoderBudget.Ticket ticket) {
+                granted.add(name);
+                tickets.add(ticket);
+            }
+        };
+    }
+}
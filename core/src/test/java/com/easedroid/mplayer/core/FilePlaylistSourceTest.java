@@ -0,0 +1,117 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FilePlaylistSourceTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("schedule", ".m3u");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void m3u_skipsTagsAndBlankLines() throws Exception {
+        write("﻿#EXTM3U\n#EXTINF:5,spot\n/vod/a.mp4\r\n\n  http://host/b.mp4  \nc.mp4");
+        FilePlaylistSource source = new FilePlaylistSource(file);
+        assertEquals(3, source.size());
+        assertEquals("/vod/a.mp4", source.get(0));
+        assertEquals("http://host/b.mp4", source.get(1));
+        assertEquals(new File(file.getParentFile(), "c.mp4").getPath(), source.get(2));
+        assertNull(source.get(3));
+    }
+
+    @Test
+    public void nonAsciiNames_areKeptWhole() throws Exception {
+        write("\u5e7f\u544aA.mp4\n /vod/\u8282\u76ee\u5355 \n");
+        FilePlaylistSource source = new FilePlaylistSource(file);
+        assertEquals(2, source.size());
+        assertEquals(new File(file.getParentFile(), "\u5e7f\u544aA.mp4").getPath(), source.get(0));
+        assertEquals("/vod/\u8282\u76ee\u5355", source.get(1));
+    }
+
+    @Test
+    public void entries_areReadAcrossPages() throws Exception {
+        int count = FilePlaylistSource.PAGE_SIZE * 3 + 5;
+        StringBuilder sb = new StringBuilder("#EXTM3U\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("#EXTINF:3,clip\n/vod/clip_").append(i).append(".mp4\n");
+        }
+        write(sb.toString());
+        FilePlaylistSource source = new FilePlaylistSource(file);
+        assertEquals(count, source.size());
+        for (int i : new int[]{0, 63, 64, count - 1, 65, 1, 130}) {
+            assertEquals("/vod/clip_" + i + ".mp4", source.get(i));
+        }
+
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(source);
+        assertEquals("/vod/clip_0.mp4", cursor.first());
+        for (int i = 1; i < count; i++) {
+            cursor.next();
+        }
+        assertEquals("/vod/clip_0.mp4", cursor.next());
+    }
+
+    @Test
+    public void modifiedFile_isRescanned() throws Exception {
+        write("/vod/a.mp4\n/vod/b.mp4\n");
+        FilePlaylistSource source = new FilePlaylistSource(file, 0);
+        assertEquals(2, source.size());
+        write("/vod/x.mp4\n/vod/y.mp4\n/vod/z.mp4\n");
+        file.setLastModified(file.lastModified() + 2000);
+        assertEquals(3, source.size());
+        assertEquals("/vod/z.mp4", source.get(2));
+    }
+
+    @Test
+    public void modifiedFile_waitsForCheckIntervalOrRefresh() throws Exception {
+        write("/vod/a.mp4\n/vod/b.mp4\n");
+        FilePlaylistSource source = new FilePlaylistSource(file, -1);
+        assertEquals("/vod/a.mp4", source.get(0));
+        // 长度相同,修改时间也不变
+        long modified = file.lastModified();
+        write("/vod/c.mp4\n/vod/d.mp4\n");
+        file.setLastModified(modified);
+        assertEquals(2, source.size());
+        assertEquals("/vod/a.mp4", source.get(0));
+
+        source.refresh();
+        assertEquals("/vod/c.mp4", source.get(0));
+    }
+
+    @Test
+    public void swap_keepsPosition() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"a", "b", "c", "d"});
+        cursor.first();
+        cursor.next();
+        cursor.swap(new ArrayPlaylistSource(new String[]{"w", "x", "y", "z"}));
+        assertEquals("y", cursor.next());
+        cursor.swap(new ArrayPlaylistSource(new String[]{"p"}));
+        assertEquals("p", cursor.next());
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MemoryPressureGovernorTest {
+
+    @Test
+    public void pressure_escalatesAndRecoversStepByStep() throws Exception {
+        MemoryPressureGovernor governor = new MemoryPressureGovernor(1000);
+        assertEquals(3, governor.getMaxLookahead(3));
+        assertEquals(-1, governor.getRecoveryDelay(0));
+
+        assertTrue(governor.onPressure(MemoryPressureGovernor.LEVEL_MODERATE, 0));
+        assertEquals(1, governor.getMaxLookahead(3));
+        assertFalse(governor.isPrefetchAllowed());
+        assertTrue(governor.onPressure(MemoryPressureGovernor.LEVEL_CRITICAL, 500));
+        assertEquals(0, governor.getMaxLookahead(3));
+        // 较低的信号不会降级,但会推迟恢复
+        assertFalse(governor.onPressure(MemoryPressureGovernor.LEVEL_MODERATE, 800));
+        assertEquals(MemoryPressureGovernor.LEVEL_CRITICAL, governor.getLevel());
+
+        assertFalse(governor.onQuiet(1500));
+        assertEquals(300, governor.getRecoveryDelay(1500));
+        assertTrue(governor.onQuiet(1800));
+        assertEquals(MemoryPressureGovernor.LEVEL_MODERATE, governor.getLevel());
+        assertFalse(governor.onQuiet(2000));
+        assertTrue(governor.onQuiet(2800));
+        assertEquals(MemoryPressureGovernor.LEVEL_NONE, governor.getLevel());
+        assertTrue(governor.isPrefetchAllowed());
+
+        assertEquals(1, governor.getEnterCount(MemoryPressureGovernor.LEVEL_MODERATE));
+        assertEquals(1, governor.getEnterCount(MemoryPressureGovernor.LEVEL_CRITICAL));
+        assertEquals(2, governor.getRecoveryCount());
+    }
+
+    @Test
+    public void suspendedScheduler_releasesWindowAndStopsFilling() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"0", "1", "2", "3"});
+        cursor.first();
+        final int[] released = new int[1];
+        StandbyScheduler scheduler = new StandbyScheduler(cursor, new StandbyScheduler.Host() {
+            @Override
+            public PlayerEngine prepareStandby(StandbyScheduler.Slot slot) {
+                return new StandbySchedulerTest.StubEngine(slot.getPath());
+            }
+
+            @Override
+            public void onStandbyPrepared(StandbyScheduler.Slot slot) {
+            }
+
+            @Override
+            public void releaseStandby(StandbyScheduler.Slot slot) {
+                released[0]++;
+            }
+
+            @Override
+            public void switchTo(StandbyScheduler.Slot slot) {
+            }
+        });
+        scheduler.setDepth(2);
+        scheduler.fill();
+        scheduler.setSuspended(true);
+        scheduler.fill();
+        assertEquals(0, scheduler.size());
+        assertEquals(2, released[0]);
+        assertFalse(scheduler.requestSwitch());
+        // 条目退回给播放列表,单播放器模式从下一个视频继续
+        assertEquals("1", cursor.next());
+    }
+}
@@ -0,0 +1,75 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PlaybackStateMachineTest {
+
+    @Test
+    public void illegalTransition_isRejectedAndCounted() throws Exception {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        assertFalse(machine.moveTo(PlaybackState.STATE_PLAYING));
+        assertEquals(PlaybackState.STATE_IDLE, machine.getCurrent());
+        assertEquals(1, machine.getRejectedCount());
+
+        assertTrue(machine.moveTo(PlaybackState.STATE_PREPARING));
+        machine.setTarget(PlaybackState.STATE_PLAYING);
+        assertEquals(PlaybackState.STATE_PREPARING, machine.getCurrent());
+        assertEquals(PlaybackState.STATE_PLAYING, machine.getTarget());
+        assertEquals(1, machine.getTransitionCount(PlaybackState.STATE_IDLE, PlaybackState.STATE_PREPARING));
+        assertEquals("IDLE->PREPARING=1", machine.dumpTransitions());
+    }
+
+    @Test
+    public void moveToAndTarget_setsTargetEvenWhenRejected() throws Exception {
+        PlaybackStateMachine machine = new PlaybackStateMachine();
+        assertFalse(machine.moveToAndTarget(PlaybackState.STATE_PLAYBACK_COMPLETED));
+        assertEquals(PlaybackState.STATE_IDLE, machine.getCurrent());
+        assertEquals(PlaybackState.STATE_PLAYBACK_COMPLETED, machine.getTarget());
+        assertTrue(machine.moveToAndTarget(PlaybackState.STATE_ERROR));
+        assertEquals("ERROR->ERROR", machine.toString());
+    }
+
+    @Test
+    public void compareAndMove_onlyOneThreadWins() throws Exception {
+        final PlaybackStateMachine machine = new PlaybackStateMachine();
+        final int rounds = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < rounds; i++) {
+                        machine.compareAndMove(PlaybackState.STATE_IDLE, PlaybackState.STATE_PREPARING);
+                        machine.compareAndMove(PlaybackState.STATE_PREPARING, PlaybackState.STATE_PREPARED);
+                        machine.compareAndMove(PlaybackState.STATE_PREPARED, PlaybackState.STATE_IDLE);
+                        machine.setTarget(PlaybackState.STATE_PLAYING);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long toPreparing = machine.getTransitionCount(PlaybackState.STATE_IDLE, PlaybackState.STATE_PREPARING);
+        long toPrepared = machine.getTransitionCount(PlaybackState.STATE_PREPARING, PlaybackState.STATE_PREPARED);
+        long toIdle = machine.getTransitionCount(PlaybackState.STATE_PREPARED, PlaybackState.STATE_IDLE);
+        // 每次成功的转换都从上一次转换的结果出发,计数最多相差一轮
+        assertTrue(toPreparing > 0);
+        assertTrue(toPreparing - toPrepared >= 0 && toPreparing - toPrepared <= 1);
+        assertTrue(toPrepared - toIdle >= 0 && toPrepared - toIdle <= 1);
+        assertEquals(0, machine.getRejectedCount());
+        assertEquals(PlaybackState.STATE_PLAYING, machine.getTarget());
+    }
+}
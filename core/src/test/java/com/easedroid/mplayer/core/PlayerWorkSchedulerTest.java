@@ -0,0 +1,128 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PlayerWorkSchedulerTest {
+
+    private PlayerWorkScheduler scheduler;
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final CountDownLatch running = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new PlayerWorkScheduler(1, 2, 1, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        scheduler.shutdown(1000);
+    }
+
+    @Test
+    public void saturatedReleaseQueue_runsOnCaller() throws Exception {
+        scheduler.release(blocker());
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+        final AtomicInteger released = new AtomicInteger();
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                released.incrementAndGet();
+            }
+        };
+        scheduler.release(release);
+        scheduler.release(release);
+        assertEquals(0, released.get());
+        assertEquals(2, scheduler.getReleaseLane().getQueueDepth());
+
+        final Thread caller = Thread.currentThread();
+        final boolean[] inline = new boolean[1];
+        scheduler.release(new Runnable() {
+            @Override
+            public void run() {
+                inline[0] = Thread.currentThread() == caller;
+            }
+        });
+        assertTrue(inline[0]);
+        assertEquals(1, scheduler.getReleaseLane().getInlineCount());
+        assertEquals(2, scheduler.getReleaseLane().getPeakQueueDepth());
+
+        gate.countDown();
+        assertTrue(scheduler.shutdown(1000));
+        assertEquals(2, released.get());
+        assertEquals(3, scheduler.getReleaseLane().wait.getCount());
+    }
+
+    @Test
+    public void saturatedPrepareQueue_dropsTasks() throws Exception {
+        assertTrue(scheduler.prepare(blocker()));
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+        assertTrue(scheduler.prepare(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+        assertFalse(scheduler.prepare(new Runnable() {
+            @Override
+            public void run() {
+                fail("dropped task must not run");
+            }
+        }));
+        assertEquals(1, scheduler.getPrepareLane().getRejectedCount());
+        assertEquals(0, scheduler.getPrepareLane().getInlineCount());
+    }
+
+    @Test
+    public void afterShutdown_releaseRunsInline() throws Exception {
+        assertTrue(scheduler.shutdown(1000));
+        final AtomicInteger released = new AtomicInteger();
+        scheduler.release(new Runnable() {
+            @Override
+            public void run() {
+                released.incrementAndGet();
+            }
+        });
+        assertEquals(1, released.get());
+        assertFalse(scheduler.prepare(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+    }
+
+    @Test
+    public void defaultPrepareExecutor_followsRecreatedDefault() throws Exception {
+        PlayerWorkScheduler.getDefault().shutdown(1000);
+        final CountDownLatch ran = new CountDownLatch(1);
+        PlayerWorkScheduler.getDefaultPrepareExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+        assertFalse(PlayerWorkScheduler.getDefault().isShutdown());
+    }
+
+    private Runnable blocker() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaylistCursorTest {
+
+    @Test
+    public void looping_wrapsAround() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"a", "b", "c"});
+        assertEquals("a", cursor.first());
+        assertEquals("b", cursor.next());
+        assertEquals("c", cursor.next());
+        assertEquals("a", cursor.next());
+        assertEquals("b", cursor.next());
+    }
+
+    @Test
+    public void notLooping_stopsAtEnd() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.setLooping(false);
+        cursor.reset(new String[]{"a", "b"});
+        assertEquals("a", cursor.first());
+        assertEquals("b", cursor.next());
+        assertNull(cursor.next());
+        assertNull(cursor.next());
+        cursor.rewind(1);
+        assertEquals("b", cursor.next());
+    }
+
+    @Test
+    public void rewind_servesEntriesAgain() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"a", "b", "c"});
+        cursor.first();
+        cursor.next();
+        cursor.next();
+        cursor.next();
+        cursor.rewind(2);
+        assertEquals("c", cursor.next());
+        assertEquals("a", cursor.next());
+    }
+
+    @Test
+    public void peek_doesNotMove() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"a", "b", "c"});
+        cursor.first();
+        assertEquals("b", cursor.peek(1));
+        assertEquals("a", cursor.peek(3));
+        assertEquals("b", cursor.next());
+        cursor.setLooping(false);
+        assertEquals("c", cursor.peek(1));
+        assertNull(cursor.peek(2));
+    }
+
+    @Test
+    public void seek_jumpsToIndexOrStartsOver() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"a", "b", "c"});
+        assertEquals("c", cursor.seek(2));
+        assertEquals("a", cursor.next());
+        assertEquals("a", cursor.seek(7));
+        assertEquals(0, cursor.getIndex());
+    }
+
+    @Test
+    public void empty_returnsNull() throws Exception {
+        PlaylistCursor cursor = new PlaylistCursor();
+        assertNull(cursor.first());
+        assertNull(cursor.next());
+        cursor.reset(new String[0]);
+        assertNull(cursor.next());
+    }
+}
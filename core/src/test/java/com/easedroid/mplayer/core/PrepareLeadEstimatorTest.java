@@ -0,0 +1,81 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PrepareLeadEstimatorTest {
+
+    @Test
+    public void lead_usesInitialUntilSampled() throws Exception {
+        PrepareLeadEstimator estimator = new PrepareLeadEstimator(1000, 200);
+        assertEquals(1200, estimator.getLeadMs("/sdcard/vod/a.mp4"));
+        assertEquals(1200, estimator.getLeadMs(null));
+    }
+
+    @Test
+    public void lead_convergesToAveragePlusDeviation() throws Exception {
+        PrepareLeadEstimator estimator = new PrepareLeadEstimator(1000, 200);
+        for (int i = 0; i < 200; i++) {
+            estimator.record("/sdcard/vod/" + i + ".mp4", 100);
+        }
+        // 偏差收敛到0
+        assertEquals(300, estimator.getLeadMs("/sdcard/vod/other.mp4"), 5);
+        assertEquals(200, estimator.getSampleCount("/sdcard/vod/x.mp4"));
+
+        for (int i = 0; i < 200; i++) {
+            estimator.record("/sdcard/vod/a.mp4", i % 2 == 0 ? 50 : 150);
+        }
+        long lead = estimator.getLeadMs("/sdcard/vod/a.mp4");
+        assertTrue("lead " + lead, lead > 300 && lead < 100 + 4 * 60 + 200);
+    }
+
+    @Test
+    public void sources_areLearnedSeparately() throws Exception {
+        PrepareLeadEstimator estimator = new PrepareLeadEstimator(1000, 0);
+        estimator.record("http://cdn.example.com/a.mp4", 2000);
+        estimator.record("/storage/usb0/a.mp4", 80);
+
+        // 第一个样本的偏差取耗时的一半
+
+        assertEquals(6000, estimator.getLeadMs("http://CDN.example.com/other/b.mp4"));
+        assertEquals(240, estimator.getLeadMs("file:///storage/usb0/c/d.mp4"));
+        assertEquals(1000, estimator.getLeadMs("/storage/sdcard1/a.mp4"));
+        assertEquals(1000, estimator.getLeadMs("http://other.example.com/a.mp4"));
+    }
+
+    @Test
+    public void delay_waitsUntilRemainingReachesLead() throws Exception {
+        PrepareLeadEstimator estimator = new PrepareLeadEstimator(1000, 0);
+        assertEquals(9000, estimator.getDelayMs("/sdcard/a.mp4", 10000));
+        assertEquals(1000, estimator.getLastLeadMs());
+        assertEquals(0, estimator.getDelayMs("/sdcard/a.mp4", 500));
+        // 时长未知时立即准备
+        assertEquals(0, estimator.getDelayMs("/sdcard/a.mp4", -1));
+    }
+
+    @Test
+    public void delay_coversEveryEntryOfTheFill() throws Exception {
+        PrepareLeadEstimator estimator = new PrepareLeadEstimator(1000, 0);
+        estimator.record("/storage/usb0/a.mp4", 80);
+        PlaylistCursor cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"/storage/usb0/now.mp4", "/storage/usb0/b.mp4", "http://cdn.example.com/c.mp4"});
+        cursor.first();
+
+        assertEquals(240, estimator.getLeadMs(cursor, 1));
+        // 第二个条目的来源还没有样本,按初始值
+        assertEquals(1000, estimator.getLeadMs(cursor, 2));
+        assertEquals(9000, estimator.getDelayMs(cursor, 3, 10000));
+        assertEquals(1000, estimator.getLastLeadMs());
+    }
+
+    @Test
+    public void recordSwitch_countsLateSwitches() throws Exception {
+        PrepareLeadEstimator estimator = new PrepareLeadEstimator();
+        estimator.recordSwitch(false);
+        estimator.recordSwitch(true);
+        estimator.recordSwitch(false);
+        assertEquals(3, estimator.getSwitchCount());
+        assertEquals(1, estimator.getLateCount());
+    }
+}
@@ -0,0 +1,167 @@
+package com.easedroid.mplayer.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StandbySchedulerTest {
+
+    private PlaylistCursor cursor;
+    private StandbyScheduler scheduler;
+    private final List<StubEngine> prepared = new ArrayList<>();
+    private final List<PlayerEngine> released = new ArrayList<>();
+    private final List<String> switched = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        cursor = new PlaylistCursor();
+        cursor.reset(new String[]{"0", "1", "2", "3"});
+        cursor.first();
+        scheduler = new StandbyScheduler(cursor, new StandbyScheduler.Host() {
+            @Override
+            public PlayerEngine prepareStandby(StandbyScheduler.Slot slot) {
+                StubEngine engine = new StubEngine(slot.getPath());
+                prepared.add(engine);
+                return engine;
+            }
+
+            @Override
+            public void onStandbyPrepared(StandbyScheduler.Slot slot) {
+            }
+
+            @Override
+            public void releaseStandby(StandbyScheduler.Slot slot) {
+                released.add(slot.getEngine());
+            }
+
+            @Override
+            public void switchTo(StandbyScheduler.Slot slot) {
+                switched.add(slot.getPath());
+            }
+        });
+    }
+
+    @Test
+    public void fill_preparesDepthEntriesInOrder() throws Exception {
+        scheduler.setDepth(3);
+        scheduler.fill();
+        assertEquals(3, scheduler.size());
+        assertEquals("1", prepared.get(0).path);
+        assertEquals("2", prepared.get(1).path);
+        assertEquals("3", prepared.get(2).path);
+    }
+
+    @Test
+    public void switch_waitsForHeadOfWindow() throws Exception {
+        scheduler.setDepth(2);
+        scheduler.fill();
+        scheduler.onPrepared(prepared.get(1));
+
+        assertFalse(scheduler.requestSwitch());
+        assertTrue(scheduler.isSwitchPending());
+        assertEquals(1, scheduler.getLastReadyCount());
+
+        scheduler.onPrepared(prepared.get(0));
+        assertEquals(1, switched.size());
+        assertEquals("1", switched.get(0));
+        assertFalse(scheduler.isSwitchPending());
+    }
+
+    @Test
+    public void error_dropsSlotAndRefills() throws Exception {
+        scheduler.setDepth(2);
+        scheduler.fill();
+        assertTrue(scheduler.onError(prepared.get(0)));
+        assertEquals(prepared.get(0), released.get(0));
+        assertEquals(2, scheduler.size());
+        assertEquals("3", prepared.get(2).path);
+    }
+
+    @Test
+    public void errorWhileSwitchPending_switchesToReplacement() throws Exception {
+        scheduler.setDepth(1);
+        scheduler.fill();
+        assertFalse(scheduler.requestSwitch());
+        assertTrue(scheduler.isSwitchPending());
+
+        assertTrue(scheduler.onError(prepared.get(0)));
+        assertEquals(1, scheduler.size());
+        assertTrue(scheduler.isSwitchPending());
+        assertEquals("2", prepared.get(1).path);
+
+        scheduler.onPrepared(prepared.get(1));
+        assertEquals(1, switched.size());
+        assertEquals("2", switched.get(0));
+        assertFalse(scheduler.isSwitchPending());
+    }
+
+    @Test
+    public void shrinkingDepth_rewindsPlaylist() throws Exception {
+        scheduler.setDepth(3);
+        scheduler.fill();
+        scheduler.setDepth(1);
+        assertEquals(1, scheduler.size());
+        assertEquals(2, released.size());
+        assertEquals("2", cursor.next());
+    }
+
+    static class StubEngine implements PlayerEngine {
+        final String path;
+
+        StubEngine(String path) {
+            this.path = path;
+        }
+
+        public void setListener(Listener listener) {
+        }
+
+        public void setDataSource(String path, Map<String, String> headers) {
+        }
+
+        public void setDisplay(Object display) {
+        }
+
+        public void prepareAsync() {
+        }
+
+        public void start() {
+        }
+
+        public void pause() {
+        }
+
+        public void stop() {
+        }
+
+        public void seekTo(int millisSec) {
+        }
+
+        public boolean isPlaying() {
+            return false;
+        }
+
+        public int getDuration() {
+            return 0;
+        }
+
+        public int getCurrentPosition() {
+            return 0;
+        }
+
+        public int getVideoWidth() {
+            return 0;
+        }
+
+        public int getVideoHeight() {
+            return 0;
+        }
+
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.easedroid.mplayer.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PositionJournalTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("position", ".journal");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void latestRecord_survivesReopen() throws Exception {
+        PositionJournal journal = new PositionJournal(file, 8);
+        assertNull(journal.latest());
+        // 超过容量,循环覆盖最早的记录
+        for (int i = 0; i < 20; i++) {
+            journal.record("lobby", i, i * 1000);
+        }
+        journal.close();
+
+        journal = new PositionJournal(file, 8);
+        PositionJournal.Entry entry = journal.latest("lobby");
+        assertEquals(19, entry.index);
+        assertEquals(19000, entry.positionMs);
+        assertEquals(20, entry.sequence);
+        assertNull(journal.latest("foyer"));
+        journal.record("lobby", 20, 500);
+        assertEquals(21, journal.latest().sequence);
+        journal.close();
+    }
+
+    @Test
+    public void record_leavesForceToSyncExecutor() throws Exception {
+        PositionJournal journal = new PositionJournal(file, 64);
+        final List<Runnable> syncs = new ArrayList<>();
+        journal.setSyncExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                syncs.add(command);
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            journal.record("lobby", i, 0);
+        }
+        // 每8条记录交给Executor一次,record()本身不刷盘
+        assertEquals(2, syncs.size());
+        syncs.get(0).run();
+        journal.close();
+        // 关闭之后的刷盘任务被忽略
+        syncs.get(1).run();
+    }
+
+    @Test
+    public void latestPerPlaylist_survivesOtherPlaylistWrites() throws Exception {
+        PositionJournal journal = new PositionJournal(file, 8);
+        journal.record("lobby", 2, 3000);
+        journal.record("foyer", 5, 100);
+        journal.record("foyer", 6, 200);
+        assertEquals(2, journal.latest("lobby").index);
+        journal.close();
+        // 关闭之后的记录被忽略
+        journal.record("lobby", 9, 0);
+
+        journal = new PositionJournal(file, 8);
+        assertEquals(2, journal.latest("lobby").index);
+        assertEquals(3000, journal.latest("lobby").positionMs);
+        assertEquals(6, journal.latest("foyer").index);
+        assertEquals(3, journal.latest().sequence);
+        journal.close();
+    }
+
+    @Test
+    public void tornRecord_fallsBackToPrevious() throws Exception {
+        PositionJournal journal = new PositionJournal(file, 8);
+        journal.record("lobby", 3, 1200);
+        journal.record("lobby", 4, 2400);
+        journal.close();
+
+        // 破坏最后一条记录(序号2)的位置字段,模拟写到一半时进程被杀
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(2 * PositionJournal.RECORD_SIZE + 20);
+        raf.writeInt(9999);
+        raf.close();
+
+        journal = new PositionJournal(file, 8);
+        PositionJournal.Entry entry = journal.latest("lobby");
+        assertEquals(3, entry.index);
+        assertEquals(1200, entry.positionMs);
+        journal.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.easedroid.mplayer.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadPrefetcherTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("clip", ".mp4");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void moovAtEnd_isWarmedFirst() throws Exception {
+        // ftyp(24) + mdat(100000) + moov(2000)
+        writeBoxes(box("ftyp", 24), box("mdat", 100000), box("moov", 2000));
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher();
+        ReadAheadPrefetcher.Result result = prefetcher.warm(file, 10000);
+        assertEquals(24 + 100000, result.moovOffset);
+        assertEquals(10000, result.bytesWarmed);
+        assertEquals(10000, prefetcher.getTotalBytesWarmed());
+        assertEquals(1, prefetcher.getWarmedCount());
+    }
+
+    @Test
+    public void moovAtHead_readsHeadOnce() throws Exception {
+        writeBoxes(box("ftyp", 24), box("moov", 2000), box("mdat", 100000));
+        ReadAheadPrefetcher.Result result = new ReadAheadPrefetcher().warm(file, 50000);
+        assertEquals(24, result.moovOffset);
+        assertEquals(50000, result.bytesWarmed);
+    }
+
+    @Test
+    public void smallFile_isReadCompletely() throws Exception {
+        writeBoxes(box("ftyp", 24), box("mdat", 500));
+        ReadAheadPrefetcher.Result result = new ReadAheadPrefetcher().warm(file, 1 << 20);
+        assertEquals(-1, result.moovOffset);
+        assertEquals(524, result.bytesWarmed);
+    }
+
+    @Test
+    public void remotePaths_areIgnored() throws Exception {
+        assertNull(ReadAheadPrefetcher.toLocalFile("http://example.com/a.mp4"));
+        assertNull(ReadAheadPrefetcher.toLocalFile("/no/such/file.mp4"));
+        assertNotNull(ReadAheadPrefetcher.toLocalFile("file://" + file.getPath()));
+    }
+
+    private static byte[] box(String type, int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size);
+        buffer.put(type.getBytes());
+        return buffer.array();
+    }
+
+    private void writeBoxes(byte[]... boxes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (byte[] box : boxes) {
+                out.write(box);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
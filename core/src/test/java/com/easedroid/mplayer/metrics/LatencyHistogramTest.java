@@ -0,0 +1,60 @@
+package com.easedroid.mplayer.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptySnapshot_isZero() throws Exception {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram("empty").snapshot();
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.p50Us);
+        assertEquals(0, snapshot.maxUs);
+    }
+
+    @Test
+    public void percentiles_withinBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertEquals(1000000, snapshot.maxUs);
+        assertEquals(500000, snapshot.p50Us, 500000 * 0.04);
+        assertEquals(950000, snapshot.p95Us, 950000 * 0.04);
+        assertEquals(990000, snapshot.p99Us, 990000 * 0.04);
+        assertTrue(snapshot.p99Us <= snapshot.maxUs);
+    }
+
+    @Test
+    public void bucketIndex_isMonotonicAndCoversValue() throws Exception {
+        int last = -1;
+        for (long v = 0; v < (1L << 20); v += 7) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(index >= last);
+            assertTrue(LatencyHistogram.highestEquivalentValue(index) >= v);
+            last = index;
+        }
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("clamp");
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.count);
+        assertEquals((1L << 32) - 1, snapshot.maxUs);
+    }
+
+    @Test
+    public void reset_clearsRecords() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("reset");
+        histogram.recordNanos(5000000);
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count);
+    }
+}
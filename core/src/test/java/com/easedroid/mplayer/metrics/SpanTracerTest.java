@@ -0,0 +1,80 @@
+package com.easedroid.mplayer.metrics;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class SpanTracerTest {
+
+    private static String export(SpanTracer tracer) throws Exception {
+        StringWriter out = new StringWriter();
+        tracer.writeChromeTrace(out);
+        return out.toString();
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void disabled_recordsNothing() throws Exception {
+        SpanTracer tracer = new SpanTracer();
+        tracer.begin("openVideo");
+        tracer.end();
+        assertEquals(0, tracer.getEventCount());
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[]}", export(tracer));
+    }
+
+    @Test
+    public void spans_exportAsTraceEvents() throws Exception {
+        final SpanTracer tracer = new SpanTracer();
+        tracer.setEnabled(true);
+        tracer.begin("openVideo", "/sdcard/a \"b\".mp4");
+        tracer.end();
+        final long id = tracer.newAsyncId();
+        tracer.beginAsync("prepare", id);
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tracer.endAsync("prepare", id);
+            }
+        }, "worker");
+        other.start();
+        other.join();
+        String json = export(tracer);
+        assertEquals(4, tracer.getEventCount());
+        assertTrue(json, json.contains("\"ph\":\"B\""));
+        assertTrue(json, json.contains("\"name\":\"openVideo\",\"args\":{\"detail\":\"/sdcard/a \\\"b\\\".mp4\"}"));
+        assertEquals(1, occurrences(json, "\"ph\":\"b\""));
+        assertEquals(1, occurrences(json, "\"ph\":\"e\""));
+        assertEquals(2, occurrences(json, "\"id\":\"0x" + Long.toHexString(id) + "\""));
+        // 每个线程一个名字
+        assertTrue(json, json.contains("\"args\":{\"name\":\"worker\"}"));
+        assertEquals(2, occurrences(json, "\"thread_name\""));
+    }
+
+    @Test
+    public void overwrittenBegin_dropsUnmatchedEnd() throws Exception {
+        SpanTracer tracer = new SpanTracer(16);
+        tracer.setEnabled(true);
+        tracer.begin("outer");
+        for (int i = 0; i < 20; i++) {
+            tracer.instant("tick", null);
+        }
+        tracer.end();
+        assertEquals(16, tracer.getEventCount());
+        String json = export(tracer);
+        assertEquals(0, occurrences(json, "\"ph\":\"B\""));
+        assertEquals(0, occurrences(json, "\"ph\":\"E\""));
+        assertEquals(15, occurrences(json, "\"ph\":\"i\""));
+
+        tracer.clear();
+        assertEquals(0, tracer.getEventCount());
+    }
+}
@@ -0,0 +1,248 @@
+package com.easedroid.mplayer.mp4;
+
+import com.easedroid.mplayer.cache.ContentStore;
+import com.easedroid.mplayer.core.ArrayPlaylistSource;
+import com.easedroid.mplayer.core.PlaylistSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.box;
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.fullBox;
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.ints;
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.longs;
+import static org.junit.Assert.*;
+
+public class FaststartRewriterTest {
+
+    private static final int FTYP_SIZE = 12;
+    private static final int PAYLOAD = FTYP_SIZE + 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rewrite_movesMoovBeforeMdatAndFixesChunkOffsets() throws Exception {
+        File file = writeMoovAtEnd();
+        byte[] before = Files.readAllBytes(file.toPath());
+        assertTrue(FaststartRewriter.needsFaststart(file));
+
+        FaststartRewriter.Result result = new FaststartRewriter().rewrite(file);
+        assertEquals(FaststartRewriter.STATUS_REWRITTEN, result.status);
+        assertFalse(FaststartRewriter.needsFaststart(file));
+        assertFalse(new File(file.getPath() + ".faststart.tmp").exists());
+
+        byte[] after = Files.readAllBytes(file.toPath());
+        assertEquals(before.length, after.length);
+        long[] offsets = chunkOffsets(file);
+        assertEquals(3, offsets.length);
+        long[] original = {PAYLOAD, PAYLOAD + 40, PAYLOAD + 60};
+        for (int i = 0; i < offsets.length; i++) {
+            assertEquals(original[i] + result.moovSize, offsets[i]);
+            assertArrayEquals(Arrays.copyOfRange(before, (int) original[i], (int) original[i] + 8),
+                    Arrays.copyOfRange(after, (int) offsets[i], (int) offsets[i] + 8));
+        }
+        // 样本表的其他内容不变
+        assertEquals(2, KeyframeIndex.parse(file).size());
+    }
+
+    @Test
+    public void rewrite_skipsFilesThatAreAlreadyFaststart() throws Exception {
+        File file = writeMoovAtEnd();
+        new FaststartRewriter().rewrite(file);
+        long length = file.length();
+        FaststartRewriter.Result again = new FaststartRewriter().rewrite(file);
+        assertEquals(FaststartRewriter.STATUS_ALREADY_FASTSTART, again.status);
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void rewrite_refusesMoovLargerThanLimit() throws Exception {
+        File file = writeMoovAtEnd();
+        byte[] before = Files.readAllBytes(file.toPath());
+        FaststartRewriter.Result result = new FaststartRewriter(64).rewrite(file);
+        assertEquals(FaststartRewriter.STATUS_UNSUPPORTED, result.status);
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void job_reportsRewrittenAndSkippedFiles() throws Exception {
+        File moovAtEnd = writeMoovAtEnd();
+        File text = folder.newFile("list.txt");
+        FaststartJob job = new FaststartJob();
+        try {
+            FaststartJob.Report report = job.run(Arrays.asList(moovAtEnd.getPath(), text.getPath(),
+                    "http://example.com/a.mp4", moovAtEnd.getPath()), null);
+            assertEquals(1, report.rewritten);
+            assertEquals(PAYLOAD + 100, report.skippedBytesSaved);
+            assertEquals(1, report.alreadyFaststart);
+            // 文本文件和网络地址
+            assertEquals(2, report.skipped);
+            assertEquals(3, report.scanned);
+            assertFalse(report.cancelled);
+        } finally {
+            job.shutdown();
+        }
+    }
+
+    @Test
+    public void submit_readsPlaylistOnJobThread() throws Exception {
+        final File moovAtEnd = writeMoovAtEnd();
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean touchedByCaller = new AtomicBoolean();
+        PlaylistSource source = new PlaylistSource() {
+            @Override
+            public int size() {
+                touchedByCaller.compareAndSet(false, Thread.currentThread() == caller);
+                return 1;
+            }
+
+            @Override
+            public String get(int index) {
+                touchedByCaller.compareAndSet(false, Thread.currentThread() == caller);
+                return moovAtEnd.getPath();
+            }
+        };
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<FaststartJob.Report> report = new AtomicReference<>();
+        FaststartJob job = new FaststartJob();
+        try {
+            job.submit(source, new FaststartJob.Listener() {
+                @Override
+                public void onFile(FaststartRewriter.Result result) {
+                }
+
+                @Override
+                public void onFinished(FaststartJob.Report result) {
+                    report.set(result);
+                    finished.countDown();
+                }
+            });
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            assertFalse(touchedByCaller.get());
+            assertEquals(1, report.get().rewritten);
+        } finally {
+            job.shutdown();
+        }
+    }
+
+    @Test
+    public void job_leavesContentStoreObjectsUntouched() throws Exception {
+        File moovAtEnd = writeMoovAtEnd();
+        ContentStore store = new ContentStore(folder.newFolder("store"));
+        File object = store.add(moovAtEnd.getPath(), moovAtEnd, false);
+        byte[] before = Files.readAllBytes(object.toPath());
+        PlaylistSource mapped = store.map(new ArrayPlaylistSource(new String[]{moovAtEnd.getPath()}));
+        FaststartJob job = new FaststartJob();
+        try {
+            job.setExcludedDirectory(store.getDirectory());
+            FaststartJob.Report report = job.run(mapped, null);
+            assertEquals(0, report.rewritten);
+            assertEquals(1, report.skipped);
+            // 文件名仍然是内容的摘要
+            assertArrayEquals(before, Files.readAllBytes(object.toPath()));
+            assertEquals(object, store.get(moovAtEnd.getPath()));
+
+            // 加入存储之前改写,存储按改写后的内容计算摘要
+            job.setExcludedDirectory(null);
+            assertEquals(1, job.run(Arrays.asList(moovAtEnd.getPath()), null).rewritten);
+            store.release(moovAtEnd.getPath());
+            File rewritten = store.add(moovAtEnd.getPath(), moovAtEnd, false);
+            assertNotEquals(object, rewritten);
+            assertFalse(FaststartRewriter.needsFaststart(rewritten));
+        } finally {
+            job.shutdown();
+        }
+    }
+
+    @Test
+    public void shiftOffsets_rejectsTruncatedBoxes() throws Exception {
+        // size为1的box没有64位长度字段
+        ByteBuffer largeSize = ByteBuffer.wrap(ints(1, new int[]{Mp4BoxReader.TYPE_STCO}));
+        assertFalse(FaststartRewriter.shiftOffsets(largeSize, 0, 8, 0, 100, 10));
+        // stco只有version/flags,没有条目数
+        ByteBuffer noCount = ByteBuffer.wrap(ints(12, new int[]{Mp4BoxReader.TYPE_STCO, 0}));
+        assertFalse(FaststartRewriter.shiftOffsets(noCount, 0, 12, 0, 100, 10));
+    }
+
+    @Test
+    public void job_countsRuntimeExceptionAsFailure() throws Exception {
+        File file = writeMoovAtEnd();
+        FaststartJob job = new FaststartJob(new FaststartRewriter() {
+            @Override
+            public Result rewrite(File file) {
+                throw new IndexOutOfBoundsException();
+            }
+        });
+        try {
+            FaststartJob.Report report = job.run(Arrays.asList(file.getPath(), file.getPath()), null);
+            assertEquals(2, report.failed);
+        } finally {
+            job.shutdown();
+        }
+    }
+
+    /**
+     * ftyp mdat moov free,视频轨道用stco,音频轨道用co64
+     */
+    private File writeMoovAtEnd() throws IOException {
+        byte[] payload = new byte[100];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        byte[] videoStbl = box("stbl",
+                fullBox("stts", ints(1, new int[]{2, 40})),
+                fullBox("stss", ints(2, new int[]{1, 2})),
+                fullBox("stco", ints(2, new int[]{PAYLOAD, PAYLOAD + 40})));
+        byte[] video = box("trak", box("mdia",
+                fullBox("mdhd", ints(0, new int[]{0, 1000, 0, 0})),
+                fullBox("hdlr", ints(0, new int[]{Mp4BoxReader.HANDLER_VIDE, 0, 0, 0})),
+                box("minf", videoStbl)));
+        byte[] audio = box("trak", box("mdia",
+                fullBox("hdlr", ints(0, new int[]{Mp4BoxReader.fourcc("soun"), 0, 0, 0})),
+                box("minf", box("stbl", fullBox("co64", longs(1, new long[]{PAYLOAD + 60}))))));
+
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(box("ftyp", "isom".getBytes("US-ASCII")));
+        out.write(box("mdat", payload));
+        out.write(box("moov", video, audio));
+        out.write(box("free", new byte[8]));
+        out.close();
+        return file;
+    }
+
+    private static long[] chunkOffsets(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            Mp4BoxReader reader = new Mp4BoxReader(raf.getChannel());
+            Mp4BoxReader.Box moov = reader.find(0, raf.length(), Mp4BoxReader.TYPE_MOOV);
+            List<Mp4BoxReader.Box> traks = reader.findAll(moov, Mp4BoxReader.TYPE_TRAK);
+            Mp4BoxReader.Box stco = reader.find(reader.path(traks.get(0), Mp4BoxReader.TYPE_MDIA,
+                    Mp4BoxReader.TYPE_MINF, Mp4BoxReader.TYPE_STBL), Mp4BoxReader.TYPE_STCO);
+            Mp4BoxReader.Box co64 = reader.find(reader.path(traks.get(1), Mp4BoxReader.TYPE_MDIA,
+                    Mp4BoxReader.TYPE_MINF, Mp4BoxReader.TYPE_STBL), Mp4BoxReader.TYPE_CO64);
+            return new long[]{
+                    reader.readInt(stco.bodyOffset() + 8) & 0xffffffffL,
+                    reader.readInt(stco.bodyOffset() + 12) & 0xffffffffL,
+                    reader.readLong(co64.bodyOffset() + 8)
+            };
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.easedroid.mplayer.mp4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.box;
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.fullBox;
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.ints;
+import static org.junit.Assert.*;
+
+public class KeyframeIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parse_readsSyncSampleTimes() throws Exception {
+        // timescale 1000, 前10帧每帧40ms,之后每帧20ms;关键帧为第1、6、11、16帧
+        File file = writeMp4(new int[]{10, 40, 10, 20}, new int[]{1, 6, 11, 16});
+        KeyframeIndex index = KeyframeIndex.parse(file);
+        assertNotNull(index);
+        assertEquals(4, index.size());
+        assertEquals(0, index.timeAt(0));
+        assertEquals(200, index.timeAt(1));
+        assertEquals(400, index.timeAt(2));
+        assertEquals(500, index.timeAt(3));
+    }
+
+    @Test
+    public void snap_followsSeekMode() throws Exception {
+        KeyframeIndex index = KeyframeIndex.parse(writeMp4(new int[]{10, 40, 10, 20}, new int[]{1, 6, 11, 16}));
+        assertEquals(290, index.snap(290, KeyframeIndex.SEEK_EXACT));
+        assertEquals(200, index.snap(290, KeyframeIndex.SEEK_PREVIOUS_SYNC));
+        assertEquals(400, index.snap(290, KeyframeIndex.SEEK_NEXT_SYNC));
+        assertEquals(200, index.snap(290, KeyframeIndex.SEEK_CLOSEST_SYNC));
+        assertEquals(400, index.snap(310, KeyframeIndex.SEEK_CLOSEST_SYNC));
+        assertEquals(400, index.snap(400, KeyframeIndex.SEEK_NEXT_SYNC));
+        assertEquals(500, index.snap(900, KeyframeIndex.SEEK_NEXT_SYNC));
+        assertEquals(0, index.snap(-5, KeyframeIndex.SEEK_PREVIOUS_SYNC));
+    }
+
+    @Test
+    public void parse_withoutStssMeansEverySampleIsSync() throws Exception {
+        KeyframeIndex index = KeyframeIndex.parse(writeMp4(new int[]{100, 33}, null));
+        assertTrue(index.isAllSync());
+        assertEquals(1234, index.snap(1234, KeyframeIndex.SEEK_PREVIOUS_SYNC));
+    }
+
+    @Test
+    public void parse_returnsNullForNonMp4() throws Exception {
+        File file = folder.newFile("plain.txt");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("#EXTM3U\n/sdcard/a.mp4\n".getBytes("UTF-8"));
+        out.close();
+        assertNull(KeyframeIndex.parse(file));
+    }
+
+    @Test
+    public void parse_capsSyncCountAtBoxSize() throws Exception {
+        File file = writeMp4(new int[]{10, 40}, new int[]{1, 6}, Integer.MAX_VALUE);
+        KeyframeIndex index = KeyframeIndex.parse(file);
+        assertEquals(2, index.size());
+        assertEquals(200, index.timeAt(1));
+    }
+
+    @Test
+    public void cache_roundTripsThroughDisk() throws Exception {
+        File video = writeMp4(new int[]{10, 40, 10, 20}, new int[]{1, 6, 11, 16});
+        File dir = folder.newFolder("keyframes");
+        KeyframeIndexCache cache = new KeyframeIndexCache(dir, 4);
+        assertNull(cache.peek(video));
+        assertEquals(4, cache.get(video).size());
+        assertEquals(1, cache.getParseCount());
+        assertNotNull(cache.peek(video));
+
+        KeyframeIndexCache reopened = new KeyframeIndexCache(dir, 4);
+        KeyframeIndex index = reopened.get(video);
+        assertEquals(0, reopened.getParseCount());
+        assertEquals(1, reopened.getDiskHits());
+        assertEquals(200, index.snap(250, KeyframeIndex.SEEK_PREVIOUS_SYNC));
+
+        // 文件变化后重新解析
+        assertTrue(video.setLastModified(video.lastModified() - 10000));
+        assertNull(reopened.peek(video));
+        reopened.get(video);
+        assertEquals(1, reopened.getParseCount());
+    }
+
+    /**
+     * @param stts  成对的 sample_count, sample_delta
+     * @param stss  关键帧样本编号,为null时不写stss
+     */
+    private File writeMp4(int[] stts, int[] stss) throws IOException {
+        return writeMp4(stts, stss, stss != null ? stss.length : 0);
+    }
+
+    /**
+     * @param stssCount 写入stss的条目数,用于模拟损坏的文件
+     */
+    private File writeMp4(int[] stts, int[] stss, int stssCount) throws IOException {
+        byte[] sttsBox = fullBox("stts", ints(stts.length / 2, stts));
+        byte[] stbl = stss == null ? box("stbl", sttsBox)
+                : box("stbl", sttsBox, fullBox("stss", ints(stssCount, stss)));
+        byte[] hdlr = fullBox("hdlr", ints(0, new int[]{Mp4BoxReader.HANDLER_VIDE, 0, 0, 0}));
+        // creation_time modification_time timescale duration language
+        byte[] mdhd = fullBox("mdhd", ints(0, new int[]{0, 1000, 0, 0}));
+        byte[] mdia = box("mdia", mdhd, hdlr, box("minf", stbl));
+        byte[] soundHdlr = fullBox("hdlr", ints(0, new int[]{Mp4BoxReader.fourcc("soun"), 0, 0, 0}));
+        byte[] moov = box("moov", box("trak", box("mdia", soundHdlr)), box("trak", mdia));
+
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(box("ftyp", "isom".getBytes("US-ASCII")));
+        out.write(box("mdat", new byte[64]));
+        out.write(moov);
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,144 @@
+package com.easedroid.mplayer.mp4;
+
+import com.easedroid.mplayer.core.PlaylistSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.box;
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.fullBox;
+import static com.easedroid.mplayer.mp4.Mp4TestFiles.ints;
+import static org.junit.Assert.*;
+
+public class MediaInfoIndexTest {
+
+    private static final int ONE = 0x10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parse_readsDurationSizeRotationAndCodec() throws Exception {
+        MediaInfo info = MediaInfo.parse(writeMp4(12500, 1920, 1080, new int[]{0, ONE, -ONE, 0}));
+        assertEquals(12500, info.durationMs);
+        assertEquals(1920, info.width);
+        assertEquals(1080, info.height);
+        assertEquals(90, info.rotation);
+        assertEquals(1080, info.getDisplayWidth());
+        assertEquals("avc1", info.getCodecName());
+        assertEquals(180, MediaInfo.rotationOf(-ONE, 0, 0, -ONE));
+        assertEquals(270, MediaInfo.rotationOf(0, -ONE, ONE, 0));
+        assertEquals(0, MediaInfo.rotationOf(ONE, 0, 0, ONE));
+    }
+
+    @Test
+    public void index_parsesInParallelAndPersists() throws Exception {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            paths.add(writeMp4(1000 * (i + 1), 640, 360, new int[]{ONE, 0, 0, ONE}).getPath());
+        }
+        paths.add(folder.newFile("not-a-video.txt").getPath());
+        paths.add("http://example.com/remote.mp4");
+        File indexFile = new File(folder.getRoot(), "media.index");
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            MediaInfoIndex index = new MediaInfoIndex(indexFile, 4);
+            MediaInfoIndex.Stats stats = index.index(paths, workers);
+            assertEquals(13, stats.total);
+            assertEquals(12, stats.parsed);
+            assertEquals(1, stats.failed);
+            assertEquals(7000, index.get(paths.get(6)).durationMs);
+
+            MediaInfoIndex reloaded = new MediaInfoIndex(indexFile, 4);
+            assertEquals(12, reloaded.size());
+            assertEquals(360, reloaded.peek(paths.get(0)).height);
+
+            // 修改过的文件重新解析,其他条目直接使用索引
+            File changed = new File(paths.get(3));
+            assertTrue(changed.setLastModified(changed.lastModified() - 10000));
+            assertNull(reloaded.get(paths.get(3)));
+            stats = reloaded.index(paths, workers);
+            assertEquals(11, stats.cached);
+            assertEquals(1, stats.parsed);
+            assertNotNull(reloaded.get(paths.get(3)));
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void indexAsync_readsSourceInBackgroundAndStopsAfterShutdown() throws Exception {
+        final String path = writeMp4(3000, 640, 360, new int[]{ONE, 0, 0, ONE}).getPath();
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean touchedByCaller = new AtomicBoolean();
+        final AtomicInteger reads = new AtomicInteger();
+        PlaylistSource source = new PlaylistSource() {
+            @Override
+            public int size() {
+                touchedByCaller.compareAndSet(false, Thread.currentThread() == caller);
+                reads.incrementAndGet();
+                return 1;
+            }
+
+            @Override
+            public String get(int index) {
+                touchedByCaller.compareAndSet(false, Thread.currentThread() == caller);
+                return path;
+            }
+        };
+        MediaInfoIndex index = new MediaInfoIndex(null, 2);
+        final CountDownLatch indexed = new CountDownLatch(1);
+        index.indexAsync(source, new MediaInfoIndex.Listener() {
+            @Override
+            public void onIndexed(MediaInfoIndex.Stats stats) {
+                indexed.countDown();
+            }
+        });
+        assertTrue(indexed.await(5, TimeUnit.SECONDS));
+        assertFalse(touchedByCaller.get());
+        assertEquals(3000, index.get(path).durationMs);
+
+        // 关闭之后不再创建线程池
+        index.shutdown();
+        int before = reads.get();
+        index.indexAsync(source, null);
+        Thread.sleep(50);
+        assertEquals(before, reads.get());
+    }
+
+    /**
+     * @param matrix 旋转矩阵的 a b c d
+     */
+    private File writeMp4(int durationMs, int width, int height, int[] matrix) throws IOException {
+        // creation modification timescale duration
+        byte[] mvhd = fullBox("mvhd", ints(0, new int[]{0, 1000, durationMs}));
+        // creation modification track_ID reserved duration reserved(2) layer/group volume/reserved 矩阵(9) 宽 高
+        byte[] tkhd = fullBox("tkhd", ints(0, new int[]{0, 1, 0, durationMs, 0, 0, 0, 0,
+                matrix[0], matrix[1], 0, matrix[2], matrix[3], 0, 0, 0, 0x40000000,
+                width << 16, height << 16}));
+        byte[] stsd = fullBox("stsd", ints(1, new int[]{16, Mp4BoxReader.fourcc("avc1"), 0, 0}));
+        byte[] mdia = box("mdia",
+                fullBox("hdlr", ints(0, new int[]{Mp4BoxReader.HANDLER_VIDE, 0, 0, 0})),
+                box("minf", box("stbl", stsd)));
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(box("ftyp", "isom".getBytes("US-ASCII")));
+        out.write(box("moov", mvhd, box("trak", tkhd, mdia)));
+        out.write(box("mdat", new byte[16]));
+        out.close();
+        return file;
+    }
+}
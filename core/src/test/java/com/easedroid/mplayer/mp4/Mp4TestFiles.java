@@ -0,0 +1,54 @@
+package com.easedroid.mplayer.mp4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 测试用的MP4 box拼装方法
+ */
+final class Mp4TestFiles {
+
+    private Mp4TestFiles() {
+    }
+
+    static byte[] ints(int first, int[] rest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(first);
+        for (int value : rest) {
+            out.writeInt(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] longs(int first, long[] rest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(first);
+        for (long value : rest) {
+            out.writeLong(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] fullBox(String type, byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(0);
+        bytes.write(body);
+        return box(type, bytes.toByteArray());
+    }
+
+    static byte[] box(String type, byte[]... children) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            body.write(child);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(8 + body.size());
+        out.writeInt(Mp4BoxReader.fourcc(type));
+        body.writeTo(out);
+        return bytes.toByteArray();
+    }
+}
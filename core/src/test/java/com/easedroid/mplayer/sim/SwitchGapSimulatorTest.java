@@ -0,0 +1,92 @@
+package com.easedroid.mplayer.sim;
+
+import com.easedroid.mplayer.core.PrepareLeadEstimator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SwitchGapSimulatorTest {
+
+    private static FakePlayerEngine.Profile flakyProfile() {
+        FakePlayerEngine.Profile profile = new FakePlayerEngine.Profile();
+        profile.setPrepareLatency(Distribution.withOutliers(
+                Distribution.logNormal(150000, 0.6), Distribution.uniform(2000000, 6000000), 0.01));
+        profile.setPrepareFailureRate(0.01);
+        profile.setPlaybackFailureRate(0.005);
+        return profile;
+    }
+
+    @Test
+    public void run_tenThousandClipsIsDeterministic() throws Exception {
+        SwitchGapSimulator.Report first = new SwitchGapSimulator(flakyProfile(), 2, 42).run(10000);
+        SwitchGapSimulator.Report second = new SwitchGapSimulator(flakyProfile(), 2, 42).run(10000);
+
+        assertEquals(10000 - first.prepareFailures, first.played);
+        assertTrue(first.prepareFailures > 0);
+        assertTrue(first.playbackFailures > 0);
+        assertEquals(first.played - 1, first.gap.count);
+        assertEquals(first.gap.p99Us, second.gap.p99Us);
+        assertEquals(first.gap.maxUs, second.gap.maxUs);
+        assertEquals(first.peakDecoders, second.peakDecoders);
+        assertEquals(first.virtualUs, second.virtualUs);
+    }
+
+    @Test
+    public void run_readyStandbyOnlyCostsFirstFrame() throws Exception {
+        FakePlayerEngine.Profile profile = new FakePlayerEngine.Profile();
+        profile.setPrepareLatency(Distribution.fixed(100000));
+        profile.setFirstFrameLatency(Distribution.fixed(20000));
+        profile.setClipDuration(Distribution.fixed(1000000));
+        SwitchGapSimulator.Report report = new SwitchGapSimulator(profile, 1, 1).run(50);
+
+        assertEquals(50, report.played);
+        assertEquals(0, report.stalls);
+        assertEquals(120000, report.startupUs);
+        assertEquals(20000, report.gap.maxUs);
+        // 当前、预备和正在释放的播放器
+        assertEquals(3, report.peakDecoders);
+    }
+
+    @Test
+    public void run_slowPrepareStallsSwitches() throws Exception {
+        FakePlayerEngine.Profile profile = new FakePlayerEngine.Profile();
+        profile.setPrepareLatency(Distribution.fixed(1500000));
+        profile.setFirstFrameLatency(Distribution.fixed(20000));
+        profile.setClipDuration(Distribution.fixed(1000000));
+        SwitchGapSimulator.Report report = new SwitchGapSimulator(profile, 1, 1).run(10);
+
+        assertEquals(9, report.stalls);
+        // 预备播放器在当前视频准备完成后才开始准备,当前视频结束时还差0.48秒
+        assertEquals(480000 + 20000, report.gap.p50Us, 20000);
+    }
+
+    @Test
+    public void decoderBudget_capsConcurrentDecoders() throws Exception {
+        SwitchGapSimulator simulator = new SwitchGapSimulator(flakyProfile(), 3, 7);
+        simulator.setDecoderCapacity(2);
+        SwitchGapSimulator.Report report = simulator.run(2000);
+
+        assertTrue("peak " + report.peakDecoders, report.peakDecoders <= 2);
+        assertEquals(2000 - report.prepareFailures, report.played);
+    }
+
+    @Test
+    public void justInTime_holdsFewerDecodersOnLongClips() throws Exception {
+        FakePlayerEngine.Profile profile = new FakePlayerEngine.Profile();
+        profile.setPrepareLatency(Distribution.logNormal(150000, 0.4));
+        profile.setClipDuration(Distribution.uniform(30000000, 60000000));
+        SwitchGapSimulator.Report eager = new SwitchGapSimulator(profile, 1, 3).run(500);
+        SwitchGapSimulator simulator = new SwitchGapSimulator(profile, 1, 3);
+        PrepareLeadEstimator estimator = new PrepareLeadEstimator();
+        simulator.setJustInTime(estimator);
+        SwitchGapSimulator.Report jit = simulator.run(500);
+
+        assertTrue("eager " + eager.meanDecoders, eager.meanDecoders > 1.9);
+        assertTrue("jit " + jit.meanDecoders, jit.meanDecoders < 1.1);
+        assertEquals(499, estimator.getSwitchCount());
+        assertTrue("late " + estimator.getLateCount(), estimator.getLateCount() <= 5);
+        assertEquals(estimator.getLateCount(), jit.stalls);
+        assertTrue(estimator.getLeadMs("clip-0") < PrepareLeadEstimator.DEFAULT_INITIAL_MS);
+    }
+}